@@ -100,6 +100,28 @@ public class QPCallParameter {
 		this.ssoCookie = ssoCookie;
 	}
 	
+	/**
+	 * Creates the parameter of a call not coming from a request, e.g. to replay a recorded query 
+	 * (see {@link com.qperior.gsa.oneboxprovider.cache.QPQueryHistory}).
+	 * 
+	 * @param apiMaj
+	 * @param apiMin
+	 * @param authType
+	 * @param lang
+	 * @param oneboxName
+	 * @param query
+	 */
+	public QPCallParameter(int apiMaj, int apiMin, QPAuthType authType, String lang, String oneboxName, String query) {
+		
+		this.apiMaj = apiMaj;
+		this.apiMin = apiMin;
+		this.authType = authType;
+		this.lang = lang;
+		this.oneboxName = oneboxName;
+		this.query = query;
+		this.matchGroups = new String[0];
+	}
+	
 	private QPAuthType validateAuthType(String requestParamName, HttpServletRequest request) throws QPRequestValidateException {
 		
 		if ( requestParamName != null && ! requestParamName.equals("")) {
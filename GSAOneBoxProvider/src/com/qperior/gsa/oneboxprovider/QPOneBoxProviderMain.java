@@ -16,17 +16,28 @@
  */
 package com.qperior.gsa.oneboxprovider;
 
+import java.lang.management.ManagementFactory;
 import java.net.JarURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 
+import com.qperior.gsa.oneboxprovider.util.QPProperties;
+
 /**
- * Dump the Version info from the Manifest for the Connector's JAR file.
- * This is set as the default main() for the JAR if running the jar 
- * stand-alone.  This makes it easy to dump the Connector's JAR Manifest
- * (including version and build info) simply by running the command:
- *   java -jar /path/to/connector-otex.jar
+ * Launches the OneBox provider standalone, without a servlet container: 
+ * starts a {@link QPStandaloneServer} serving the {@link QPOneBoxProviderServlet} 
+ * and reports the time from the start of the JVM until the server is listening 
+ * and until the first request is served.
+ * <pre>
+ *   java -cp &lt;classes and WEB-INF/lib&gt; com.qperior.gsa.oneboxprovider.QPOneBoxProviderMain [port]
+ * </pre>
+ * The port defaults to {@link QPProperties#getStandalonePort()}.
+ * <p>
+ * With the argument <code>-version</code> it dumps the Version info from the Manifest 
+ * for the JAR file, as before:
+ *   java -jar /path/to/connector-otex.jar -version
  */
 public class QPOneBoxProviderMain {
 	
@@ -35,27 +46,59 @@ public class QPOneBoxProviderMain {
 	 * @throws Exception
 	 */
 	public static void main(String[] args) throws Exception {
-	    // From our class, get the jar file URL to this class file, and
-	    // make our way to the the Manifest located in that jar file.
-	    Class<QPOneBoxProviderMain> thisClass = QPOneBoxProviderMain.class;
-	    String resName = "/" + thisClass.getName().replace('.', '/') + ".class";
-	
-	    // Locate the Jar file containing our class.
-	    URL url = thisClass.getResource(resName);
-	    JarURLConnection connection = (JarURLConnection) url.openConnection();
-	
-	    // Get the Manifest for our Jar and extract the Implementation-Title
-	    // and Implementation-Version.
-	    Manifest manifest = connection.getManifest();
-	    Attributes attrs = manifest.getMainAttributes();
-	    String name = attrs.getValue("Implementation-Title");
-	    if (name == null) {
-	      name = thisClass.getName();
-	    } else {
-	      name = name.replaceAll("[ \t\r\n][ \t\r\n]+", " ");
-	    }
-	    String version = attrs.getValue("Implementation-Version");
+		
+		if (args.length > 0 && "-version".equals(args[0])) {
+			System.out.println(getVersion());
+			return;
+		}
+		
+		long startTime = ManagementFactory.getRuntimeMXBean().getStartTime();
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : QPProperties.getStandalonePort();
+		System.out.println(getVersion());
+		
+		final QPStandaloneServer server = new QPStandaloneServer(port, QPProperties.getStandaloneContextPath(), startTime);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			
+			@Override
+			public void run() {
+				server.stop();
+			}
+		});
+		server.start();
+	}
 	
-	    System.out.println(name + " v" + version);
+	/**
+	 * Gets name and version from the Manifest of the JAR file, 
+	 * the class name if not running from a JAR.
+	 * 
+	 * @return String
+	 * @throws Exception
+	 */
+	private static String getVersion() throws Exception {
+		// From our class, get the jar file URL to this class file, and
+		// make our way to the the Manifest located in that jar file.
+		Class<QPOneBoxProviderMain> thisClass = QPOneBoxProviderMain.class;
+		String resName = "/" + thisClass.getName().replace('.', '/') + ".class";
+		
+		// Locate the Jar file containing our class.
+		URL url = thisClass.getResource(resName);
+		URLConnection connection = url.openConnection();
+		if (! (connection instanceof JarURLConnection)) {
+			return thisClass.getName() + " v" + QPProperties.getVersion();
+		}
+		
+		// Get the Manifest for our Jar and extract the Implementation-Title
+		// and Implementation-Version.
+		Manifest manifest = ((JarURLConnection) connection).getManifest();
+		Attributes attrs = manifest.getMainAttributes();
+		String name = attrs.getValue("Implementation-Title");
+		if (name == null) {
+			name = thisClass.getName();
+		} else {
+			name = name.replaceAll("[ \t\r\n][ \t\r\n]+", " ");
+		}
+		String version = attrs.getValue("Implementation-Version");
+		
+		return name + " v" + version;
 	}
 }
@@ -17,8 +17,10 @@
 package com.qperior.gsa.oneboxprovider;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -27,14 +29,28 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.logging.Log;
 
+import com.qperior.gsa.oneboxprovider.cache.QPCachedOneBoxResults;
+import com.qperior.gsa.oneboxprovider.monitoring.QPMonitorRegistry;
+import com.qperior.gsa.oneboxprovider.monitoring.QPReadiness;
 import com.qperior.gsa.oneboxprovider.provider.QPIProvider;
+import com.qperior.gsa.oneboxprovider.provider.QPIResultListener;
+import com.qperior.gsa.oneboxprovider.provider.QPProviderExecutor;
 import com.qperior.gsa.oneboxprovider.provider.QPProviderInvoker;
+import com.qperior.gsa.oneboxprovider.provider.QPProviderRegistry;
+import com.qperior.gsa.oneboxprovider.provider.QPResultFuture;
 import com.qperior.gsa.oneboxprovider.results.QPIOneBoxResults;
 import com.qperior.gsa.oneboxprovider.results.QPOneBoxResults;
 import com.qperior.gsa.oneboxprovider.results.QPResultCode;
+import com.qperior.gsa.oneboxprovider.security.QPAuthType;
 import com.qperior.gsa.oneboxprovider.security.QPISecurityProvider;
+import com.qperior.gsa.oneboxprovider.util.QPAsyncSupport;
+import com.qperior.gsa.oneboxprovider.util.QPClientRateLimiter;
+import com.qperior.gsa.oneboxprovider.util.QPConcurrencyLimiter;
+import com.qperior.gsa.oneboxprovider.util.QPConfigWatcher;
+import com.qperior.gsa.oneboxprovider.util.QPDeadline;
 import com.qperior.gsa.oneboxprovider.util.QPLogger;
 import com.qperior.gsa.oneboxprovider.util.QPProperties;
+import com.qperior.gsa.oneboxprovider.util.exception.QPOneBoxResultException;
 import com.qperior.gsa.oneboxprovider.util.exception.QPProviderException;
 import com.qperior.gsa.oneboxprovider.util.exception.QPRequestValidateException;
 
@@ -44,8 +60,24 @@ import com.qperior.gsa.oneboxprovider.util.exception.QPRequestValidateException;
  * Services GET method requests from OneBox clients by unpacking their
  * request parameter and delegating to one of the implemented
  * {@link QPIProvider} depending on configurated {@link QPProperties#getProvider()}.
+ * The provider are created and started once in {@link #init()} and kept in the {@link QPProviderRegistry}.
  * To invoke the provider it uses the {@link QPProviderInvoker}.
  * <p>
+ * If {@link QPProperties#isAsyncMode()} is set and the container supports Servlet 3.0,
+ * the request is processed asynchronously: the container thread is released while the 
+ * provider is working and the response is written when its {@link QPResultFuture} completes.
+ * This is also done, if the provider calls run on virtual threads (see {@link QPProviderExecutor#isVirtualThreads()}).
+ * <p>
+ * If {@link QPProperties#isConcurrencyLimit()} is set, the concurrently processed requests are limited 
+ * by a {@link QPConcurrencyLimiter}, rejected requests are answered with a serialized timeout result.
+ * If {@link QPProperties#isClientRateLimit()} is set, the calls per user and per IP address are limited 
+ * by a {@link QPClientRateLimiter}, calls over the limit are answered with a serialized securityFailure result.
+ * <p>
+ * If {@link QPProperties#getConfigReloadInterval()} is set, changed properties files are reloaded 
+ * by the {@link QPConfigWatcher}.
+ * If {@link QPProperties#isWarmup()} is set, the request pipeline is warmed up by a {@link QPWarmup} 
+ * after the provider are started, the application is not ready until it is done.
+ * <p>
  * Each provider need to implement the provider {@link QPIProvider} and 
  * the security {@link QPISecurityProvider} interface.
  * 
@@ -64,6 +96,138 @@ public class QPOneBoxProviderServlet extends HttpServlet
 	 */
 	protected String webAppBaseURL;
 	
+	/**
+	 * Registry with the started provider, created in {@link #init()}
+	 */
+	protected QPProviderRegistry registry;
+	
+	/**
+	 * Limit of the concurrently processed requests, <code>null</code> if not limited
+	 */
+	protected QPConcurrencyLimiter concurrencyLimiter;
+	
+	/**
+	 * Answer of rejected requests, serialized in {@link #init()}
+	 */
+	private QPIOneBoxResults rejectedResult;
+	
+	/**
+	 * Rate limit per user resp. IP address, <code>null</code> if not limited
+	 */
+	protected QPClientRateLimiter userRateLimiter;
+	protected QPClientRateLimiter ipRateLimiter;
+	
+	/**
+	 * Answer of calls over the rate limit, serialized in {@link #init()}
+	 */
+	private QPIOneBoxResults rateLimitedResult;
+	
+	/**
+	 * Warmup of the request pipeline, <code>null</code> if not configured
+	 */
+	private QPWarmup warmup;
+	
+	/**
+	 * Resolves and starts the configurated provider once, all requests share them.
+	 */
+	@Override
+	public void init() throws ServletException
+	{
+		try {
+			this.registry = QPProviderRegistry.createRegistry(QPProperties.getProvider(), QPProperties.getSecurityProvider());
+			this.registry.start();
+			this.getServletContext().setAttribute(QPProviderRegistry.CONTEXT_ATTRIBUTE, this.registry);
+			
+			if (QPProperties.isConcurrencyLimit()) {
+				this.concurrencyLimiter = new QPConcurrencyLimiter(QPProperties.getConcurrencyLimitInitial(), 
+						QPProperties.getConcurrencyLimitMin(), QPProperties.getConcurrencyLimitMax(), 
+						QPProperties.getConcurrencyLimitLatency(), QPProperties.getConcurrencyLimitBackoff(), 
+						QPProperties.getConcurrencyLimitQueueTimeout());
+				QPMonitorRegistry.register(this.concurrencyLimiter);
+				QPOneBoxResults rejected = new QPOneBoxResults();
+				rejected.setFailure(QPResultCode.timeout, "Too many requests.", 
+						this.registry.getProvider(this.registry.getDefaultProviderName()).getProviderName());
+				this.rejectedResult = new QPCachedOneBoxResults(rejected);
+			}
+			
+			if (QPProperties.isClientRateLimit()) {
+				if (QPProperties.getClientRateLimitUser() > 0) {
+					this.userRateLimiter = new QPClientRateLimiter("user", QPProperties.getClientRateLimitUser(), 
+							QPProperties.getClientRateLimitUserBurst(), QPProperties.getClientRateLimitMaxKeys(), 
+							QPProperties.getClientRateLimitIdleTime());
+					QPMonitorRegistry.register(this.userRateLimiter);
+				}
+				if (QPProperties.getClientRateLimitIp() > 0) {
+					this.ipRateLimiter = new QPClientRateLimiter("IP address", QPProperties.getClientRateLimitIp(), 
+							QPProperties.getClientRateLimitIpBurst(), QPProperties.getClientRateLimitMaxKeys(), 
+							QPProperties.getClientRateLimitIdleTime());
+					QPMonitorRegistry.register(this.ipRateLimiter);
+				}
+				QPOneBoxResults limited = new QPOneBoxResults();
+				limited.setFailure(QPResultCode.securityFailure, "Too many requests of the client.", 
+						this.registry.getProvider(this.registry.getDefaultProviderName()).getProviderName());
+				this.rateLimitedResult = new QPCachedOneBoxResults(limited);
+			}
+			
+			if (QPProperties.isWarmup()) {
+				this.warmup = new QPWarmup(this.registry, QPProperties.getWarmupIterations());
+				this.warmup.start();
+			}
+			QPConfigWatcher.start(QPProperties.getConfigReloadInterval());
+		}
+		catch (Exception exc) {
+			this.log.error("Error in initializing the provider registry.", exc);
+			throw new ServletException("Error in initializing the provider registry.", exc);
+		}
+		this.awaitCacheWarming();
+	}
+	
+	/**
+	 * Delays the end of init (and so the start of the application) until the cache is warmed 
+	 * to the ready fraction, at most {@link QPProperties#getCacheWarmingInitTimeout()}.
+	 */
+	private void awaitCacheWarming() {
+		
+		long timeout = QPProperties.getCacheWarmingInitTimeout();
+		if (this.registry.getCacheWarmer() == null || timeout <= 0) {
+			return;
+		}
+		try {
+			if (! QPReadiness.awaitReady(timeout)) {
+				this.log.warn("Result cache not warmed after " + timeout + " ms, starting anyway.");
+			}
+		}
+		catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Stops the provider and releases the executor of the asynchronous processing.
+	 */
+	@Override
+	public void destroy()
+	{
+		QPConfigWatcher.stop();
+		if (this.warmup != null) {
+			this.warmup.shutdown();
+		}
+		if (this.concurrencyLimiter != null) {
+			QPMonitorRegistry.unregister(this.concurrencyLimiter);
+		}
+		if (this.userRateLimiter != null) {
+			QPMonitorRegistry.unregister(this.userRateLimiter);
+		}
+		if (this.ipRateLimiter != null) {
+			QPMonitorRegistry.unregister(this.ipRateLimiter);
+		}
+		if (this.registry != null) {
+			this.getServletContext().removeAttribute(QPProviderRegistry.CONTEXT_ATTRIBUTE);
+			this.registry.stop();
+		}
+		QPProviderExecutor.shutdown();
+	}
+	
 	/**
 	 * Called by the application server's servlet runner when GET method
 	 * requests are made for this servlet.  OneBox clients (such as the
@@ -138,76 +302,270 @@ public class QPOneBoxProviderServlet extends HttpServlet
 		throws ServletException, IOException
 	{
 		QPIOneBoxResults res = null;
+		QPDeadline deadline = QPDeadline.after(QPProperties.getRequestTimeBudget());
 		
+		// read in the request parameter, the client rate limit is checked before taking a permit
+		QPCallParameter callParameter = null;
 		try {
-			try {				
-				// TODO: implement monitoring: JMX?
-				
-				// read in the request parameter
-				QPCallParameter callParameter = new QPCallParameter(request);
-				this.log.info("Servlet 1: " + callParameter.toString());			
-				
-				// get the invoker for the right provider
-		        QPProviderInvoker invoker = QPProviderInvoker.createProviderInvoker(QPProperties.getProvider(), QPProperties.getSecurityProvider(), callParameter);
-		        this.log.info("Servlet 2: " + invoker.toString());
-							
-				// AuthType has to be set, see constructor of QPCallParameter
-				if (invoker.getSecurityProvider().getActualAuthType() == null)
-				{
+			callParameter = new QPCallParameter(request);
+			this.log.info("Servlet 1: " + callParameter.toString());
+		}
+		// Exception in converting the request in callParameter
+		catch (QPRequestValidateException rve) {
+			res = new QPOneBoxResults();
+			this.log.error("Error in validating input parameter.", rve);
+			res.setFailure(QPResultCode.securityFailure,
+					"QPRequestValidateException: " + rve.getLocalizedMessage(),
+					"Provider not initialized.");
+			this.writeRejection(response, res);
+			return;
+		}
+		if (! this.isWithinRateLimit(callParameter, request)) {
+			this.log.warn("Client rate limit reached, rejecting the request of user " 
+					+ callParameter.getUserName() + " from " + callParameter.getIpAddr());
+			this.writeRejection(response, this.rateLimitedResult);
+			return;
+		}
+		
+		QPConcurrencyLimiter.Permit permit = null;
+		if (this.concurrencyLimiter != null) {
+			permit = this.concurrencyLimiter.acquire(deadline);
+			if (permit == null) {
+				this.log.warn("Concurrency limit reached, rejecting the request.");
+				this.writeRejection(response, this.rejectedResult);
+				return;
+			}
+		}
+		boolean async = false;
+		
+		try {
+			// TODO: implement monitoring: JMX?
+			
+			if (this.registry.getQueryHistory() != null) {
+				this.registry.getQueryHistory().record(callParameter);
+			}
+			
+			// get the invoker for the right provider
+	        QPProviderInvoker invoker = QPProviderInvoker.createProviderInvoker(this.registry, callParameter, deadline);
+	        this.log.info("Servlet 2: " + invoker.toString());
+						
+			// AuthType has to be set, see constructor of QPCallParameter
+			if (invoker.getSecurityProvider().getActualAuthType() == null)
+			{
+				res = new QPOneBoxResults();
+				this.log.error("User authentication type not recognized: "+ request.getParameter("authType"));
+				res.setFailure(QPResultCode.securityFailure,
+						"User authentication type not recognized: "+ request.getParameter("authType"), 
+						invoker.getProviderName());
+			}
+			else
+			{	
+				// AuthType has to be supported by the provider implementation
+				if (! invoker.getSecurityProvider().isActualAuthTypeSupported()) {
+					
 					res = new QPOneBoxResults();
-					this.log.error("User authentication type not recognized: "+ request.getParameter("authType"));
+					this.log.error("User authentication type not supported: "+ request.getParameter("authType"));
 					res.setFailure(QPResultCode.securityFailure,
-							"User authentication type not recognized: "+ request.getParameter("authType"), 
+							"User authentication type not supported: "+ request.getParameter("authType"),
 							invoker.getProviderName());
 				}
-				else
-				{	
-					// AuthType has to be supported by the provider implementation
-					if (! invoker.getSecurityProvider().isActualAuthTypeSupported()) {
-						
-						res = new QPOneBoxResults();
-						this.log.error("User authentication type not supported: "+ request.getParameter("authType"));
-						res.setFailure(QPResultCode.securityFailure,
-								"User authentication type not supported: "+ request.getParameter("authType"),
-								invoker.getProviderName());
+				else if ((QPProperties.isAsyncMode() || QPProviderExecutor.isVirtualThreads()) 
+						&& QPAsyncSupport.isAsyncSupported(request)) {
+					
+					// Invoke the provider asynchronously, the response is written by the listener
+					this.processRequestAsync(request, response, invoker, permit);
+					async = true;
+					return;
+				}
+				else {
+					
+					try {
+						// Invoke the provider
+				        res = invoker.invokeProvider();
+				        this.log.info("Servlet 3: " + res.toString());
 					}
-					else {
-						
-						try {
-							// Invoke the provider
-					        res = invoker.invokeProvider();
-					        this.log.info("Servlet 3: " + res.toString());
-						}
-						catch ( QPProviderException pe ) {
-							res = new QPOneBoxResults();
-							this.log.error("Exception in invoking the provider", pe);
-							res.setFailure(QPResultCode.lookupFailure,
-									"Exception in invoking the provider.",
-									invoker.getProviderName());
-						}
+					catch ( QPProviderException pe ) {
+						this.log.error("Exception in invoking the provider", pe);
+						res = this.createInvokeFailureResult(invoker);
 					}
 				}
 			}
-			// Exception in converting the request in callParameter
-			catch (QPRequestValidateException rve) {
-				res = new QPOneBoxResults();
-				this.log.error("Error in validating input parameter.", rve);
-				res.setFailure(QPResultCode.securityFailure,
-						"QPRequestValidateException: " + rve.getLocalizedMessage(),
-						"Provider not initialized.");
-			}	
 		
-			// Defines response MIME type
-			response.setContentType("text/xml");
-			// Write response back as XML string
-			PrintWriter out = response.getWriter();
-			String resString = res.toXMLString();
-			out.print(resString);
-			this.log.info("Servlet 4: " + resString);
-			out.close();
+			this.writeResponse(response, res);
 		}
 		catch (Exception exc ) {
 			this.log.error("Unhandled exception in servlet. ", exc);
 		}
+		finally {
+			if (permit != null && ! async) {
+				permit.release();
+			}
+		}
+	}
+	
+	/**
+	 * Writes the result of a request rejected before the provider is invoked.
+	 */
+	private void writeRejection(HttpServletResponse response, QPIOneBoxResults res) {
+		
+		try {
+			this.writeResponse(response, res);
+		}
+		catch (Exception exc) {
+			this.log.error("Unhandled exception in servlet. ", exc);
+		}
+	}
+	
+	/**
+	 * Takes a call of the user and of the IP address from the rate limits.
+	 * Only the names of basic and ldap users are limited, with sso the user name is the name 
+	 * of the cookie shared by all users. Without the IP address of the user the address of 
+	 * the client (the GSA) is limited.
+	 * 
+	 * @param callParameter
+	 * @param request
+	 * @return boolean true, if the call is within the limits or they are not set
+	 */
+	private boolean isWithinRateLimit(QPCallParameter callParameter, HttpServletRequest request) {
+		
+		QPAuthType authType = callParameter.getAuthType();
+		if (this.userRateLimiter != null && authType != null && (authType.isAuthTypeBasic() || authType.isAuthTypeLDAP())
+				&& ! this.userRateLimiter.tryAcquire(callParameter.getUserName())) {
+			return false;
+		}
+		if (this.ipRateLimiter == null) {
+			return true;
+		}
+		String ipAddr = callParameter.getIpAddr();
+		if (ipAddr == null || ipAddr.length() == 0) {
+			ipAddr = request.getRemoteAddr();
+		}
+		return this.ipRateLimiter.tryAcquire(ipAddr);
+	}
+	
+	/**
+	 * Puts the request into asynchronous mode and invokes the provider. The container thread
+	 * returns immediately, the response is written and completed by the thread finishing the 
+	 * provider call, or by the container thread signalling the timeout or an error of the request, 
+	 * whichever comes first.
+	 * 
+	 * @param request
+	 * @param response
+	 * @param invoker
+	 * @param permit slot of the concurrency limit released after writing the response, might be null
+	 */
+	private void processRequestAsync(HttpServletRequest request, final HttpServletResponse response, 
+			final QPProviderInvoker invoker, final QPConcurrencyLimiter.Permit permit)
+	{
+		final QPAsyncSupport asyncContext = QPAsyncSupport.startAsync(request, QPProperties.getAsyncTimeout());
+		final AtomicBoolean finished = new AtomicBoolean();
+		
+		class Finisher implements QPIResultListener, QPAsyncSupport.Listener {
+			
+			@Override
+			public void resultAvailable(QPIOneBoxResults results) {
+				
+				log.info("Servlet 3: " + results.toString());
+				this.finish(results);
+			}
+			
+			@Override
+			public void resultFailed(Throwable cause) {
+				
+				log.error("Exception in invoking the provider", cause);
+				this.finish(createInvokeFailureResult(invoker));
+			}
+			
+			@Override
+			public void onTimeout() {
+				
+				log.error("Timeout of the asynchronous request, the provider is still working.");
+				this.finish(createAsyncTimeoutResult(invoker));
+			}
+			
+			@Override
+			public void onError(Throwable cause) {
+				
+				log.error("Error in the asynchronous request.", cause);
+				this.finish(createInvokeFailureResult(invoker));
+			}
+			
+			/**
+			 * Only the first of the provider, the timeout and the error writes the response.
+			 */
+			private void finish(QPIOneBoxResults results) {
+				
+				if (! finished.compareAndSet(false, true)) {
+					return;
+				}
+				try {
+					writeResponse(response, results);
+				} catch (Exception exc) {
+					log.error("Unhandled exception in servlet. ", exc);
+				} finally {
+					asyncContext.complete();
+					if (permit != null) {
+						permit.release();
+					}
+				}
+			}
+		}
+		
+		Finisher finisher = new Finisher();
+		asyncContext.addListener(finisher);
+		invoker.invokeProviderAsync().addListener(finisher);
+	}
+	
+	/**
+	 * Creates the result if the asynchronous request timed out before the provider answered.
+	 * 
+	 * @param invoker
+	 * @return QPIOneBoxResults
+	 */
+	private QPIOneBoxResults createAsyncTimeoutResult(QPProviderInvoker invoker) {
+		
+		QPIOneBoxResults res = new QPOneBoxResults();
+		res.setFailure(QPResultCode.timeout,
+				"Timeout in invoking the provider.",
+				invoker.getProviderName());
+		return res;
+	}
+	
+	/**
+	 * Creates the result if the provider could not be invoked.
+	 * 
+	 * @param invoker
+	 * @return QPIOneBoxResults
+	 */
+	private QPIOneBoxResults createInvokeFailureResult(QPProviderInvoker invoker) {
+		
+		QPIOneBoxResults res = new QPOneBoxResults();
+		res.setFailure(QPResultCode.lookupFailure,
+				"Exception in invoking the provider.",
+				invoker.getProviderName());
+		return res;
+	}
+	
+	/**
+	 * Writes the results as UTF-8 encoded XML directly to the response stream.
+	 * 
+	 * @param response
+	 * @param res
+	 * @throws IOException
+	 * @throws QPOneBoxResultException
+	 */
+	private void writeResponse(HttpServletResponse response, QPIOneBoxResults res) 
+		throws IOException, QPOneBoxResultException
+	{
+		// Defines response MIME type
+		response.setContentType("text/xml; charset=UTF-8");
+		// Stream response back as XML
+		OutputStream out = response.getOutputStream();
+		res.writeTo(out);
+		this.log.info("Servlet 4: " + res.toString());
+		if (this.log.isDebugEnabled()) {
+			this.log.debug("Servlet 4: " + res.toXMLString());
+		}
+		out.close();
 	}
 }
@@ -0,0 +1,439 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+
+import com.qperior.gsa.oneboxprovider.provider.QPProviderExecutor;
+import com.qperior.gsa.oneboxprovider.util.QPLogger;
+import com.qperior.gsa.oneboxprovider.util.QPProperties;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the {@link QPOneBoxProviderServlet} without a servlet container, on the lightweight 
+ * NIO HTTP server of the JDK (<code>com.sun.net.httpserver</code>).
+ * <p>
+ * The servlet is initialized once in {@link #start()}, so the configuration is read, the provider 
+ * are started and the cache is warmed before the first request. Each exchange is handed to 
+ * {@link QPOneBoxProviderServlet#doGet(HttpServletRequest, HttpServletResponse)} through a minimal 
+ * request and response (dynamic proxies of the servlet interfaces, only the methods used by the 
+ * provider are implemented); the requests are processed synchronously on the threads of the server, 
+ * on virtual threads if the provider calls do (see {@link QPProviderExecutor#isVirtualThreads()}).
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPStandaloneServer implements HttpHandler {
+	
+	private Log log = QPLogger.getLogger(this.getClass());
+	
+	private final int port;
+	private final String contextPath;
+	private final long startTime;
+	
+	private final QPOneBoxProviderServlet servlet = new QPOneBoxProviderServlet();
+	private final Map<String, Object> contextAttributes = Collections.synchronizedMap(new HashMap<String, Object>());
+	private final AtomicBoolean firstRequest = new AtomicBoolean(true);
+	
+	private HttpServer server;
+	private ExecutorService executor;
+	
+	/**
+	 * 
+	 * @param port port to listen on
+	 * @param contextPath context path of the servlet, e.g. "/GSAOneBoxProvider"
+	 * @param startTime time in milliseconds the launch began, the startup time is measured from it
+	 */
+	public QPStandaloneServer(int port, String contextPath, long startTime) {
+		
+		this.port = port;
+		this.contextPath = contextPath.endsWith("/") ? contextPath.substring(0, contextPath.length() - 1) : contextPath;
+		this.startTime = startTime;
+	}
+	
+	/**
+	 * Initializes the servlet and starts listening.
+	 * 
+	 * @throws Exception
+	 */
+	public void start() throws Exception {
+		
+		this.servlet.init(this.createServletConfig());
+		long initialized = System.currentTimeMillis();
+		
+		this.server = HttpServer.create(new InetSocketAddress(this.port), 0);
+		this.server.createContext(this.contextPath + "/QPOneBoxProviderServlet", this);
+		this.executor = QPProviderExecutor.isVirtualThreads() ? QPProviderExecutor.createVirtualThreadExecutor() : null;
+		if (this.executor == null) {
+			this.executor = Executors.newFixedThreadPool(QPProperties.getStandaloneThreads(), 
+					QPProviderExecutor.createThreadFactory("QPStandalone-"));
+		}
+		this.server.setExecutor(this.executor);
+		this.server.start();
+		
+		this.log.info("OneBox provider listening on http://localhost:" + this.getPort() + this.contextPath 
+				+ "/QPOneBoxProviderServlet, started in " + (System.currentTimeMillis() - this.startTime) 
+				+ " ms (servlet initialized in " + (initialized - this.startTime) + " ms).");
+	}
+	
+	/**
+	 * Stops listening and destroys the servlet.
+	 */
+	public void stop() {
+		
+		if (this.server != null) {
+			this.server.stop(1);
+			this.executor.shutdown();
+			this.server = null;
+		}
+		this.servlet.destroy();
+	}
+	
+	/**
+	 * Port the server listens on (the bound one, if started with port 0).
+	 * 
+	 * @return int
+	 */
+	public int getPort() {
+		
+		return this.server != null ? this.server.getAddress().getPort() : this.port;
+	}
+	
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		
+		Response response = new Response(exchange.getResponseHeaders());
+		try {
+			HttpServletRequest servletRequest = this.createRequest(exchange);
+			HttpServletResponse servletResponse = (HttpServletResponse) Proxy.newProxyInstance(
+					HttpServletResponse.class.getClassLoader(), new Class<?>[] { HttpServletResponse.class }, response);
+			if ("GET".equals(exchange.getRequestMethod())) {
+				this.servlet.doGet(servletRequest, servletResponse);
+			}
+			else {
+				this.servlet.doPost(servletRequest, servletResponse);
+			}
+		}
+		catch (Exception exc) {
+			this.log.error("Unhandled exception in standalone server.", exc);
+			response.status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+		}
+		
+		byte[] body = response.getBody();
+		if (response.contentType != null) {
+			exchange.getResponseHeaders().set("Content-Type", response.contentType);
+		}
+		exchange.sendResponseHeaders(response.status, body.length > 0 ? body.length : -1);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+		
+		if (this.firstRequest.compareAndSet(true, false)) {
+			this.log.info("First request served " + (System.currentTimeMillis() - this.startTime) + " ms after the launch.");
+		}
+	}
+	
+	private ServletConfig createServletConfig() {
+		
+		final ServletContext context = (ServletContext) Proxy.newProxyInstance(ServletContext.class.getClassLoader(), 
+				new Class<?>[] { ServletContext.class }, new InvocationHandler() {
+					
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				
+				String name = method.getName();
+				if ("getAttribute".equals(name)) {
+					return contextAttributes.get(args[0]);
+				}
+				if ("setAttribute".equals(name)) {
+					contextAttributes.put((String) args[0], args[1]);
+					return null;
+				}
+				if ("removeAttribute".equals(name)) {
+					contextAttributes.remove(args[0]);
+					return null;
+				}
+				if ("getContextPath".equals(name)) {
+					return contextPath;
+				}
+				if ("getInitParameter".equals(name)) {
+					return null;
+				}
+				if ("log".equals(name)) {
+					log.info(args[0]);
+					return null;
+				}
+				return unsupported(proxy, method, args);
+			}
+		});
+		return (ServletConfig) Proxy.newProxyInstance(ServletConfig.class.getClassLoader(), 
+				new Class<?>[] { ServletConfig.class }, new InvocationHandler() {
+			
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				
+				String name = method.getName();
+				if ("getServletContext".equals(name)) {
+					return context;
+				}
+				if ("getServletName".equals(name)) {
+					return QPOneBoxProviderServlet.class.getSimpleName();
+				}
+				if ("getInitParameter".equals(name)) {
+					return null;
+				}
+				if ("getInitParameterNames".equals(name)) {
+					return Collections.enumeration(Collections.<String>emptyList());
+				}
+				return unsupported(proxy, method, args);
+			}
+		});
+	}
+	
+	private HttpServletRequest createRequest(final HttpExchange exchange) throws UnsupportedEncodingException {
+		
+		final Map<String, List<String>> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+		
+		return (HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(), 
+				new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+			
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				
+				String name = method.getName();
+				if ("getParameter".equals(name)) {
+					List<String> values = parameters.get(args[0]);
+					return values != null ? values.get(0) : null;
+				}
+				if ("getParameterValues".equals(name)) {
+					List<String> values = parameters.get(args[0]);
+					return values != null ? values.toArray(new String[values.size()]) : null;
+				}
+				if ("getParameterNames".equals(name)) {
+					return Collections.enumeration(parameters.keySet());
+				}
+				if ("getHeader".equals(name)) {
+					return exchange.getRequestHeaders().getFirst((String) args[0]);
+				}
+				if ("getHeaderNames".equals(name)) {
+					return Collections.enumeration(exchange.getRequestHeaders().keySet());
+				}
+				if ("getCookies".equals(name)) {
+					return parseCookies(exchange.getRequestHeaders().get("Cookie"));
+				}
+				if ("getMethod".equals(name)) {
+					return exchange.getRequestMethod();
+				}
+				if ("getScheme".equals(name)) {
+					return "http";
+				}
+				if ("getServerName".equals(name)) {
+					return exchange.getLocalAddress().getHostName();
+				}
+				if ("getServerPort".equals(name)) {
+					return Integer.valueOf(exchange.getLocalAddress().getPort());
+				}
+				if ("getContextPath".equals(name)) {
+					return contextPath;
+				}
+				if ("getRequestURI".equals(name)) {
+					return exchange.getRequestURI().getRawPath();
+				}
+				if ("getQueryString".equals(name)) {
+					return exchange.getRequestURI().getRawQuery();
+				}
+				if ("getRemoteAddr".equals(name)) {
+					return exchange.getRemoteAddress().getAddress().getHostAddress();
+				}
+				if ("isAsyncSupported".equals(name)) {
+					return Boolean.FALSE;
+				}
+				if ("getAttribute".equals(name) || "getCharacterEncoding".equals(name)) {
+					return null;
+				}
+				return unsupported(proxy, method, args);
+			}
+		});
+	}
+	
+	private static Map<String, List<String>> parseQuery(String query) throws UnsupportedEncodingException {
+		
+		Map<String, List<String>> parameters = new LinkedHashMap<String, List<String>>();
+		if (query == null) {
+			return parameters;
+		}
+		for (String pair : query.split("&")) {
+			if (pair.length() == 0) {
+				continue;
+			}
+			int index = pair.indexOf('=');
+			String name = URLDecoder.decode(index < 0 ? pair : pair.substring(0, index), "UTF-8");
+			String value = index < 0 ? "" : URLDecoder.decode(pair.substring(index + 1), "UTF-8");
+			List<String> values = parameters.get(name);
+			if (values == null) {
+				values = new ArrayList<String>(1);
+				parameters.put(name, values);
+			}
+			values.add(value);
+		}
+		return parameters;
+	}
+	
+	private static Cookie[] parseCookies(List<String> headers) {
+		
+		if (headers == null) {
+			return null;
+		}
+		List<Cookie> cookies = new ArrayList<Cookie>();
+		for (String header : headers) {
+			for (String pair : header.split(";")) {
+				int index = pair.indexOf('=');
+				if (index > 0) {
+					String value = pair.substring(index + 1).trim();
+					if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+						value = value.substring(1, value.length() - 1);
+					}
+					try {
+						cookies.add(new Cookie(pair.substring(0, index).trim(), value));
+					} catch (IllegalArgumentException exc) {
+						// reserved or invalid name, skipped
+					}
+				}
+			}
+		}
+		return cookies.toArray(new Cookie[cookies.size()]);
+	}
+	
+	private static Object unsupported(Object proxy, Method method, Object[] args) {
+		
+		if ("toString".equals(method.getName())) {
+			return proxy.getClass().getInterfaces()[0].getSimpleName();
+		}
+		if ("hashCode".equals(method.getName())) {
+			return Integer.valueOf(System.identityHashCode(proxy));
+		}
+		if ("equals".equals(method.getName())) {
+			return Boolean.valueOf(proxy == args[0]);
+		}
+		throw new UnsupportedOperationException(method.getName() + " is not supported by the standalone server.");
+	}
+	
+	/**
+	 * Response collecting the status, the headers and the body written by the servlet.
+	 */
+	private static class Response implements InvocationHandler {
+		
+		private final Headers headers;
+		private int status = HttpServletResponse.SC_OK;
+		private String contentType;
+		private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(4096);
+		private PrintWriter writer;
+		
+		Response(Headers headers) {
+			
+			this.headers = headers;
+		}
+		
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			
+			String name = method.getName();
+			if ("setContentType".equals(name)) {
+				this.contentType = (String) args[0];
+				return null;
+			}
+			if ("getOutputStream".equals(name)) {
+				return new ServletOutputStream() {
+					
+					@Override
+					public void write(int b) {
+						buffer.write(b);
+					}
+					
+					@Override
+					public void write(byte[] b, int off, int len) {
+						buffer.write(b, off, len);
+					}
+				};
+			}
+			if ("getWriter".equals(name)) {
+				if (this.writer == null) {
+					this.writer = new PrintWriter(new OutputStreamWriter(this.buffer, "UTF-8"));
+				}
+				return this.writer;
+			}
+			if ("setStatus".equals(name) || "sendError".equals(name)) {
+				this.status = ((Integer) args[0]).intValue();
+				return null;
+			}
+			if ("setHeader".equals(name)) {
+				this.headers.set((String) args[0], (String) args[1]);
+				return null;
+			}
+			if ("addHeader".equals(name)) {
+				this.headers.add((String) args[0], (String) args[1]);
+				return null;
+			}
+			if ("setCharacterEncoding".equals(name) || "flushBuffer".equals(name)) {
+				return null;
+			}
+			if ("isCommitted".equals(name)) {
+				return Boolean.FALSE;
+			}
+			return unsupported(proxy, method, args);
+		}
+		
+		byte[] getBody() {
+			
+			if (this.writer != null) {
+				this.writer.flush();
+			}
+			return this.buffer.toByteArray();
+		}
+	}
+}
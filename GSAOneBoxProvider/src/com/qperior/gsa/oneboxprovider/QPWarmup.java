@@ -0,0 +1,159 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.logging.Log;
+
+import com.qperior.gsa.oneboxprovider.cache.QPCacheKey;
+import com.qperior.gsa.oneboxprovider.cache.QPCachedOneBoxResults;
+import com.qperior.gsa.oneboxprovider.monitoring.QPReadiness;
+import com.qperior.gsa.oneboxprovider.provider.QPIProvider;
+import com.qperior.gsa.oneboxprovider.provider.QPProviderExecutor;
+import com.qperior.gsa.oneboxprovider.provider.QPProviderInvoker;
+import com.qperior.gsa.oneboxprovider.provider.QPProviderRegistry;
+import com.qperior.gsa.oneboxprovider.results.QPOneBoxResults;
+import com.qperior.gsa.oneboxprovider.results.QPResultCode;
+import com.qperior.gsa.oneboxprovider.util.QPLogger;
+
+/**
+ * Warms up the request pipeline after the start, so the first requests are not slowed down 
+ * by loading classes, static initializers and the cold JIT: a synthetic request is parsed into 
+ * {@link QPCallParameter}, the {@link QPProviderInvoker} is created and a result is serialized 
+ * to XML, repeated for the configured iterations; then the provider warms up its own parts 
+ * (see {@link QPIProvider#warmup(int)}, e.g. the JSON conversion and the connections to the backend).
+ * The backend is not called.
+ * <p>
+ * The warmup runs in the background; until it is done, the condition {@link #READINESS_NAME} 
+ * is pending in {@link QPReadiness}.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPWarmup implements Runnable {
+	
+	/**
+	 * Name of the readiness condition
+	 */
+	public static final String READINESS_NAME = "warmup";
+	
+	private Log log = QPLogger.getLogger(this.getClass());
+	
+	private final QPProviderRegistry registry;
+	private final int iterations;
+	
+	private volatile boolean stopped;
+	
+	/**
+	 * 
+	 * @param registry started registry
+	 * @param iterations how often the pipeline is run
+	 */
+	public QPWarmup(QPProviderRegistry registry, int iterations) {
+		
+		this.registry = registry;
+		this.iterations = Math.max(iterations, 1);
+	}
+	
+	/**
+	 * Starts the warmup in the background, the application is not ready until it is done.
+	 */
+	public void start() {
+		
+		QPReadiness.setPending(READINESS_NAME);
+		QPProviderExecutor.createThreadFactory("QPWarmup-").newThread(this).start();
+	}
+	
+	/**
+	 * Stops the warmup, the readiness condition is removed.
+	 */
+	public void shutdown() {
+		
+		this.stopped = true;
+		QPReadiness.setReady(READINESS_NAME);
+	}
+	
+	@Override
+	public void run() {
+		
+		long start = System.currentTimeMillis();
+		try {
+			HttpServletRequest request = createRequest();
+			for (int i = 0; i < this.iterations && ! this.stopped; i++) {
+				QPCallParameter callParameter = new QPCallParameter(request);
+				QPCacheKey.create(callParameter);
+				QPProviderInvoker invoker = QPProviderInvoker.createProviderInvoker(this.registry, callParameter);
+				invoker.getSecurityProvider().isActualAuthTypeSupported();
+				
+				QPOneBoxResults results = new QPOneBoxResults();
+				results.setFailure(QPResultCode.lookupFailure, "Warmup.", invoker.getProviderName());
+				results.writeTo(new ByteArrayOutputStream());
+				new QPCachedOneBoxResults(results);
+			}
+			if (! this.stopped) {
+				this.registry.getProvider(this.registry.getDefaultProviderName()).warmup(this.iterations);
+			}
+			this.log.info("Warmup with " + this.iterations + " iterations done in " 
+					+ (System.currentTimeMillis() - start) + " ms.");
+		} catch (Exception exc) {
+			this.log.warn("Error in the warmup, starting anyway.", exc);
+		} finally {
+			QPReadiness.setReady(READINESS_NAME);
+		}
+	}
+	
+	/**
+	 * A request with the parameter of a search appliance call, only the methods used 
+	 * in parsing the parameter are implemented.
+	 */
+	private static HttpServletRequest createRequest() {
+		
+		final Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put("apiMaj", "1");
+		parameters.put("apiMin", "1");
+		parameters.put("authType", "none");
+		parameters.put("lang", "en");
+		parameters.put("oneboxName", "warmup");
+		parameters.put("query", "warmup");
+		parameters.put("userName", "warmup");
+		parameters.put("ipAddr", "127.0.0.1");
+		
+		return (HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(), 
+				new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+			
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				
+				if ("getParameter".equals(method.getName())) {
+					return parameters.get(args[0]);
+				}
+				if ("toString".equals(method.getName())) {
+					return "Warmup request";
+				}
+				return null;
+			}
+		});
+	}
+}
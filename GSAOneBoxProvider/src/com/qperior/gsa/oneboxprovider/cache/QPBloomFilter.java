@@ -0,0 +1,114 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Compact, thread-safe Bloom filter for strings: {@link #mightContain(String)} has no false negatives 
+ * and about the configured rate of false positives as long as no more than the expected keys are added.
+ * The bits are set lock-free, entries cannot be removed; create a new filter instead.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPBloomFilter {
+	
+	private final AtomicLongArray bits;
+	private final long numberOfBits;
+	private final int numberOfHashes;
+	
+	/**
+	 * 
+	 * @param expectedKeys number of keys expected to be added
+	 * @param falsePositiveRate e.g. 0.01
+	 */
+	public QPBloomFilter(int expectedKeys, double falsePositiveRate) {
+		
+		long n = Math.max(expectedKeys, 1);
+		long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		m = Math.max(64L, (m + 63L) & ~63L);
+		this.bits = new AtomicLongArray((int) (m >>> 6));
+		this.numberOfBits = m;
+		this.numberOfHashes = Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+	}
+	
+	/**
+	 * Adds the key.
+	 * 
+	 * @param key
+	 */
+	public void put(String key) {
+		
+		long hash = hash(key);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for ( int i = 1; i <= this.numberOfHashes; i++ ) {
+			long index = this.index(h1 + i * h2);
+			int word = (int) (index >>> 6);
+			long mask = 1L << index;
+			long value;
+			do {
+				value = this.bits.get(word);
+				if ( (value & mask) != 0 ) {
+					break;
+				}
+			} while ( ! this.bits.compareAndSet(word, value, value | mask) );
+		}
+	}
+	
+	/**
+	 * Was the key (probably) added?
+	 * 
+	 * @param key
+	 * @return false, if the key was definitely not added
+	 */
+	public boolean mightContain(String key) {
+		
+		long hash = hash(key);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for ( int i = 1; i <= this.numberOfHashes; i++ ) {
+			long index = this.index(h1 + i * h2);
+			if ( (this.bits.get((int) (index >>> 6)) & (1L << index)) == 0 ) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private long index(int combinedHash) {
+		
+		return (combinedHash & 0x7fffffffL) % this.numberOfBits;
+	}
+	
+	/**
+	 * 64 bit FNV-1a hash of the characters with a final mixing step.
+	 */
+	private static long hash(String key) {
+		
+		long hash = 0xcbf29ce484222325L;
+		for ( int i = 0; i < key.length(); i++ ) {
+			hash ^= key.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
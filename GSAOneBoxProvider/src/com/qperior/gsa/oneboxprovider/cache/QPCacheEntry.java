@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.cache;
+
+/**
+ * Entry of the {@link QPResultCache}: the serialized results with creation and expiry time.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPCacheEntry {
+	
+	private final QPCacheKey key;
+	private final QPCachedOneBoxResults results;
+	private final long created;
+	private final long expires;
+	
+	/**
+	 * 
+	 * @param key
+	 * @param results
+	 * @param created time in milliseconds
+	 * @param expires time in milliseconds
+	 */
+	public QPCacheEntry(QPCacheKey key, QPCachedOneBoxResults results, long created, long expires) {
+		
+		this.key = key;
+		this.results = results;
+		this.created = created;
+		this.expires = expires;
+	}
+	
+	/**
+	 * 
+	 * @return QPCacheKey
+	 */
+	public QPCacheKey getKey() {
+		return this.key;
+	}
+	
+	/**
+	 * 
+	 * @return QPCachedOneBoxResults
+	 */
+	public QPCachedOneBoxResults getResults() {
+		return this.results;
+	}
+	
+	/**
+	 * Creation time in milliseconds.
+	 * 
+	 * @return long
+	 */
+	public long getCreated() {
+		return this.created;
+	}
+	
+	/**
+	 * Expiry time in milliseconds.
+	 * 
+	 * @return long
+	 */
+	public long getExpires() {
+		return this.expires;
+	}
+	
+	/**
+	 * 
+	 * @param now time in milliseconds
+	 * @return boolean
+	 */
+	public boolean isExpired(long now) {
+		return now >= this.expires;
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.cache;
+
+import java.util.Locale;
+
+import com.qperior.gsa.oneboxprovider.QPCallParameter;
+import com.qperior.gsa.oneboxprovider.security.QPAuthType;
+
+/**
+ * Key of a cached OneBox result: the normalized query and the call parameter 
+ * changing the result (OneBox name, language, authentication type and user).
+ * <p>
+ * The query is trimmed, lower-cased and whitespace is collapsed, so "Jive  Benefits" 
+ * and "jive benefits" share one entry. Only calls without user-level access control 
+ * (authType none) are cached, all users share their entry: the user name of the other 
+ * authentication types is not verified by the provider (and for sso it is only the cookie name), 
+ * so it cannot scope an entry to a user.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public final class QPCacheKey {
+	
+	private final String query;
+	private final String oneboxName;
+	private final String lang;
+	private final String authType;
+	private final String userScope;
+	
+	private final int hash;
+	
+	/**
+	 * 
+	 * @param query normalized query
+	 * @param oneboxName
+	 * @param lang
+	 * @param authType
+	 * @param userScope user name or empty string
+	 */
+	public QPCacheKey(String query, String oneboxName, String lang, String authType, String userScope) {
+		
+		this.query = nullToEmpty(query);
+		this.oneboxName = nullToEmpty(oneboxName);
+		this.lang = nullToEmpty(lang).toLowerCase(Locale.ENGLISH);
+		this.authType = nullToEmpty(authType);
+		this.userScope = nullToEmpty(userScope);
+		
+		int h = this.query.hashCode();
+		h = 31 * h + this.oneboxName.hashCode();
+		h = 31 * h + this.lang.hashCode();
+		h = 31 * h + this.authType.hashCode();
+		h = 31 * h + this.userScope.hashCode();
+		this.hash = h;
+	}
+	
+	/**
+	 * Creates the key of the call.
+	 * 
+	 * @param callParameter
+	 * @return QPCacheKey or null, if the call is not cacheable
+	 */
+	public static QPCacheKey create(QPCallParameter callParameter) {
+		
+		if ( ! isCacheable(callParameter) ) {
+			return null;
+		}
+		return new QPCacheKey(normalizeQuery(callParameter.getQuery()), callParameter.getOneboxName(), 
+				callParameter.getLang(), callParameter.getAuthType().getName(), "");
+	}
+	
+	/**
+	 * Only the results of calls without user-level access control (authType none) may be 
+	 * cached or shared between calls.
+	 * 
+	 * @param callParameter
+	 * @return boolean
+	 */
+	public static boolean isCacheable(QPCallParameter callParameter) {
+		
+		QPAuthType authType = callParameter.getAuthType();
+		return authType != null && authType.isAuthTypeNone();
+	}
+	
+	/**
+	 * Trims and lower-cases the query and collapses whitespace to one blank.
+	 * 
+	 * @param query
+	 * @return String
+	 */
+	public static String normalizeQuery(String query) {
+		
+		if ( query == null ) {
+			return "";
+		}
+		StringBuilder builder = new StringBuilder(query.length());
+		boolean blank = false;
+		for ( int i = 0; i < query.length(); i++ ) {
+			char c = query.charAt(i);
+			if ( Character.isWhitespace(c) ) {
+				blank = builder.length() > 0;
+			}
+			else {
+				if ( blank ) {
+					builder.append(' ');
+					blank = false;
+				}
+				builder.append(c);
+			}
+		}
+		return builder.toString().toLowerCase(Locale.ENGLISH);
+	}
+	
+	private static String nullToEmpty(String value) {
+		return value == null ? "" : value;
+	}
+	
+	/**
+	 * 
+	 * @return String
+	 */
+	public String getQuery() {
+		return this.query;
+	}
+	
+	/**
+	 * 
+	 * @return String
+	 */
+	public String getOneboxName() {
+		return this.oneboxName;
+	}
+	
+	/**
+	 * 
+	 * @return String
+	 */
+	public String getLang() {
+		return this.lang;
+	}
+	
+	/**
+	 * 
+	 * @return String
+	 */
+	public String getAuthType() {
+		return this.authType;
+	}
+	
+	/**
+	 * 
+	 * @return String
+	 */
+	public String getUserScope() {
+		return this.userScope;
+	}
+
+	@Override
+	public int hashCode() {
+		return this.hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		
+		if ( this == obj ) {
+			return true;
+		}
+		if ( ! (obj instanceof QPCacheKey) ) {
+			return false;
+		}
+		QPCacheKey other = (QPCacheKey) obj;
+		return this.hash == other.hash 
+				&& this.query.equals(other.query)
+				&& this.oneboxName.equals(other.oneboxName)
+				&& this.lang.equals(other.lang)
+				&& this.authType.equals(other.authType)
+				&& this.userScope.equals(other.userScope);
+	}
+
+	@Override
+	public String toString() {
+		
+		return this.oneboxName + "/" + this.lang + "/" + this.authType + 
+				(this.userScope.length() > 0 ? "/" + this.userScope : "") + ": " + this.query;
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.cache;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+
+import com.qperior.gsa.oneboxprovider.QPCallParameter;
+import com.qperior.gsa.oneboxprovider.monitoring.QPIMonitorable;
+import com.qperior.gsa.oneboxprovider.provider.QPProviderExecutor;
+import com.qperior.gsa.oneboxprovider.provider.QPProviderInvoker;
+import com.qperior.gsa.oneboxprovider.provider.QPProviderRegistry;
+import com.qperior.gsa.oneboxprovider.results.QPIOneBoxResults;
+import com.qperior.gsa.oneboxprovider.security.QPAuthType;
+import com.qperior.gsa.oneboxprovider.util.QPLogger;
+import com.qperior.gsa.oneboxprovider.util.QPTokenBucket;
+
+/**
+ * Prefetches popular results shortly before they expire, so popular queries do not miss.
+ * <p>
+ * A background thread of minimum priority looks periodically for entries of the {@link QPResultCache} 
+ * expiring within the lead time which were requested at least the minimum number of times recently 
+ * (estimated by the frequency sketch of the cache), and refreshes the most popular ones through 
+ * the {@link QPProviderInvoker}. Only entries without user-level access control (authType none) are 
+ * prefetched, no credentials are kept. Each prefetch needs a token of the provider budget 
+ * ({@link QPProviderRegistry#getProviderBudget()}), which live calls take first, so a round 
+ * stops when live traffic uses up the budget.
+ * <p>
+ * The hits on prefetched entries are counted ({@link #recordHit(QPCacheKey)}), the statistics show 
+ * the live hits per prefetch to tune the lead time and minimum frequency.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPCachePrefetcher implements QPIMonitorable {
+	
+	private Log log = QPLogger.getLogger(this.getClass());
+	
+	private final QPProviderRegistry registry;
+	private final long interval;
+	private final long leadTime;
+	private final int minimumFrequency;
+	private final int maximumPerRound;
+	
+	private ScheduledThreadPoolExecutor executor;
+	
+	// prefetched keys with the expiry of the prefetched entry
+	private final Map<QPCacheKey, Long> prefetched = new ConcurrentHashMap<QPCacheKey, Long>();
+	
+	private final AtomicLong rounds = new AtomicLong();
+	private final AtomicLong prefetches = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong budgetExhausted = new AtomicLong();
+	private final AtomicLong liveHits = new AtomicLong();
+	
+	/**
+	 * 
+	 * @param registry registry with the result cache
+	 * @param interval time in milliseconds between the rounds
+	 * @param leadTime time in milliseconds before the expiry in which an entry is prefetched
+	 * @param minimumFrequency minimum estimated number of recent requests of an entry
+	 * @param maximumPerRound maximum prefetches per round
+	 */
+	public QPCachePrefetcher(QPProviderRegistry registry, long interval, long leadTime, int minimumFrequency, int maximumPerRound) {
+		
+		this.registry = registry;
+		this.interval = Math.max(interval, 100L);
+		this.leadTime = leadTime;
+		this.minimumFrequency = minimumFrequency;
+		this.maximumPerRound = maximumPerRound;
+	}
+	
+	/**
+	 * Starts the background thread.
+	 */
+	public synchronized void start() {
+		
+		if (this.executor != null) {
+			return;
+		}
+		this.executor = new ScheduledThreadPoolExecutor(1, QPProviderExecutor.createThreadFactory("QPCachePrefetcher-"));
+		this.executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+				try {
+					prefetch();
+				} catch (RuntimeException exc) {
+					log.error("Error in prefetching cached results.", exc);
+				}
+			}
+		}, this.interval, this.interval, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Stops the background thread.
+	 */
+	public synchronized void shutdown() {
+		
+		if (this.executor != null) {
+			this.executor.shutdownNow();
+			this.executor = null;
+		}
+	}
+	
+	/**
+	 * One round: refreshes the popular entries expiring soon, as long as the budget allows.
+	 */
+	public void prefetch() {
+		
+		this.rounds.incrementAndGet();
+		QPResultCache cache = this.registry.getResultCache();
+		long now = System.currentTimeMillis();
+		for (Map.Entry<QPCacheKey, Long> entry : this.prefetched.entrySet()) {
+			if (entry.getValue().longValue() <= now) {
+				this.prefetched.remove(entry.getKey());
+			}
+		}
+		
+		List<QPCacheEntry> entries = cache.getExpiringEntries(this.leadTime, this.minimumFrequency, this.maximumPerRound);
+		QPTokenBucket budget = this.registry.getProviderBudget();
+		for (QPCacheEntry entry : entries) {
+			QPCacheKey key = entry.getKey();
+			if (! QPAuthType.AUTHTYPE_NONE.getName().equals(key.getAuthType())) {
+				continue;
+			}
+			if (Thread.currentThread().isInterrupted()) {
+				return;
+			}
+			if (budget != null && ! budget.tryAcquire()) {
+				this.budgetExhausted.incrementAndGet();
+				return;
+			}
+			try {
+				// GSA OneBox API version 1.0
+				QPCallParameter callParameter = new QPCallParameter(1, 0, QPAuthType.AUTHTYPE_NONE, 
+						key.getLang(), key.getOneboxName(), key.getQuery());
+				QPIOneBoxResults results = QPProviderInvoker.createProviderInvoker(this.registry, callParameter).refreshProvider();
+				if (results != null && results.isSuccess()) {
+					this.prefetches.incrementAndGet();
+					this.prefetched.put(key, Long.valueOf(System.currentTimeMillis() + cache.getTimeToLive()));
+				}
+				else {
+					this.failures.incrementAndGet();
+				}
+			} catch (Exception exc) {
+				this.failures.incrementAndGet();
+				this.log.warn("Error in prefetching '" + key + "'.", exc);
+			}
+		}
+	}
+	
+	/**
+	 * Counts a live hit, if the entry was prefetched.
+	 * 
+	 * @param key
+	 */
+	public void recordHit(QPCacheKey key) {
+		
+		if (this.prefetched.containsKey(key)) {
+			this.liveHits.incrementAndGet();
+		}
+	}
+
+	@Override
+	public String getMonitorName() {
+		return "Result cache prefetch";
+	}
+
+	@Override
+	public Map<String, Object> getStatistics() {
+		
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		long prefetchCount = this.prefetches.get();
+		long hitCount = this.liveHits.get();
+		statistics.put("rounds", Long.valueOf(this.rounds.get()));
+		statistics.put("prefetches", Long.valueOf(prefetchCount));
+		statistics.put("failures", Long.valueOf(this.failures.get()));
+		statistics.put("budgetExhausted", Long.valueOf(this.budgetExhausted.get()));
+		statistics.put("prefetchedEntries", Integer.valueOf(this.prefetched.size()));
+		statistics.put("liveHits", Long.valueOf(hitCount));
+		statistics.put("liveHitsPerPrefetch", prefetchCount == 0 ? "-" : String.format("%.2f", Double.valueOf((double) hitCount / prefetchCount)));
+		statistics.put("leadTime", Long.valueOf(this.leadTime));
+		statistics.put("minimumFrequency", Integer.valueOf(this.minimumFrequency));
+		return statistics;
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+
+import com.qperior.gsa.oneboxprovider.monitoring.QPIMonitorable;
+import com.qperior.gsa.oneboxprovider.provider.QPProviderExecutor;
+import com.qperior.gsa.oneboxprovider.results.QPIOneBoxResults;
+import com.qperior.gsa.oneboxprovider.util.QPLogger;
+
+/**
+ * Refreshes stale entries of the {@link QPResultCache} in the background on a bounded executor.
+ * Each key is refreshed only once at a time; if the queue is full the refresh is skipped 
+ * and the next request serving the stale entry tries again.
+ * Failed or skipped refreshes leave the stale entry in the cache.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPCacheRefresher implements QPIMonitorable {
+	
+	private Log log = QPLogger.getLogger(this.getClass());
+	
+	private final QPResultCache cache;
+	
+	private final ThreadPoolExecutor executor;
+	
+	private final ConcurrentMap<QPCacheKey, Boolean> refreshing = new ConcurrentHashMap<QPCacheKey, Boolean>();
+	
+	private final AtomicLong scheduled = new AtomicLong();
+	private final AtomicLong refreshed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	
+	/**
+	 * 
+	 * @param cache
+	 * @param threads number of refreshing threads
+	 * @param queueSize maximum number of waiting refreshes
+	 */
+	public QPCacheRefresher(QPResultCache cache, int threads, int queueSize) {
+		
+		this.cache = cache;
+		this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, 
+				new ArrayBlockingQueue<Runnable>(Math.max(queueSize, 1)),
+				QPProviderExecutor.createThreadFactory("QPCacheRefresher-"));
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+	
+	/**
+	 * Schedules the refresh of the key, if it is not already running.
+	 * 
+	 * @param key
+	 * @param loader loads the current results, <code>null</code> skips the refresh (e.g. no provider budget left)
+	 * @return boolean true, if the refresh was scheduled
+	 */
+	public boolean refresh(final QPCacheKey key, final Callable<QPIOneBoxResults> loader) {
+		
+		if ( this.refreshing.putIfAbsent(key, Boolean.TRUE) != null ) {
+			return false;
+		}
+		try {
+			this.executor.execute(new Runnable() {
+				
+				@Override
+				public void run() {
+					try {
+						QPIOneBoxResults results = loader.call();
+						if ( results == null ) {
+							skipped.incrementAndGet();
+							log.info("Refresh of '" + key + "' skipped, keeping the stale entry.");
+						}
+						else if ( cache.put(key, results) != null ) {
+							refreshed.incrementAndGet();
+						}
+						else {
+							failed.incrementAndGet();
+							log.info("Refresh of '" + key + "' not successful, keeping the stale entry.");
+						}
+					} catch (Exception exc) {
+						failed.incrementAndGet();
+						log.error("Exception in refreshing '" + key + "'.", exc);
+					} finally {
+						refreshing.remove(key);
+					}
+				}
+			});
+			this.scheduled.incrementAndGet();
+			return true;
+		} catch (RejectedExecutionException exc) {
+			this.refreshing.remove(key);
+			this.rejected.incrementAndGet();
+			return false;
+		}
+	}
+	
+	/**
+	 * Stops the refreshing threads, waiting refreshes are dropped.
+	 */
+	public void shutdown() {
+		
+		this.executor.shutdownNow();
+	}
+
+	@Override
+	public String getMonitorName() {
+		return "Result cache refresher";
+	}
+
+	@Override
+	public Map<String, Object> getStatistics() {
+		
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("running", Integer.valueOf(this.refreshing.size()));
+		statistics.put("queued", Integer.valueOf(this.executor.getQueue().size()));
+		statistics.put("scheduled", Long.valueOf(this.scheduled.get()));
+		statistics.put("refreshed", Long.valueOf(this.refreshed.get()));
+		statistics.put("failed", Long.valueOf(this.failed.get()));
+		statistics.put("skipped", Long.valueOf(this.skipped.get()));
+		statistics.put("rejected", Long.valueOf(this.rejected.get()));
+		return statistics;
+	}
+}
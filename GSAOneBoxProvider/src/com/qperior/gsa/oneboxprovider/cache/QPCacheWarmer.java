@@ -0,0 +1,250 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.cache;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+
+import com.qperior.gsa.oneboxprovider.QPCallParameter;
+import com.qperior.gsa.oneboxprovider.monitoring.QPIMonitorable;
+import com.qperior.gsa.oneboxprovider.monitoring.QPReadiness;
+import com.qperior.gsa.oneboxprovider.provider.QPProviderExecutor;
+import com.qperior.gsa.oneboxprovider.provider.QPProviderInvoker;
+import com.qperior.gsa.oneboxprovider.provider.QPProviderRegistry;
+import com.qperior.gsa.oneboxprovider.results.QPIOneBoxResults;
+import com.qperior.gsa.oneboxprovider.util.QPLogger;
+import com.qperior.gsa.oneboxprovider.util.QPTokenBucket;
+
+/**
+ * Warms the {@link QPResultCache} after a start by replaying the most frequent queries of the 
+ * {@link QPQueryHistory} through the {@link QPProviderInvoker}, like requests of the search appliance.
+ * <p>
+ * The queries run on a few threads and take a token of a {@link QPTokenBucket} before calling 
+ * the provider, so the backend gets at most the configured rate; queries already cached 
+ * (e.g. reloaded by the {@link QPPersistentStore}) are skipped without a token.
+ * Until the configured fraction of the queries is done, the condition {@link #READINESS_NAME} 
+ * is pending in {@link QPReadiness}. The statistics show the progress and the hit ratio 
+ * of the cache since the warming finished.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPCacheWarmer implements QPIMonitorable {
+	
+	/**
+	 * Name of the readiness condition
+	 */
+	public static final String READINESS_NAME = "cacheWarming";
+	
+	private Log log = QPLogger.getLogger(this.getClass());
+	
+	private final QPProviderRegistry registry;
+	private final List<QPCallParameter> queries;
+	private final int threads;
+	private final QPTokenBucket rateLimiter;
+	private final int readyCount;
+	
+	private ThreadPoolExecutor executor;
+	
+	private final AtomicInteger completed = new AtomicInteger();
+	private final AtomicInteger alreadyCached = new AtomicInteger();
+	private final AtomicInteger warmed = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	
+	private volatile boolean stopped;
+	private volatile long started;
+	private volatile long readyTime;
+	private volatile long finished;
+	private long hitsAtFinish;
+	private long missesAtFinish;
+	
+	/**
+	 * 
+	 * @param registry started registry with the result cache
+	 * @param queries queries to replay, the most frequent first
+	 * @param threads number of parallel queries
+	 * @param rate maximum provider calls per second
+	 * @param readyFraction fraction of the queries (0 to 1) which has to be done to be ready
+	 */
+	public QPCacheWarmer(QPProviderRegistry registry, List<QPCallParameter> queries, int threads, double rate, double readyFraction) {
+		
+		this.registry = registry;
+		this.queries = queries;
+		this.threads = Math.max(threads, 1);
+		this.rateLimiter = new QPTokenBucket(rate, Math.max(1.0, rate));
+		this.readyCount = (int) Math.ceil(Math.min(Math.max(readyFraction, 0.0), 1.0) * queries.size());
+	}
+	
+	/**
+	 * Starts the warming in the background.
+	 */
+	public synchronized void start() {
+		
+		if (this.executor != null) {
+			return;
+		}
+		this.started = System.currentTimeMillis();
+		this.log.info("Warming the result cache with " + this.queries.size() + " recorded queries.");
+		this.executor = new ThreadPoolExecutor(this.threads, this.threads, 0L, TimeUnit.MILLISECONDS, 
+				new LinkedBlockingQueue<Runnable>(), QPProviderExecutor.createThreadFactory("QPCacheWarmer-"));
+		if (this.readyCount > 0) {
+			QPReadiness.setPending(READINESS_NAME);
+		}
+		else {
+			this.readyTime = this.started;
+		}
+		if (this.queries.isEmpty()) {
+			this.finish();
+			return;
+		}
+		for (final QPCallParameter callParameter : this.queries) {
+			this.executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					warm(callParameter);
+				}
+			});
+		}
+	}
+	
+	private void warm(QPCallParameter callParameter) {
+		
+		try {
+			if (this.stopped) {
+				return;
+			}
+			QPResultCache cache = this.registry.getResultCache();
+			QPCacheKey key = QPCacheKey.create(callParameter);
+			if (key == null) {
+				return;
+			}
+			if (cache.getSegmentName(key) != null) {
+				this.alreadyCached.incrementAndGet();
+				return;
+			}
+			if (! this.rateLimiter.acquire(Long.MAX_VALUE)) {
+				return;
+			}
+			QPIOneBoxResults results = QPProviderInvoker.createProviderInvoker(this.registry, callParameter).invokeProvider();
+			if (results != null && results.isSuccess()) {
+				this.warmed.incrementAndGet();
+			}
+			else {
+				this.failed.incrementAndGet();
+			}
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		} catch (Exception exc) {
+			this.failed.incrementAndGet();
+			this.log.warn("Error in warming the result cache with '" + callParameter.getQuery() + "'.", exc);
+		} finally {
+			int done = this.completed.incrementAndGet();
+			if (done == this.readyCount) {
+				this.readyTime = System.currentTimeMillis();
+				QPReadiness.setReady(READINESS_NAME);
+				this.log.info("Result cache warmed with " + done + " of " + this.queries.size() + " queries, ready.");
+			}
+			if (done == this.queries.size()) {
+				this.finish();
+			}
+		}
+	}
+	
+	private synchronized void finish() {
+		
+		QPResultCache cache = this.registry.getResultCache();
+		this.hitsAtFinish = cache.getHitCount();
+		this.missesAtFinish = cache.getMissCount();
+		this.finished = System.currentTimeMillis();
+		this.log.info("Result cache warming finished: " + this.warmed.get() + " warmed, " 
+				+ this.alreadyCached.get() + " already cached, " + this.failed.get() + " failed.");
+		if (this.executor != null) {
+			this.executor.shutdown();
+		}
+	}
+	
+	/**
+	 * Stops the warming, the readiness condition is removed.
+	 */
+	public synchronized void shutdown() {
+		
+		this.stopped = true;
+		if (this.executor != null) {
+			this.executor.shutdownNow();
+		}
+		QPReadiness.setReady(READINESS_NAME);
+	}
+	
+	/**
+	 * Is the ready fraction of the queries done?
+	 * 
+	 * @return boolean
+	 */
+	public boolean isReady() {
+		return this.readyTime > 0;
+	}
+	
+	/**
+	 * Are all queries done?
+	 * 
+	 * @return boolean
+	 */
+	public boolean isFinished() {
+		return this.finished > 0;
+	}
+
+	@Override
+	public String getMonitorName() {
+		return "Result cache warming";
+	}
+
+	@Override
+	public synchronized Map<String, Object> getStatistics() {
+		
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		int size = this.queries.size();
+		int done = this.completed.get();
+		statistics.put("queries", Integer.valueOf(size));
+		statistics.put("completed", Integer.valueOf(done));
+		statistics.put("progress", (size == 0 ? 100 : 100 * done / size) + "%");
+		statistics.put("warmed", Integer.valueOf(this.warmed.get()));
+		statistics.put("alreadyCached", Integer.valueOf(this.alreadyCached.get()));
+		statistics.put("failed", Integer.valueOf(this.failed.get()));
+		statistics.put("ready", Boolean.valueOf(this.isReady()));
+		if (this.readyTime > 0) {
+			statistics.put("timeToReadyMs", Long.valueOf(this.readyTime - this.started));
+		}
+		if (this.finished > 0) {
+			statistics.put("durationMs", Long.valueOf(this.finished - this.started));
+			QPResultCache cache = this.registry.getResultCache();
+			long hits = cache.getHitCount() - this.hitsAtFinish;
+			long misses = cache.getMissCount() - this.missesAtFinish;
+			statistics.put("hitsAfterWarmup", Long.valueOf(hits));
+			statistics.put("missesAfterWarmup", Long.valueOf(misses));
+			statistics.put("hitRatioAfterWarmup", hits + misses == 0 ? "-" : String.format("%.3f", Double.valueOf((double) hits / (hits + misses))));
+		}
+		return statistics;
+	}
+}
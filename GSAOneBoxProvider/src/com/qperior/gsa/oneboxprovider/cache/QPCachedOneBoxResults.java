@@ -0,0 +1,241 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.qperior.gsa.oneboxprovider.results.QPIOneBoxResults;
+import com.qperior.gsa.oneboxprovider.results.QPModuleResult;
+import com.qperior.gsa.oneboxprovider.results.QPResultCode;
+import com.qperior.gsa.oneboxprovider.util.exception.QPOneBoxResultException;
+
+/**
+ * Read-only OneBox results holding the already serialized XML, 
+ * written to the response without converting it again.
+ * The setters throw an {@link UnsupportedOperationException}.
+ * <p>
+ * Subclasses may keep the XML elsewhere (off-heap, see {@link QPOffHeapStore}, or on disk, see {@link QPPersistentStore}), 
+ * they overwrite {@link #getSize()}, {@link #writeTo(OutputStream)} and {@link #toXMLString()}.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPCachedOneBoxResults implements QPIOneBoxResults {
+	
+	private final byte[] xml;
+	private final QPResultCode resultCode;
+	private final int numberOfResults;
+	private final String diagnostics;
+	private final String provider;
+	private final String titleUrlText;
+	private final String titleUrlLink;
+	private final String imageUrl;
+	
+	/**
+	 * Serializes the results.
+	 * 
+	 * @param results
+	 * @throws IOException
+	 */
+	public QPCachedOneBoxResults(QPIOneBoxResults results) throws IOException {
+		
+		this(results, serialize(results));
+	}
+	
+	/**
+	 * Copies the values of the results, the XML is given.
+	 * 
+	 * @param results
+	 * @param xml serialized XML or <code>null</code> if a subclass holds it
+	 */
+	protected QPCachedOneBoxResults(QPIOneBoxResults results, byte[] xml) {
+		
+		this(results.getResultCode(), results.getNumberOfResults(), results.getDiagnostics(), results.getProvider(), 
+				results.getTitleUrlText(), results.getTitleUrlLink(), results.getImageUrl(), xml);
+	}
+	
+	/**
+	 * Takes the values, e.g. read back from disk (see {@link QPPersistentStore}).
+	 * 
+	 * @param resultCode
+	 * @param numberOfResults
+	 * @param diagnostics
+	 * @param provider
+	 * @param titleUrlText
+	 * @param titleUrlLink
+	 * @param imageUrl
+	 * @param xml serialized XML or <code>null</code> if a subclass holds it
+	 */
+	protected QPCachedOneBoxResults(QPResultCode resultCode, int numberOfResults, String diagnostics, String provider,
+			String titleUrlText, String titleUrlLink, String imageUrl, byte[] xml) {
+		
+		this.xml = xml;
+		this.resultCode = resultCode;
+		this.numberOfResults = numberOfResults;
+		this.diagnostics = diagnostics;
+		this.provider = provider;
+		this.titleUrlText = titleUrlText;
+		this.titleUrlLink = titleUrlLink;
+		this.imageUrl = imageUrl;
+	}
+	
+	private static byte[] serialize(QPIOneBoxResults results) throws IOException {
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+		results.writeTo(out);
+		return out.toByteArray();
+	}
+	
+	/**
+	 * The serialized XML, not copied.
+	 * 
+	 * @return byte[]
+	 */
+	byte[] getBytes() {
+		return this.xml;
+	}
+	
+	/**
+	 * The serialized XML, read from the subclass if it holds it elsewhere.
+	 * 
+	 * @return byte[]
+	 * @throws IOException
+	 */
+	byte[] toByteArray() throws IOException {
+		
+		if ( this.xml != null ) {
+			return this.xml;
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream(this.getSize());
+		this.writeTo(out);
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Size of the serialized XML in bytes.
+	 * 
+	 * @return int
+	 */
+	public int getSize() {
+		return this.xml.length;
+	}
+
+	@Override
+	public String toXMLString() throws QPOneBoxResultException {
+		
+		try {
+			return new String(this.xml, "UTF-8");
+		} catch ( Exception exc ) {
+			throw new QPOneBoxResultException("Error in converting OneBox result to string.", exc);
+		}
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		
+		out.write(this.xml);
+		out.flush();
+	}
+
+	@Override
+	public int getNumberOfResults() {
+		return this.numberOfResults;
+	}
+
+	@Override
+	public boolean isSuccess() {
+		return this.resultCode.isSuccess();
+	}
+
+	@Override
+	public QPResultCode getResultCode() {
+		return this.resultCode;
+	}
+
+	@Override
+	public String getDiagnostics() {
+		return this.diagnostics;
+	}
+
+	@Override
+	public String getProvider() {
+		return this.provider;
+	}
+
+	@Override
+	public void setProvider(String provider) {
+		throw new UnsupportedOperationException("Cached OneBox results are read-only.");
+	}
+
+	@Override
+	public String getTitleUrlText() {
+		return this.titleUrlText;
+	}
+
+	@Override
+	public String getTitleUrlLink() {
+		return this.titleUrlLink;
+	}
+
+	@Override
+	public void setTitle(String urltext, String urllink) {
+		throw new UnsupportedOperationException("Cached OneBox results are read-only.");
+	}
+
+	@Override
+	public String getImageUrl() {
+		return this.imageUrl;
+	}
+
+	@Override
+	public void setImageUrl(String imageUrl) {
+		throw new UnsupportedOperationException("Cached OneBox results are read-only.");
+	}
+
+	@Override
+	public void addResult(QPModuleResult result) {
+		throw new UnsupportedOperationException("Cached OneBox results are read-only.");
+	}
+
+	@Override
+	public boolean canAddResult() {
+		return false;
+	}
+
+	@Override
+	public void setPartial(boolean partial) {
+		throw new UnsupportedOperationException("Cached OneBox results are read-only.");
+	}
+
+	@Override
+	public boolean isPartial() {
+		return false;
+	}
+
+	@Override
+	public void setFailure(QPResultCode resultCode, String diagnosticMessage, String providerName) {
+		throw new UnsupportedOperationException("Cached OneBox results are read-only.");
+	}
+	
+	@Override
+	public String toString() {
+
+		return "OneBox Results (cached): " + this.resultCode.getName();
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.cache;
+
+/**
+ * Count-min sketch estimating how often a key was requested recently, used by the 
+ * {@link QPResultCache} to decide whether a new entry may evict an existing one (TinyLFU).
+ * <p>
+ * Each key has four 4-bit counters (maximum 15). After a sample of ten times the 
+ * cache size all counters are halved, so old popularity fades out.
+ * The sketch is not thread-safe, the cache synchronizes the calls.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPFrequencySketch {
+	
+	private static final long[] SEEDS = new long[] {
+		0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+	};
+	
+	private static final long RESET_MASK = 0x7777777777777777L;
+	
+	private final long[] table;
+	private final int tableMask;
+	private final int sampleSize;
+	private int size;
+	
+	/**
+	 * 
+	 * @param maximumSize maximum number of entries of the cache
+	 */
+	public QPFrequencySketch(int maximumSize) {
+		
+		int length = 8;
+		while ( length < maximumSize && length < (1 << 30) ) {
+			length <<= 1;
+		}
+		this.table = new long[length];
+		this.tableMask = length - 1;
+		this.sampleSize = 10 * Math.max(maximumSize, 1);
+	}
+	
+	/**
+	 * Estimated number of recent requests of the key (0 - 15).
+	 * 
+	 * @param key
+	 * @return int
+	 */
+	public int frequency(Object key) {
+		
+		int hash = spread(key.hashCode());
+		int start = (hash & 3) << 2;
+		int frequency = Integer.MAX_VALUE;
+		for ( int i = 0; i < 4; i++ ) {
+			int index = this.indexOf(hash, i);
+			int count = (int) ((this.table[index] >>> ((start + i) << 2)) & 0xfL);
+			frequency = Math.min(frequency, count);
+		}
+		return frequency;
+	}
+	
+	/**
+	 * Counts one request of the key.
+	 * 
+	 * @param key
+	 */
+	public void increment(Object key) {
+		
+		int hash = spread(key.hashCode());
+		int start = (hash & 3) << 2;
+		boolean added = false;
+		for ( int i = 0; i < 4; i++ ) {
+			int index = this.indexOf(hash, i);
+			int offset = (start + i) << 2;
+			long mask = 0xfL << offset;
+			if ( (this.table[index] & mask) != mask ) {
+				this.table[index] += 1L << offset;
+				added = true;
+			}
+		}
+		if ( added && ++this.size >= this.sampleSize ) {
+			this.reset();
+		}
+	}
+	
+	/**
+	 * Halves all counters.
+	 */
+	private void reset() {
+		
+		for ( int i = 0; i < this.table.length; i++ ) {
+			this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+		}
+		this.size = this.size / 2;
+	}
+	
+	private int indexOf(int hash, int i) {
+		
+		long h = (hash + SEEDS[i]) * SEEDS[i];
+		h += h >>> 32;
+		return ((int) h) & this.tableMask;
+	}
+	
+	private static int spread(int x) {
+		
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		return (x >>> 16) ^ x;
+	}
+}
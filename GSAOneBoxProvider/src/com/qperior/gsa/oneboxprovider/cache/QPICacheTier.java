@@ -0,0 +1,105 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.cache;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.qperior.gsa.oneboxprovider.monitoring.QPIMonitorable;
+
+/**
+ * Further storage tier of the {@link QPResultCache} behind the heap, e.g. off-heap or on disk.
+ * Every entry put into the cache is also put into the tiers; the tiers are asked in order 
+ * if the heap does not have the entry. Each tier evicts on its own.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public interface QPICacheTier extends QPIMonitorable {
+	
+	/**
+	 * Short name of the tier, shown as segment of the entries.
+	 * 
+	 * @return String
+	 */
+	public String getTierName();
+	
+	/**
+	 * Opens the tier (e.g. reloads stored entries), called when the provider registry starts.
+	 * 
+	 * @throws IOException
+	 */
+	public void open() throws IOException;
+	
+	/**
+	 * Closes the tier, called when the provider registry stops.
+	 */
+	public void close();
+	
+	/**
+	 * Gets the entry.
+	 * 
+	 * @param key
+	 * @return QPCacheEntry or <code>null</code>
+	 */
+	public QPCacheEntry get(QPCacheKey key);
+	
+	/**
+	 * Stores the entry; a tier may skip it (e.g. if it is busy).
+	 * 
+	 * @param entry
+	 * @return boolean true, if the entry was stored
+	 */
+	public boolean put(QPCacheEntry entry);
+	
+	/**
+	 * Removes the entry.
+	 * 
+	 * @param key
+	 * @return boolean true, if the entry was removed
+	 */
+	public boolean remove(QPCacheKey key);
+	
+	/**
+	 * Removes all entries.
+	 * 
+	 * @return int number of removed entries
+	 */
+	public int flush();
+	
+	/**
+	 * Copy of the current entries.
+	 * 
+	 * @return List<QPCacheEntry>
+	 */
+	public List<QPCacheEntry> getEntries();
+	
+	/**
+	 * Is the key stored?
+	 * 
+	 * @param key
+	 * @return boolean
+	 */
+	public boolean contains(QPCacheKey key);
+	
+	/**
+	 * Current number of entries.
+	 * 
+	 * @return int
+	 */
+	public int size();
+}
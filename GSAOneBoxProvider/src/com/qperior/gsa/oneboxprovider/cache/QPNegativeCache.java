@@ -0,0 +1,237 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.qperior.gsa.oneboxprovider.monitoring.QPIMonitorable;
+
+/**
+ * Remembers calls with an empty outcome and its kind (see {@link Outcome}) for a time to live, 
+ * so they can be answered without calling the backend again.
+ * <p>
+ * Most lookups are for keys which are not in the cache; they are answered by a Bloom filter.
+ * The filter is rotated every time to live: lookups check the current and the previous filter, 
+ * so an entry stays visible for its whole time to live. Only if a filter says "maybe" the exact 
+ * map with the expiry times is consulted, which also rules out the false positives of the filter.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPNegativeCache implements QPIMonitorable {
+	
+	/**
+	 * Kind of an empty outcome, the answer of a remembered call depends on it
+	 */
+	public enum Outcome {
+		/**
+		 * The backend answered with nothing
+		 */
+		EMPTY_ANSWER,
+		/**
+		 * The backend answered successfully, but without entries
+		 */
+		NO_ENTRIES
+	}
+	
+	/**
+	 * Remembered outcome of a key and its expiry time.
+	 */
+	private static class Entry {
+		
+		final Outcome outcome;
+		final long expiry;
+		
+		Entry(Outcome outcome, long expiry) {
+			this.outcome = outcome;
+			this.expiry = expiry;
+		}
+	}
+	
+	private static final double FALSE_POSITIVE_RATE = 0.01;
+	
+	private final int maximumSize;
+	private final long timeToLive;
+	
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	
+	private volatile QPBloomFilter currentFilter;
+	private volatile QPBloomFilter previousFilter;
+	private volatile long windowEnd;
+	
+	private final AtomicLong lookups = new AtomicLong();
+	private final AtomicLong filtered = new AtomicLong();
+	private final AtomicLongArray hits = new AtomicLongArray(Outcome.values().length);
+	private final AtomicLong falsePositives = new AtomicLong();
+	private final AtomicLongArray puts = new AtomicLongArray(Outcome.values().length);
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong rotations = new AtomicLong();
+	
+	/**
+	 * 
+	 * @param maximumSize maximum number of remembered keys
+	 * @param timeToLive time to live in milliseconds
+	 */
+	public QPNegativeCache(int maximumSize, long timeToLive) {
+		
+		this.maximumSize = Math.max(maximumSize, 1);
+		this.timeToLive = Math.max(timeToLive, 1L);
+		this.currentFilter = new QPBloomFilter(this.maximumSize, FALSE_POSITIVE_RATE);
+		this.previousFilter = new QPBloomFilter(this.maximumSize, FALSE_POSITIVE_RATE);
+		// the first window starts with the first call
+		this.windowEnd = 0L;
+	}
+	
+	/**
+	 * Is the key remembered with an empty outcome?
+	 * 
+	 * @param key
+	 * @return boolean
+	 */
+	public boolean contains(String key) {
+		
+		return this.get(key) != null;
+	}
+	
+	/**
+	 * Gets the empty outcome the key is remembered with.
+	 * 
+	 * @param key
+	 * @return Outcome or <code>null</code> if the key is not remembered
+	 */
+	public Outcome get(String key) {
+		
+		this.lookups.incrementAndGet();
+		long now = this.currentTime();
+		this.rotateIfNeeded(now);
+		
+		if ( ! this.currentFilter.mightContain(key) && ! this.previousFilter.mightContain(key) ) {
+			this.filtered.incrementAndGet();
+			return null;
+		}
+		Entry entry = this.entries.get(key);
+		if ( entry == null ) {
+			this.falsePositives.incrementAndGet();
+			return null;
+		}
+		if ( now >= entry.expiry ) {
+			this.entries.remove(key, entry);
+			return null;
+		}
+		this.hits.incrementAndGet(entry.outcome.ordinal());
+		return entry.outcome;
+	}
+	
+	/**
+	 * Remembers the key with an empty outcome. If the cache is full, the key is not added.
+	 * 
+	 * @param key
+	 * @param outcome kind of the empty outcome
+	 */
+	public void put(String key, Outcome outcome) {
+		
+		long now = this.currentTime();
+		this.rotateIfNeeded(now);
+		if ( this.entries.size() >= this.maximumSize && ! this.entries.containsKey(key) ) {
+			this.rejected.incrementAndGet();
+			return;
+		}
+		this.puts.incrementAndGet(outcome.ordinal());
+		this.entries.put(key, new Entry(outcome, now + this.timeToLive));
+		this.currentFilter.put(key);
+	}
+	
+	/**
+	 * Forgets all keys.
+	 */
+	public synchronized void flush() {
+		
+		this.entries.clear();
+		this.currentFilter = new QPBloomFilter(this.maximumSize, FALSE_POSITIVE_RATE);
+		this.previousFilter = new QPBloomFilter(this.maximumSize, FALSE_POSITIVE_RATE);
+	}
+	
+	private void rotateIfNeeded(long now) {
+		
+		if ( now < this.windowEnd ) {
+			return;
+		}
+		synchronized (this) {
+			if ( now < this.windowEnd ) {
+				return;
+			}
+			// keys of the previous filter are expired now, the current becomes the previous one
+			this.previousFilter = this.currentFilter;
+			this.currentFilter = new QPBloomFilter(this.maximumSize, FALSE_POSITIVE_RATE);
+			this.windowEnd = now + this.timeToLive;
+			this.rotations.incrementAndGet();
+			for ( Iterator<Entry> it = this.entries.values().iterator(); it.hasNext(); ) {
+				if ( now >= it.next().expiry ) {
+					it.remove();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Current number of remembered keys (including expired ones not removed yet).
+	 * 
+	 * @return int
+	 */
+	public int size() {
+		return this.entries.size();
+	}
+	
+	/**
+	 * Current time in milliseconds, overwritten in tests.
+	 * 
+	 * @return long
+	 */
+	protected long currentTime() {
+		return System.currentTimeMillis();
+	}
+
+	@Override
+	public String getMonitorName() {
+		return "Negative cache";
+	}
+
+	@Override
+	public Map<String, Object> getStatistics() {
+		
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("size", Integer.valueOf(this.entries.size()));
+		statistics.put("maximumSize", Integer.valueOf(this.maximumSize));
+		statistics.put("timeToLive", Long.valueOf(this.timeToLive));
+		statistics.put("lookups", Long.valueOf(this.lookups.get()));
+		statistics.put("filtered", Long.valueOf(this.filtered.get()));
+		statistics.put("emptyAnswerHits", Long.valueOf(this.hits.get(Outcome.EMPTY_ANSWER.ordinal())));
+		statistics.put("noEntriesHits", Long.valueOf(this.hits.get(Outcome.NO_ENTRIES.ordinal())));
+		statistics.put("falsePositives", Long.valueOf(this.falsePositives.get()));
+		statistics.put("emptyAnswerPuts", Long.valueOf(this.puts.get(Outcome.EMPTY_ANSWER.ordinal())));
+		statistics.put("noEntriesPuts", Long.valueOf(this.puts.get(Outcome.NO_ENTRIES.ordinal())));
+		statistics.put("rejected", Long.valueOf(this.rejected.get()));
+		statistics.put("rotations", Long.valueOf(this.rotations.get()));
+		return statistics;
+	}
+}
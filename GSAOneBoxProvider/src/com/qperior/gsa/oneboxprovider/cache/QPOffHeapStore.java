@@ -0,0 +1,519 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.logging.Log;
+
+import com.qperior.gsa.oneboxprovider.util.QPLogger;
+import com.qperior.gsa.oneboxprovider.util.exception.QPOneBoxResultException;
+
+/**
+ * Off-heap storage of serialized OneBox results, keeping large caches out of the garbage collected heap.
+ * <p>
+ * The memory is allocated as direct {@link ByteBuffer} slabs (on demand, up to the capacity) 
+ * which are divided into chunks of the same size; the XML of an entry is spread over as many chunks as needed. 
+ * Only the index (key, chunk numbers, times) stays on the heap.
+ * If no chunk is free, entries are evicted with the clock algorithm: the hand runs over the chunks, 
+ * an entry read since the last pass gets a second chance, otherwise it is evicted.
+ * <p>
+ * A hit of {@link #get(QPCacheKey)} keeps the XML in the slabs, it is copied chunk by chunk to the response stream. 
+ * The hit pins the chunks of the entry for {@link #PIN_TIME}: an entry removed or evicted meanwhile 
+ * is retired, its chunks are only reused after the pin, so the answer stays complete. 
+ * Writing waits only a short time for the write lock and skips the entry otherwise.
+ * The direct memory of the JVM (-XX:MaxDirectMemorySize) has to be large enough for the capacity.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPOffHeapStore implements QPICacheTier {
+	
+	private static final long WRITE_LOCK_TIMEOUT = 50L;
+	
+	/**
+	 * Time in milliseconds the chunks of a hit are pinned, longer than writing a response takes.
+	 */
+	public static final long PIN_TIME = 10000L;
+	
+	private Log log = QPLogger.getLogger(this.getClass());
+	
+	private final int chunkSize;
+	private final int chunksPerSlab;
+	private final ByteBuffer[] slabs;
+	private final Entry[] owners;
+	private final int[] freeChunks;
+	private int freeCount;
+	private int allocatedSlabs;
+	private int hand;
+	private long dataBytes;
+	
+	private final Map<QPCacheKey, Entry> index = new HashMap<QPCacheKey, Entry>();
+	
+	private final List<Entry> retired = new ArrayList<Entry>();
+	
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	private final ThreadLocal<byte[]> copyBuffer = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[chunkSize];
+		}
+	};
+	
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong puts = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	
+	/**
+	 * Index entry of the stored XML.
+	 */
+	private static class Entry {
+		
+		final QPCacheKey key;
+		final int[] chunks;
+		final int length;
+		final long created;
+		final long expires;
+		final OffHeapResults results;
+		volatile boolean referenced;
+		volatile long pinnedUntil;
+		boolean reclaimed;
+		
+		Entry(QPCacheKey key, int[] chunks, int length, long created, long expires, OffHeapResults results) {
+			this.key = key;
+			this.chunks = chunks;
+			this.length = length;
+			this.created = created;
+			this.expires = expires;
+			this.results = results;
+		}
+	}
+	
+	/**
+	 * Results reading the XML from the slabs. 
+	 * Fails if the chunks were reused after the pin of the entry.
+	 */
+	private class OffHeapResults extends QPCachedOneBoxResults {
+		
+		Entry entry;
+		
+		OffHeapResults(QPCachedOneBoxResults results) {
+			super(results, null);
+		}
+
+		@Override
+		public int getSize() {
+			return this.entry.length;
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			
+			QPOffHeapStore.this.copyTo(this.entry, out);
+			out.flush();
+		}
+
+		@Override
+		public String toXMLString() throws QPOneBoxResultException {
+			
+			try {
+				ByteArrayOutputStream out = new ByteArrayOutputStream(this.entry.length);
+				QPOffHeapStore.this.copyTo(this.entry, out);
+				return out.toString("UTF-8");
+			} catch ( Exception exc ) {
+				throw new QPOneBoxResultException("Error in converting OneBox result to string.", exc);
+			}
+		}
+		
+		@Override
+		public String toString() {
+
+			return "OneBox Results (cached off-heap): " + this.getResultCode().getName();
+		}
+	}
+	
+	/**
+	 * 
+	 * @param capacity maximum size in bytes
+	 * @param chunkSize size of a chunk in bytes
+	 * @param slabSize size of a slab in bytes (rounded down to full chunks)
+	 */
+	public QPOffHeapStore(long capacity, int chunkSize, int slabSize) {
+		
+		this.chunkSize = Math.max(chunkSize, 64);
+		this.chunksPerSlab = Math.max(slabSize / this.chunkSize, 1);
+		long slabBytes = (long) this.chunksPerSlab * this.chunkSize;
+		int slabCount = (int) Math.max(1L, Math.min(Integer.MAX_VALUE / this.chunksPerSlab, capacity / slabBytes));
+		this.slabs = new ByteBuffer[slabCount];
+		this.owners = new Entry[slabCount * this.chunksPerSlab];
+		this.freeChunks = new int[this.owners.length];
+	}
+	
+	@Override
+	public String getTierName() {
+		return "offheap";
+	}
+	
+	@Override
+	public void open() {
+		// slabs are allocated on demand
+	}
+	
+	@Override
+	public void close() {
+		// direct buffers are released by the garbage collector
+	}
+	
+	/**
+	 * Gets the entry and pins its chunks, the XML stays in the slabs.
+	 */
+	@Override
+	public QPCacheEntry get(QPCacheKey key) {
+		
+		this.lock.readLock().lock();
+		try {
+			Entry entry = this.index.get(key);
+			if ( entry == null ) {
+				this.misses.incrementAndGet();
+				return null;
+			}
+			entry.referenced = true;
+			entry.pinnedUntil = this.currentTime() + PIN_TIME;
+			this.hits.incrementAndGet();
+			return new QPCacheEntry(key, entry.results, entry.created, entry.expires);
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Stores the entry, evicting others if needed. The entry is skipped, if it is larger than the
+	 * capacity or the store is busy.
+	 */
+	@Override
+	public boolean put(QPCacheEntry cacheEntry) {
+		
+		byte[] xml;
+		try {
+			xml = cacheEntry.getResults().toByteArray();
+		} catch ( IOException exc ) {
+			this.log.error("Error in serializing OneBox results for the off-heap store.", exc);
+			return false;
+		}
+		int needed = Math.max(1, (xml.length + this.chunkSize - 1) / this.chunkSize);
+		if ( needed > this.owners.length ) {
+			this.rejected.incrementAndGet();
+			return false;
+		}
+		
+		try {
+			if ( ! this.lock.writeLock().tryLock(WRITE_LOCK_TIMEOUT, TimeUnit.MILLISECONDS) ) {
+				this.rejected.incrementAndGet();
+				return false;
+			}
+		} catch ( InterruptedException exc ) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		try {
+			Entry old = this.index.get(cacheEntry.getKey());
+			if ( old != null ) {
+				this.removeEntry(old);
+			}
+			if ( ! this.reserve(needed) ) {
+				this.rejected.incrementAndGet();
+				return false;
+			}
+			int[] chunks = new int[needed];
+			for ( int i = 0; i < needed; i++ ) {
+				int chunk = this.freeChunks[--this.freeCount];
+				chunks[i] = chunk;
+				int offset = i * this.chunkSize;
+				ByteBuffer slab = this.slabs[chunk / this.chunksPerSlab].duplicate();
+				slab.position((chunk % this.chunksPerSlab) * this.chunkSize);
+				slab.put(xml, offset, Math.min(this.chunkSize, xml.length - offset));
+			}
+			OffHeapResults results = new OffHeapResults(cacheEntry.getResults());
+			Entry entry = new Entry(cacheEntry.getKey(), chunks, xml.length, cacheEntry.getCreated(), cacheEntry.getExpires(), results);
+			results.entry = entry;
+			for ( int chunk : chunks ) {
+				this.owners[chunk] = entry;
+			}
+			this.index.put(entry.key, entry);
+			this.dataBytes += xml.length;
+			this.puts.incrementAndGet();
+			return true;
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Makes sure there are enough free chunks: allocates slabs as long as possible, 
+	 * then evicts entries with the clock. Called with the write lock.
+	 */
+	private boolean reserve(int needed) {
+		
+		this.reclaim();
+		while ( this.freeCount < needed && this.allocatedSlabs < this.slabs.length ) {
+			this.allocateSlab();
+		}
+		int steps = 2 * this.owners.length;
+		while ( this.freeCount < needed && steps-- > 0 ) {
+			Entry owner = this.owners[this.hand];
+			this.hand = (this.hand + 1) % this.owners.length;
+			if ( owner == null ) {
+				continue;
+			}
+			if ( owner.referenced ) {
+				owner.referenced = false;
+			}
+			else {
+				this.removeEntry(owner);
+				this.evictions.incrementAndGet();
+			}
+		}
+		return this.freeCount >= needed;
+	}
+	
+	private void allocateSlab() {
+		
+		int slab = this.allocatedSlabs++;
+		this.slabs[slab] = ByteBuffer.allocateDirect(this.chunksPerSlab * this.chunkSize);
+		// push in reverse order, so the chunks are taken in ascending order
+		for ( int i = this.chunksPerSlab - 1; i >= 0; i-- ) {
+			this.freeChunks[this.freeCount++] = slab * this.chunksPerSlab + i;
+		}
+		this.log.info("Off-heap slab " + (slab + 1) + " of " + this.slabs.length + " allocated.");
+	}
+	
+	/**
+	 * Removes the entry from the index; the chunks of a pinned entry are retired until the pin ends. 
+	 * Called with the write lock.
+	 */
+	private void removeEntry(Entry entry) {
+		
+		this.index.remove(entry.key);
+		for ( int chunk : entry.chunks ) {
+			this.owners[chunk] = null;
+		}
+		this.dataBytes -= entry.length;
+		if ( entry.pinnedUntil > this.currentTime() ) {
+			this.retired.add(entry);
+		}
+		else {
+			this.freeEntry(entry);
+		}
+	}
+	
+	/**
+	 * Frees the chunks of the retired entries whose pin ended. Called with the write lock.
+	 */
+	private void reclaim() {
+		
+		long now = this.currentTime();
+		for ( Iterator<Entry> it = this.retired.iterator(); it.hasNext(); ) {
+			Entry entry = it.next();
+			if ( entry.pinnedUntil <= now ) {
+				it.remove();
+				this.freeEntry(entry);
+			}
+		}
+	}
+	
+	/**
+	 * Called with the write lock.
+	 */
+	private void freeEntry(Entry entry) {
+		
+		for ( int chunk : entry.chunks ) {
+			this.freeChunks[this.freeCount++] = chunk;
+		}
+		entry.reclaimed = true;
+	}
+	
+	/**
+	 * Copies the XML of the entry chunk by chunk to the stream, the read lock is only held 
+	 * while copying a chunk out of the slab, not while writing to the stream.
+	 */
+	private void copyTo(Entry entry, OutputStream out) throws IOException {
+		
+		byte[] buffer = this.copyBuffer.get();
+		int remaining = entry.length;
+		boolean first = true;
+		for ( int chunk : entry.chunks ) {
+			int length = Math.min(this.chunkSize, remaining);
+			this.lock.readLock().lock();
+			try {
+				if ( entry.reclaimed ) {
+					throw new IOException("Off-heap entry '" + entry.key + "' was evicted.");
+				}
+				if ( first ) {
+					// the pin covers writing the whole response
+					entry.pinnedUntil = Math.max(entry.pinnedUntil, this.currentTime() + PIN_TIME);
+					first = false;
+				}
+				ByteBuffer slab = this.slabs[chunk / this.chunksPerSlab].duplicate();
+				slab.position((chunk % this.chunksPerSlab) * this.chunkSize);
+				slab.get(buffer, 0, length);
+			} finally {
+				this.lock.readLock().unlock();
+			}
+			out.write(buffer, 0, length);
+			remaining -= length;
+		}
+	}
+	
+	/**
+	 * Current time in milliseconds, overwritten in tests.
+	 * 
+	 * @return long
+	 */
+	protected long currentTime() {
+		return System.currentTimeMillis();
+	}
+	
+	/**
+	 * Removes the entry; waits for the write lock, an invalidated or expired entry must not be served 
+	 * again (the readers only hold the lock while copying a chunk). A hit already handed out is still written.
+	 */
+	@Override
+	public boolean remove(QPCacheKey key) {
+		
+		this.lock.writeLock().lock();
+		try {
+			Entry entry = this.index.get(key);
+			if ( entry == null ) {
+				return false;
+			}
+			this.removeEntry(entry);
+			return true;
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Removes all entries, the slabs stay allocated and pinned chunks are retired.
+	 */
+	@Override
+	public int flush() {
+		
+		this.lock.writeLock().lock();
+		try {
+			int size = this.index.size();
+			for ( Entry entry : new ArrayList<Entry>(this.index.values()) ) {
+				this.removeEntry(entry);
+			}
+			return size;
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+	
+	@Override
+	public List<QPCacheEntry> getEntries() {
+		
+		this.lock.readLock().lock();
+		try {
+			List<QPCacheEntry> entries = new ArrayList<QPCacheEntry>(this.index.size());
+			for ( Entry entry : this.index.values() ) {
+				entries.add(new QPCacheEntry(entry.key, entry.results, entry.created, entry.expires));
+			}
+			return entries;
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+	
+	@Override
+	public boolean contains(QPCacheKey key) {
+		
+		this.lock.readLock().lock();
+		try {
+			return this.index.containsKey(key);
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+	
+	@Override
+	public int size() {
+		
+		this.lock.readLock().lock();
+		try {
+			return this.index.size();
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Maximum size in bytes.
+	 * 
+	 * @return long
+	 */
+	public long getCapacity() {
+		return (long) this.owners.length * this.chunkSize;
+	}
+
+	@Override
+	public String getMonitorName() {
+		return "Result cache off-heap store";
+	}
+
+	@Override
+	public Map<String, Object> getStatistics() {
+		
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		this.lock.readLock().lock();
+		try {
+			long allocatedChunks = (long) this.allocatedSlabs * this.chunksPerSlab;
+			statistics.put("entries", Integer.valueOf(this.index.size()));
+			statistics.put("capacityBytes", Long.valueOf(this.getCapacity()));
+			statistics.put("allocatedBytes", Long.valueOf(allocatedChunks * this.chunkSize));
+			statistics.put("usedBytes", Long.valueOf((allocatedChunks - this.freeCount) * this.chunkSize));
+			statistics.put("dataBytes", Long.valueOf(this.dataBytes));
+			statistics.put("retiredEntries", Integer.valueOf(this.retired.size()));
+			statistics.put("slabs", this.allocatedSlabs + "/" + this.slabs.length);
+			statistics.put("chunkSize", Integer.valueOf(this.chunkSize));
+		} finally {
+			this.lock.readLock().unlock();
+		}
+		statistics.put("hits", Long.valueOf(this.hits.get()));
+		statistics.put("misses", Long.valueOf(this.misses.get()));
+		statistics.put("puts", Long.valueOf(this.puts.get()));
+		statistics.put("evictions", Long.valueOf(this.evictions.get()));
+		statistics.put("rejected", Long.valueOf(this.rejected.get()));
+		return statistics;
+	}
+}
@@ -0,0 +1,843 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+
+import com.qperior.gsa.oneboxprovider.provider.QPProviderExecutor;
+import com.qperior.gsa.oneboxprovider.results.QPResultCode;
+import com.qperior.gsa.oneboxprovider.security.QPAuthType;
+import com.qperior.gsa.oneboxprovider.util.QPLogger;
+import com.qperior.gsa.oneboxprovider.util.exception.QPOneBoxResultException;
+
+/**
+ * Disk storage of serialized OneBox results, so the cache survives a restart of the servlet.
+ * <p>
+ * The entries are appended to a log of segment files (<code>results-&lt;n&gt;.log</code>) of a fixed size 
+ * which are mapped into memory; reading copies the XML straight from the {@link MappedByteBuffer} 
+ * to the response stream. The index (key to position) stays on the heap.
+ * A record is <code>magic, length, body, CRC32</code>, the body holds the times, the key, the values 
+ * of the results and the XML. Replaced and removed records are marked as deleted in place.
+ * <p>
+ * {@link #open()} reloads the records of all segments which are not expired (time to live plus retention), 
+ * records with a wrong checksum are skipped; new records go to a new segment.
+ * A background thread compacts the log: the live records of segments with less than half 
+ * live data are copied to the current segment, then the segment file is deleted; 
+ * if the log is larger than the maximum size, the oldest segments are dropped.
+ * <p>
+ * Only entries of calls without user-level access control (authType none) are stored, 
+ * a created directory is only accessible by the owner.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPPersistentStore implements QPICacheTier {
+	
+	private static final int MAGIC = 0x51504331;
+	private static final int MAGIC_DELETED = 0x51504330;
+	// magic and length before the body, CRC after
+	private static final int RECORD_OVERHEAD = 12;
+	private static final Pattern SEGMENT_NAME = Pattern.compile("results-(\\d+)\\.log");
+	private static final QPResultCode[] RESULT_CODES = {
+		QPResultCode.success, QPResultCode.lookupFailure, QPResultCode.securityFailure, QPResultCode.timeout };
+	
+	private Log log = QPLogger.getLogger(this.getClass());
+	
+	private final File directory;
+	private final int segmentSize;
+	private final long maximumSize;
+	private final long retention;
+	private final long compactionInterval;
+	
+	private final Map<QPCacheKey, Location> index = new ConcurrentHashMap<QPCacheKey, Location>();
+	// guarded by this
+	private final List<Segment> segments = new ArrayList<Segment>();
+	private Segment active;
+	private int nextSegmentId;
+	private ScheduledExecutorService compactor;
+	
+	private final ThreadLocal<byte[]> copyBuffer = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[8192];
+		}
+	};
+	
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong puts = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong reloaded = new AtomicLong();
+	private final AtomicLong corrupted = new AtomicLong();
+	private final AtomicLong compactions = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	
+	/**
+	 * Segment file mapped into memory.
+	 */
+	private static class Segment {
+		
+		final int id;
+		final File file;
+		final RandomAccessFile raf;
+		final MappedByteBuffer buffer;
+		// guarded by the store
+		int writePosition;
+		final AtomicLong liveBytes = new AtomicLong();
+		
+		Segment(int id, File file, int size) throws IOException {
+			
+			this.id = id;
+			this.file = file;
+			this.raf = new RandomAccessFile(file, "rw");
+			try {
+				if ( this.raf.length() < size ) {
+					this.raf.setLength(size);
+				}
+				this.buffer = this.raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.raf.length());
+			} catch ( IOException exc ) {
+				this.raf.close();
+				throw exc;
+			}
+		}
+		
+		void close() {
+			
+			try {
+				this.buffer.force();
+				this.raf.close();
+			} catch ( IOException exc ) {
+				// the mapping stays valid
+			}
+		}
+	}
+	
+	/**
+	 * Position of a record and the results reading its XML.
+	 */
+	private static class Location {
+		
+		final Segment segment;
+		final int offset;
+		final int length;
+		final long created;
+		final long expires;
+		final PersistentResults results;
+		
+		Location(Segment segment, int offset, int length, long created, long expires, PersistentResults results) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+			this.created = created;
+			this.expires = expires;
+			this.results = results;
+		}
+	}
+	
+	/**
+	 * Results reading the XML from the mapped segment. The bytes are never overwritten, 
+	 * a deleted segment file stays mapped until the buffer is garbage collected.
+	 */
+	private class PersistentResults extends QPCachedOneBoxResults {
+		
+		final ByteBuffer buffer;
+		final int xmlOffset;
+		final int xmlLength;
+		
+		PersistentResults(QPResultCode resultCode, int numberOfResults, String diagnostics, String provider,
+				String titleUrlText, String titleUrlLink, String imageUrl, ByteBuffer buffer, int xmlOffset, int xmlLength) {
+			
+			super(resultCode, numberOfResults, diagnostics, provider, titleUrlText, titleUrlLink, imageUrl, null);
+			this.buffer = buffer;
+			this.xmlOffset = xmlOffset;
+			this.xmlLength = xmlLength;
+		}
+
+		@Override
+		public int getSize() {
+			return this.xmlLength;
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			
+			byte[] copy = QPPersistentStore.this.copyBuffer.get();
+			ByteBuffer source = this.buffer.duplicate();
+			source.position(this.xmlOffset);
+			int remaining = this.xmlLength;
+			while ( remaining > 0 ) {
+				int length = Math.min(copy.length, remaining);
+				source.get(copy, 0, length);
+				out.write(copy, 0, length);
+				remaining -= length;
+			}
+			out.flush();
+		}
+
+		@Override
+		public String toXMLString() throws QPOneBoxResultException {
+			
+			try {
+				ByteArrayOutputStream out = new ByteArrayOutputStream(this.xmlLength);
+				this.writeTo(out);
+				return out.toString("UTF-8");
+			} catch ( Exception exc ) {
+				throw new QPOneBoxResultException("Error in converting OneBox result to string.", exc);
+			}
+		}
+		
+		@Override
+		public String toString() {
+
+			return "OneBox Results (cached on disk): " + this.getResultCode().getName();
+		}
+	}
+	
+	/**
+	 * 
+	 * @param directory directory of the segment files, created if needed
+	 * @param segmentSize size of a segment file in bytes
+	 * @param maximumSize maximum size of all segment files in bytes
+	 * @param retention time in milliseconds after the expiry, in which the entries are kept (for stale results)
+	 * @param compactionInterval time in milliseconds between the compactions
+	 */
+	public QPPersistentStore(File directory, int segmentSize, long maximumSize, long retention, long compactionInterval) {
+		
+		this.directory = directory;
+		this.segmentSize = Math.max(segmentSize, 4096);
+		this.maximumSize = Math.max(maximumSize, 2L * this.segmentSize);
+		this.retention = Math.max(retention, 0L);
+		this.compactionInterval = compactionInterval;
+	}
+	
+	@Override
+	public String getTierName() {
+		return "disk";
+	}
+	
+	/**
+	 * Reloads the segment files in the directory and starts the compaction.
+	 */
+	@Override
+	public synchronized void open() throws IOException {
+		
+		if ( this.active != null ) {
+			return;
+		}
+		if ( ! this.directory.isDirectory() ) {
+			if ( ! this.directory.mkdirs() ) {
+				throw new IOException("Directory '" + this.directory + "' of the persistent result cache cannot be created.");
+			}
+			restrictToOwner(this.directory);
+		}
+		List<File> files = this.listSegmentFiles();
+		long now = this.currentTime();
+		for ( File file : files ) {
+			int id = segmentId(file);
+			try {
+				Segment segment = new Segment(id, file, 0);
+				this.segments.add(segment);
+				this.load(segment, now);
+			} catch ( IOException exc ) {
+				this.log.error("Error in reloading the result cache segment '" + file + "', it is skipped.", exc);
+			}
+			this.nextSegmentId = Math.max(this.nextSegmentId, id + 1);
+		}
+		this.active = this.createSegment();
+		this.log.info(this.index.size() + " cached OneBox results reloaded from '" + this.directory + "'.");
+		
+		if ( this.compactionInterval > 0 ) {
+			ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, 
+					QPProviderExecutor.createThreadFactory("QPResultCacheCompactor-"));
+			executor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						QPPersistentStore.this.compact();
+					} catch ( RuntimeException exc ) {
+						QPPersistentStore.this.log.error("Error in compacting the persistent result cache.", exc);
+					}
+				}
+			}, this.compactionInterval, this.compactionInterval, TimeUnit.MILLISECONDS);
+			this.compactor = executor;
+		}
+	}
+	
+	private static void restrictToOwner(File directory) {
+		
+		directory.setReadable(false, false);
+		directory.setReadable(true, true);
+		directory.setWritable(false, false);
+		directory.setWritable(true, true);
+		directory.setExecutable(false, false);
+		directory.setExecutable(true, true);
+	}
+	
+	/**
+	 * Only results shared by all users are stored.
+	 */
+	private static boolean isStorable(QPCacheKey key) {
+		return QPAuthType.AUTHTYPE_NONE.getName().equals(key.getAuthType());
+	}
+	
+	private List<File> listSegmentFiles() {
+		
+		List<File> files = new ArrayList<File>();
+		File[] children = this.directory.listFiles();
+		if ( children != null ) {
+			for ( File child : children ) {
+				if ( SEGMENT_NAME.matcher(child.getName()).matches() ) {
+					files.add(child);
+				}
+			}
+		}
+		Collections.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File file1, File file2) {
+				int id1 = segmentId(file1);
+				int id2 = segmentId(file2);
+				return id1 < id2 ? -1 : (id1 == id2 ? 0 : 1);
+			}
+		});
+		return files;
+	}
+	
+	private static int segmentId(File file) {
+		
+		Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+		if ( ! matcher.matches() ) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(matcher.group(1));
+		} catch ( NumberFormatException exc ) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * Reads the records of a segment into the index, the newest record of a key wins. Called in open().
+	 */
+	private void load(Segment segment, long now) {
+		
+		ByteBuffer buffer = segment.buffer;
+		int position = 0;
+		while ( position + RECORD_OVERHEAD <= buffer.limit() ) {
+			int magic = buffer.getInt(position);
+			int bodyLength = buffer.getInt(position + 4);
+			if ( magic == 0 ) {
+				break;
+			}
+			if ( (magic != MAGIC && magic != MAGIC_DELETED) || bodyLength < 0 
+					|| bodyLength > buffer.limit() - position - RECORD_OVERHEAD ) {
+				this.corrupted.incrementAndGet();
+				this.log.warn("Result cache segment '" + segment.file + "' is corrupted at " + position + ", the rest is skipped.");
+				break;
+			}
+			int length = bodyLength + RECORD_OVERHEAD;
+			if ( magic == MAGIC ) {
+				Location location = this.read(segment, position);
+				if ( location == null ) {
+					this.corrupted.incrementAndGet();
+					buffer.putInt(position, MAGIC_DELETED);
+				}
+				else if ( now >= location.expires + this.retention ) {
+					buffer.putInt(position, MAGIC_DELETED);
+				}
+				else {
+					QPCacheKey key = this.readKey(segment, position);
+					Location old = this.index.get(key);
+					if ( ! isStorable(key) || (old != null && old.created > location.created) ) {
+						buffer.putInt(position, MAGIC_DELETED);
+					}
+					else {
+						this.index.put(key, location);
+						segment.liveBytes.addAndGet(length);
+						if ( old != null ) {
+							this.markDeleted(old);
+						}
+						this.reloaded.incrementAndGet();
+					}
+				}
+			}
+			position += length;
+		}
+		segment.writePosition = position;
+	}
+	
+	/**
+	 * Parses the record, checking the CRC.
+	 * 
+	 * @return Location or <code>null</code> if the record is corrupted
+	 */
+	private Location read(Segment segment, int offset) {
+		
+		try {
+			byte[] body = this.readBody(segment, offset);
+			CRC32 crc = new CRC32();
+			crc.update(body);
+			if ( (int) crc.getValue() != segment.buffer.getInt(offset + 8 + body.length) ) {
+				return null;
+			}
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+			long created = in.readLong();
+			long expires = in.readLong();
+			for ( int i = 0; i < 5; i++ ) {
+				in.readUTF();
+			}
+			QPResultCode resultCode = toResultCode(in.readUTF());
+			int numberOfResults = in.readInt();
+			String diagnostics = readString(in);
+			String provider = readString(in);
+			String titleUrlText = readString(in);
+			String titleUrlLink = readString(in);
+			String imageUrl = readString(in);
+			int xmlLength = in.readInt();
+			if ( resultCode == null || xmlLength != in.available() ) {
+				return null;
+			}
+			PersistentResults results = new PersistentResults(resultCode, numberOfResults, diagnostics, provider, 
+					titleUrlText, titleUrlLink, imageUrl, segment.buffer, offset + 8 + body.length - xmlLength, xmlLength);
+			return new Location(segment, offset, body.length + RECORD_OVERHEAD, created, expires, results);
+		} catch ( IOException exc ) {
+			return null;
+		}
+	}
+	
+	private QPCacheKey readKey(Segment segment, int offset) {
+		
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(this.readBody(segment, offset)));
+			in.readLong();
+			in.readLong();
+			return new QPCacheKey(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF());
+		} catch ( IOException exc ) {
+			throw new IllegalStateException("Checked record cannot be read.", exc);
+		}
+	}
+	
+	private byte[] readBody(Segment segment, int offset) {
+		
+		byte[] body = new byte[segment.buffer.getInt(offset + 4)];
+		ByteBuffer source = segment.buffer.duplicate();
+		source.position(offset + 8);
+		source.get(body);
+		return body;
+	}
+	
+	private static QPResultCode toResultCode(String name) {
+		
+		for ( QPResultCode resultCode : RESULT_CODES ) {
+			if ( resultCode.getName().equals(name) ) {
+				return resultCode;
+			}
+		}
+		return null;
+	}
+	
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+	
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		
+		out.writeBoolean(value != null);
+		if ( value != null ) {
+			out.writeUTF(value);
+		}
+	}
+	
+	/**
+	 * Stops the compaction and writes the segments to disk.
+	 */
+	@Override
+	public synchronized void close() {
+		
+		if ( this.compactor != null ) {
+			this.compactor.shutdownNow();
+			this.compactor = null;
+		}
+		for ( Segment segment : this.segments ) {
+			segment.close();
+		}
+		this.segments.clear();
+		this.index.clear();
+		this.active = null;
+	}
+	
+	@Override
+	public QPCacheEntry get(QPCacheKey key) {
+		
+		Location location = this.index.get(key);
+		if ( location == null ) {
+			this.misses.incrementAndGet();
+			return null;
+		}
+		this.hits.incrementAndGet();
+		return new QPCacheEntry(key, location.results, location.created, location.expires);
+	}
+	
+	/**
+	 * Appends the entry to the current segment. The entry is skipped, if the store is not open, 
+	 * the entry is larger than a segment or it is not shared by all users.
+	 */
+	@Override
+	public boolean put(QPCacheEntry entry) {
+		
+		if ( ! isStorable(entry.getKey()) ) {
+			this.rejected.incrementAndGet();
+			return false;
+		}
+		byte[] record;
+		try {
+			record = this.toRecord(entry);
+		} catch ( IOException exc ) {
+			this.log.error("Error in serializing OneBox results for the persistent store.", exc);
+			return false;
+		}
+		if ( record.length > this.segmentSize ) {
+			this.rejected.incrementAndGet();
+			return false;
+		}
+		synchronized ( this ) {
+			if ( this.active == null ) {
+				this.rejected.incrementAndGet();
+				return false;
+			}
+			Location location;
+			try {
+				location = this.append(record);
+			} catch ( IOException exc ) {
+				this.log.error("Error in writing to the persistent result cache.", exc);
+				this.rejected.incrementAndGet();
+				return false;
+			}
+			Location old = this.index.put(entry.getKey(), location);
+			if ( old != null ) {
+				this.markDeleted(old);
+			}
+		}
+		this.puts.incrementAndGet();
+		return true;
+	}
+	
+	private byte[] toRecord(QPCacheEntry entry) throws IOException {
+		
+		QPCachedOneBoxResults results = entry.getResults();
+		byte[] xml = results.toByteArray();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(xml.length + 512);
+		DataOutputStream out = new DataOutputStream(bytes);
+		// magic is written last, length and CRC are filled in below
+		out.writeInt(0);
+		out.writeInt(0);
+		out.writeLong(entry.getCreated());
+		out.writeLong(entry.getExpires());
+		QPCacheKey key = entry.getKey();
+		out.writeUTF(key.getQuery());
+		out.writeUTF(key.getOneboxName());
+		out.writeUTF(key.getLang());
+		out.writeUTF(key.getAuthType());
+		out.writeUTF(key.getUserScope());
+		out.writeUTF(results.getResultCode().getName());
+		out.writeInt(results.getNumberOfResults());
+		writeString(out, results.getDiagnostics());
+		writeString(out, results.getProvider());
+		writeString(out, results.getTitleUrlText());
+		writeString(out, results.getTitleUrlLink());
+		writeString(out, results.getImageUrl());
+		out.writeInt(xml.length);
+		out.write(xml);
+		out.writeInt(0);
+		out.flush();
+		
+		byte[] record = bytes.toByteArray();
+		int bodyLength = record.length - RECORD_OVERHEAD;
+		CRC32 crc = new CRC32();
+		crc.update(record, 8, bodyLength);
+		ByteBuffer buffer = ByteBuffer.wrap(record);
+		buffer.putInt(4, bodyLength);
+		buffer.putInt(record.length - 4, (int) crc.getValue());
+		return record;
+	}
+	
+	/**
+	 * Writes the record to the current segment, a new segment is started if it is full. Called synchronized.
+	 */
+	private Location append(byte[] record) throws IOException {
+		
+		if ( this.active.writePosition + record.length > this.active.buffer.limit() ) {
+			this.active.buffer.force();
+			this.active = this.createSegment();
+		}
+		Segment segment = this.active;
+		int offset = segment.writePosition;
+		ByteBuffer target = segment.buffer.duplicate();
+		target.position(offset + 4);
+		target.put(record, 4, record.length - 4);
+		segment.buffer.putInt(offset, MAGIC);
+		segment.writePosition += record.length;
+		segment.liveBytes.addAndGet(record.length);
+		return this.read(segment, offset);
+	}
+	
+	/**
+	 * Called synchronized.
+	 */
+	private Segment createSegment() throws IOException {
+		
+		int id = this.nextSegmentId++;
+		Segment segment = new Segment(id, new File(this.directory, "results-" + id + ".log"), this.segmentSize);
+		this.segments.add(segment);
+		return segment;
+	}
+	
+	private void markDeleted(Location location) {
+		
+		location.segment.buffer.putInt(location.offset, MAGIC_DELETED);
+		location.segment.liveBytes.addAndGet(-location.length);
+	}
+	
+	/**
+	 * Removes the entry and marks the record as deleted, so it is not reloaded.
+	 */
+	@Override
+	public synchronized boolean remove(QPCacheKey key) {
+		
+		Location location = this.index.remove(key);
+		if ( location == null ) {
+			return false;
+		}
+		this.markDeleted(location);
+		return true;
+	}
+	
+	/**
+	 * Removes all entries and deletes the segment files.
+	 */
+	@Override
+	public synchronized int flush() {
+		
+		int size = this.index.size();
+		this.index.clear();
+		for ( Segment segment : new ArrayList<Segment>(this.segments) ) {
+			this.deleteSegment(segment);
+		}
+		if ( this.active != null ) {
+			try {
+				this.active = this.createSegment();
+			} catch ( IOException exc ) {
+				this.log.error("Error in creating a result cache segment, the persistent store is switched off.", exc);
+				this.active = null;
+			}
+		}
+		return size;
+	}
+	
+	/**
+	 * Called synchronized.
+	 */
+	private void deleteSegment(Segment segment) {
+		
+		this.segments.remove(segment);
+		segment.close();
+		if ( ! segment.file.delete() ) {
+			segment.file.deleteOnExit();
+		}
+	}
+	
+	/**
+	 * Removes expired entries, copies the live records of sparse segments and drops the oldest 
+	 * segments above the maximum size. The lock is held per record only.
+	 */
+	public void compact() {
+		
+		long now = this.currentTime();
+		for ( Map.Entry<QPCacheKey, Location> entry : this.index.entrySet() ) {
+			if ( now >= entry.getValue().expires + this.retention ) {
+				this.remove(entry.getKey(), entry.getValue());
+			}
+		}
+		
+		List<Segment> candidates = new ArrayList<Segment>();
+		synchronized ( this ) {
+			for ( Segment segment : this.segments ) {
+				if ( segment != this.active 
+						&& (segment.liveBytes.get() == 0 || segment.liveBytes.get() * 2 < segment.writePosition) ) {
+					candidates.add(segment);
+				}
+			}
+		}
+		for ( Segment segment : candidates ) {
+			if ( this.copyLiveRecords(segment) ) {
+				synchronized ( this ) {
+					this.deleteSegment(segment);
+				}
+				this.compactions.incrementAndGet();
+			}
+		}
+		
+		while ( true ) {
+			Segment oldest;
+			synchronized ( this ) {
+				if ( (long) this.segments.size() * this.segmentSize <= this.maximumSize || this.segments.size() < 2 ) {
+					break;
+				}
+				oldest = this.segments.get(0);
+			}
+			for ( Map.Entry<QPCacheKey, Location> entry : this.index.entrySet() ) {
+				if ( entry.getValue().segment == oldest ) {
+					this.remove(entry.getKey(), entry.getValue());
+					this.dropped.incrementAndGet();
+				}
+			}
+			synchronized ( this ) {
+				this.deleteSegment(oldest);
+			}
+		}
+	}
+	
+	private synchronized void remove(QPCacheKey key, Location location) {
+		
+		if ( this.index.get(key) == location ) {
+			this.index.remove(key);
+			this.markDeleted(location);
+		}
+	}
+	
+	/**
+	 * Copies the live records of the segment to the current segment.
+	 * 
+	 * @return boolean false, if the store was closed meanwhile
+	 */
+	private boolean copyLiveRecords(Segment segment) {
+		
+		for ( Map.Entry<QPCacheKey, Location> entry : this.index.entrySet() ) {
+			Location location = entry.getValue();
+			if ( location.segment != segment ) {
+				continue;
+			}
+			byte[] record = new byte[location.length];
+			ByteBuffer source = segment.buffer.duplicate();
+			source.position(location.offset);
+			source.get(record);
+			synchronized ( this ) {
+				if ( this.active == null ) {
+					return false;
+				}
+				if ( this.index.get(entry.getKey()) != location ) {
+					continue;
+				}
+				try {
+					this.index.put(entry.getKey(), this.append(record));
+				} catch ( IOException exc ) {
+					this.log.error("Error in compacting the persistent result cache.", exc);
+					return false;
+				}
+				segment.liveBytes.addAndGet(-location.length);
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Current time in milliseconds, overwritten in tests.
+	 * 
+	 * @return long
+	 */
+	protected long currentTime() {
+		return System.currentTimeMillis();
+	}
+	
+	@Override
+	public List<QPCacheEntry> getEntries() {
+		
+		List<QPCacheEntry> entries = new ArrayList<QPCacheEntry>(this.index.size());
+		for ( Map.Entry<QPCacheKey, Location> entry : this.index.entrySet() ) {
+			Location location = entry.getValue();
+			entries.add(new QPCacheEntry(entry.getKey(), location.results, location.created, location.expires));
+		}
+		return entries;
+	}
+	
+	@Override
+	public boolean contains(QPCacheKey key) {
+		return this.index.containsKey(key);
+	}
+	
+	@Override
+	public int size() {
+		return this.index.size();
+	}
+
+	@Override
+	public String getMonitorName() {
+		return "Result cache persistent store";
+	}
+
+	@Override
+	public Map<String, Object> getStatistics() {
+		
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("entries", Integer.valueOf(this.index.size()));
+		statistics.put("directory", this.directory.getAbsolutePath());
+		synchronized ( this ) {
+			long liveBytes = 0L;
+			for ( Segment segment : this.segments ) {
+				liveBytes += segment.liveBytes.get();
+			}
+			statistics.put("segments", Integer.valueOf(this.segments.size()));
+			statistics.put("diskBytes", Long.valueOf((long) this.segments.size() * this.segmentSize));
+			statistics.put("liveBytes", Long.valueOf(liveBytes));
+			statistics.put("maximumBytes", Long.valueOf(this.maximumSize));
+		}
+		statistics.put("hits", Long.valueOf(this.hits.get()));
+		statistics.put("misses", Long.valueOf(this.misses.get()));
+		statistics.put("puts", Long.valueOf(this.puts.get()));
+		statistics.put("rejected", Long.valueOf(this.rejected.get()));
+		statistics.put("reloaded", Long.valueOf(this.reloaded.get()));
+		statistics.put("corrupted", Long.valueOf(this.corrupted.get()));
+		statistics.put("compactions", Long.valueOf(this.compactions.get()));
+		statistics.put("dropped", Long.valueOf(this.dropped.get()));
+		return statistics;
+	}
+}
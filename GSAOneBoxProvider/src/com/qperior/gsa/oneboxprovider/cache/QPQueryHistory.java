@@ -0,0 +1,322 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.cache;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+
+import com.qperior.gsa.oneboxprovider.QPCallParameter;
+import com.qperior.gsa.oneboxprovider.monitoring.QPIMonitorable;
+import com.qperior.gsa.oneboxprovider.provider.QPProviderExecutor;
+import com.qperior.gsa.oneboxprovider.security.QPAuthType;
+import com.qperior.gsa.oneboxprovider.util.QPLogger;
+
+/**
+ * Recorded query history: counts the calls per normalized query, OneBox name and language, 
+ * so the most frequent queries can be replayed to warm the cache after a restart (see {@link QPCacheWarmer}).
+ * <p>
+ * Only calls without user-level access control (authType none) are recorded, the results of the 
+ * others depend on the user and no credentials are stored. The history is kept in a text file 
+ * (count, OneBox name, language, API version and URL-encoded query separated by tabs), 
+ * loaded by {@link #open()} and saved periodically and by {@link #close()}.
+ * If more than the maximum number of queries are counted, the less frequent ones are dropped.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPQueryHistory implements QPIMonitorable {
+	
+	private static final String SEPARATOR = "\t";
+	
+	private Log log = QPLogger.getLogger(this.getClass());
+	
+	private final File file;
+	private final int maximumSize;
+	private final long saveInterval;
+	
+	private final ConcurrentHashMap<String, AtomicLong> counts = new ConcurrentHashMap<String, AtomicLong>();
+	private final AtomicBoolean trimming = new AtomicBoolean();
+	private ScheduledExecutorService saver;
+	
+	private final AtomicLong recorded = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	
+	/**
+	 * 
+	 * @param file file of the history
+	 * @param maximumSize maximum number of counted queries
+	 * @param saveInterval time in milliseconds between the saves (0 saves only on close)
+	 */
+	public QPQueryHistory(File file, int maximumSize, long saveInterval) {
+		
+		this.file = file;
+		this.maximumSize = Math.max(maximumSize, 1);
+		this.saveInterval = saveInterval;
+	}
+	
+	/**
+	 * Loads the history file and starts the periodic save.
+	 */
+	public synchronized void open() {
+		
+		if (this.file.isFile()) {
+			try {
+				this.load();
+				this.log.info(this.counts.size() + " recorded queries loaded from '" + this.file + "'.");
+			} catch (IOException exc) {
+				this.log.error("Error in loading the query history '" + this.file + "'.", exc);
+			}
+		}
+		if (this.saveInterval > 0 && this.saver == null) {
+			ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, 
+					QPProviderExecutor.createThreadFactory("QPQueryHistory-"));
+			executor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					QPQueryHistory.this.save();
+				}
+			}, this.saveInterval, this.saveInterval, TimeUnit.MILLISECONDS);
+			this.saver = executor;
+		}
+	}
+	
+	/**
+	 * Stops the periodic save and saves the history.
+	 */
+	public synchronized void close() {
+		
+		if (this.saver != null) {
+			this.saver.shutdownNow();
+			this.saver = null;
+		}
+		this.save();
+	}
+	
+	/**
+	 * Counts the call, if it is without user-level access control.
+	 * 
+	 * @param callParameter
+	 */
+	public void record(QPCallParameter callParameter) {
+		
+		if (callParameter.getAuthType() == null || ! callParameter.getAuthType().isAuthTypeNone()) {
+			return;
+		}
+		String query = QPCacheKey.normalizeQuery(callParameter.getQuery());
+		if (query.length() == 0) {
+			return;
+		}
+		String line = callParameter.getOneboxName() + SEPARATOR + callParameter.getLang() + SEPARATOR 
+				+ callParameter.getApiMaj() + SEPARATOR + callParameter.getApiMin() + SEPARATOR + encode(query);
+		this.count(line, 1L);
+		this.recorded.incrementAndGet();
+	}
+	
+	private void count(String line, long count) {
+		
+		AtomicLong counter = this.counts.get(line);
+		if (counter == null) {
+			counter = this.counts.putIfAbsent(line, new AtomicLong(count));
+			if (counter == null) {
+				if (this.counts.size() > 2 * this.maximumSize) {
+					this.trim();
+				}
+				return;
+			}
+		}
+		counter.addAndGet(count);
+	}
+	
+	/**
+	 * Drops the less frequent queries down to the maximum size, one thread at a time.
+	 */
+	private void trim() {
+		
+		if (! this.trimming.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			List<Map.Entry<String, AtomicLong>> entries = this.sortedEntries();
+			for (int i = this.maximumSize; i < entries.size(); i++) {
+				this.counts.remove(entries.get(i).getKey());
+				this.dropped.incrementAndGet();
+			}
+		} finally {
+			this.trimming.set(false);
+		}
+	}
+	
+	private List<Map.Entry<String, AtomicLong>> sortedEntries() {
+		
+		List<Map.Entry<String, AtomicLong>> entries = new ArrayList<Map.Entry<String, AtomicLong>>(this.counts.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, AtomicLong>>() {
+			@Override
+			public int compare(Map.Entry<String, AtomicLong> entry1, Map.Entry<String, AtomicLong> entry2) {
+				long count1 = entry1.getValue().get();
+				long count2 = entry2.getValue().get();
+				return count1 > count2 ? -1 : (count1 == count2 ? 0 : 1);
+			}
+		});
+		return entries;
+	}
+	
+	/**
+	 * The most frequent queries as call parameter (authType none) to replay them.
+	 * 
+	 * @param size maximum number of queries
+	 * @return List<QPCallParameter>
+	 */
+	public List<QPCallParameter> getTopQueries(int size) {
+		
+		List<QPCallParameter> queries = new ArrayList<QPCallParameter>();
+		for (Map.Entry<String, AtomicLong> entry : this.sortedEntries()) {
+			if (queries.size() >= size) {
+				break;
+			}
+			String[] fields = entry.getKey().split(SEPARATOR, -1);
+			try {
+				queries.add(new QPCallParameter(Integer.parseInt(fields[2]), Integer.parseInt(fields[3]), 
+						QPAuthType.AUTHTYPE_NONE, fields[1], fields[0], decode(fields[4])));
+			} catch (RuntimeException exc) {
+				this.log.warn("Recorded query '" + entry.getKey() + "' skipped.");
+			}
+		}
+		return queries;
+	}
+	
+	private void load() throws IOException {
+		
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.file), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int separator = line.indexOf(SEPARATOR);
+				if (line.startsWith("#") || separator < 0) {
+					continue;
+				}
+				try {
+					long count = Long.parseLong(line.substring(0, separator));
+					String key = line.substring(separator + 1);
+					if (key.split(SEPARATOR, -1).length == 5) {
+						this.count(key, count);
+					}
+				} catch (NumberFormatException exc) {
+					this.log.warn("Line '" + line + "' of the query history skipped.");
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Writes the history to a temporary file which replaces the file.
+	 */
+	public void save() {
+		
+		File parent = this.file.getAbsoluteFile().getParentFile();
+		File temp = new File(parent, this.file.getName() + ".tmp");
+		try {
+			if (parent != null && ! parent.isDirectory()) {
+				parent.mkdirs();
+			}
+			Writer writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+			try {
+				writer.write("# count, OneBox name, language, apiMaj, apiMin, query (URL-encoded)\n");
+				for (Map.Entry<String, AtomicLong> entry : this.sortedEntries()) {
+					writer.write(entry.getValue().get() + SEPARATOR + entry.getKey() + "\n");
+				}
+			} finally {
+				writer.close();
+			}
+			if (! temp.renameTo(this.file)) {
+				this.file.delete();
+				if (! temp.renameTo(this.file)) {
+					throw new IOException("File '" + temp + "' cannot be renamed.");
+				}
+			}
+		} catch (IOException exc) {
+			this.log.error("Error in saving the query history '" + this.file + "'.", exc);
+		}
+	}
+	
+	private static String encode(String value) {
+		
+		try {
+			return URLEncoder.encode(value, "UTF-8");
+		} catch (IOException exc) {
+			throw new IllegalStateException(exc);
+		}
+	}
+	
+	private static String decode(String value) {
+		
+		try {
+			return URLDecoder.decode(value, "UTF-8");
+		} catch (IOException exc) {
+			throw new IllegalStateException(exc);
+		}
+	}
+	
+	/**
+	 * Number of counted queries.
+	 * 
+	 * @return int
+	 */
+	public int size() {
+		return this.counts.size();
+	}
+
+	@Override
+	public String getMonitorName() {
+		return "Query history";
+	}
+
+	@Override
+	public Map<String, Object> getStatistics() {
+		
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("queries", Integer.valueOf(this.counts.size()));
+		statistics.put("maximumSize", Integer.valueOf(this.maximumSize));
+		statistics.put("recorded", Long.valueOf(this.recorded.get()));
+		statistics.put("dropped", Long.valueOf(this.dropped.get()));
+		statistics.put("file", this.file.getAbsolutePath());
+		return statistics;
+	}
+}
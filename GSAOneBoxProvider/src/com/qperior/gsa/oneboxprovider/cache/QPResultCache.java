@@ -0,0 +1,633 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.cache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+
+import com.qperior.gsa.oneboxprovider.monitoring.QPIMonitorable;
+import com.qperior.gsa.oneboxprovider.results.QPIOneBoxResults;
+import com.qperior.gsa.oneboxprovider.util.QPLogger;
+
+/**
+ * Bounded cache of successful OneBox results with a time to live.
+ * <p>
+ * The eviction follows W-TinyLFU: new entries go into a small LRU window (1% of the size). 
+ * An entry leaving the window is only admitted to the main area if it was requested more often 
+ * (estimated by the {@link QPFrequencySketch}) than the entry it would evict, so one-off queries 
+ * do not push out hot ones. The main area is a segmented LRU: entries hit again move from 
+ * probation to the protected segment (80% of the main area).
+ * <p>
+ * Stale-while-revalidate: for a grace period after the time to live an entry is still returned by 
+ * {@link #getEntry(QPCacheKey)} as {@link Freshness#STALE}, the caller serves it and refreshes it in the 
+ * background. Up to the maximum staleness it is kept as {@link Freshness#EXPIRED}, to be served 
+ * only if the backend fails.
+ * <p>
+ * Further {@link QPICacheTier}s (off-heap, disk) can be put behind the heap: all entries are also 
+ * stored there, entries evicted from the heap are still found in the tiers. A hit in a tier 
+ * is copied into the tiers before it (e.g. from disk to off-heap).
+ * <p>
+ * The heap is guarded by the lock of the cache, the tiers are accessed outside of it (a tier may wait 
+ * for readers or the disk); the results are stored serialized, so a hit only copies bytes.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPResultCache implements QPIMonitorable {
+	
+	/**
+	 * State of an entry depending on its age.
+	 */
+	public enum Freshness {
+		/** within the time to live */
+		FRESH, 
+		/** within the grace period, serve and refresh it */
+		STALE, 
+		/** within the maximum staleness, only serve it if the backend fails */
+		EXPIRED
+	}
+	
+	private static final int WINDOW = 0;
+	private static final int PROBATION = 1;
+	private static final int PROTECTED = 2;
+	private static final String[] SEGMENT_NAMES = new String[] { "window", "probation", "protected" };
+	
+	private Log log = QPLogger.getLogger(this.getClass());
+	
+	private final int maximumSize;
+	private final int windowSize;
+	private final int mainSize;
+	private final int protectedSize;
+	private final long timeToLive;
+	private final long staleWhileRevalidate;
+	private final long maxStale;
+	
+	private final Map<QPCacheKey, Node> data = new HashMap<QPCacheKey, Node>();
+	private final LinkedHashMap<QPCacheKey, Node> window = new LinkedHashMap<QPCacheKey, Node>();
+	private final LinkedHashMap<QPCacheKey, Node> probation = new LinkedHashMap<QPCacheKey, Node>();
+	private final LinkedHashMap<QPCacheKey, Node> protectedSegment = new LinkedHashMap<QPCacheKey, Node>();
+	private final QPFrequencySketch sketch;
+	private final List<QPICacheTier> tiers;
+	
+	private long hits;
+	private long staleHits;
+	private long staleOnError;
+	private long misses;
+	private long puts;
+	private long evictions;
+	private long expirations;
+	
+	private static class Node {
+		
+		QPCacheEntry entry;
+		int segment;
+		
+		Node(QPCacheEntry entry, int segment) {
+			this.entry = entry;
+			this.segment = segment;
+		}
+	}
+	
+	/**
+	 * 
+	 * @param maximumSize maximum number of entries
+	 * @param timeToLive time to live of an entry in milliseconds
+	 */
+	public QPResultCache(int maximumSize, long timeToLive) {
+		
+		this(maximumSize, timeToLive, 0L, 0L, null);
+	}
+	
+	/**
+	 * 
+	 * @param maximumSize maximum number of entries
+	 * @param timeToLive time to live of an entry in milliseconds
+	 * @param staleWhileRevalidate grace period in milliseconds after the time to live, 
+	 *        in which an entry is served and refreshed in the background
+	 * @param maxStale maximum time in milliseconds after the time to live, 
+	 *        in which an entry is served if the backend fails
+	 * @param tiers tiers behind the heap in the order they are asked, may be <code>null</code>
+	 */
+	public QPResultCache(int maximumSize, long timeToLive, long staleWhileRevalidate, long maxStale, List<QPICacheTier> tiers) {
+		
+		this.tiers = tiers == null ? new ArrayList<QPICacheTier>() : new ArrayList<QPICacheTier>(tiers);
+		this.staleWhileRevalidate = Math.max(staleWhileRevalidate, 0L);
+		this.maxStale = Math.max(maxStale, this.staleWhileRevalidate);
+		this.maximumSize = Math.max(maximumSize, 1);
+		this.windowSize = Math.max(this.maximumSize / 100, 1);
+		this.mainSize = this.maximumSize - this.windowSize;
+		this.protectedSize = this.mainSize * 80 / 100;
+		this.timeToLive = timeToLive;
+		this.sketch = new QPFrequencySketch(this.maximumSize);
+	}
+	
+	/**
+	 * Gets the cached results, <code>null</code> if there are none or they are older than the time to live.
+	 * 
+	 * @param key
+	 * @return QPCachedOneBoxResults or <code>null</code>
+	 */
+	public QPCachedOneBoxResults get(QPCacheKey key) {
+		
+		QPCacheEntry entry = this.getEntry(key);
+		if ( entry == null || this.getFreshness(entry) != Freshness.FRESH ) {
+			return null;
+		}
+		return entry.getResults();
+	}
+	
+	/**
+	 * Gets the entry, also if it is older than the time to live but within the maximum staleness,
+	 * see {@link #getFreshness(QPCacheEntry)}. A stale entry counts as stale hit, 
+	 * an expired entry as miss.
+	 * The tiers are asked outside of the lock of the heap.
+	 * 
+	 * @param key
+	 * @return QPCacheEntry or <code>null</code>
+	 */
+	public QPCacheEntry getEntry(QPCacheKey key) {
+		
+		long now = this.currentTime();
+		boolean expired;
+		synchronized ( this ) {
+			this.sketch.increment(key);
+			Node node = this.data.get(key);
+			if ( node != null && now < node.entry.getExpires() + this.maxStale ) {
+				this.onAccess(node);
+				return this.recordAccess(node.entry, now);
+			}
+			expired = node != null;
+			if ( expired ) {
+				this.remove(node);
+				this.expirations++;
+				this.misses++;
+			}
+		}
+		if ( expired ) {
+			for ( QPICacheTier tier : this.tiers ) {
+				tier.remove(key);
+			}
+			return null;
+		}
+		QPCacheEntry entry = this.getFromTiers(key, now);
+		synchronized ( this ) {
+			if ( entry == null ) {
+				this.misses++;
+				return null;
+			}
+			return this.recordAccess(entry, now);
+		}
+	}
+	
+	/**
+	 * Counts the access depending on the freshness of the entry. Called synchronized.
+	 */
+	private QPCacheEntry recordAccess(QPCacheEntry entry, long now) {
+		
+		switch ( this.getFreshness(entry, now) ) {
+		case FRESH:
+			this.hits++;
+			break;
+		case STALE:
+			this.staleHits++;
+			break;
+		default:
+			this.misses++;
+		}
+		return entry;
+	}
+	
+	/**
+	 * Asks the tiers in order; expired entries are removed, a hit is copied into the tiers before.
+	 */
+	private QPCacheEntry getFromTiers(QPCacheKey key, long now) {
+		
+		for ( int i = 0; i < this.tiers.size(); i++ ) {
+			QPICacheTier tier = this.tiers.get(i);
+			QPCacheEntry entry = tier.get(key);
+			if ( entry == null ) {
+				continue;
+			}
+			if ( now >= entry.getExpires() + this.maxStale ) {
+				tier.remove(key);
+				synchronized ( this ) {
+					this.expirations++;
+				}
+				continue;
+			}
+			for ( int j = 0; j < i; j++ ) {
+				this.tiers.get(j).put(entry);
+			}
+			return entry;
+		}
+		return null;
+	}
+	
+	/**
+	 * State of the entry depending on its age.
+	 * 
+	 * @param entry
+	 * @return Freshness
+	 */
+	public Freshness getFreshness(QPCacheEntry entry) {
+		
+		return this.getFreshness(entry, this.currentTime());
+	}
+	
+	private Freshness getFreshness(QPCacheEntry entry, long now) {
+		
+		if ( ! entry.isExpired(now) ) {
+			return Freshness.FRESH;
+		}
+		if ( now < entry.getExpires() + this.staleWhileRevalidate ) {
+			return Freshness.STALE;
+		}
+		return Freshness.EXPIRED;
+	}
+	
+	/**
+	 * Counts a stale entry served because the backend failed.
+	 */
+	public synchronized void recordStaleOnError() {
+		
+		this.staleOnError++;
+	}
+	
+	/**
+	 * Serializes and caches the results, if they are successful.
+	 * 
+	 * @param key
+	 * @param results
+	 * @return the cached results or <code>null</code> if they are not cacheable
+	 */
+	public QPCachedOneBoxResults put(QPCacheKey key, QPIOneBoxResults results) {
+		
+		if ( results == null || ! results.isSuccess() ) {
+			return null;
+		}
+		QPCachedOneBoxResults cached;
+		try {
+			cached = (results instanceof QPCachedOneBoxResults) ? (QPCachedOneBoxResults) results : new QPCachedOneBoxResults(results);
+		} catch ( IOException exc ) {
+			this.log.error("Error in serializing OneBox results for the cache.", exc);
+			return null;
+		}
+		long now = this.currentTime();
+		QPCacheEntry entry = new QPCacheEntry(key, cached, now, now + this.timeToLive);
+		this.put(entry);
+		// outside of the lock, a tier may wait for readers or the disk
+		for ( QPICacheTier tier : this.tiers ) {
+			tier.put(entry);
+		}
+		return cached;
+	}
+	
+	private synchronized void put(QPCacheEntry entry) {
+		
+		this.puts++;
+		Node node = this.data.get(entry.getKey());
+		if ( node != null ) {
+			node.entry = entry;
+			this.onAccess(node);
+			return;
+		}
+		node = new Node(entry, WINDOW);
+		this.data.put(entry.getKey(), node);
+		this.window.put(entry.getKey(), node);
+		if ( this.window.size() > this.windowSize ) {
+			this.evictFromWindow();
+		}
+	}
+	
+	/**
+	 * Moves the oldest window entry into probation, if it is requested more often than 
+	 * the entry it has to evict; otherwise the window entry is evicted.
+	 */
+	private void evictFromWindow() {
+		
+		Node candidate = first(this.window);
+		this.window.remove(candidate.entry.getKey());
+		
+		if ( this.probation.size() + this.protectedSegment.size() < this.mainSize ) {
+			this.addToSegment(candidate, PROBATION);
+			return;
+		}
+		
+		Node victim = this.probation.isEmpty() ? first(this.protectedSegment) : first(this.probation);
+		if ( victim != null && this.sketch.frequency(candidate.entry.getKey()) > this.sketch.frequency(victim.entry.getKey()) ) {
+			this.remove(victim);
+			this.addToSegment(candidate, PROBATION);
+		}
+		else {
+			this.data.remove(candidate.entry.getKey());
+		}
+		this.evictions++;
+	}
+	
+	private void onAccess(Node node) {
+		
+		switch ( node.segment ) {
+		case WINDOW:
+			this.addToSegment(node, WINDOW);
+			break;
+		case PROBATION:
+			this.probation.remove(node.entry.getKey());
+			this.addToSegment(node, PROTECTED);
+			if ( this.protectedSegment.size() > this.protectedSize ) {
+				Node demoted = first(this.protectedSegment);
+				this.protectedSegment.remove(demoted.entry.getKey());
+				this.addToSegment(demoted, PROBATION);
+			}
+			break;
+		default:
+			this.addToSegment(node, PROTECTED);
+		}
+	}
+	
+	private void addToSegment(Node node, int segment) {
+		
+		LinkedHashMap<QPCacheKey, Node> map = this.segment(segment);
+		// remove first to move it to the end (most recently used)
+		map.remove(node.entry.getKey());
+		map.put(node.entry.getKey(), node);
+		node.segment = segment;
+	}
+	
+	private void remove(Node node) {
+		
+		this.data.remove(node.entry.getKey());
+		this.segment(node.segment).remove(node.entry.getKey());
+	}
+	
+	private LinkedHashMap<QPCacheKey, Node> segment(int segment) {
+		
+		switch ( segment ) {
+		case WINDOW:
+			return this.window;
+		case PROBATION:
+			return this.probation;
+		default:
+			return this.protectedSegment;
+		}
+	}
+	
+	private static Node first(LinkedHashMap<QPCacheKey, Node> map) {
+		
+		Iterator<Node> it = map.values().iterator();
+		return it.hasNext() ? it.next() : null;
+	}
+	
+	/**
+	 * Removes the entry.
+	 * 
+	 * @param key
+	 * @return boolean true, if there was an entry
+	 */
+	public boolean invalidate(QPCacheKey key) {
+		
+		boolean removed;
+		synchronized ( this ) {
+			Node node = this.data.get(key);
+			removed = node != null;
+			if ( removed ) {
+				this.remove(node);
+			}
+		}
+		for ( QPICacheTier tier : this.tiers ) {
+			removed |= tier.remove(key);
+		}
+		return removed;
+	}
+	
+	/**
+	 * Removes all entries, the statistics are kept.
+	 * 
+	 * @return int number of removed entries
+	 */
+	public int flush() {
+		
+		int size;
+		synchronized ( this ) {
+			size = this.data.size();
+			this.data.clear();
+			this.window.clear();
+			this.probation.clear();
+			this.protectedSegment.clear();
+		}
+		for ( QPICacheTier tier : this.tiers ) {
+			size = Math.max(size, tier.flush());
+		}
+		this.log.info("Result cache flushed, " + size + " entries removed.");
+		return size;
+	}
+	
+	/**
+	 * Copy of the current entries (most recently used last in each segment).
+	 * 
+	 * @return List<QPCacheEntry>
+	 */
+	public List<QPCacheEntry> getEntries() {
+		
+		List<QPCacheEntry> entries;
+		Set<QPCacheKey> keys;
+		synchronized ( this ) {
+			entries = new ArrayList<QPCacheEntry>(this.data.size());
+			for ( int segment = WINDOW; segment <= PROTECTED; segment++ ) {
+				for ( Node node : this.segment(segment).values() ) {
+					entries.add(node.entry);
+				}
+			}
+			keys = new HashSet<QPCacheKey>(this.data.keySet());
+		}
+		for ( QPICacheTier tier : this.tiers ) {
+			for ( QPCacheEntry entry : tier.getEntries() ) {
+				if ( keys.add(entry.getKey()) ) {
+					entries.add(entry);
+				}
+			}
+		}
+		return entries;
+	}
+	
+	/**
+	 * Entries in the heap expiring within the given time, the most frequently requested first 
+	 * (for the prefetch of popular results, see {@link QPCachePrefetcher}).
+	 * 
+	 * @param within time in milliseconds
+	 * @param minimumFrequency minimum estimated number of recent requests
+	 * @param limit maximum number of entries
+	 * @return List<QPCacheEntry>
+	 */
+	public synchronized List<QPCacheEntry> getExpiringEntries(long within, int minimumFrequency, int limit) {
+		
+		long now = this.currentTime();
+		final Map<QPCacheEntry, Integer> frequencies = new HashMap<QPCacheEntry, Integer>();
+		for ( Node node : this.data.values() ) {
+			long expires = node.entry.getExpires();
+			if ( expires > now && expires <= now + within ) {
+				int frequency = this.sketch.frequency(node.entry.getKey());
+				if ( frequency >= minimumFrequency ) {
+					frequencies.put(node.entry, Integer.valueOf(frequency));
+				}
+			}
+		}
+		List<QPCacheEntry> entries = new ArrayList<QPCacheEntry>(frequencies.keySet());
+		Collections.sort(entries, new Comparator<QPCacheEntry>() {
+			@Override
+			public int compare(QPCacheEntry entry1, QPCacheEntry entry2) {
+				return frequencies.get(entry2).compareTo(frequencies.get(entry1));
+			}
+		});
+		return entries.size() > limit ? new ArrayList<QPCacheEntry>(entries.subList(0, limit)) : entries;
+	}
+	
+	/**
+	 * Name of the segment the key is currently in (window, probation, protected or the name of the tier), 
+	 * <code>null</code> if it is not cached.
+	 * 
+	 * @param key
+	 * @return String
+	 */
+	public String getSegmentName(QPCacheKey key) {
+		
+		synchronized ( this ) {
+			Node node = this.data.get(key);
+			if ( node != null ) {
+				return SEGMENT_NAMES[node.segment];
+			}
+		}
+		for ( QPICacheTier tier : this.tiers ) {
+			if ( tier.contains(key) ) {
+				return tier.getTierName();
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Current number of entries in the heap.
+	 * 
+	 * @return int
+	 */
+	public synchronized int size() {
+		return this.data.size();
+	}
+	
+	/**
+	 * 
+	 * @return int
+	 */
+	public int getMaximumSize() {
+		return this.maximumSize;
+	}
+	
+	/**
+	 * Time to live of an entry in milliseconds.
+	 * 
+	 * @return long
+	 */
+	public long getTimeToLive() {
+		return this.timeToLive;
+	}
+	
+	/**
+	 * Number of hits (fresh and stale) so far.
+	 * 
+	 * @return long
+	 */
+	public synchronized long getHitCount() {
+		return this.hits + this.staleHits;
+	}
+	
+	/**
+	 * Number of misses so far.
+	 * 
+	 * @return long
+	 */
+	public synchronized long getMissCount() {
+		return this.misses;
+	}
+	
+	/**
+	 * The tiers behind the heap.
+	 * 
+	 * @return List<QPICacheTier>
+	 */
+	public List<QPICacheTier> getTiers() {
+		return Collections.unmodifiableList(this.tiers);
+	}
+	
+	/**
+	 * Grace period in milliseconds after the time to live.
+	 * 
+	 * @return long
+	 */
+	public long getStaleWhileRevalidate() {
+		return this.staleWhileRevalidate;
+	}
+	
+	/**
+	 * Maximum staleness in milliseconds after the time to live.
+	 * 
+	 * @return long
+	 */
+	public long getMaxStale() {
+		return this.maxStale;
+	}
+	
+	/**
+	 * Current time in milliseconds, overwritten in tests.
+	 * 
+	 * @return long
+	 */
+	protected long currentTime() {
+		return System.currentTimeMillis();
+	}
+
+	@Override
+	public String getMonitorName() {
+		
+		return "Result cache";
+	}
+
+	@Override
+	public synchronized Map<String, Object> getStatistics() {
+		
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("size", Integer.valueOf(this.data.size()));
+		statistics.put("maximumSize", Integer.valueOf(this.maximumSize));
+		statistics.put("hits", Long.valueOf(this.hits));
+		statistics.put("staleHits", Long.valueOf(this.staleHits));
+		statistics.put("staleOnError", Long.valueOf(this.staleOnError));
+		statistics.put("misses", Long.valueOf(this.misses));
+		statistics.put("puts", Long.valueOf(this.puts));
+		statistics.put("evictions", Long.valueOf(this.evictions));
+		statistics.put("expirations", Long.valueOf(this.expirations));
+		return statistics;
+	}
+}
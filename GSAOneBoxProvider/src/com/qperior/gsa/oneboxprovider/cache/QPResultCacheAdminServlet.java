@@ -0,0 +1,146 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.cache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+
+import com.qperior.gsa.oneboxprovider.provider.QPProviderRegistry;
+import com.qperior.gsa.oneboxprovider.util.QPLogger;
+import com.qperior.gsa.oneboxprovider.util.QPXMLWriter;
+
+/**
+ * Servlet to inspect and flush the {@link QPResultCache} of the provider registry.
+ * <p>
+ * GET lists the entries as XML (optionally only keys containing the parameter <code>query</code>),
+ * POST with the parameter <code>action=flush</code> removes all entries.
+ * It should be protected by a security constraint in the web.xml.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPResultCacheAdminServlet extends HttpServlet {
+
+	private static final long serialVersionUID = -3350129541738920317L;
+	
+	private static final String ACTION_FLUSH = "flush";
+	
+	private static final byte[] BYTES_XML_START = QPXMLWriter.encode("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+	private static final byte[] BYTES_CACHE_BEGIN = QPXMLWriter.encode("<ResultCache size=\"");
+	private static final byte[] BYTES_CACHE_END = QPXMLWriter.encodeElementEnd("ResultCache");
+	private static final byte[] BYTES_ENTRY_SEGMENT = QPXMLWriter.encode("<Entry segment=\"");
+	private static final byte[] BYTES_ENTRY_AGE = QPXMLWriter.encode("\" ageMillis=\"");
+	private static final byte[] BYTES_ENTRY_TTL = QPXMLWriter.encode("\" ttlMillis=\"");
+	private static final byte[] BYTES_ENTRY_BYTES = QPXMLWriter.encode("\" bytes=\"");
+	private static final byte[] BYTES_ENTRY_RESULTS = QPXMLWriter.encode("\" results=\"");
+	private static final byte[] BYTES_ENTRY_END = QPXMLWriter.encodeElementEnd("Entry");
+	private static final byte[] BYTES_FLUSHED_BEGIN = QPXMLWriter.encode("<ResultCache flushed=\"");
+	private static final byte[] BYTES_FLUSHED_END = QPXMLWriter.encode("\"/>");
+	private static final byte[] BYTES_DISABLED = QPXMLWriter.encode("<ResultCache enabled=\"false\"/>");
+	private static final byte[] BYTES_ATTRIBUTE_END = QPXMLWriter.encode("\">");
+	
+	private Log log = QPLogger.getLogger(this.getClass());
+	
+	@Override
+	public void doGet(HttpServletRequest request, HttpServletResponse response)
+		throws ServletException, IOException
+	{
+		QPResultCache cache = this.getResultCache();
+		String filter = request.getParameter("query");
+		
+		response.setContentType("text/xml; charset=UTF-8");
+		OutputStream out = response.getOutputStream();
+		QPXMLWriter writer = new QPXMLWriter(out);
+		writer.write(BYTES_XML_START);
+		if (cache == null) {
+			writer.write(BYTES_DISABLED);
+		}
+		else {
+			long now = System.currentTimeMillis();
+			writer.write(BYTES_CACHE_BEGIN);
+			writer.writeInt(cache.size());
+			writer.write(BYTES_ATTRIBUTE_END);
+			for (QPCacheEntry entry : cache.getEntries()) {
+				if (filter != null && entry.getKey().getQuery().indexOf(QPCacheKey.normalizeQuery(filter)) < 0) {
+					continue;
+				}
+				String segment = cache.getSegmentName(entry.getKey());
+				if (segment == null) {
+					// removed in the meantime
+					continue;
+				}
+				writer.write(BYTES_ENTRY_SEGMENT);
+				writer.writeText(segment);
+				writer.write(BYTES_ENTRY_AGE);
+				writer.writeRaw(Long.toString(now - entry.getCreated()));
+				writer.write(BYTES_ENTRY_TTL);
+				writer.writeRaw(Long.toString(entry.getExpires() - now));
+				writer.write(BYTES_ENTRY_BYTES);
+				writer.writeInt(entry.getResults().getSize());
+				writer.write(BYTES_ENTRY_RESULTS);
+				writer.writeInt(entry.getResults().getNumberOfResults());
+				writer.write(BYTES_ATTRIBUTE_END);
+				writer.writeText(entry.getKey().toString());
+				writer.write(BYTES_ENTRY_END);
+			}
+			writer.write(BYTES_CACHE_END);
+		}
+		writer.flush();
+		out.close();
+	}
+	
+	@Override
+	public void doPost(HttpServletRequest request, HttpServletResponse response)
+		throws ServletException, IOException
+	{
+		if (! ACTION_FLUSH.equals(request.getParameter("action"))) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown action, supported: " + ACTION_FLUSH);
+			return;
+		}
+		
+		QPResultCache cache = this.getResultCache();
+		response.setContentType("text/xml; charset=UTF-8");
+		OutputStream out = response.getOutputStream();
+		QPXMLWriter writer = new QPXMLWriter(out);
+		writer.write(BYTES_XML_START);
+		if (cache == null) {
+			writer.write(BYTES_DISABLED);
+		}
+		else {
+			int flushed = cache.flush();
+			this.log.info("Result cache flushed by " + request.getRemoteAddr() + ".");
+			writer.write(BYTES_FLUSHED_BEGIN);
+			writer.writeInt(flushed);
+			writer.write(BYTES_FLUSHED_END);
+		}
+		writer.flush();
+		out.close();
+	}
+	
+	private QPResultCache getResultCache() {
+		
+		QPProviderRegistry registry = (QPProviderRegistry) this.getServletContext().getAttribute(QPProviderRegistry.CONTEXT_ATTRIBUTE);
+		return registry == null ? null : registry.getResultCache();
+	}
+}
@@ -17,6 +17,7 @@
 package com.qperior.gsa.oneboxprovider.implementations.dummy;
 
 import com.qperior.gsa.oneboxprovider.provider.QPAbstractProvider;
+import com.qperior.gsa.oneboxprovider.provider.QPRequestContext;
 import com.qperior.gsa.oneboxprovider.results.QPIOneBoxResults;
 import com.qperior.gsa.oneboxprovider.util.exception.QPProviderException;
 
@@ -32,7 +33,7 @@ public class QPDummyProviderForNone extends QPAbstractProvider {
 	//private Log log = QPLogger.getLogger(this.getClass());
 	
 	@Override
-	public QPIOneBoxResults provideOneBoxResults() throws QPProviderException {
+	public QPIOneBoxResults provideOneBoxResults(QPRequestContext context) throws QPProviderException {
 		
 		return this.createEmptyResult();
 	}
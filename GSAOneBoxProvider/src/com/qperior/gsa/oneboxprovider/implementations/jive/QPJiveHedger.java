@@ -0,0 +1,334 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.implementations.jive;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.http.Header;
+import org.apache.http.client.methods.HttpGet;
+
+import com.qperior.gsa.oneboxprovider.monitoring.QPIMonitorable;
+import com.qperior.gsa.oneboxprovider.provider.QPProviderExecutor;
+import com.qperior.gsa.oneboxprovider.util.QPDeadline;
+import com.qperior.gsa.oneboxprovider.util.QPLogger;
+import com.qperior.gsa.oneboxprovider.util.QPTokenBucket;
+
+/**
+ * Hedged Jive calls: the call runs on the calling thread, if it did not answer within the hedge delay 
+ * (by default the observed 95th percentile of the latency of the node) a hedge is sent to another node 
+ * chosen by the {@link QPJiveLoadBalancer}. The first answer is used, the slower request is aborted.
+ * <p>
+ * A hedge is a further Jive call, so it is only sent if
+ * <ul>
+ * <li>the hedge budget has a token: a {@link QPTokenBucket} refilled with the budget share of each call 
+ * (e.g. 0.1 tokens for 10 percent) up to the burst, so hedges saved up in quiet times are limited,</li>
+ * <li>the {@link QPJiveRateLimiter} gives a token like for a background call, so hedges are shed first,</li>
+ * <li>a thread of the bounded hedge executor is free, otherwise the hedge is rejected, never the call.</li>
+ * </ul>
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPJiveHedger implements QPIMonitorable {
+	
+	/**
+	 * Hedge delay in milliseconds until enough latencies are observed
+	 */
+	private static final long DEFAULT_HEDGE_DELAY = 500L;
+	
+	private Log log = QPLogger.getLogger(this.getClass());
+	
+	private final QPJiveLoadBalancer loadBalancer;
+	
+	private final QPJiveRateLimiter rateLimiter;
+	
+	private final long hedgeDelay;
+	
+	private final double budgetShare;
+	
+	private final QPTokenBucket budget;
+	
+	private final ThreadPoolExecutor executor;
+	
+	private final AtomicLong calls = new AtomicLong();
+	private final AtomicLong hedges = new AtomicLong();
+	private final AtomicLong hedgeWins = new AtomicLong();
+	private final AtomicLong budgetExhausted = new AtomicLong();
+	private final AtomicLong rateLimitShed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	
+	/**
+	 * 
+	 * @param loadBalancer load balancer choosing the node of the hedge
+	 * @param rateLimiter rate limiter of the Jive calls, may be <code>null</code>
+	 * @param hedgeDelay time in milliseconds after which the hedge is sent, 0 for the observed 95th percentile
+	 * @param budget maximum hedges in percent of the calls
+	 * @param burst maximum hedges saved up in the budget
+	 * @param threads maximum threads running hedges
+	 */
+	public QPJiveHedger(QPJiveLoadBalancer loadBalancer, QPJiveRateLimiter rateLimiter, long hedgeDelay, int budget, int burst, int threads) {
+		
+		this.loadBalancer = loadBalancer;
+		this.rateLimiter = rateLimiter;
+		this.hedgeDelay = hedgeDelay;
+		this.budgetShare = budget / 100.0;
+		// refilled by the calls, not by the time
+		this.budget = new QPTokenBucket(0.0, burst);
+		this.executor = new ThreadPoolExecutor(0, Math.max(1, threads), 60L, TimeUnit.SECONDS, 
+				new SynchronousQueue<Runnable>(), QPProviderExecutor.createThreadFactory("QPJiveHedge-"));
+	}
+	
+	/**
+	 * Executes the request on the calling thread and hedges it on another node if it is slow.
+	 * 
+	 * @param client client of the node the request is sent to
+	 * @param request request to the base URL of the client
+	 * @param deadline deadline of the request
+	 * @return Response the first answer
+	 * @throws IOException if the request failed and no hedge answered
+	 */
+	public QPJiveHttpClient.Response execute(QPJiveHttpClient client, HttpGet request, QPDeadline deadline) throws IOException {
+		
+		this.calls.incrementAndGet();
+		this.budget.deposit(this.budgetShare);
+		HedgedCall call = new HedgedCall(client, request, deadline);
+		ScheduledFuture<?> timer = QPProviderExecutor.getScheduler().schedule(call, 
+				deadline.limit(this.getHedgeDelay(client)), TimeUnit.MILLISECONDS);
+		try {
+			QPJiveHttpClient.Response response = client.execute(request, deadline);
+			call.onAnswer();
+			return response;
+		} catch ( IOException exc ) {
+			QPJiveHttpClient.Response hedge = call.awaitHedge();
+			if ( hedge != null ) {
+				this.hedgeWins.incrementAndGet();
+				return hedge;
+			}
+			throw exc;
+		} finally {
+			timer.cancel(false);
+		}
+	}
+	
+	/**
+	 * The configured hedge delay, or the 95th percentile of the observed latencies of the node.
+	 */
+	private long getHedgeDelay(QPJiveHttpClient client) {
+		
+		if ( this.hedgeDelay > 0 ) {
+			return this.hedgeDelay;
+		}
+		long p95 = client.getLatencyPercentile(95);
+		return p95 < 0 ? DEFAULT_HEDGE_DELAY : Math.max(1L, p95);
+	}
+	
+	/**
+	 * Copies the request to the base URL of the other node.
+	 */
+	private static HttpGet copyRequest(HttpGet request, QPJiveHttpClient from, QPJiveHttpClient to) {
+		
+		String uri = request.getURI().toString();
+		if ( uri.startsWith(from.getBaseURL()) ) {
+			uri = to.getBaseURL() + uri.substring(from.getBaseURL().length());
+		}
+		HttpGet copy = new HttpGet(uri);
+		for ( Header header : request.getAllHeaders() ) {
+			copy.addHeader(header);
+		}
+		return copy;
+	}
+	
+	/**
+	 * Shuts down the hedge executor.
+	 */
+	public void shutdown() {
+		
+		this.executor.shutdownNow();
+	}
+	
+	@Override
+	public String getMonitorName() {
+		
+		return "Jive hedging";
+	}
+	
+	@Override
+	public Map<String, Object> getStatistics() {
+		
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("calls", Long.valueOf(this.calls.get()));
+		statistics.put("hedges", Long.valueOf(this.hedges.get()));
+		statistics.put("hedgeWins", Long.valueOf(this.hedgeWins.get()));
+		statistics.put("budgetTokens", Long.valueOf((long) this.budget.getTokens()));
+		statistics.put("budgetExhausted", Long.valueOf(this.budgetExhausted.get()));
+		statistics.put("rateLimitShed", Long.valueOf(this.rateLimitShed.get()));
+		statistics.put("rejected", Long.valueOf(this.rejected.get()));
+		statistics.put("activeThreads", Integer.valueOf(this.executor.getActiveCount()));
+		return statistics;
+	}
+	
+	/**
+	 * State of one hedged call: started by the timer after the hedge delay, 
+	 * the hedge runs on the hedge executor while the call waits on the calling thread.
+	 */
+	private class HedgedCall implements Runnable {
+		
+		private final QPJiveHttpClient client;
+		private final HttpGet request;
+		private final QPDeadline deadline;
+		
+		// guarded by this
+		private boolean answered;
+		private boolean failed;
+		private boolean hedgeRunning;
+		private HttpGet hedgeRequest;
+		private QPJiveHttpClient.Response hedgeResponse;
+		
+		HedgedCall(QPJiveHttpClient client, HttpGet request, QPDeadline deadline) {
+			this.client = client;
+			this.request = request;
+			this.deadline = deadline;
+		}
+		
+		/**
+		 * Hedge delay passed: the hedge is handed to the executor.
+		 */
+		@Override
+		public void run() {
+			
+			synchronized ( this ) {
+				if ( this.answered || this.failed || this.deadline.isExpired() ) {
+					return;
+				}
+				this.hedgeRunning = true;
+			}
+			try {
+				executor.execute(new Runnable() {
+					
+					@Override
+					public void run() {
+						hedge();
+					}
+				});
+			} catch ( RejectedExecutionException exc ) {
+				rejected.incrementAndGet();
+				this.onHedgeDone(null);
+			}
+		}
+		
+		/**
+		 * Sends the hedge if the budget and the rate limit allow it.
+		 */
+		private void hedge() {
+			
+			QPJiveHttpClient.Response response = null;
+			try {
+				synchronized ( this ) {
+					if ( this.answered ) {
+						return;
+					}
+				}
+				if ( ! budget.tryAcquire() ) {
+					budgetExhausted.incrementAndGet();
+					return;
+				}
+				if ( rateLimiter != null && ! rateLimiter.acquire(this.deadline, true) ) {
+					rateLimitShed.incrementAndGet();
+					return;
+				}
+				QPJiveHttpClient other = loadBalancer.selectOther(this.client);
+				HttpGet hedge = copyRequest(this.request, this.client, other);
+				synchronized ( this ) {
+					if ( this.answered ) {
+						return;
+					}
+					this.hedgeRequest = hedge;
+				}
+				hedges.incrementAndGet();
+				response = other.execute(hedge, this.deadline);
+			} catch ( IOException exc ) {
+				log.debug("Hedge of '" + this.request.getURI() + "' failed: " + exc);
+			} catch ( RuntimeException exc ) {
+				log.error("Error in the hedge of '" + this.request.getURI() + "'.", exc);
+			} finally {
+				this.onHedgeDone(response);
+			}
+		}
+		
+		/**
+		 * Keeps the answer of the hedge for the call; a successful answer aborts the slower call.
+		 */
+		private void onHedgeDone(QPJiveHttpClient.Response response) {
+			
+			boolean abort;
+			synchronized ( this ) {
+				this.hedgeRunning = false;
+				if ( response != null && ! this.answered ) {
+					this.hedgeResponse = response;
+				}
+				abort = this.hedgeResponse != null && ! this.failed && this.hedgeResponse.getStatus() < 500;
+				this.notifyAll();
+			}
+			if ( abort ) {
+				this.request.abort();
+			}
+		}
+		
+		/**
+		 * The call answered: no hedge is started any more, a running one is cancelled.
+		 */
+		void onAnswer() {
+			
+			HttpGet running;
+			synchronized ( this ) {
+				this.answered = true;
+				running = this.hedgeRunning ? this.hedgeRequest : null;
+			}
+			if ( running != null ) {
+				QPJiveHttpClient.cancel(running);
+			}
+		}
+		
+		/**
+		 * The call failed: waits for a running hedge within the deadline.
+		 * 
+		 * @return the answer of the hedge or <code>null</code>
+		 */
+		synchronized QPJiveHttpClient.Response awaitHedge() {
+			
+			this.failed = true;
+			try {
+				while ( this.hedgeRunning && this.hedgeResponse == null && ! this.deadline.isExpired() ) {
+					long remaining = this.deadline.remaining();
+					this.wait(remaining == Long.MAX_VALUE ? 0L : Math.max(1L, remaining));
+				}
+			} catch ( InterruptedException exc ) {
+				Thread.currentThread().interrupt();
+			}
+			return this.hedgeResponse;
+		}
+	}
+}
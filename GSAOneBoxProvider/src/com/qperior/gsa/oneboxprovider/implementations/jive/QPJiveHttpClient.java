@@ -0,0 +1,688 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.implementations.jive;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+import com.qperior.gsa.oneboxprovider.monitoring.QPIMonitorable;
+import com.qperior.gsa.oneboxprovider.monitoring.QPMonitorRegistry;
+import com.qperior.gsa.oneboxprovider.provider.QPProviderExecutor;
+import com.qperior.gsa.oneboxprovider.util.QPCircuitBreaker;
+import com.qperior.gsa.oneboxprovider.util.QPDeadline;
+import com.qperior.gsa.oneboxprovider.util.QPLogger;
+import com.qperior.gsa.oneboxprovider.util.exception.QPCircuitOpenException;
+
+/**
+ * Shared HTTP client for the Jive REST API, one per base URL. 
+ * The connections are pooled and kept alive, idle and expired connections are closed in the background.
+ * Connect, socket and pool timeouts are set from the {@link QPJiveProperties}, 
+ * limited to the remaining time of the deadline of the request.
+ * If {@link QPJiveProperties#isCircuitBreaker()} is set, the calls go through a {@link QPCircuitBreaker}: 
+ * failed calls (exceptions and status 5xx) and slow calls open it.
+ * <p>
+ * The latencies of the successful calls give the hedge delay of the {@link QPJiveHedger}.
+ * <p>
+ * The latency (EWMA) and the calls in flight give the load of the node for the {@link QPJiveLoadBalancer}, 
+ * a node is ejected for a while after consecutive failed calls.
+ * <p>
+ * Use {@link #acquire(String)} when a provider starts and {@link #release()} when it stops, 
+ * the pool is shut down when the last user released it.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPJiveHttpClient implements QPIMonitorable {
+	
+	/**
+	 * Timeout in milliseconds to get a connection from the pool, read by the request director of 
+	 * HttpClient 4.1 (the deprecated ConnManagerPNames.TIMEOUT, ClientPNames.CONN_MANAGER_TIMEOUT from 4.2 on).
+	 */
+	private static final String CONNECTION_REQUEST_TIMEOUT = "http.conn-manager.timeout";
+	
+	/**
+	 * Parameter marking a request cancelled by {@link #cancel(HttpGet)}.
+	 */
+	private static final String CANCELLED = "com.qperior.gsa.oneboxprovider.jive.cancelled";
+	
+	private static final Map<String, QPJiveHttpClient> clients = new HashMap<String, QPJiveHttpClient>();
+	
+	private static ScheduledExecutorService evictor;
+	
+	private Log log = QPLogger.getLogger(this.getClass());
+	
+	private final String baseURL;
+	
+	private final ThreadSafeClientConnManager connectionManager;
+	
+	private final DefaultHttpClient httpClient;
+	
+	private final QPCircuitBreaker circuitBreaker;
+	
+	private final LatencyWindow latencies = new LatencyWindow(100);
+	
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	
+	/**
+	 * Weight of the latest call in the latency EWMA
+	 */
+	private static final double EWMA_WEIGHT = 0.2;
+	
+	private final AtomicInteger callsInFlight = new AtomicInteger();
+	private final AtomicInteger consecutiveFailures = new AtomicInteger();
+	private final AtomicLong ejections = new AtomicLong();
+	private volatile long ejectedUntil = 0L;
+	private double latencyEwma = 0.0;
+	
+	private int users = 0;
+	
+	/**
+	 * Response with the status and the body read out completely, 
+	 * the connection is back in the pool.
+	 */
+	public static class Response {
+		
+		private final int status;
+		private final String body;
+		private final long retryAfter;
+		
+		Response(int status, String body, long retryAfter) {
+			this.status = status;
+			this.body = body;
+			this.retryAfter = retryAfter;
+		}
+
+		/**
+		 * HTTP status code.
+		 * 
+		 * @return int
+		 */
+		public int getStatus() {
+			return this.status;
+		}
+
+		/**
+		 * Body of the response, only read for status 200, otherwise <code>null</code>.
+		 * 
+		 * @return String
+		 */
+		public String getBody() {
+			return this.body;
+		}
+		
+		/**
+		 * Did Jive reject the call because the API quota is exceeded (status 429)?
+		 * 
+		 * @return boolean
+		 */
+		public boolean isRateLimited() {
+			return this.status == 429;
+		}
+		
+		/**
+		 * Time in milliseconds until Jive accepts calls again: from the <code>Retry-After</code> header, 
+		 * or from <code>X-RateLimit-Reset</code> if <code>X-RateLimit-Remaining</code> is 0; 0 if none.
+		 * 
+		 * @return long
+		 */
+		public long getRetryAfter() {
+			return this.retryAfter;
+		}
+	}
+	
+	/**
+	 * Client of the base URL, not shared if not created by {@link #acquire(String)}.
+	 * 
+	 * @param baseURL
+	 */
+	protected QPJiveHttpClient(String baseURL) {
+		
+		this.baseURL = baseURL;
+		
+		this.connectionManager = new ThreadSafeClientConnManager(SchemeRegistryFactory.createDefault());
+		this.connectionManager.setMaxTotal(QPJiveProperties.getMaxConnectionsTotal());
+		this.connectionManager.setDefaultMaxPerRoute(QPJiveProperties.getMaxConnectionsPerRoute());
+		
+		HttpParams params = new BasicHttpParams();
+		HttpConnectionParams.setConnectionTimeout(params, QPJiveProperties.getConnectTimeout());
+		HttpConnectionParams.setSoTimeout(params, QPJiveProperties.getSocketTimeout());
+		HttpConnectionParams.setStaleCheckingEnabled(params, true);
+		HttpConnectionParams.setTcpNoDelay(params, true);
+		params.setLongParameter(CONNECTION_REQUEST_TIMEOUT, QPJiveProperties.getConnectionRequestTimeout());
+		
+		this.httpClient = new DefaultHttpClient(this.connectionManager, params);
+		this.httpClient.setKeepAliveStrategy(new DefaultKeepAliveStrategy(QPJiveProperties.getKeepAlive()));
+		
+		if ( QPJiveProperties.isCircuitBreaker() ) {
+			this.circuitBreaker = new QPCircuitBreaker(baseURL, 
+					QPJiveProperties.getCircuitBreakerWindowSize(), 
+					QPJiveProperties.getCircuitBreakerMinimumCalls(), 
+					QPJiveProperties.getCircuitBreakerFailureRateThreshold(), 
+					QPJiveProperties.getCircuitBreakerSlowCallRateThreshold(), 
+					QPJiveProperties.getCircuitBreakerSlowCallDuration(), 
+					QPJiveProperties.getCircuitBreakerOpenDuration(), 
+					QPJiveProperties.getCircuitBreakerHalfOpenCalls());
+		}
+		else {
+			this.circuitBreaker = null;
+		}
+	}
+	
+	/**
+	 * Gets the shared client for the base URL and registers one more user.
+	 * 
+	 * @param baseURL
+	 * @return QPJiveHttpClient
+	 */
+	public static synchronized QPJiveHttpClient acquire(String baseURL) {
+		
+		QPJiveHttpClient client = clients.get(baseURL);
+		if ( client == null ) {
+			client = new QPJiveHttpClient(baseURL);
+			clients.put(baseURL, client);
+			QPMonitorRegistry.register(client);
+			if ( client.circuitBreaker != null ) {
+				QPMonitorRegistry.register(client.circuitBreaker);
+			}
+			startEvictor();
+		}
+		client.users++;
+		return client;
+	}
+	
+	/**
+	 * Unregisters one user, the last one shuts down the connection pool.
+	 */
+	public void release() {
+		
+		synchronized (QPJiveHttpClient.class) {
+			if ( --this.users > 0 ) {
+				return;
+			}
+			if ( clients.get(this.baseURL) == this ) {
+				clients.remove(this.baseURL);
+			}
+			QPMonitorRegistry.unregister(this);
+			if ( this.circuitBreaker != null ) {
+				QPMonitorRegistry.unregister(this.circuitBreaker);
+			}
+			if ( clients.isEmpty() && evictor != null ) {
+				evictor.shutdownNow();
+				evictor = null;
+			}
+		}
+		this.connectionManager.shutdown();
+		this.log.info("Connection pool for '" + this.baseURL + "' shut down.");
+	}
+	
+	private static void startEvictor() {
+		
+		if ( evictor != null ) {
+			return;
+		}
+		long interval = QPJiveProperties.getIdleConnectionCheckInterval();
+		evictor = Executors.newSingleThreadScheduledExecutor(QPProviderExecutor.createThreadFactory("QPJiveIdleConnectionEvictor-"));
+		evictor.scheduleWithFixedDelay(new Runnable() {
+			
+			@Override
+			public void run() {
+				closeIdleConnections();
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+	
+	private static void closeIdleConnections() {
+		
+		QPJiveHttpClient[] all;
+		synchronized (QPJiveHttpClient.class) {
+			all = clients.values().toArray(new QPJiveHttpClient[clients.size()]);
+		}
+		long idleTimeout = QPJiveProperties.getIdleConnectionTimeout();
+		for ( QPJiveHttpClient client : all ) {
+			client.connectionManager.closeExpiredConnections();
+			client.connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	/**
+	 * Executes the request with a pooled connection. 
+	 * The entity is always consumed, so the connection goes back to the pool.
+	 * 
+	 * @param request
+	 * @return Response
+	 * @throws IOException also a timeout in connecting, reading or waiting for a pooled connection
+	 */
+	public Response execute(HttpGet request) throws IOException {
+		
+		return this.execute(request, QPDeadline.NONE);
+	}
+	
+	/**
+	 * Executes the request with a pooled connection, the timeouts are limited to the deadline 
+	 * and the request is aborted when the deadline is reached. 
+	 * The entity is always consumed, so the connection goes back to the pool.
+	 * 
+	 * @param request
+	 * @param deadline
+	 * @return Response
+	 * @throws IOException also a timeout in connecting, reading or waiting for a pooled connection, 
+	 * or the abort at the deadline (counted as slow call, not as failure of the node)
+	 * @throws QPCircuitOpenException if the circuit breaker rejected the call
+	 */
+	public Response execute(final HttpGet request, QPDeadline deadline) throws IOException {
+		
+		if ( this.circuitBreaker != null && ! this.circuitBreaker.tryAcquire() ) {
+			throw new QPCircuitOpenException("Circuit to '" + this.baseURL + "' is open.");
+		}
+		ScheduledFuture<?> abort = null;
+		if ( deadline.isLimited() ) {
+			HttpParams params = request.getParams();
+			HttpConnectionParams.setConnectionTimeout(params, limitTimeout(deadline, QPJiveProperties.getConnectTimeout()));
+			HttpConnectionParams.setSoTimeout(params, limitTimeout(deadline, QPJiveProperties.getSocketTimeout()));
+			params.setLongParameter(CONNECTION_REQUEST_TIMEOUT, limitTimeout(deadline, QPJiveProperties.getConnectionRequestTimeout()));
+			abort = QPProviderExecutor.getScheduler().schedule(new Runnable() {
+				
+				@Override
+				public void run() {
+					request.abort();
+				}
+			}, deadline.remaining(), TimeUnit.MILLISECONDS);
+		}
+		this.callsInFlight.incrementAndGet();
+		long start = System.currentTimeMillis();
+		boolean failed = true;
+		Response response = null;
+		try {
+			response = this.executeRequest(request);
+			failed = response.getStatus() >= 500;
+			if ( ! failed ) {
+				this.latencies.add(System.currentTimeMillis() - start);
+			}
+			return response;
+		} finally {
+			if ( abort != null ) {
+				abort.cancel(false);
+			}
+			long duration = System.currentTimeMillis() - start;
+			this.callsInFlight.decrementAndGet();
+			if ( response == null && ( request.isAborted() || deadline.isExpired() ) ) {
+				// aborted or timed out at the deadline of the request or cancelled: Jive was slow, but did not fail
+				this.recordLatency(duration);
+				if ( this.circuitBreaker != null ) {
+					if ( isCancelled(request) ) {
+						this.circuitBreaker.onSuccess(duration);
+					}
+					else {
+						this.circuitBreaker.onSlowCall();
+					}
+				}
+			}
+			else {
+				this.recordOutcome(failed, duration);
+				if ( this.circuitBreaker != null ) {
+					if ( failed ) {
+						this.circuitBreaker.onFailure(duration);
+					}
+					else {
+						this.circuitBreaker.onSuccess(duration);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Aborts a request whose answer is not needed any more (e.g. the slower one of a hedged call, 
+	 * see {@link QPJiveHedger}); it is neither a failure nor a slow call of the node.
+	 * 
+	 * @param request
+	 */
+	public static void cancel(HttpGet request) {
+		
+		request.getParams().setBooleanParameter(CANCELLED, true);
+		request.abort();
+	}
+	
+	private static boolean isCancelled(HttpGet request) {
+		
+		return request.getParams().getBooleanParameter(CANCELLED, false);
+	}
+	
+	/**
+	 * Updates the latency EWMA and ejects the node after consecutive failures.
+	 */
+	private void recordOutcome(boolean failed, long duration) {
+		
+		this.recordLatency(duration);
+		if ( ! failed ) {
+			this.consecutiveFailures.set(0);
+			return;
+		}
+		int threshold = QPJiveProperties.getEjectionFailures();
+		if ( threshold > 0 && this.consecutiveFailures.incrementAndGet() >= threshold ) {
+			this.consecutiveFailures.set(0);
+			this.ejectedUntil = System.currentTimeMillis() + QPJiveProperties.getEjectionTime();
+			this.ejections.incrementAndGet();
+			this.log.error("Jive node '" + this.baseURL + "' ejected after " + threshold + " failed calls.");
+		}
+	}
+	
+	/**
+	 * Updates the latency EWMA.
+	 */
+	private synchronized void recordLatency(long duration) {
+		
+		this.latencyEwma = EWMA_WEIGHT * duration + (1.0 - EWMA_WEIGHT) * this.latencyEwma;
+	}
+	
+	/**
+	 * Reads the rate limit headers, see {@link Response#getRetryAfter()}. 
+	 * The reset may be given in seconds from now or as epoch seconds.
+	 */
+	private static long parseRetryAfter(HttpResponse response) {
+		
+		Header retryAfter = response.getFirstHeader("Retry-After");
+		if ( retryAfter != null ) {
+			return parseSeconds(retryAfter.getValue());
+		}
+		Header remaining = response.getFirstHeader("X-RateLimit-Remaining");
+		Header reset = response.getFirstHeader("X-RateLimit-Reset");
+		if ( remaining != null && reset != null && "0".equals(remaining.getValue().trim()) ) {
+			long seconds = parseSeconds(reset.getValue()) / 1000L;
+			long now = System.currentTimeMillis() / 1000L;
+			if ( seconds > now ) {
+				seconds -= now;
+			}
+			return seconds * 1000L;
+		}
+		return 0L;
+	}
+	
+	private static long parseSeconds(String value) {
+		
+		try {
+			return Math.max(0L, Long.parseLong(value.trim())) * 1000L;
+		} catch ( NumberFormatException exc ) {
+			// HTTP date is not supported
+			return 0L;
+		}
+	}
+	
+	/**
+	 * Percentile of the latencies of the last successful calls.
+	 * 
+	 * @param percentile
+	 * @return long milliseconds or -1 if not enough calls were observed
+	 */
+	public long getLatencyPercentile(int percentile) {
+		return this.latencies.getPercentile(percentile);
+	}
+	
+	/**
+	 * Latency EWMA in milliseconds.
+	 * 
+	 * @return double
+	 */
+	public synchronized double getLatencyEwma() {
+		return this.latencyEwma;
+	}
+	
+	/**
+	 * Load of the node: latency EWMA times the calls in flight (plus the new one).
+	 * 
+	 * @return double
+	 */
+	public double getLoad() {
+		return (this.getLatencyEwma() + 1.0) * (this.callsInFlight.get() + 1);
+	}
+	
+	/**
+	 * Neither ejected nor with an open circuit?
+	 * 
+	 * @return boolean
+	 */
+	public boolean isAvailable() {
+		return System.currentTimeMillis() >= this.ejectedUntil && ! this.isCircuitOpen();
+	}
+	
+	/**
+	 * Base URL of the Jive node.
+	 * 
+	 * @return String
+	 */
+	public String getBaseURL() {
+		return this.baseURL;
+	}
+	
+	/**
+	 * Opens connections to the Jive node in advance and puts them into the pool, 
+	 * without sending a request (so the API quota is not used).
+	 * 
+	 * @param connections number of connections, at most the connections per route
+	 * @return int number of open connections put into the pool
+	 */
+	public int preconnect(int connections) {
+		
+		List<ManagedClientConnection> opened = new ArrayList<ManagedClientConnection>();
+		int count = Math.min(connections, this.connectionManager.getDefaultMaxPerRoute());
+		int open = 0;
+		try {
+			URI uri = new URI(this.baseURL);
+			// the route planner of the client gives the route of the calls (secure for https, proxy), 
+			// so the connections are pooled under the same route
+			HttpContext context = new BasicHttpContext();
+			HttpRoute route = this.httpClient.getRoutePlanner().determineRoute(
+					new HttpHost(uri.getHost(), uri.getPort(), uri.getScheme()), new HttpGet(this.baseURL), context);
+			// all connections are held until the end, otherwise the pool would hand out the same one again
+			for (int i = 0; i < count; i++) {
+				ManagedClientConnection connection = this.connectionManager.requestConnection(route, null)
+						.getConnection(QPJiveProperties.getConnectionRequestTimeout(), TimeUnit.MILLISECONDS);
+				opened.add(connection);
+				if (! connection.isOpen()) {
+					connection.open(route, context, this.httpClient.getParams());
+				}
+				connection.markReusable();
+				open++;
+			}
+		} catch (Exception exc) {
+			this.log.warn("Error in opening connections to '" + this.baseURL + "': " + exc.getMessage());
+		} finally {
+			for (ManagedClientConnection connection : opened) {
+				this.connectionManager.releaseConnection(connection, QPJiveProperties.getKeepAlive(), TimeUnit.MILLISECONDS);
+			}
+		}
+		return open;
+	}
+	
+	/**
+	 * Is the circuit to Jive open, so calls are rejected?
+	 * 
+	 * @return boolean
+	 */
+	public boolean isCircuitOpen() {
+		
+		return this.circuitBreaker != null && this.circuitBreaker.getState() == QPCircuitBreaker.State.OPEN;
+	}
+	
+	/**
+	 * At least one millisecond, 0 would be an infinite timeout.
+	 */
+	private static int limitTimeout(QPDeadline deadline, long timeout) {
+		
+		return (int) Math.max(1L, deadline.limit(timeout));
+	}
+	
+	private Response executeRequest(HttpGet request) throws IOException {
+		
+		this.requests.incrementAndGet();
+		this.inFlight.incrementAndGet();
+		try {
+			HttpResponse response = this.httpClient.execute(request);
+			int status = response.getStatusLine().getStatusCode();
+			HttpEntity entity = response.getEntity();
+			String body = null;
+			if ( status == 200 && entity != null ) {
+				body = EntityUtils.toString(entity);
+			}
+			else {
+				EntityUtils.consume(entity);
+			}
+			return new Response(status, body, parseRetryAfter(response));
+		} catch (IOException exc) {
+			if ( ! request.isAborted() ) {
+				// aborted requests are the losers of a hedge or were aborted at the deadline
+				this.failures.incrementAndGet();
+			}
+			request.abort();
+			throw exc;
+		} catch (RuntimeException exc) {
+			this.failures.incrementAndGet();
+			request.abort();
+			throw exc;
+		} finally {
+			this.inFlight.decrementAndGet();
+		}
+	}
+	
+	@Override
+	public String getMonitorName() {
+		
+		return "Jive HTTP client " + this.baseURL;
+	}
+	
+	@Override
+	public Map<String, Object> getStatistics() {
+		
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("maxTotal", Integer.valueOf(this.connectionManager.getMaxTotal()));
+		statistics.put("maxPerRoute", Integer.valueOf(this.connectionManager.getDefaultMaxPerRoute()));
+		statistics.put("pooledConnections", Integer.valueOf(this.connectionManager.getConnectionsInPool()));
+		statistics.put("inFlight", Integer.valueOf(this.inFlight.get()));
+		statistics.put("requests", Long.valueOf(this.requests.get()));
+		statistics.put("failures", Long.valueOf(this.failures.get()));
+		statistics.put("latencyEwma", Long.valueOf(Math.round(this.getLatencyEwma())));
+		statistics.put("callsInFlight", Integer.valueOf(this.callsInFlight.get()));
+		statistics.put("available", Boolean.valueOf(this.isAvailable()));
+		statistics.put("ejections", Long.valueOf(this.ejections.get()));
+		statistics.put("latencyP95", Long.valueOf(this.getLatencyPercentile(95)));
+		return statistics;
+	}
+	
+	/**
+	 * Latencies in milliseconds of the last successful calls, the percentile is computed 
+	 * again after a tenth of the window was replaced.
+	 */
+	private static class LatencyWindow {
+		
+		private final long[] samples;
+		private int pos = 0;
+		private int count = 0;
+		private int added = 0;
+		private long percentile = -1L;
+		private int percentileOf = -1;
+		
+		LatencyWindow(int size) {
+			this.samples = new long[size];
+		}
+		
+		synchronized void add(long latency) {
+			
+			this.samples[this.pos] = latency;
+			this.pos = (this.pos + 1) % this.samples.length;
+			if ( this.count < this.samples.length ) {
+				this.count++;
+			}
+			this.added++;
+		}
+		
+		/**
+		 * @return the percentile or -1 if less than a fifth of the window is filled
+		 */
+		synchronized long getPercentile(int p) {
+			
+			if ( this.count < this.samples.length / 5 ) {
+				return -1L;
+			}
+			if ( this.percentileOf != p || this.added >= Math.max(1, this.samples.length / 10) ) {
+				long[] sorted = Arrays.copyOf(this.samples, this.count);
+				Arrays.sort(sorted);
+				this.percentile = sorted[Math.min(this.count - 1, this.count * p / 100)];
+				this.percentileOf = p;
+				this.added = 0;
+			}
+			return this.percentile;
+		}
+	}
+	
+	/**
+	 * Uses the keep-alive header of the server, or the configured default if the server sends none.
+	 */
+	private static class DefaultKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+		
+		private final ConnectionKeepAliveStrategy headerStrategy = new DefaultConnectionKeepAliveStrategy();
+		
+		private final long defaultKeepAlive;
+		
+		DefaultKeepAliveStrategy(long defaultKeepAlive) {
+			this.defaultKeepAlive = defaultKeepAlive;
+		}
+
+		@Override
+		public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+			
+			long keepAlive = this.headerStrategy.getKeepAliveDuration(response, context);
+			if ( keepAlive < 0 ) {
+				return this.defaultKeepAlive;
+			}
+			return keepAlive;
+		}
+	}
+}
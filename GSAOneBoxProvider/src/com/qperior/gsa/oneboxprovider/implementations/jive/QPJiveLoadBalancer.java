@@ -0,0 +1,159 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.implementations.jive;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+
+import com.qperior.gsa.oneboxprovider.util.QPLogger;
+
+/**
+ * Spreads the Jive calls over the Jive nodes (see {@link QPJiveProperties#getJiveURLs()}), 
+ * one shared {@link QPJiveHttpClient} per node.
+ * <p>
+ * Selection by the "power of two choices": of two randomly chosen available nodes the one with
+ * the lower load is taken, the load is the latency (EWMA) times the calls in flight. 
+ * Nodes with an open circuit or ejected after consecutive failures are only chosen if no node is available.
+ * The hedge of a call (see {@link QPJiveHedger}) goes to another node than the call.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPJiveLoadBalancer {
+	
+	private Log log = QPLogger.getLogger(this.getClass());
+	
+	private final List<QPJiveHttpClient> clients;
+	
+	private final Random random = new Random();
+	
+	private QPJiveLoadBalancer(List<QPJiveHttpClient> clients) {
+		
+		this.clients = Collections.unmodifiableList(clients);
+	}
+	
+	/**
+	 * Acquires the shared clients of the base URLs.
+	 * 
+	 * @param baseURLs
+	 * @return QPJiveLoadBalancer
+	 */
+	public static QPJiveLoadBalancer acquire(String[] baseURLs) {
+		
+		List<QPJiveHttpClient> clients = new ArrayList<QPJiveHttpClient>(baseURLs.length);
+		for ( String baseURL : baseURLs ) {
+			clients.add(QPJiveHttpClient.acquire(baseURL.trim()));
+		}
+		if ( clients.isEmpty() ) {
+			throw new IllegalArgumentException("No Jive URL configured.");
+		}
+		return new QPJiveLoadBalancer(clients);
+	}
+	
+	/**
+	 * Releases the shared clients.
+	 */
+	public void release() {
+		
+		for ( QPJiveHttpClient client : this.clients ) {
+			client.release();
+		}
+	}
+	
+	/**
+	 * Selects the client for the next call.
+	 * 
+	 * @return QPJiveHttpClient
+	 */
+	public QPJiveHttpClient select() {
+		
+		return this.select(null);
+	}
+	
+	/**
+	 * Selects the client for a hedge of a call, another node than the one of the call if there is one.
+	 * 
+	 * @param client client of the call
+	 * @return QPJiveHttpClient
+	 */
+	public QPJiveHttpClient selectOther(QPJiveHttpClient client) {
+		
+		return this.select(client);
+	}
+	
+	private QPJiveHttpClient select(QPJiveHttpClient excluded) {
+		
+		if ( this.clients.size() == 1 ) {
+			return this.clients.get(0);
+		}
+		List<QPJiveHttpClient> others = new ArrayList<QPJiveHttpClient>(this.clients.size());
+		List<QPJiveHttpClient> candidates = new ArrayList<QPJiveHttpClient>(this.clients.size());
+		for ( QPJiveHttpClient client : this.clients ) {
+			if ( client == excluded ) {
+				continue;
+			}
+			others.add(client);
+			if ( client.isAvailable() ) {
+				candidates.add(client);
+			}
+		}
+		if ( candidates.isEmpty() ) {
+			this.log.debug("No Jive node available, choosing among all.");
+			candidates = others;
+		}
+		if ( candidates.size() == 1 ) {
+			return candidates.get(0);
+		}
+		
+		int first = this.random.nextInt(candidates.size());
+		int second = this.random.nextInt(candidates.size() - 1);
+		if ( second >= first ) {
+			second++;
+		}
+		QPJiveHttpClient a = candidates.get(first);
+		QPJiveHttpClient b = candidates.get(second);
+		return a.getLoad() <= b.getLoad() ? a : b;
+	}
+	
+	/**
+	 * Is the circuit to all Jive nodes open, so calls are rejected?
+	 * 
+	 * @return boolean
+	 */
+	public boolean isCircuitOpen() {
+		
+		for ( QPJiveHttpClient client : this.clients ) {
+			if ( ! client.isCircuitOpen() ) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * The clients of the nodes.
+	 * 
+	 * @return List<QPJiveHttpClient>
+	 */
+	public List<QPJiveHttpClient> getClients() {
+		return this.clients;
+	}
+}
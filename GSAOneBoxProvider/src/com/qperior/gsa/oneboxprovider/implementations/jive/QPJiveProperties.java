@@ -16,23 +16,35 @@
  */
 package com.qperior.gsa.oneboxprovider.implementations.jive;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.PropertiesConfiguration;
+import org.apache.commons.logging.Log;
+
+import com.qperior.gsa.oneboxprovider.implementations.jive.rest.QPJiveRESTSearchContent;
+import com.qperior.gsa.oneboxprovider.util.QPConfigSnapshot;
+import com.qperior.gsa.oneboxprovider.util.QPConfigWatcher;
+import com.qperior.gsa.oneboxprovider.util.QPLogger;
 
 /**
  * Properties class for the Jive provider
+ * <p>
+ * The values are read from an immutable snapshot of the file with the values needed per call 
+ * precomputed (e.g. the type parameter of the search URL); if the file is changed, a new snapshot 
+ * is swapped in by the {@link QPConfigWatcher}.
  * 
  * @author Ralf Ovelgoenne
  *
  */
 public class QPJiveProperties {
 	
-	private static Configuration config;
+	private static Log log = QPLogger.getLogger(QPJiveProperties.class);
+	
+	private static volatile JiveSnapshot config;
 	
 	private static final String NAME_PROPERTIES_FILE = "JiveProvider.properties";
 	
@@ -46,20 +58,168 @@ public class QPJiveProperties {
 	
 	private static final String KEY_RESULT_TYPES = "Types";
 	
+	private static final String KEY_JSON_CONVERTER = "JsonConverter";
+	
+	private static final String KEY_CONNECT_TIMEOUT = "ConnectTimeout";
+	
+	private static final String KEY_SOCKET_TIMEOUT = "SocketTimeout";
+	
+	private static final String KEY_CONNECTION_REQUEST_TIMEOUT = "ConnectionRequestTimeout";
+	
+	private static final String KEY_MAX_CONNECTIONS_TOTAL = "MaxConnectionsTotal";
+	
+	private static final String KEY_MAX_CONNECTIONS_PER_ROUTE = "MaxConnectionsPerRoute";
+	
+	private static final String KEY_KEEP_ALIVE = "KeepAlive";
+	
+	private static final String KEY_IDLE_CONNECTION_TIMEOUT = "IdleConnectionTimeout";
+	
+	private static final String KEY_IDLE_CONNECTION_CHECK_INTERVAL = "IdleConnectionCheckInterval";
+	
+	private static final String KEY_SINGLE_FLIGHT = "SingleFlight";
+	
+	private static final String KEY_SINGLE_FLIGHT_TIMEOUT = "SingleFlightTimeout";
+	
+	private static final String KEY_NEGATIVE_CACHE = "NegativeCache";
+	
+	private static final String KEY_NEGATIVE_CACHE_MAX_SIZE = "NegativeCacheMaxSize";
+	
+	private static final String KEY_NEGATIVE_CACHE_TTL = "NegativeCacheTTL";
+	
+	private static final String KEY_CIRCUIT_BREAKER = "CircuitBreaker";
+	
+	private static final String KEY_CIRCUIT_BREAKER_WINDOW_SIZE = "CircuitBreakerWindowSize";
+	
+	private static final String KEY_CIRCUIT_BREAKER_MINIMUM_CALLS = "CircuitBreakerMinimumCalls";
+	
+	private static final String KEY_CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD = "CircuitBreakerFailureRateThreshold";
+	
+	private static final String KEY_CIRCUIT_BREAKER_SLOW_CALL_RATE_THRESHOLD = "CircuitBreakerSlowCallRateThreshold";
+	
+	private static final String KEY_CIRCUIT_BREAKER_SLOW_CALL_DURATION = "CircuitBreakerSlowCallDuration";
+	
+	private static final String KEY_CIRCUIT_BREAKER_OPEN_DURATION = "CircuitBreakerOpenDuration";
+	
+	private static final String KEY_CIRCUIT_BREAKER_HALF_OPEN_CALLS = "CircuitBreakerHalfOpenCalls";
+	
+	private static final String KEY_HEDGING = "Hedging";
+	
+	private static final String KEY_HEDGE_DELAY = "HedgeDelay";
+	
+	private static final String KEY_HEDGE_BUDGET = "HedgeBudget";
+	
+	private static final String KEY_HEDGE_BUDGET_BURST = "HedgeBudgetBurst";
+	
+	private static final String KEY_HEDGE_THREADS = "HedgeThreads";
+	
+	private static final String KEY_EJECTION_FAILURES = "EjectionFailures";
+	
+	private static final String KEY_EJECTION_TIME = "EjectionTime";
+	
+	private static final String KEY_RATE_LIMIT = "RateLimit";
+	
+	private static final String KEY_RATE_LIMIT_BURST = "RateLimitBurst";
+	
+	private static final String KEY_RATE_LIMIT_BACKGROUND_RESERVE = "RateLimitBackgroundReserve";
+	
+	private static final String KEY_RATE_LIMIT_QUEUE_TIMEOUT = "RateLimitQueueTimeout";
+	
+	private static final String KEY_WARMUP_FIXTURE = "WarmupFixture";
+	
+	private static final String KEY_WARMUP_CONNECTIONS = "WarmupConnections";
+	
+	/**
+	 * Value of the streaming JSON converter
+	 */
+	public static final String JSON_CONVERTER_STREAMING = "streaming";
+	
+	/**
+	 * Value of the json-lib JSON converter
+	 */
+	public static final String JSON_CONVERTER_JSONLIB = "jsonlib";
+	
 	private QPJiveProperties() {
 		
 	}
 
+	/**
+	 * Snapshot of the file with the values needed per call precomputed.
+	 */
+	private static class JiveSnapshot extends QPConfigSnapshot {
+		
+		private final boolean testmode;
+		private final String jsonPrefix;
+		private final int resultLimit;
+		private final Set<String> typeSet;
+		private final String typeString;
+		private final boolean streamingJsonConverter;
+		private final int connectTimeout;
+		private final int socketTimeout;
+		private final long connectionRequestTimeout;
+		private final long singleFlightTimeout;
+		private final int ejectionFailures;
+		private final long ejectionTime;
+		
+		JiveSnapshot(PropertiesConfiguration config) {
+			
+			super(config);
+			this.testmode = this.getBoolean(KEY_TESTMODE, false);
+			this.jsonPrefix = this.getString(KEY_JSON_PREFIX);
+			this.resultLimit = this.getInt(KEY_RESULT_LIMIT, 25);
+			@SuppressWarnings("unchecked")
+			List<String> list = this.getList(KEY_RESULT_TYPES);
+			this.typeSet = Collections.unmodifiableSet(new HashSet<String>(list));
+			this.typeString = QPJiveRESTSearchContent.createTypeString(this.typeSet);
+			this.streamingJsonConverter = ! JSON_CONVERTER_JSONLIB.equalsIgnoreCase(this.getString(KEY_JSON_CONVERTER, JSON_CONVERTER_STREAMING));
+			this.connectTimeout = this.getInt(KEY_CONNECT_TIMEOUT, 1000);
+			this.socketTimeout = this.getInt(KEY_SOCKET_TIMEOUT, 3000);
+			this.connectionRequestTimeout = this.getLong(KEY_CONNECTION_REQUEST_TIMEOUT, 500L);
+			this.singleFlightTimeout = this.getLong(KEY_SINGLE_FLIGHT_TIMEOUT, 4000L);
+			this.ejectionFailures = this.getInt(KEY_EJECTION_FAILURES, 5);
+			this.ejectionTime = this.getLong(KEY_EJECTION_TIME, 30000L);
+		}
+	}
+	
 	static {
+		PropertiesConfiguration properties;
 		try {
-			config = new PropertiesConfiguration(NAME_PROPERTIES_FILE);
+			properties = new PropertiesConfiguration(NAME_PROPERTIES_FILE);
 		} catch (ConfigurationException exc) {
+			properties = new PropertiesConfiguration();
+		}
+		config = new JiveSnapshot(properties);
+		QPConfigWatcher.register(new Runnable() {
 			
+			@Override
+			public void run() {
+				reloadIfModified();
+			}
+		});
+	}
+	
+	/**
+	 * Loads the file into a new snapshot, if it was changed; 
+	 * if it can not be read, the current snapshot is kept.
+	 * 
+	 * @return boolean true, if a new snapshot was loaded
+	 */
+	public static boolean reloadIfModified() {
+		
+		if (! config.isModified()) {
+			return false;
+		}
+		try {
+			config = new JiveSnapshot(new PropertiesConfiguration(NAME_PROPERTIES_FILE));
+			log.info("Properties file '" + NAME_PROPERTIES_FILE + "' changed, reloaded.");
+			return true;
+		} catch (ConfigurationException exc) {
+			log.error("Error in reloading '" + NAME_PROPERTIES_FILE + "', keeping the current values.", exc);
+			return false;
 		}
 	}
 	
 	/**
-	 * The URL to Jive REST API.
+	 * The URL to Jive REST API, the first one if there are several.
 	 * 
 	 * @return String
 	 */
@@ -67,13 +227,22 @@ public class QPJiveProperties {
 		return config.getString(KEY_JIVEURL);
 	}
 	
+	/**
+	 * The URLs to Jive REST API of all Jive nodes (comma separated).
+	 * 
+	 * @return String[]
+	 */
+	public static String[] getJiveURLs() {
+		return config.getStringArray(KEY_JIVEURL);
+	}
+	
 	/**
 	 * Testmode true/false.
 	 * 
 	 * @return boolean
 	 */
 	public static boolean isTestmode() {
-		return config.getBoolean(KEY_TESTMODE);
+		return config.testmode;
 	}
 	
 	/**
@@ -82,7 +251,7 @@ public class QPJiveProperties {
 	 * @return String
 	 */
 	public static String getJsonPrefix() {
-		return config.getString(KEY_JSON_PREFIX);
+		return config.jsonPrefix;
 	}
 	
 	/**
@@ -91,17 +260,348 @@ public class QPJiveProperties {
 	 * @return int
 	 */
 	public static int getResultLimit() {
-		return config.getInt(KEY_RESULT_LIMIT);
+		return config.resultLimit;
 	}
 	
 	/**
 	 * The types of content to search
 	 * 
-	 * @return Set<String>
+	 * @return Set<String> unmodifiable
 	 */
 	public static Set<String> getTypeSet() {
-		@SuppressWarnings("unchecked")
-		List<String> list = config.getList(KEY_RESULT_TYPES);
-		return new HashSet<String>(list);		
+		return config.typeSet;
+	}
+	
+	/**
+	 * The types of content to search as URL parameter, see {@link QPJiveRESTSearchContent#getTypeString()}.
+	 * 
+	 * @return String, might be empty
+	 */
+	public static String getTypeString() {
+		return config.typeString;
+	}
+	
+	/**
+	 * The JSON converter: streaming (default) or jsonlib.
+	 * 
+	 * @return String
+	 */
+	public static String getJsonConverter() {
+		return config.getString(KEY_JSON_CONVERTER, JSON_CONVERTER_STREAMING);
+	}
+	
+	/**
+	 * Is the streaming JSON converter configured?
+	 * 
+	 * @return boolean
+	 */
+	public static boolean isStreamingJsonConverter() {
+		return config.streamingJsonConverter;
+	}
+	
+	/**
+	 * Timeout in milliseconds for connecting to Jive.
+	 * 
+	 * @return int
+	 */
+	public static int getConnectTimeout() {
+		return config.connectTimeout;
+	}
+	
+	/**
+	 * Timeout in milliseconds for waiting on data from Jive.
+	 * 
+	 * @return int
+	 */
+	public static int getSocketTimeout() {
+		return config.socketTimeout;
+	}
+	
+	/**
+	 * Timeout in milliseconds for waiting on a free connection of the pool.
+	 * 
+	 * @return long
+	 */
+	public static long getConnectionRequestTimeout() {
+		return config.connectionRequestTimeout;
+	}
+	
+	/**
+	 * Maximum number of pooled connections.
+	 * 
+	 * @return int
+	 */
+	public static int getMaxConnectionsTotal() {
+		return config.getInt(KEY_MAX_CONNECTIONS_TOTAL, 50);
+	}
+	
+	/**
+	 * Maximum number of pooled connections per host.
+	 * 
+	 * @return int
+	 */
+	public static int getMaxConnectionsPerRoute() {
+		return config.getInt(KEY_MAX_CONNECTIONS_PER_ROUTE, 20);
+	}
+	
+	/**
+	 * Keep-alive in milliseconds of a connection, if Jive sends no Keep-Alive header.
+	 * 
+	 * @return long
+	 */
+	public static long getKeepAlive() {
+		return config.getLong(KEY_KEEP_ALIVE, 30000L);
+	}
+	
+	/**
+	 * Time in milliseconds after which idle connections are closed.
+	 * 
+	 * @return long
+	 */
+	public static long getIdleConnectionTimeout() {
+		return config.getLong(KEY_IDLE_CONNECTION_TIMEOUT, 60000L);
+	}
+	
+	/**
+	 * Interval in milliseconds for checking idle and expired connections.
+	 * 
+	 * @return long
+	 */
+	public static long getIdleConnectionCheckInterval() {
+		return config.getLong(KEY_IDLE_CONNECTION_CHECK_INTERVAL, 10000L);
+	}
+	
+	/**
+	 * Identical concurrent calls share one Jive call true/false.
+	 * 
+	 * @return boolean
+	 */
+	public static boolean isSingleFlight() {
+		return config.getBoolean(KEY_SINGLE_FLIGHT, true);
+	}
+	
+	/**
+	 * Maximum time in milliseconds to wait for the result of an identical running Jive call.
+	 * 
+	 * @return long
+	 */
+	public static long getSingleFlightTimeout() {
+		return config.singleFlightTimeout;
+	}
+	
+	/**
+	 * Remembering calls with an empty outcome true/false.
+	 * 
+	 * @return boolean
+	 */
+	public static boolean isNegativeCache() {
+		return config.getBoolean(KEY_NEGATIVE_CACHE, true);
+	}
+	
+	/**
+	 * Maximum number of remembered calls with an empty outcome.
+	 * 
+	 * @return int
+	 */
+	public static int getNegativeCacheMaxSize() {
+		return config.getInt(KEY_NEGATIVE_CACHE_MAX_SIZE, 10000);
+	}
+	
+	/**
+	 * Time to live in milliseconds of a remembered empty outcome.
+	 * 
+	 * @return long
+	 */
+	public static long getNegativeCacheTTL() {
+		return config.getLong(KEY_NEGATIVE_CACHE_TTL, 60000L);
+	}
+	
+	/**
+	 * Circuit breaker around the Jive calls true/false.
+	 * 
+	 * @return boolean
+	 */
+	public static boolean isCircuitBreaker() {
+		return config.getBoolean(KEY_CIRCUIT_BREAKER, true);
+	}
+	
+	/**
+	 * Number of the last calls in the sliding window of the circuit breaker.
+	 * 
+	 * @return int
+	 */
+	public static int getCircuitBreakerWindowSize() {
+		return config.getInt(KEY_CIRCUIT_BREAKER_WINDOW_SIZE, 50);
+	}
+	
+	/**
+	 * Minimum number of calls in the window before the circuit breaker evaluates the rates.
+	 * 
+	 * @return int
+	 */
+	public static int getCircuitBreakerMinimumCalls() {
+		return config.getInt(KEY_CIRCUIT_BREAKER_MINIMUM_CALLS, 20);
+	}
+	
+	/**
+	 * Failure rate in percent opening the circuit.
+	 * 
+	 * @return int
+	 */
+	public static int getCircuitBreakerFailureRateThreshold() {
+		return config.getInt(KEY_CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD, 50);
+	}
+	
+	/**
+	 * Slow call rate in percent opening the circuit.
+	 * 
+	 * @return int
+	 */
+	public static int getCircuitBreakerSlowCallRateThreshold() {
+		return config.getInt(KEY_CIRCUIT_BREAKER_SLOW_CALL_RATE_THRESHOLD, 80);
+	}
+	
+	/**
+	 * Duration in milliseconds from which a Jive call is slow.
+	 * 
+	 * @return long
+	 */
+	public static long getCircuitBreakerSlowCallDuration() {
+		return config.getLong(KEY_CIRCUIT_BREAKER_SLOW_CALL_DURATION, 1000L);
+	}
+	
+	/**
+	 * Time in milliseconds the circuit stays open before trial calls are let through.
+	 * 
+	 * @return long
+	 */
+	public static long getCircuitBreakerOpenDuration() {
+		return config.getLong(KEY_CIRCUIT_BREAKER_OPEN_DURATION, 10000L);
+	}
+	
+	/**
+	 * Number of trial calls in half-open state.
+	 * 
+	 * @return int
+	 */
+	public static int getCircuitBreakerHalfOpenCalls() {
+		return config.getInt(KEY_CIRCUIT_BREAKER_HALF_OPEN_CALLS, 5);
+	}
+	
+	/**
+	 * Hedged Jive calls true/false.
+	 * 
+	 * @return boolean
+	 */
+	public static boolean isHedging() {
+		return config.getBoolean(KEY_HEDGING, false);
+	}
+	
+	/**
+	 * Time in milliseconds after which the hedge is sent, 0 for the observed 95th percentile of the latency.
+	 * 
+	 * @return long
+	 */
+	public static long getHedgeDelay() {
+		return config.getLong(KEY_HEDGE_DELAY, 0L);
+	}
+	
+	/**
+	 * Maximum hedges in percent of the Jive calls.
+	 * 
+	 * @return int
+	 */
+	public static int getHedgeBudget() {
+		return config.getInt(KEY_HEDGE_BUDGET, 10);
+	}
+	
+	/**
+	 * Maximum hedges saved up in the hedge budget.
+	 * 
+	 * @return int
+	 */
+	public static int getHedgeBudgetBurst() {
+		return config.getInt(KEY_HEDGE_BUDGET_BURST, 10);
+	}
+	
+	/**
+	 * Maximum threads sending hedges, further hedges are not sent.
+	 * 
+	 * @return int
+	 */
+	public static int getHedgeThreads() {
+		return config.getInt(KEY_HEDGE_THREADS, 10);
+	}
+	
+	/**
+	 * Number of consecutive failed calls after which a Jive node is ejected (0 never ejects).
+	 * 
+	 * @return int
+	 */
+	public static int getEjectionFailures() {
+		return config.ejectionFailures;
+	}
+	
+	/**
+	 * Time in milliseconds a Jive node is ejected.
+	 * 
+	 * @return long
+	 */
+	public static long getEjectionTime() {
+		return config.ejectionTime;
+	}
+	
+	/**
+	 * Jive calls per second within the API quota (0 is unlimited).
+	 * 
+	 * @return double
+	 */
+	public static double getRateLimit() {
+		return config.getDouble(KEY_RATE_LIMIT, 0.0);
+	}
+	
+	/**
+	 * Maximum Jive calls in a burst.
+	 * 
+	 * @return double
+	 */
+	public static double getRateLimitBurst() {
+		return config.getDouble(KEY_RATE_LIMIT_BURST, getRateLimit());
+	}
+	
+	/**
+	 * Share of the burst (0..1) kept for live calls, background calls are shed below it.
+	 * 
+	 * @return double
+	 */
+	public static double getRateLimitBackgroundReserve() {
+		return config.getDouble(KEY_RATE_LIMIT_BACKGROUND_RESERVE, 0.5);
+	}
+	
+	/**
+	 * Maximum time in milliseconds a live call waits for the rate limit.
+	 * 
+	 * @return long
+	 */
+	public static long getRateLimitQueueTimeout() {
+		return config.getLong(KEY_RATE_LIMIT_QUEUE_TIMEOUT, 200L);
+	}
+	
+	/**
+	 * JSON file (on the classpath) converted in the warmup.
+	 * 
+	 * @return String
+	 */
+	public static String getWarmupFixture() {
+		return config.getString(KEY_WARMUP_FIXTURE, "data/json_test.txt");
+	}
+	
+	/**
+	 * Connections opened to each Jive node in the warmup.
+	 * 
+	 * @return int
+	 */
+	public static int getWarmupConnections() {
+		return config.getInt(KEY_WARMUP_CONNECTIONS, 4);
 	}
 }
@@ -18,24 +18,38 @@ package com.qperior.gsa.oneboxprovider.implementations.jive;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.configuration.ConfigurationUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
 import org.apache.http.conn.HttpHostConnectException;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.util.EntityUtils;
 
+import com.qperior.gsa.oneboxprovider.cache.QPCacheKey;
+import com.qperior.gsa.oneboxprovider.cache.QPCachedOneBoxResults;
+import com.qperior.gsa.oneboxprovider.cache.QPNegativeCache;
+import com.qperior.gsa.oneboxprovider.implementations.jive.rest.QPIJiveJsonConverter;
 import com.qperior.gsa.oneboxprovider.implementations.jive.rest.QPJiveJsonObject;
+import com.qperior.gsa.oneboxprovider.implementations.jive.rest.QPJiveJsonStreamConverter;
 import com.qperior.gsa.oneboxprovider.implementations.jive.rest.QPJiveRESTSearchContent;
+import com.qperior.gsa.oneboxprovider.monitoring.QPMonitorRegistry;
 import com.qperior.gsa.oneboxprovider.provider.QPAbstractProvider;
+import com.qperior.gsa.oneboxprovider.provider.QPRequestContext;
 import com.qperior.gsa.oneboxprovider.results.QPIOneBoxResults;
+import com.qperior.gsa.oneboxprovider.results.QPOneBoxResults;
+import com.qperior.gsa.oneboxprovider.util.QPDeadline;
 import com.qperior.gsa.oneboxprovider.util.QPLogger;
+import com.qperior.gsa.oneboxprovider.util.QPSingleFlight;
+import com.qperior.gsa.oneboxprovider.util.exception.QPCircuitOpenException;
+import com.qperior.gsa.oneboxprovider.util.exception.QPOneBoxResultException;
 import com.qperior.gsa.oneboxprovider.util.exception.QPProviderException;
 
 /**
@@ -53,6 +67,26 @@ public class QPJiveProvider extends QPAbstractProvider {
 	private static String RESULT_EMPTY = "empty";
 	private static String RESULT_SECURITY = "security";
 	private static String RESULT_TIMEOUT = "timeout";
+	private static String RESULT_CIRCUIT_OPEN = "circuitOpen";
+	private static String RESULT_RATE_LIMITED = "rateLimited";
+	
+	private QPIJiveJsonConverter jsonConverter;
+	
+	private QPJiveLoadBalancer loadBalancer;
+	
+	private QPSingleFlight<String, QPIOneBoxResults> singleFlight;
+	
+	private QPNegativeCache negativeCache;
+	
+	private QPIOneBoxResults circuitOpenResult;
+	
+	private QPIOneBoxResults emptyResult;
+	
+	private QPIOneBoxResults noEntriesResult;
+	
+	private QPJiveRateLimiter rateLimiter;
+	
+	private QPJiveHedger hedger;
 
 	@Override
 	public String toString() {
@@ -60,19 +94,221 @@ public class QPJiveProvider extends QPAbstractProvider {
 		return "Provider: " + this.getProviderName();
 	}
 
+	/**
+	 * Creates the JSON converter configured in {@link QPJiveProperties#getJsonConverter()} 
+	 * and acquires the shared HTTP clients of the Jive nodes.
+	 * If {@link QPJiveProperties#isSingleFlight()} is set, identical concurrent calls are coalesced.
+	 * If {@link QPJiveProperties#isNegativeCache()} is set, calls with an empty outcome are remembered.
+	 * If {@link QPJiveProperties#getRateLimit()} is set, the calls are kept within the API quota of Jive.
+	 * If {@link QPJiveProperties#isHedging()} is set, slow live calls are hedged on another node.
+	 * The timeout result for an open circuit to Jive and the answers of remembered empty outcomes 
+	 * are serialized once.
+	 */
+	@Override
+	public void start() throws QPProviderException {
+		
+		super.start();
+		if (QPJiveProperties.isStreamingJsonConverter()) {
+			this.jsonConverter = new QPJiveJsonStreamConverter(QPJiveProperties.getJsonPrefix());
+		}
+		else {
+			this.jsonConverter = new QPJiveJsonObject();
+		}
+		this.log.info("Using JSON converter '" + this.jsonConverter.getClass().getName() + "'.");
+		try {
+			this.circuitOpenResult = new QPCachedOneBoxResults(this.createTimeoutResult("Jive is not available (circuit open)."));
+		} catch (IOException exc) {
+			throw new QPProviderException("Error in serializing the circuit open result.", exc);
+		}
+		if ( ! QPJiveProperties.isTestmode() ) {
+			this.loadBalancer = QPJiveLoadBalancer.acquire(QPJiveProperties.getJiveURLs());
+		}
+		if ( QPJiveProperties.isSingleFlight() ) {
+			this.singleFlight = new QPSingleFlight<String, QPIOneBoxResults>("Jive single flight");
+			QPMonitorRegistry.register(this.singleFlight);
+		}
+		if ( QPJiveProperties.isNegativeCache() ) {
+			try {
+				this.emptyResult = new QPCachedOneBoxResults(this.createEmptyResult());
+				this.noEntriesResult = new QPCachedOneBoxResults(this.createNoEntriesResult());
+			} catch (IOException exc) {
+				throw new QPProviderException("Error in serializing the results of empty outcomes.", exc);
+			}
+			this.negativeCache = new QPNegativeCache(QPJiveProperties.getNegativeCacheMaxSize(), QPJiveProperties.getNegativeCacheTTL());
+			QPMonitorRegistry.register(this.negativeCache);
+		}
+		if ( QPJiveProperties.getRateLimit() > 0 ) {
+			this.rateLimiter = new QPJiveRateLimiter(QPJiveProperties.getRateLimit(), QPJiveProperties.getRateLimitBurst(), 
+					QPJiveProperties.getRateLimitBackgroundReserve(), QPJiveProperties.getRateLimitQueueTimeout());
+			QPMonitorRegistry.register(this.rateLimiter);
+		}
+		if ( QPJiveProperties.isHedging() && this.loadBalancer != null ) {
+			this.hedger = new QPJiveHedger(this.loadBalancer, this.rateLimiter, QPJiveProperties.getHedgeDelay(), 
+					QPJiveProperties.getHedgeBudget(), QPJiveProperties.getHedgeBudgetBurst(), QPJiveProperties.getHedgeThreads());
+			QPMonitorRegistry.register(this.hedger);
+		}
+	}
+	
+	/**
+	 * Releases the shared HTTP clients.
+	 */
+	@Override
+	public void stop() {
+		
+		if ( this.hedger != null ) {
+			QPMonitorRegistry.unregister(this.hedger);
+			this.hedger.shutdown();
+			this.hedger = null;
+		}
+		if ( this.rateLimiter != null ) {
+			QPMonitorRegistry.unregister(this.rateLimiter);
+			this.rateLimiter = null;
+		}
+		if ( this.negativeCache != null ) {
+			QPMonitorRegistry.unregister(this.negativeCache);
+			this.negativeCache = null;
+		}
+		if ( this.singleFlight != null ) {
+			QPMonitorRegistry.unregister(this.singleFlight);
+			this.singleFlight = null;
+		}
+		if ( this.loadBalancer != null ) {
+			this.loadBalancer.release();
+			this.loadBalancer = null;
+		}
+		super.stop();
+	}
+	
+	/**
+	 * Converts the fixture {@link QPJiveProperties#getWarmupFixture()} with the JSON converter and 
+	 * serializes the results to XML, and opens {@link QPJiveProperties#getWarmupConnections()} 
+	 * connections to each Jive node in advance.
+	 */
+	@Override
+	public void warmup(int iterations) {
+		
+		try {
+			URL url = ConfigurationUtils.locate(null, QPJiveProperties.getWarmupFixture());
+			File file = FileUtils.toFile(url);
+			if ( file != null ) {
+				String json = FileUtils.readFileToString(file);
+				for ( int i = 0; i < iterations; i++ ) {
+					QPIOneBoxResults results = this.jsonConverter.convertJsonToResult(json);
+					if ( results != null ) {
+						results.toXMLString();
+					}
+				}
+			}
+			else {
+				this.log.info("Warmup fixture '" + QPJiveProperties.getWarmupFixture() + "' not found, JSON conversion not warmed up.");
+			}
+		} catch (IOException exc) {
+			this.log.warn("Error in reading the warmup fixture.", exc);
+		} catch (QPOneBoxResultException exc) {
+			this.log.warn("Error in serializing the warmup results.", exc);
+		}
+		
+		QPJiveLoadBalancer balancer = this.loadBalancer;
+		if ( balancer != null && QPJiveProperties.getWarmupConnections() > 0 ) {
+			for ( QPJiveHttpClient client : balancer.getClients() ) {
+				int opened = client.preconnect(QPJiveProperties.getWarmupConnections());
+				this.log.info(opened + " connections to '" + client.getBaseURL() + "' opened in advance.");
+			}
+		}
+	}
+	
 	@Override
 	public String getProviderName() {
 		
 		return "Jive Social Business Software Provider";
 	}
 
+	/**
+	 * Calls Jive; identical concurrent calls wait for the running one and share its results.
+	 * Calls remembered with an empty outcome are answered directly: an empty answer of Jive with 
+	 * the empty result, a successful answer without entries with a successful result without entries.
+	 * The call and the conversion observe the deadline of the request: after it the results 
+	 * converted so far or a timeout result are returned.
+	 * While the circuit to all Jive nodes is open, the serialized timeout result is returned directly.
+	 */
 	@Override
-	public QPIOneBoxResults provideOneBoxResults() throws QPProviderException {
+	public QPIOneBoxResults provideOneBoxResults(final QPRequestContext context) throws QPProviderException {
+
+		final QPDeadline deadline = context.getDeadline();
+		if ( deadline.isExpired() ) {
+			this.log.info("Deadline reached before calling Jive.");
+			return this.createTimeoutResult("Time budget of the request used up before calling Jive.");
+		}
+		QPJiveLoadBalancer balancer = this.loadBalancer;
+		if ( balancer != null && balancer.isCircuitOpen() ) {
+			return this.circuitOpenResult;
+		}
+		final QPJiveRESTSearchContent content = this.fillJiveRESTData(context);
+		final String key = this.createCallKey(context, content);
+		
+		QPNegativeCache negative = this.negativeCache;
+		QPNegativeCache.Outcome outcome = negative != null && key != null ? negative.get(key) : null;
+		if ( outcome == QPNegativeCache.Outcome.EMPTY_ANSWER ) {
+			this.log.info("Empty answer remembered for '" + key + "'.");
+			return this.emptyResult;
+		}
+		if ( outcome == QPNegativeCache.Outcome.NO_ENTRIES ) {
+			this.log.info("Answer without entries remembered for '" + key + "'.");
+			return this.noEntriesResult;
+		}
+		
+		QPSingleFlight<String, QPIOneBoxResults> flight = this.singleFlight;
+		if ( flight == null || key == null ) {
+			return this.loadOneBoxResults(context, content, key);
+		}
+		
+		// live calls do not join background calls and vice versa: the rate limiter and the deadline 
+		// treat them differently, a live call must not get the result of a shed background call
+		String flightKey = context.isBackground() ? key + "|background" : key;
+		try {
+			return flight.execute(flightKey, new Callable<QPIOneBoxResults>() {
+				
+				@Override
+				public QPIOneBoxResults call() {
+					return loadOneBoxResults(context, content, key);
+				}
+			}, deadline.limit(QPJiveProperties.getSingleFlightTimeout()));
+		}
+		catch ( TimeoutException texc ) {
+			this.log.error("Timeout in waiting for the identical running Jive call.");
+			return this.createTimeoutResult("Timeout in waiting for the identical running Jive call.");
+		}
+		catch ( InterruptedException iexc ) {
+			Thread.currentThread().interrupt();
+			return this.createTimeoutResult("Interrupted in waiting for the identical running Jive call.");
+		}
+		catch ( ExecutionException eexc ) {
+			if ( eexc.getCause() instanceof QPProviderException ) {
+				throw (QPProviderException) eexc.getCause();
+			}
+			throw new QPProviderException("Exception in calling Jive.", eexc.getCause());
+		}
+	}
+	
+	/**
+	 * Key of identical calls: the REST URL (query, types and limit). 
+	 * Only calls without user-level access control are shared, otherwise the key is null.
+	 */
+	private String createCallKey(QPRequestContext context, QPJiveRESTSearchContent content) {
+		
+		if ( ! QPCacheKey.isCacheable(context.getCallParameter()) ) {
+			return null;
+		}
+		StringBuilder key = new StringBuilder(content.getURLString()).append(content.getURLParameterString());
+		key.append('|').append(context.getCallParameter().getAuthType().getName());
+		return key.toString();
+	}
+	
+	private QPIOneBoxResults loadOneBoxResults(QPRequestContext context, QPJiveRESTSearchContent content, String key) {
 
 		QPIOneBoxResults result;
 		
-		QPJiveRESTSearchContent content = this.fillJiveRESTData();
-		String json = this.callJiveRestApi(content);
+		String json = this.callJiveRestApi(context, content);
 		if ( json == null || json.equals("") ) {
 			//error
 			result = this.createErrorResult("JSON is empty.");
@@ -84,40 +320,81 @@ public class QPJiveProvider extends QPAbstractProvider {
 		}
 		else if (json.equals(RESULT_EMPTY)) {
 			result = this.createEmptyResult();
+			this.rememberEmptyOutcome(key, QPNegativeCache.Outcome.EMPTY_ANSWER);
 			this.log.info("JSON result: empty.");
 		}
 		else if (json.equals(RESULT_SECURITY)) {
 			result = this.createSecurityResult("Security error in contacting Jive REST API.");
 			this.log.info("JSON result: Security.");
 		}
+		else if (json.equals(RESULT_RATE_LIMITED)) {
+			result = this.createTimeoutResult("Jive API rate limit reached.");
+			this.log.info("JSON result: Rate limited.");
+		}
+		else if (json.equals(RESULT_CIRCUIT_OPEN)) {
+			result = this.circuitOpenResult;
+			this.log.info("JSON result: Circuit open.");
+		}
 		else if (json.equals(RESULT_TIMEOUT)) {
 			result = this.createTimeoutResult("Timeout in contacting Jive REST API.");
 			this.log.error("JSON result: Timeout.");
 			
 		} else {
-			QPJiveJsonObject jsonConverter = new QPJiveJsonObject();
-			result = jsonConverter.convertJsonToResult(json);
+			result = this.jsonConverter.convertJsonToResult(json, context.getDeadline());
 			if ( result == null ) {
 				//error in converting
 				result = this.createErrorResult("Error in converting JSON.");
 				this.log.error("Error in converting JSON.");
 			}
+			else if ( result.isPartial() && result.getNumberOfResults() == 0 ) {
+				result = this.createTimeoutResult("Time budget of the request used up in converting JSON.");
+				this.log.error("JSON result: Timeout in converting.");
+			}
+			else if ( result.isPartial() ) {
+				result.setProvider(this.getProviderName());
+				this.log.info("JSON string partially converted to OneBox result.");
+			}
 			else {
 				result.setProvider(this.getProviderName());
-				this.log.info("JSON string successfully converted to QPJiveJsonObject.");
+				if ( result.getNumberOfResults() == 0 ) {
+					this.rememberEmptyOutcome(key, QPNegativeCache.Outcome.NO_ENTRIES);
+				}
+				this.log.info("JSON string successfully converted to OneBox result.");
 			}
 		}
 		
 		return result;
 	}
 	
-	private QPJiveRESTSearchContent fillJiveRESTData() {
+	/**
+	 * Remembers an empty outcome with its kind, so a remembered call gets the same answer as the call itself.
+	 */
+	private void rememberEmptyOutcome(String key, QPNegativeCache.Outcome outcome) {
+		
+		QPNegativeCache negative = this.negativeCache;
+		if ( negative != null && key != null ) {
+			negative.put(key, outcome);
+		}
+	}
+	
+	/**
+	 * Creates the successful result of an answer of Jive without entries, like the JSON converter does.
+	 */
+	private QPIOneBoxResults createNoEntriesResult() {
+		
+		QPIOneBoxResults res = new QPOneBoxResults();
+		res.setProvider(this.getProviderName());
+		return res;
+	}
+	
+	private QPJiveRESTSearchContent fillJiveRESTData(QPRequestContext context) {
 		
 		QPJiveRESTSearchContent content = new QPJiveRESTSearchContent();
 		// only q and limit is required
-		content.q = this.getCallParameter().getQuery();
+		content.q = context.getCallParameter().getQuery();
 		content.limit = QPJiveProperties.getResultLimit();
 		content.type = QPJiveProperties.getTypeSet();
+		content.typeString = QPJiveProperties.getTypeString();
 		
 		return content;
 	}
@@ -126,9 +403,9 @@ public class QPJiveProvider extends QPAbstractProvider {
 	 * Bad style to give back a String result with JSON or error, empty..
 	 * This is done to fully encapsulate the Jive call (HttpGet) in this method.
 	 * 
-	 * @return JSON String: error, empty, security, timeout
+	 * @return JSON String: error, empty, security, timeout, circuitOpen, rateLimited
 	 */
-	private String callJiveRestApi(QPJiveRESTSearchContent content) {
+	private String callJiveRestApi(QPRequestContext context, QPJiveRESTSearchContent content) {
 		
 		if ( QPJiveProperties.isTestmode() ) {
 			
@@ -144,48 +421,66 @@ public class QPJiveProvider extends QPAbstractProvider {
 			}			
 			
 		} else { 
-			String uri = QPJiveProperties.getJiveURL() + content.getURLString() + content.getURLParameterString();
+			QPJiveRateLimiter limiter = this.rateLimiter;
+			if ( limiter != null && ! limiter.acquire(context.getDeadline(), context.isBackground()) ) {
+				this.log.info("Jive API rate limit reached, call not made.");
+				return RESULT_RATE_LIMITED;
+			}
+			QPJiveHttpClient client = this.loadBalancer.select();
+			String uri = client.getBaseURL() + content.getURLString() + content.getURLParameterString();
 			this.log.info("Calling Jive REST API: URL '" + uri + "'.");
 			String result = "";
 			
 			try {
 				HttpGet httpget = new HttpGet(uri);
-				DefaultHttpClient httpclient = new DefaultHttpClient();		
 				httpget.addHeader("accept", "application/json");
 				
 				/* Basic authorization with user provided by the GSA. */
 				// cast the security provider to use the method
-				//QPJiveSecurityProvider secprovider = (QPJiveSecurityProvider) this.getSecurityProvider();
+				//QPJiveSecurityProvider secprovider = (QPJiveSecurityProvider) context.getSecurityProvider();
 				//httpget.addHeader("Authorization", "Basic " + secprovider.getBasicAccessToken());
 				// To test some features directly write down base64 encoded access token
 				httpget.addHeader("Authorization", "Basic " + "MTYsdfdsgs2343zcr");
 
-				HttpResponse response = httpclient.execute(httpget);
+				// only live calls are hedged, a user waits for them
+				QPJiveHedger hedging = this.hedger;
+				QPJiveHttpClient.Response response = hedging != null && ! context.isBackground() 
+						? hedging.execute(client, httpget, context.getDeadline()) 
+						: client.execute(httpget, context.getDeadline());
+				if ( limiter != null ) {
+					if ( response.isRateLimited() ) {
+						limiter.onRateLimited(response.getRetryAfter());
+					}
+					else if ( response.getRetryAfter() > 0 ) {
+						limiter.pause(response.getRetryAfter());
+					}
+					else {
+						limiter.onAccepted();
+					}
+				}
 				// use status
 				// 200: OK
 				// 401: security
+				// 429: API rate limit
 				// 500: internal server error
-				int status = response.getStatusLine().getStatusCode();
+				int status = response.getStatus();
 				
 				if ( status == 200 ) {
-					HttpEntity entity = response.getEntity();
-					if (entity != null ) {
-					    //long len = entity.getContentLength();
-					    result = EntityUtils.toString(entity);
-					    /*if (len != -1 && len < 2048) {
-					        result = EntityUtils.toString(entity);
-					    } else {
-					        // Stream content out
-					    	this.log.error("HttpEntity longer than 2048!");
-					    }*/
-					    
+					result = response.getBody();
+					if (result != null ) {
 					    /* Response from Jive always starts with "throw 'allowIllegalResourceCall is false.';", 
-					     * with this it is no valid JSON, a JSONObject text must begin with '{'
+					     * with this it is no valid JSON, a JSONObject text must begin with '{'.
+					     * The streaming converter skips it in place, for json-lib it has to be removed.
 					     */
-					    result = StringUtils.replace(result, QPJiveProperties.getJsonPrefix(), "");
+					    String prefix = QPJiveProperties.getJsonPrefix();
+					    if ( ! QPJiveProperties.isStreamingJsonConverter() ) {
+					    	result = StringUtils.replace(result, prefix, "");
+					    }
 					    
-					    if ( result != null && ! result.equals("") ) {
-					    	this.log.info("Calling Jive REST API: result string '" + result + "'.");
+					    if ( result != null && QPJiveJsonStreamConverter.skipPrefix(result, prefix) < result.length() ) {
+					    	if (this.log.isDebugEnabled()) {
+					    		this.log.debug("Calling Jive REST API: result string '" + result + "'.");
+					    	}
 					    } else {
 					    	result = RESULT_EMPTY;
 					    	this.log.info("Calling Jive REST API: result string is empty.");
@@ -197,19 +492,43 @@ public class QPJiveProvider extends QPAbstractProvider {
 					} 
 				} else if (status == 401) {
 					result = RESULT_SECURITY;
+				} else if (response.isRateLimited()) {
+					result = RESULT_RATE_LIMITED;
 				} else {
 					result = RESULT_ERROR;
 				}
 			}
+			catch ( QPCircuitOpenException oexc ) {
+				result = RESULT_CIRCUIT_OPEN;
+			}
 			catch ( HttpHostConnectException hexc ) {
 				// Timeout
 				result = RESULT_TIMEOUT;
 				this.log.error("Timeout in contacting Jive REST API.");
 			}
+			catch ( ConnectionPoolTimeoutException pexc ) {
+				result = RESULT_TIMEOUT;
+				this.log.error("Timeout in waiting for a pooled connection to Jive REST API.");
+			}
+			catch ( ConnectTimeoutException cexc ) {
+				result = RESULT_TIMEOUT;
+				this.log.error("Timeout in connecting to Jive REST API.");
+			}
+			catch ( SocketTimeoutException sexc ) {
+				result = RESULT_TIMEOUT;
+				this.log.error("Timeout in reading from Jive REST API.");
+			}
 			catch (Exception exc) {
 				
-				result = RESULT_ERROR;
-				this.log.error("Exception: ", exc);
+				if ( context.getDeadline().isExpired() ) {
+					// aborted at the deadline
+					result = RESULT_TIMEOUT;
+					this.log.error("Deadline reached in calling Jive REST API.");
+				}
+				else {
+					result = RESULT_ERROR;
+					this.log.error("Exception: ", exc);
+				}
 			}
 			
 			return result;
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.implementations.jive;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+
+import com.qperior.gsa.oneboxprovider.monitoring.QPIMonitorable;
+import com.qperior.gsa.oneboxprovider.util.QPDeadline;
+import com.qperior.gsa.oneboxprovider.util.QPLogger;
+import com.qperior.gsa.oneboxprovider.util.QPTokenBucket;
+
+/**
+ * Keeps the Jive calls of all nodes within the API quota of Jive with a {@link QPTokenBucket}.
+ * <p>
+ * Live calls wait briefly for a token (within the queue timeout and the deadline of the request), 
+ * background calls (e.g. refreshing cached results) only take a token if more than the reserve 
+ * for live calls is left, so they are shed first.
+ * If Jive answers that the quota is exceeded (status 429 or a rate limit header, see 
+ * {@link QPJiveHttpClient.Response#getRetryAfter()}), the calls pause for the given time and the rate 
+ * is halved; it recovers step by step to the configured rate while Jive accepts the calls.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPJiveRateLimiter implements QPIMonitorable {
+	
+	/**
+	 * Share of the configured rate added per second of accepted calls
+	 */
+	private static final double RECOVERY_STEP = 0.05;
+	
+	private Log log = QPLogger.getLogger(this.getClass());
+	
+	private final double configuredRate;
+	private final double minRate;
+	private final double backgroundReserve;
+	private final long queueTimeout;
+	
+	private final QPTokenBucket bucket;
+	
+	private volatile long pausedUntil = 0L;
+	private long lastRecovery = 0L;
+	
+	private final AtomicLong liveQueued = new AtomicLong();
+	private final AtomicLong liveRejected = new AtomicLong();
+	private final AtomicLong backgroundShed = new AtomicLong();
+	private final AtomicLong rateLimited = new AtomicLong();
+	
+	/**
+	 * 
+	 * @param rate calls per second
+	 * @param burst maximum tokens
+	 * @param backgroundReserve share of the burst (0..1) kept for live calls
+	 * @param queueTimeout maximum time in milliseconds a live call waits for a token
+	 */
+	public QPJiveRateLimiter(double rate, double burst, double backgroundReserve, long queueTimeout) {
+		
+		this.configuredRate = rate;
+		this.minRate = Math.max(0.1, rate / 20);
+		this.backgroundReserve = backgroundReserve * burst;
+		this.queueTimeout = queueTimeout;
+		this.bucket = new QPTokenBucket(rate, burst);
+	}
+	
+	/**
+	 * Asks for the permission to call Jive.
+	 * 
+	 * @param deadline deadline of the request
+	 * @param background true if no user waits for the call
+	 * @return boolean false if the call must not be made
+	 */
+	public boolean acquire(QPDeadline deadline, boolean background) {
+		
+		long pause = this.pausedUntil - this.currentTime();
+		if (background) {
+			if (pause > 0 || this.bucket.getTokens() <= this.backgroundReserve || ! this.bucket.tryAcquire()) {
+				this.backgroundShed.incrementAndGet();
+				return false;
+			}
+			return true;
+		}
+		if (this.bucket.tryAcquire()) {
+			return pause <= 0 || this.awaitPause(pause, deadline);
+		}
+		this.liveQueued.incrementAndGet();
+		long timeout = Math.max(0L, deadline.limit(this.queueTimeout) - Math.max(0L, pause));
+		try {
+			if (this.bucket.acquire(timeout)) {
+				pause = this.pausedUntil - this.currentTime();
+				return pause <= 0 || this.awaitPause(pause, deadline);
+			}
+		}
+		catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		}
+		this.liveRejected.incrementAndGet();
+		return false;
+	}
+	
+	private boolean awaitPause(long pause, QPDeadline deadline) {
+		
+		if (pause > deadline.limit(this.queueTimeout)) {
+			this.liveRejected.incrementAndGet();
+			return false;
+		}
+		try {
+			Thread.sleep(pause);
+			return true;
+		}
+		catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			this.liveRejected.incrementAndGet();
+			return false;
+		}
+	}
+	
+	/**
+	 * Jive answered that the quota is exceeded: pauses the calls and halves the rate.
+	 * 
+	 * @param retryAfter time in milliseconds until Jive accepts calls again, 0 if unknown
+	 */
+	public synchronized void onRateLimited(long retryAfter) {
+		
+		this.rateLimited.incrementAndGet();
+		long now = this.currentTime();
+		if (retryAfter > 0) {
+			this.pausedUntil = Math.max(this.pausedUntil, now + retryAfter);
+		}
+		double rate = Math.max(this.minRate, this.bucket.getRate() / 2);
+		this.bucket.setRate(rate);
+		this.lastRecovery = now;
+		this.log.warn("Jive rate limit reached, rate lowered to " + rate + " calls per second" 
+				+ (retryAfter > 0 ? ", pausing " + retryAfter + " ms." : "."));
+	}
+	
+	/**
+	 * Jive accepted the call, but the quota is used up: pauses the calls.
+	 * 
+	 * @param retryAfter time in milliseconds until Jive accepts calls again
+	 */
+	public synchronized void pause(long retryAfter) {
+		
+		this.pausedUntil = Math.max(this.pausedUntil, this.currentTime() + retryAfter);
+	}
+	
+	/**
+	 * Jive accepted a call: raises the rate step by step to the configured rate.
+	 */
+	public synchronized void onAccepted() {
+		
+		double rate = this.bucket.getRate();
+		long now = this.currentTime();
+		if (rate < this.configuredRate && now - this.lastRecovery >= 1000L) {
+			this.bucket.setRate(Math.min(this.configuredRate, rate + this.configuredRate * RECOVERY_STEP));
+			this.lastRecovery = now;
+		}
+	}
+	
+	@Override
+	public String getMonitorName() {
+		
+		return "Jive rate limit";
+	}
+	
+	@Override
+	public Map<String, Object> getStatistics() {
+		
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("configuredRate", Double.valueOf(this.configuredRate));
+		statistics.put("rate", Double.valueOf(this.bucket.getRate()));
+		statistics.put("tokens", Long.valueOf((long) this.bucket.getTokens()));
+		statistics.put("pause", Long.valueOf(Math.max(0L, this.pausedUntil - this.currentTime())));
+		statistics.put("liveQueued", Long.valueOf(this.liveQueued.get()));
+		statistics.put("liveRejected", Long.valueOf(this.liveRejected.get()));
+		statistics.put("backgroundShed", Long.valueOf(this.backgroundShed.get()));
+		statistics.put("rateLimitedResponses", Long.valueOf(this.rateLimited.get()));
+		return statistics;
+	}
+	
+	/**
+	 * Time in milliseconds, overwritten in tests.
+	 * 
+	 * @return long
+	 */
+	protected long currentTime() {
+		return System.currentTimeMillis();
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.implementations.jive.rest;
+
+import com.qperior.gsa.oneboxprovider.results.QPIOneBoxResults;
+import com.qperior.gsa.oneboxprovider.util.QPDeadline;
+
+/**
+ * Interface for the converter of the JSON String delivered by the Jive REST API
+ * to the OneBox result. The implementations are stateless and thread-safe.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public interface QPIJiveJsonConverter {
+
+	/**
+	 * Converts a JSON-String to OneBox result. 
+	 * If an error accours it returns null.
+	 * 
+	 * @param json
+	 * @return QPIOneBoxResults or null (if error)
+	 */
+	public QPIOneBoxResults convertJsonToResult(String json);
+	
+	/**
+	 * Converts a JSON-String to OneBox result until the deadline. 
+	 * If the deadline is reached, the results converted so far are returned, 
+	 * marked as partial (see {@link QPIOneBoxResults#isPartial()}).
+	 * If an error accours it returns null.
+	 * 
+	 * @param json
+	 * @param deadline
+	 * @return QPIOneBoxResults or null (if error)
+	 */
+	public QPIOneBoxResults convertJsonToResult(String json, QPDeadline deadline);
+}
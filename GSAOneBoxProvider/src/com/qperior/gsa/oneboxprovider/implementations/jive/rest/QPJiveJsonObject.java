@@ -28,6 +28,7 @@ import com.qperior.gsa.oneboxprovider.results.QPIOneBoxResults;
 import com.qperior.gsa.oneboxprovider.results.QPModuleResult;
 import com.qperior.gsa.oneboxprovider.results.QPModuleResultField;
 import com.qperior.gsa.oneboxprovider.results.QPOneBoxResults;
+import com.qperior.gsa.oneboxprovider.util.QPDeadline;
 import com.qperior.gsa.oneboxprovider.util.QPLogger;
 
 /**
@@ -44,11 +45,13 @@ import com.qperior.gsa.oneboxprovider.util.QPLogger;
  * </MODULE_RESULT>
  * }
  * </pre>
+ * It converts the whole JSON through json-lib to bean graphs, see {@link QPJiveJsonStreamConverter} 
+ * for the streaming converter.
  * 
  * @author Ralf Ovelgoenne
  *
  */
-public class QPJiveJsonObject {
+public class QPJiveJsonObject implements QPIJiveJsonConverter {
 	
 	private static String JSON_DATA = "data";
 	private static String JSON_TYPE = "type";
@@ -80,8 +83,19 @@ public class QPJiveJsonObject {
 	 * @param json
 	 * @return QPIOneBoxResults or null (if error)
 	 */
+	@Override
 	public QPIOneBoxResults convertJsonToResult(String json) {
 		
+		return this.convertJsonToResult(json, QPDeadline.NONE);
+	}
+	
+	/**
+	 * The deadline is checked before each entry of the data array, 
+	 * the parsing of the whole JSON by json-lib is not interrupted.
+	 */
+	@Override
+	public QPIOneBoxResults convertJsonToResult(String json, QPDeadline deadline) {
+		
 		try {
 			this.log.info("Converting JSON message: " + json);
 			QPIOneBoxResults results = new QPOneBoxResults();
@@ -96,6 +110,11 @@ public class QPJiveJsonObject {
 			}
 			MorphDynaBean dataBean;			
 			for (int i = 0; i < data.size(); i++) {
+				if ( deadline.isExpired() ) {
+					results.setPartial(true);
+					this.log.info("Deadline reached in converting JSON message, " + results.getNumberOfResults() + " results converted.");
+					break;
+				}
 				dataBean = data.get(i);
 				if ( dataBean != null ) {
 					String type = this.ensureStringProperty( dataBean, JSON_TYPE );
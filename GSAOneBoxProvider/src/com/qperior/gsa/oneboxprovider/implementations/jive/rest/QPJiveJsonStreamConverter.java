@@ -0,0 +1,240 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.implementations.jive.rest;
+
+import org.apache.commons.logging.Log;
+
+import com.qperior.gsa.oneboxprovider.results.QPIOneBoxResults;
+import com.qperior.gsa.oneboxprovider.results.QPModuleResult;
+import com.qperior.gsa.oneboxprovider.results.QPModuleResultField;
+import com.qperior.gsa.oneboxprovider.results.QPOneBoxResults;
+import com.qperior.gsa.oneboxprovider.util.QPDeadline;
+import com.qperior.gsa.oneboxprovider.util.QPJsonReader;
+import com.qperior.gsa.oneboxprovider.util.QPLogger;
+
+/**
+ * Streaming converter for the JSON String delivered by the Jive REST API.
+ * <p>
+ * Delivers the same result as {@link QPJiveJsonObject}, but reads the JSON with the 
+ * {@link QPJsonReader} in one pass: the Jive JSON prefix is skipped in place, only
+ * <code>data[].type</code>, <code>data[].subject</code>, <code>data[].author.name</code> and
+ * <code>data[].resources.html.ref</code> are read, everything else is skipped without 
+ * creating objects. The {@link QPModuleResult}s are built directly.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPJiveJsonStreamConverter implements QPIJiveJsonConverter {
+	
+	private static String JSON_DATA = "data";
+	private static String JSON_TYPE = "type";
+	private static String JSON_SUBJECT = "subject";
+	private static String JSON_AUTHOR = "author";
+	private static String JSON_NAME = "name";
+	private static String JSON_RESOURCES = "resources";
+	private static String JSON_HTML = "html";
+	private static String JSON_REF = "ref";
+	
+	private final String jsonPrefix;
+	
+	private Log log = QPLogger.getLogger(this.getClass());
+	
+	/**
+	 * 
+	 * @param jsonPrefix prefix of the Jive response to skip, might be null
+	 */
+	public QPJiveJsonStreamConverter(String jsonPrefix) {
+		
+		this.jsonPrefix = jsonPrefix;
+	}
+	
+	/**
+	 * Gets the position of the JSON content: after the prefix (if present) and leading whitespace.
+	 * If it equals the length of the string there is no content.
+	 * 
+	 * @param json
+	 * @param prefix might be null or empty
+	 * @return int
+	 */
+	public static int skipPrefix(String json, String prefix) {
+		
+		int pos = 0;
+		while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+			pos++;
+		}
+		if (prefix != null && prefix.length() > 0 && json.startsWith(prefix, pos)) {
+			pos += prefix.length();
+			while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+				pos++;
+			}
+		}
+		return pos;
+	}
+
+	@Override
+	public QPIOneBoxResults convertJsonToResult(String json) {
+		
+		return this.convertJsonToResult(json, QPDeadline.NONE);
+	}
+
+	/**
+	 * The deadline is checked before each entry of the data array, 
+	 * the rest of the JSON is not read after it.
+	 */
+	@Override
+	public QPIOneBoxResults convertJsonToResult(String json, QPDeadline deadline) {
+		
+		try {
+			if (this.log.isDebugEnabled()) {
+				this.log.debug("Converting JSON message: " + json);
+			}
+			QPIOneBoxResults results = new QPOneBoxResults();
+			
+			QPJsonReader reader = new QPJsonReader(json, skipPrefix(json, this.jsonPrefix));
+			boolean dataFound = false;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (JSON_DATA.equals(reader.nextName()) && reader.peek() == QPJsonReader.Token.BEGIN_ARRAY) {
+					dataFound = true;
+					if (! this.readData(reader, results, deadline)) {
+						results.setPartial(true);
+						this.log.info("Deadline reached in converting JSON message, " 
+								+ results.getNumberOfResults() + " results converted.");
+						return results;
+					}
+				}
+				else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+			
+			if (! dataFound) {
+				this.log.error("Error in converting JSON message: no data array.");
+				return null;
+			}
+			this.log.info("Finished converting JSON message.");
+			return results;
+		} catch (Exception exc ) {
+			this.log.error("Exception in converting JSON message: ", exc );
+			return null;
+		}
+	}
+	
+	/**
+	 * @return false if the deadline is reached before the end of the array
+	 */
+	private boolean readData(QPJsonReader reader, QPIOneBoxResults results, QPDeadline deadline) {
+		
+		reader.beginArray();
+		while (reader.hasNext()) {
+			if (deadline.isExpired()) {
+				return false;
+			}
+			if (reader.peek() == QPJsonReader.Token.BEGIN_OBJECT && results.canAddResult()) {
+				results.addResult(this.readResult(reader));
+			}
+			else {
+				reader.skipValue();
+			}
+		}
+		reader.endArray();
+		return true;
+	}
+	
+	private QPModuleResult readResult(QPJsonReader reader) {
+		
+		String type = null;
+		String subject = null;
+		String authorName = null;
+		String htmlref = null;
+		
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (JSON_TYPE.equals(name)) {
+				type = this.readString(reader);
+			}
+			else if (JSON_SUBJECT.equals(name)) {
+				subject = this.readString(reader);
+			}
+			else if (JSON_AUTHOR.equals(name)) {
+				authorName = this.readProperty(reader, JSON_NAME);
+			}
+			else if (JSON_RESOURCES.equals(name) && reader.peek() == QPJsonReader.Token.BEGIN_OBJECT) {
+				reader.beginObject();
+				while (reader.hasNext()) {
+					if (JSON_HTML.equals(reader.nextName())) {
+						htmlref = this.readProperty(reader, JSON_REF);
+					}
+					else {
+						reader.skipValue();
+					}
+				}
+				reader.endObject();
+			}
+			else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		
+		QPModuleResult result = new QPModuleResult(subject, htmlref);
+		if ( type != null ) {
+			result.addField(new QPModuleResultField("type", type));
+		}
+		if ( authorName != null ) {
+			result.addField(new QPModuleResultField("author", authorName));
+		}
+		return result;
+	}
+	
+	/**
+	 * Reads a string property of the next object, null if not available.
+	 */
+	private String readProperty(QPJsonReader reader, String propertyName) {
+		
+		if (reader.peek() != QPJsonReader.Token.BEGIN_OBJECT) {
+			reader.skipValue();
+			return null;
+		}
+		String value = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (propertyName.equals(reader.nextName())) {
+				value = this.readString(reader);
+			}
+			else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return value;
+	}
+	
+	/**
+	 * Reads a string value, null if it is of another type.
+	 */
+	private String readString(QPJsonReader reader) {
+		
+		if (reader.peek() == QPJsonReader.Token.STRING) {
+			return reader.nextString();
+		}
+		reader.skipValue();
+		return null;
+	}
+}
@@ -16,6 +16,8 @@
  */
 package com.qperior.gsa.oneboxprovider.implementations.jive.rest;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.util.Iterator;
 import java.util.Set;
 
@@ -43,6 +45,14 @@ public class QPJiveRESTSearchContent extends QPJiveRESTApi {
 	 */
 	public Set<String> type;
 	
+	/**
+	 * Type: String	<br>
+	 * The types as URL parameter, precomputed from the configuration. 
+	 * When not specified it is created from {@link #type}.
+	 * 
+	 */
+	public String typeString;
+	
 	/**
 	 * Helper method to convert the Set to URL Parameter String
 	 * Example: type=discussion&type=update&
@@ -51,13 +61,33 @@ public class QPJiveRESTSearchContent extends QPJiveRESTApi {
 	 */
 	public String getTypeString() {
 		
+		if ( this.typeString != null ) {
+			return this.typeString;
+		}
+		return createTypeString(this.type);
+	}
+	
+	/**
+	 * Converts the types to the URL parameter String, the types are URL encoded.
+	 * Example: type=discussion&type=update&
+	 * 
+	 * @param types
+	 * @return String, might be empty
+	 */
+	public static String createTypeString(Set<String> types) {
+		
 		String ret = "";
 		
-		if ( ! this.type.isEmpty() ) {
-			Iterator<String> it = this.type.iterator();
-			StringBuffer strbuf = new StringBuffer();
-			while (it.hasNext() ) {
-				strbuf.append( PAR_TYPE + "=" + it.next() + DELIMITER );
+		if ( types != null && ! types.isEmpty() ) {
+			Iterator<String> it = types.iterator();
+			StringBuilder strbuf = new StringBuilder();
+			try {
+				while (it.hasNext() ) {
+					strbuf.append( PAR_TYPE + "=" + URLEncoder.encode(it.next(), "UTF-8") + DELIMITER );
+				}
+			} catch (UnsupportedEncodingException exc) {
+				// UTF-8 is always supported
+				throw new IllegalStateException(exc);
 			}
 			ret = strbuf.toString();
 		}		
@@ -1,13 +1,14 @@
 package com.qperior.gsa.oneboxprovider.implementations.opensearch;
 
 import com.qperior.gsa.oneboxprovider.provider.QPAbstractProvider;
+import com.qperior.gsa.oneboxprovider.provider.QPRequestContext;
 import com.qperior.gsa.oneboxprovider.results.QPIOneBoxResults;
 import com.qperior.gsa.oneboxprovider.util.exception.QPProviderException;
 
 public class QPOpenSearchProvider extends QPAbstractProvider {
 
 	@Override
-	public QPIOneBoxResults provideOneBoxResults() throws QPProviderException {
+	public QPIOneBoxResults provideOneBoxResults(QPRequestContext context) throws QPProviderException {
 		// TODO Auto-generated method stub
 		return null;
 	}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.monitoring;
+
+import java.util.Map;
+
+/**
+ * A component which reports statistics (pool usage, counters,..) 
+ * to the {@link QPMonitorRegistry}.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public interface QPIMonitorable {
+	
+	/**
+	 * Name of the component shown in the monitoring.
+	 * 
+	 * @return String
+	 */
+	public String getMonitorName();
+	
+	/**
+	 * Current statistics of the component, name and value.
+	 * 
+	 * @return Map<String, Object>
+	 */
+	public Map<String, Object> getStatistics();
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.monitoring;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Registry of all monitored components of the application.
+ * The statistics are shown by the {@link QPOneBoxProviderAdminServlet}.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPMonitorRegistry {
+	
+	private static final List<QPIMonitorable> monitorables = new CopyOnWriteArrayList<QPIMonitorable>();
+	
+	private QPMonitorRegistry() {
+		
+	}
+	
+	/**
+	 * Registers a component.
+	 * 
+	 * @param monitorable
+	 */
+	public static void register(QPIMonitorable monitorable) {
+		
+		if (! monitorables.contains(monitorable)) {
+			monitorables.add(monitorable);
+		}
+	}
+	
+	/**
+	 * Removes a component.
+	 * 
+	 * @param monitorable
+	 */
+	public static void unregister(QPIMonitorable monitorable) {
+		
+		monitorables.remove(monitorable);
+	}
+	
+	/**
+	 * Gets all registered components.
+	 * 
+	 * @return List<QPIMonitorable>
+	 */
+	public static List<QPIMonitorable> getMonitorables() {
+		
+		return new ArrayList<QPIMonitorable>(monitorables);
+	}
+}
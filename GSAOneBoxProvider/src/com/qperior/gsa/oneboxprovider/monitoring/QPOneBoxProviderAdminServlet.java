@@ -0,0 +1,106 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.monitoring;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+
+import com.qperior.gsa.oneboxprovider.util.QPLogger;
+import com.qperior.gsa.oneboxprovider.util.QPXMLWriter;
+
+/**
+ * Servlet showing the statistics of all components registered in the {@link QPMonitorRegistry} as XML:
+ * <pre>
+ * {@code
+ * <Statistics>
+ *   <Monitor name="Jive HTTP client http://jive/api/core/v2/">
+ *     <Value name="leased">3</Value>
+ *   </Monitor>
+ * </Statistics>
+ * }
+ * </pre>
+ * It should be protected by a security constraint in the web.xml.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPOneBoxProviderAdminServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 4216913507383472311L;
+	
+	private static final byte[] BYTES_STATISTICS_BEGIN = QPXMLWriter.encode("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Statistics>");
+	private static final byte[] BYTES_STATISTICS_END = QPXMLWriter.encodeElementEnd("Statistics");
+	private static final byte[] BYTES_MONITOR_BEGIN = QPXMLWriter.encode("<Monitor name=\"");
+	private static final byte[] BYTES_MONITOR_END = QPXMLWriter.encodeElementEnd("Monitor");
+	private static final byte[] BYTES_VALUE_BEGIN = QPXMLWriter.encode("<Value name=\"");
+	private static final byte[] BYTES_VALUE_END = QPXMLWriter.encodeElementEnd("Value");
+	private static final byte[] BYTES_ATTRIBUTE_END = QPXMLWriter.encode("\">");
+	
+	private Log log = QPLogger.getLogger(this.getClass());
+	
+	@Override
+	public void doGet(HttpServletRequest request, HttpServletResponse response)
+		throws ServletException, IOException
+	{
+		response.setContentType("text/xml; charset=UTF-8");
+		OutputStream out = response.getOutputStream();
+		this.writeStatistics(out);
+		out.close();
+	}
+	
+	/**
+	 * Writes the statistics of all registered components.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	protected void writeStatistics(OutputStream out) throws IOException {
+		
+		QPXMLWriter writer = new QPXMLWriter(out);
+		writer.write(BYTES_STATISTICS_BEGIN);
+		for (QPIMonitorable monitorable : QPMonitorRegistry.getMonitorables()) {
+			Map<String, Object> statistics;
+			try {
+				statistics = monitorable.getStatistics();
+			} catch (Exception exc) {
+				this.log.error("Error in getting statistics of '" + monitorable.getMonitorName() + "'.", exc);
+				continue;
+			}
+			writer.write(BYTES_MONITOR_BEGIN);
+			writer.writeText(monitorable.getMonitorName());
+			writer.write(BYTES_ATTRIBUTE_END);
+			for (Map.Entry<String, Object> entry : statistics.entrySet()) {
+				writer.write(BYTES_VALUE_BEGIN);
+				writer.writeText(entry.getKey());
+				writer.write(BYTES_ATTRIBUTE_END);
+				writer.writeText(String.valueOf(entry.getValue()));
+				writer.write(BYTES_VALUE_END);
+			}
+			writer.write(BYTES_MONITOR_END);
+		}
+		writer.write(BYTES_STATISTICS_END);
+		writer.flush();
+	}
+}
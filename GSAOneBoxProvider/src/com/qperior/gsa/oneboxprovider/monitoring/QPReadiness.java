@@ -0,0 +1,99 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.monitoring;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Readiness of the application to serve traffic: components starting up (e.g. the cache warming) 
+ * register a pending condition and remove it when they are done. The application is ready 
+ * if no condition is pending; the state is shown by the {@link QPReadinessServlet}.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPReadiness {
+	
+	private static final Set<String> pending = new LinkedHashSet<String>();
+	
+	private QPReadiness() {
+		
+	}
+	
+	/**
+	 * Registers a pending condition, the application is not ready until it is removed.
+	 * 
+	 * @param name name of the condition
+	 */
+	public static synchronized void setPending(String name) {
+		
+		pending.add(name);
+	}
+	
+	/**
+	 * Removes a pending condition.
+	 * 
+	 * @param name name of the condition
+	 */
+	public static synchronized void setReady(String name) {
+		
+		if (pending.remove(name)) {
+			QPReadiness.class.notifyAll();
+		}
+	}
+	
+	/**
+	 * Is no condition pending?
+	 * 
+	 * @return boolean
+	 */
+	public static synchronized boolean isReady() {
+		
+		return pending.isEmpty();
+	}
+	
+	/**
+	 * Gets the pending conditions.
+	 * 
+	 * @return List<String>
+	 */
+	public static synchronized List<String> getPending() {
+		
+		return new ArrayList<String>(pending);
+	}
+	
+	/**
+	 * Waits until no condition is pending.
+	 * 
+	 * @param timeout maximum time to wait in milliseconds
+	 * @return boolean true, if ready
+	 * @throws InterruptedException
+	 */
+	public static synchronized boolean awaitReady(long timeout) throws InterruptedException {
+		
+		long end = System.currentTimeMillis() + timeout;
+		long remaining = timeout;
+		while (! pending.isEmpty() && remaining > 0) {
+			QPReadiness.class.wait(remaining);
+			remaining = end - System.currentTimeMillis();
+		}
+		return pending.isEmpty();
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.monitoring;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.qperior.gsa.oneboxprovider.util.QPXMLWriter;
+
+/**
+ * Servlet for the readiness check of a load balancer: status 200 if the application is ready 
+ * (see {@link QPReadiness}), otherwise 503 with the pending conditions:
+ * <pre>
+ * {@code
+ * <Readiness ready="false">
+ *   <Pending>cacheWarming</Pending>
+ * </Readiness>
+ * }
+ * </pre>
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPReadinessServlet extends HttpServlet {
+
+	private static final long serialVersionUID = -3950218716468839120L;
+	
+	private static final byte[] BYTES_READY = QPXMLWriter.encode("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Readiness ready=\"true\"/>");
+	private static final byte[] BYTES_NOT_READY_BEGIN = QPXMLWriter.encode("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Readiness ready=\"false\">");
+	private static final byte[] BYTES_NOT_READY_END = QPXMLWriter.encodeElementEnd("Readiness");
+	private static final byte[] BYTES_PENDING_BEGIN = QPXMLWriter.encode("<Pending>");
+	private static final byte[] BYTES_PENDING_END = QPXMLWriter.encodeElementEnd("Pending");
+	
+	@Override
+	public void doGet(HttpServletRequest request, HttpServletResponse response)
+		throws ServletException, IOException
+	{
+		List<String> pending = QPReadiness.getPending();
+		response.setContentType("text/xml; charset=UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		if (! pending.isEmpty()) {
+			response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		}
+		OutputStream out = response.getOutputStream();
+		QPXMLWriter writer = new QPXMLWriter(out);
+		if (pending.isEmpty()) {
+			writer.write(BYTES_READY);
+		}
+		else {
+			writer.write(BYTES_NOT_READY_BEGIN);
+			for (String name : pending) {
+				writer.write(BYTES_PENDING_BEGIN);
+				writer.writeText(name);
+				writer.write(BYTES_PENDING_END);
+			}
+			writer.write(BYTES_NOT_READY_END);
+		}
+		writer.flush();
+		out.close();
+	}
+}
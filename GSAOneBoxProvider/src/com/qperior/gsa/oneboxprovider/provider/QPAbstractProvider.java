@@ -16,16 +16,16 @@
  */
 package com.qperior.gsa.oneboxprovider.provider;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
 import org.apache.commons.logging.Log;
 
-import com.qperior.gsa.oneboxprovider.QPCallParameter;
 import com.qperior.gsa.oneboxprovider.results.QPIOneBoxResults;
 import com.qperior.gsa.oneboxprovider.results.QPOneBoxResults;
 import com.qperior.gsa.oneboxprovider.results.QPResultCode;
-import com.qperior.gsa.oneboxprovider.security.QPAbstractSecurityProvider;
-import com.qperior.gsa.oneboxprovider.security.QPISecurityProvider;
 import com.qperior.gsa.oneboxprovider.util.QPLogger;
-import com.qperior.gsa.oneboxprovider.util.exception.QPProviderInvokeException;
+import com.qperior.gsa.oneboxprovider.util.exception.QPProviderException;
 
 /**
  * Abstract implementation of {@link QPIProvider} to implement some common tasks for all provider.
@@ -35,64 +35,63 @@ import com.qperior.gsa.oneboxprovider.util.exception.QPProviderInvokeException;
  */
 public abstract class QPAbstractProvider implements QPIProvider {
 	
-	private QPCallParameter callParameter;
-	private QPISecurityProvider securityProvider;
-	private QPOneBoxResults results;
-	
 	private Log log = QPLogger.getLogger(this.getClass());
 	
 	/**
-	 * Create the provider for the given type through reflection
-	 * and inits it with the callParameter. Automatically creates and inits a
-	 * security provider for it.
-	 * 
-	 * @param providerName full qualified class name to load it through reflection
-	 * @param securityProviderName full qualified class name to load it through reflection
-	 * @param callParameter
-	 * @return QPIProvider
-	 * @throws QPProviderInvokeException 
+	 * Nothing to start by default.
 	 */
-	protected static QPIProvider createAndInitProvider(String providerName, String securityProviderName, QPCallParameter callParameter) throws QPProviderInvokeException {
+	@Override
+	public void start() throws QPProviderException {
 		
-		try {
-			QPAbstractProvider provider = (QPAbstractProvider) Class.forName(providerName).newInstance();
-			provider.init(callParameter);
-			
-			QPAbstractSecurityProvider securityProvider = (QPAbstractSecurityProvider) QPAbstractSecurityProvider.createAndInitSecurityProvider(securityProviderName, callParameter);
-			provider.securityProvider = securityProvider;
-			
-			return provider;
-			
-		} catch ( Exception exc ) {
-			throw new QPProviderInvokeException("Exception in creating the provider", exc);
-		}
+		this.log.info("Starting provider '" + this.getProviderName() + "'.");
 	}
 	
 	/**
-	 * Init provider with the call parameter and the type.
-	 * Fills in the callParameter, the securityProvider and inits the results.
-	 * 
-	 * @param callParameter GSA call parameter
+	 * Nothing to stop by default.
 	 */
-	private void init(QPCallParameter callParameter) {
+	@Override
+	public void stop() {
 		
-		this.callParameter = callParameter;
-		this.results = new QPOneBoxResults();
+		this.log.info("Stopping provider '" + this.getProviderName() + "'.");
 	}
 	
+	/**
+	 * Nothing to warm up by default.
+	 */
 	@Override
-	public QPCallParameter getCallParameter() {
-		return callParameter;
-	}
-
-	@Override
-	public QPOneBoxResults getResults() {
-		return results;
+	public void warmup(int iterations) {
+		
 	}
 	
+	/**
+	 * Runs the blocking {@link #provideOneBoxResults(QPRequestContext)} on the executor of the 
+	 * {@link QPBulkhead} of the provider, or on the shared {@link QPProviderExecutor} if it has none.
+	 * Provider with a non-blocking backend client may override it.
+	 * If the executor is saturated the future is completed directly with a timeout result.
+	 */
 	@Override
-	public QPISecurityProvider getSecurityProvider() {
-		return securityProvider;
+	public QPResultFuture provideOneBoxResultsAsync(final QPRequestContext context) {
+		
+		final QPResultFuture future = new QPResultFuture();
+		ExecutorService executor = context.getBulkhead() != null 
+				? context.getBulkhead().getExecutor() : QPProviderExecutor.getExecutor();
+		try {
+			executor.execute(new Runnable() {
+				
+				@Override
+				public void run() {
+					try {
+						future.complete(provideOneBoxResults(context));
+					} catch (Exception exc) {
+						future.fail(exc);
+					}
+				}
+			});
+		} catch (RejectedExecutionException rexc) {
+			this.log.error("Provider executor saturated, rejecting the call.");
+			future.complete(this.createTimeoutResult("Provider busy."));
+		}
+		return future;
 	}
 	
 	/**
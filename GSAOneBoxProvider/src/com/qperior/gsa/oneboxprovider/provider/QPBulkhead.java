@@ -0,0 +1,139 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.provider;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.qperior.gsa.oneboxprovider.monitoring.QPIMonitorable;
+
+/**
+ * Isolates the calls of one provider: an own bounded executor for the asynchronous calls and 
+ * a limit of the calls in flight, so a slow backend does not starve the other provider.
+ * If the bulkhead is saturated the call is not started, the caller answers with a timeout result.
+ * In the virtual thread execution mode (see {@link QPProviderExecutor#isVirtualThreads()}) each call 
+ * runs on its own virtual thread, only bounded by the calls in flight.
+ * <p>
+ * Configured per provider class name, see {@link com.qperior.gsa.oneboxprovider.util.QPProperties#getBulkheadMaxCalls(String)}.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPBulkhead implements QPIMonitorable {
+	
+	private final String providerName;
+	
+	private final int maxCalls;
+	
+	private final Semaphore calls;
+	
+	private final ExecutorService executor;
+	
+	private final AtomicLong rejected = new AtomicLong();
+	
+	/**
+	 * 
+	 * @param providerName full qualified class name of the provider
+	 * @param maxCalls maximum calls in flight
+	 * @param threads threads of the executor
+	 * @param queueSize queue size of the executor
+	 */
+	public QPBulkhead(String providerName, int maxCalls, int threads, int queueSize) {
+		
+		this.providerName = providerName;
+		this.maxCalls = maxCalls;
+		this.calls = new Semaphore(maxCalls);
+		ExecutorService virtual = QPProviderExecutor.isVirtualThreads() ? QPProviderExecutor.createVirtualThreadExecutor() : null;
+		if (virtual != null) {
+			this.executor = virtual;
+		}
+		else {
+			String simpleName = providerName.substring(providerName.lastIndexOf('.') + 1);
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, 
+					new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)),
+					QPProviderExecutor.createThreadFactory("QPBulkhead-" + simpleName + "-"));
+			pool.allowCoreThreadTimeOut(true);
+			this.executor = pool;
+		}
+	}
+	
+	/**
+	 * Takes a slot for a call without waiting.
+	 * 
+	 * @return boolean false if the bulkhead is saturated
+	 */
+	public boolean tryAcquire() {
+		
+		if (this.calls.tryAcquire()) {
+			return true;
+		}
+		this.rejected.incrementAndGet();
+		return false;
+	}
+	
+	/**
+	 * Releases the slot of a finished call.
+	 */
+	public void release() {
+		
+		this.calls.release();
+	}
+	
+	/**
+	 * Executor of the asynchronous calls of the provider.
+	 * 
+	 * @return ExecutorService
+	 */
+	public ExecutorService getExecutor() {
+		return this.executor;
+	}
+	
+	/**
+	 * Shuts down the executor.
+	 */
+	public void shutdown() {
+		
+		this.executor.shutdown();
+	}
+	
+	@Override
+	public String getMonitorName() {
+		
+		return "Bulkhead " + this.providerName;
+	}
+	
+	@Override
+	public Map<String, Object> getStatistics() {
+		
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("maxCalls", Integer.valueOf(this.maxCalls));
+		statistics.put("activeCalls", Integer.valueOf(this.maxCalls - this.calls.availablePermits()));
+		if (this.executor instanceof ThreadPoolExecutor) {
+			ThreadPoolExecutor pool = (ThreadPoolExecutor) this.executor;
+			statistics.put("activeThreads", Integer.valueOf(pool.getActiveCount()));
+			statistics.put("queueDepth", Integer.valueOf(pool.getQueue().size()));
+		}
+		statistics.put("rejected", Long.valueOf(this.rejected.get()));
+		return statistics;
+	}
+}
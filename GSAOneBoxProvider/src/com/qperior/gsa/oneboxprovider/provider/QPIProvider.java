@@ -16,17 +16,18 @@
  */
 package com.qperior.gsa.oneboxprovider.provider;
 
-import com.qperior.gsa.oneboxprovider.QPCallParameter;
 import com.qperior.gsa.oneboxprovider.results.QPIOneBoxResults;
-import com.qperior.gsa.oneboxprovider.results.QPOneBoxResults;
-import com.qperior.gsa.oneboxprovider.security.QPISecurityProvider;
 import com.qperior.gsa.oneboxprovider.util.exception.QPProviderException;
 
 /**
  * Provides the functionality of the provider.
  * Has to be implemented for every concrete provider 
  * (through abstract class {@link QPAbstractProvider}).
- * The provider knows the corresponding security provider (see getSecurityProvider).
+ * <p>
+ * A provider is created once by the {@link QPProviderRegistry} and shared by all requests,
+ * so it may own expensive resources (pools, caches, parsers), which are created in {@link #start()}
+ * and released in {@link #stop()}. All per-request state (call parameter, security provider) 
+ * is passed in the {@link QPRequestContext}; implementations have to be thread-safe.
  * 
  * @author Ralf Ovelgoenne
  *
@@ -34,41 +35,50 @@ import com.qperior.gsa.oneboxprovider.util.exception.QPProviderException;
 public interface QPIProvider {
 	
 	/**
-	 * Method to handle OneBox requests with the user authentication required.
-	 * It has to give back a valid OneBoxResult, null is not allowed!
+	 * Called once by the registry before the first request.
 	 * 
-	 * @return IOneBoxResults
-	 * @throws QPProviderException
+	 * @throws QPProviderException if the provider can not be started
 	 */
-	public QPIOneBoxResults provideOneBoxResults() throws QPProviderException;
-
+	public void start() throws QPProviderException;
+	
 	/**
-	 * The provider name shown in the results.
-	 * 
-	 * @return String
+	 * Called once by the registry on shutdown, releases the resources of the provider.
 	 */
-	public String getProviderName();
+	public void stop();
 	
 	/**
-	 * Gets the call parameter send to the provider.
+	 * Called once after {@link #start()} while the application is not ready yet: runs the 
+	 * provider specific parts of a call without calling the backend (e.g. converting a fixture), 
+	 * so classes are loaded and the JIT compiled the hot paths before the first request.
 	 * 
-	 * @return QPCallParameter
+	 * @param iterations how often the hot paths are run
 	 */
-	public QPCallParameter getCallParameter();
-
+	public void warmup(int iterations);
+	
 	/**
-	 * Gets the result if filled.
+	 * Method to handle OneBox requests with the user authentication required.
+	 * It has to give back a valid OneBoxResult, null is not allowed!
 	 * 
-	 * @return QPOneBoxResults or null
+	 * @param context the state of the request
+	 * @return IOneBoxResults
+	 * @throws QPProviderException
 	 */
-	public QPOneBoxResults getResults();
+	public QPIOneBoxResults provideOneBoxResults(QPRequestContext context) throws QPProviderException;
 	
 	/**
-	 * Gets the security provider fitting to the provider.
-	 * If a special feature is implemented in a concrete SecurityProvider 
-	 * the interface has to be casted to the concrete one.
+	 * Asynchronous variant of {@link #provideOneBoxResults(QPRequestContext)}.
+	 * The calling thread is not blocked; the returned future is completed with
+	 * a valid OneBoxResult (or an exception) when the provider has finished.
 	 * 
-	 * @return QPISecurityProvider
+	 * @param context the state of the request
+	 * @return QPResultFuture
 	 */
-	public QPISecurityProvider getSecurityProvider();
+	public QPResultFuture provideOneBoxResultsAsync(QPRequestContext context);
+
+	/**
+	 * The provider name shown in the results.
+	 * 
+	 * @return String
+	 */
+	public String getProviderName();
 }
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.provider;
+
+import com.qperior.gsa.oneboxprovider.results.QPIOneBoxResults;
+
+/**
+ * Callback for the asynchronous provider call, see {@link QPResultFuture#addListener(QPIResultListener)}.
+ * Exactly one of the methods is called once the provider has finished.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public interface QPIResultListener {
+
+	/**
+	 * The provider delivered its result.
+	 * 
+	 * @param results never null
+	 */
+	public void resultAvailable(QPIOneBoxResults results);
+	
+	/**
+	 * The provider call ended with an exception.
+	 * 
+	 * @param cause
+	 */
+	public void resultFailed(Throwable cause);
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.provider;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+
+import com.qperior.gsa.oneboxprovider.util.QPLogger;
+import com.qperior.gsa.oneboxprovider.util.QPProperties;
+
+/**
+ * Holds the bounded executor running the provider calls of the asynchronous request path.
+ * <p>
+ * The number of threads and the queue size are configured in the application properties
+ * (see {@link QPProperties#getAsyncThreads()} and {@link QPProperties#getAsyncQueueSize()}).
+ * If the queue is full the executor rejects the task, so the caller can answer immediately.
+ * <p>
+ * With the execution mode {@link #EXECUTION_MODE_VIRTUAL} (see {@link QPProperties#getExecutionMode()}) 
+ * each provider call runs on its own virtual thread, which parks cheaply while waiting on the backend. 
+ * The project is compiled for older Java versions, so the virtual thread executor is created through 
+ * reflection; if the JVM does not support it, the platform thread pool is used. 
+ * The calls are then only bounded by the bulkheads and the concurrency limit, not by a queue.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPProviderExecutor {
+	
+	/**
+	 * Execution mode running each provider call on a virtual thread
+	 */
+	public static final String EXECUTION_MODE_VIRTUAL = "virtual";
+	
+	private static Log log = QPLogger.getLogger(QPProviderExecutor.class);
+	
+	private static Method newVirtualThreadPerTaskExecutor;
+	
+	static {
+		try {
+			newVirtualThreadPerTaskExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (Exception exc) {
+			newVirtualThreadPerTaskExecutor = null;
+		}
+	}
+	
+	private static ExecutorService executor;
+	
+	private static Boolean virtualThreads;
+	
+	private static ScheduledExecutorService scheduler;
+	
+	private QPProviderExecutor() {
+		
+	}
+	
+	/**
+	 * Gets the shared executor, creates it on first use.
+	 * 
+	 * @return ExecutorService
+	 */
+	public static synchronized ExecutorService getExecutor() {
+		
+		if (executor == null) {
+			executor = isVirtualThreads() ? createVirtualThreadExecutor() : null;
+			if (executor == null) {
+				int threads = QPProperties.getAsyncThreads();
+				ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, 
+						new ArrayBlockingQueue<Runnable>(QPProperties.getAsyncQueueSize()),
+						createThreadFactory("QPProvider-"));
+				pool.allowCoreThreadTimeOut(true);
+				executor = pool;
+			}
+		}
+		return executor;
+	}
+	
+	/**
+	 * Checks that the provider calls run on virtual threads: the execution mode is 
+	 * {@link #EXECUTION_MODE_VIRTUAL} and the JVM supports them.
+	 * 
+	 * @return boolean
+	 */
+	public static synchronized boolean isVirtualThreads() {
+		
+		if (virtualThreads == null) {
+			boolean virtual = EXECUTION_MODE_VIRTUAL.equalsIgnoreCase(QPProperties.getExecutionMode());
+			if (virtual && newVirtualThreadPerTaskExecutor == null) {
+				log.warn("Virtual threads are not supported by the JVM, using platform threads.");
+				virtual = false;
+			}
+			virtualThreads = Boolean.valueOf(virtual);
+		}
+		return virtualThreads.booleanValue();
+	}
+	
+	/**
+	 * Creates an executor starting a virtual thread per task.
+	 * 
+	 * @return ExecutorService or <code>null</code> if the JVM does not support virtual threads
+	 */
+	public static ExecutorService createVirtualThreadExecutor() {
+		
+		if (newVirtualThreadPerTaskExecutor == null) {
+			return null;
+		}
+		try {
+			return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+		} catch (Exception exc) {
+			log.error("Error in creating the virtual thread executor.", exc);
+			return null;
+		}
+	}
+	
+	/**
+	 * Gets the shared scheduler for short timers (e.g. at the deadline of a request), creates it on first use.
+	 * The tasks have to be short, they run on one thread.
+	 * 
+	 * @return ScheduledExecutorService
+	 */
+	public static synchronized ScheduledExecutorService getScheduler() {
+		
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(createThreadFactory("QPProviderTimer-"));
+		}
+		return scheduler;
+	}
+	
+	/**
+	 * Shuts down the shared executor and scheduler (e.g. on destroy of the servlet).
+	 */
+	public static synchronized void shutdown() {
+		
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+		virtualThreads = null;
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+	
+	/**
+	 * Creates a factory for named daemon threads.
+	 * 
+	 * @param prefix of the thread names
+	 * @return ThreadFactory
+	 */
+	public static ThreadFactory createThreadFactory(final String prefix) {
+		
+		return new ThreadFactory() {
+			
+			private final AtomicInteger count = new AtomicInteger();
+			
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, prefix + this.count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+}
@@ -16,17 +16,38 @@
  */
 package com.qperior.gsa.oneboxprovider.provider;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
 import org.apache.commons.logging.Log;
 
 import com.qperior.gsa.oneboxprovider.QPCallParameter;
+import com.qperior.gsa.oneboxprovider.cache.QPCacheEntry;
+import com.qperior.gsa.oneboxprovider.cache.QPCacheKey;
+import com.qperior.gsa.oneboxprovider.cache.QPCachePrefetcher;
+import com.qperior.gsa.oneboxprovider.cache.QPCacheRefresher;
+import com.qperior.gsa.oneboxprovider.cache.QPResultCache;
 import com.qperior.gsa.oneboxprovider.results.QPIOneBoxResults;
+import com.qperior.gsa.oneboxprovider.results.QPOneBoxResults;
+import com.qperior.gsa.oneboxprovider.results.QPResultCode;
 import com.qperior.gsa.oneboxprovider.security.QPISecurityProvider;
+import com.qperior.gsa.oneboxprovider.util.QPDeadline;
 import com.qperior.gsa.oneboxprovider.util.QPLogger;
+import com.qperior.gsa.oneboxprovider.util.QPTokenBucket;
 import com.qperior.gsa.oneboxprovider.util.exception.QPProviderException;
 import com.qperior.gsa.oneboxprovider.util.exception.QPProviderInvokeException;
 
 /**
  * Invokes the provider.
+ * <p>
+ * If the registry has a {@link QPResultCache}, cached results are returned without calling 
+ * the provider and successful results of the provider are cached. Stale results are served 
+ * and refreshed in the background, and served if the provider fails (stale-while-revalidate).
+ * Each call of the provider takes a token of the provider budget of the registry, if configured.
+ * <p>
+ * The provider is not called after the deadline of the request, an asynchronous call is answered 
+ * at the deadline; with the stale results if there are some, otherwise with a timeout result.
  * 
  * @author Ralf Ovelgoenne
  *
@@ -35,25 +56,60 @@ public class QPProviderInvoker {
 
 	private QPIProvider provider;
 	
+	private QPRequestContext context;
+	
+	private QPResultCache resultCache;
+	
+	private QPCacheKey cacheKey;
+	
+	private QPCacheRefresher cacheRefresher;
+	
+	private QPCachePrefetcher cachePrefetcher;
+	
+	private QPTokenBucket providerBudget;
+	
 	private Log log = QPLogger.getLogger(this.getClass());
 	
-	private QPProviderInvoker( String providerName, String securityProviderName, QPCallParameter callParameter ) throws QPProviderInvokeException {
+	private QPProviderInvoker( QPProviderRegistry registry, String providerName, QPCallParameter callParameter, QPDeadline deadline ) throws QPProviderInvokeException {
 		
-		this.log.info("Creating and init provider '" + providerName + "'.");
-		this.provider = QPAbstractProvider.createAndInitProvider(providerName, securityProviderName, callParameter);
+		this.provider = registry.getProvider(providerName);
+		this.context = registry.createRequestContext(providerName, callParameter, deadline);
+		this.resultCache = registry.getResultCache();
+		this.cacheRefresher = registry.getCacheRefresher();
+		this.cachePrefetcher = registry.getCachePrefetcher();
+		this.providerBudget = registry.getProviderBudget();
+		if (this.resultCache != null) {
+			this.cacheKey = QPCacheKey.create(callParameter);
+			if (this.cacheKey == null) {
+				this.resultCache = null;
+			}
+		}
 	}
 
 	/**
-	 * Creates the provider invoker with the choosen provider type and initializes it.
+	 * Creates the provider invoker for the default provider of the registry.
 	 * 
-	 * @param providerName full qualified class name to load it through reflection
-	 * @param securityProviderName full qualified class name to load it through reflection
+	 * @param registry registry holding the started provider
 	 * @param callParameter parameter of the call
 	 * @return QPProviderInvoker
 	 * @throws QPProviderInvokeException 
 	 */
-	public static QPProviderInvoker createProviderInvoker( String providerName, String securityProviderName, QPCallParameter callParameter ) throws QPProviderInvokeException {
-		return new QPProviderInvoker(providerName, securityProviderName, callParameter);
+	public static QPProviderInvoker createProviderInvoker( QPProviderRegistry registry, QPCallParameter callParameter ) throws QPProviderInvokeException {
+		return new QPProviderInvoker(registry, registry.getDefaultProviderName(), callParameter, QPDeadline.NONE);
+	}
+	
+	/**
+	 * Creates the provider invoker for the default provider of the registry, 
+	 * the call has to be answered before the deadline.
+	 * 
+	 * @param registry registry holding the started provider
+	 * @param callParameter parameter of the call
+	 * @param deadline deadline of the request
+	 * @return QPProviderInvoker
+	 * @throws QPProviderInvokeException 
+	 */
+	public static QPProviderInvoker createProviderInvoker( QPProviderRegistry registry, QPCallParameter callParameter, QPDeadline deadline ) throws QPProviderInvokeException {
+		return new QPProviderInvoker(registry, registry.getDefaultProviderName(), callParameter, deadline);
 	}
 
 	@Override
@@ -69,8 +125,264 @@ public class QPProviderInvoker {
 	 */
 	public QPIOneBoxResults invokeProvider( ) throws QPProviderException {
 		
+		QPCacheEntry entry = this.getCacheEntry();
+		if (entry != null && this.isServable(entry)) {
+			return entry.getResults();
+		}
+		if (this.context.getDeadline().isExpired()) {
+			return this.answerAtDeadline(entry);
+		}
 		this.log.info("Invoke provider '" + this.getProviderName() + "'.");
-		return this.provider.provideOneBoxResults();
+		this.consumeBudget();
+		QPIOneBoxResults results;
+		try {
+			results = this.callProvider(this.context);
+		}
+		catch (QPProviderException exc) {
+			if (entry == null) {
+				throw exc;
+			}
+			this.log.error("Exception in invoking the provider, serving stale results.", exc);
+			return this.serveStale(entry);
+		}
+		return this.cacheResults(results, entry);
+	}
+	
+	/**
+	 * Invokes the choosen provider asynchronously. The returned future is completed
+	 * by the provider, register a {@link QPIResultListener} to write the response then.
+	 * 
+	 * @return QPResultFuture
+	 */
+	public QPResultFuture invokeProviderAsync( ) {
+		
+		final QPCacheEntry entry = this.getCacheEntry();
+		if (entry != null && this.isServable(entry)) {
+			return QPResultFuture.completedFuture(entry.getResults());
+		}
+		final QPDeadline deadline = this.context.getDeadline();
+		if (deadline.isExpired()) {
+			return QPResultFuture.completedFuture(this.answerAtDeadline(entry));
+		}
+		this.log.info("Invoke provider '" + this.getProviderName() + "' asynchronously.");
+		this.consumeBudget();
+		QPResultFuture future;
+		final QPBulkhead bulkhead = this.context.getBulkhead();
+		if (bulkhead == null) {
+			future = this.provider.provideOneBoxResultsAsync(this.context);
+		}
+		else if (! bulkhead.tryAcquire()) {
+			this.log.info("Bulkhead of '" + this.getProviderName() + "' saturated.");
+			future = QPResultFuture.completedFuture(this.createTimeoutResult("Provider busy."));
+		}
+		else {
+			future = this.provider.provideOneBoxResultsAsync(this.context);
+			future.addListener(new QPIResultListener() {
+				
+				@Override
+				public void resultAvailable(QPIOneBoxResults results) {
+					bulkhead.release();
+				}
+				
+				@Override
+				public void resultFailed(Throwable cause) {
+					bulkhead.release();
+				}
+			});
+		}
+		if (this.resultCache == null && ! deadline.isLimited()) {
+			return future;
+		}
+		
+		// the answer is completed after caching, with the stale results if the provider fails,
+		// or at the deadline if the provider is still working
+		final QPResultFuture answer = new QPResultFuture();
+		if (deadline.isLimited()) {
+			final ScheduledFuture<?> timer = QPProviderExecutor.getScheduler().schedule(new Runnable() {
+				
+				@Override
+				public void run() {
+					if (! answer.isDone()) {
+						answer.complete(answerAtDeadline(entry));
+					}
+				}
+			}, deadline.remaining(), TimeUnit.MILLISECONDS);
+			answer.addListener(new QPIResultListener() {
+				
+				@Override
+				public void resultAvailable(QPIOneBoxResults results) {
+					timer.cancel(false);
+				}
+				
+				@Override
+				public void resultFailed(Throwable cause) {
+					timer.cancel(false);
+				}
+			});
+		}
+		future.addListener(new QPIResultListener() {
+			
+			@Override
+			public void resultAvailable(QPIOneBoxResults results) {
+				answer.complete(cacheResults(results, entry));
+			}
+			
+			@Override
+			public void resultFailed(Throwable cause) {
+				if (entry == null) {
+					answer.fail(cause);
+				}
+				else {
+					log.error("Exception in invoking the provider, serving stale results.", cause);
+					answer.complete(serveStale(entry));
+				}
+			}
+		});
+		return answer;
+	}
+	
+	/**
+	 * Invokes the choosen provider as background call (see {@link QPRequestContext#isBackground()}) 
+	 * without looking into the cache and caches successful results 
+	 * (e.g. to prefetch an entry before it expires, see {@link QPCachePrefetcher}).
+	 * The caller takes care of the provider budget.
+	 * 
+	 * @return QPIOneBoxResults
+	 * @throws QPProviderException
+	 */
+	public QPIOneBoxResults refreshProvider( ) throws QPProviderException {
+		
+		this.log.info("Refresh provider '" + this.getProviderName() + "'.");
+		return this.cacheResults(this.callProvider(this.context.createBackgroundContext()), null);
+	}
+	
+	/**
+	 * Calls the provider within its bulkhead, if the bulkhead is saturated a timeout result is returned.
+	 */
+	private QPIOneBoxResults callProvider(QPRequestContext callContext) throws QPProviderException {
+		
+		QPBulkhead bulkhead = callContext.getBulkhead();
+		if (bulkhead == null) {
+			return this.provider.provideOneBoxResults(callContext);
+		}
+		if (! bulkhead.tryAcquire()) {
+			this.log.info("Bulkhead of '" + this.getProviderName() + "' saturated.");
+			return this.createTimeoutResult("Provider busy.");
+		}
+		try {
+			return this.provider.provideOneBoxResults(callContext);
+		}
+		finally {
+			bulkhead.release();
+		}
+	}
+	
+	private QPIOneBoxResults createTimeoutResult(String message) {
+		
+		if (this.provider instanceof QPAbstractProvider) {
+			return ((QPAbstractProvider) this.provider).createTimeoutResult(message);
+		}
+		QPIOneBoxResults res = new QPOneBoxResults();
+		res.setFailure(QPResultCode.timeout, message, this.getProviderName());
+		return res;
+	}
+	
+	/**
+	 * Answer if the deadline is reached before the provider: the stale entry if there is one, 
+	 * otherwise a timeout result.
+	 */
+	private QPIOneBoxResults answerAtDeadline(QPCacheEntry entry) {
+		
+		this.log.info("Time budget of the request used up for '" + this.getProviderName() + "'.");
+		if (entry != null) {
+			return this.serveStale(entry);
+		}
+		return this.createTimeoutResult("Time budget of the request used up.");
+	}
+	
+	/**
+	 * Live calls always take a token of the provider budget (going into debt), they are never shed by it.
+	 */
+	private void consumeBudget() {
+		
+		if (this.providerBudget != null) {
+			this.providerBudget.consume();
+		}
+	}
+	
+	/**
+	 * Background refreshes only take a token if one is left, like the prefetch; otherwise they are skipped.
+	 */
+	private boolean tryBudget() {
+		
+		return this.providerBudget == null || this.providerBudget.tryAcquire();
+	}
+	
+	private QPCacheEntry getCacheEntry() {
+		
+		if (this.resultCache == null) {
+			return null;
+		}
+		return this.resultCache.getEntry(this.cacheKey);
+	}
+	
+	/**
+	 * A fresh entry is served, a stale one is served and refreshed in the background.
+	 * An expired entry is only kept for the case the provider fails.
+	 */
+	private boolean isServable(QPCacheEntry entry) {
+		
+		QPResultCache.Freshness freshness = this.resultCache.getFreshness(entry);
+		if (freshness != QPResultCache.Freshness.EXPIRED && this.cachePrefetcher != null) {
+			this.cachePrefetcher.recordHit(this.cacheKey);
+		}
+		if (freshness == QPResultCache.Freshness.FRESH) {
+			this.log.info("Cached results for '" + this.cacheKey + "'.");
+			return true;
+		}
+		if (freshness == QPResultCache.Freshness.STALE && this.cacheRefresher != null) {
+			this.log.info("Stale cached results for '" + this.cacheKey + "', refreshing them.");
+			this.cacheRefresher.refresh(this.cacheKey, new Callable<QPIOneBoxResults>() {
+				
+				@Override
+				public QPIOneBoxResults call() throws QPProviderException {
+					if (! tryBudget()) {
+						return null;
+					}
+					return callProvider(context.createBackgroundContext());
+				}
+			});
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Caches successful, complete results; if the provider failed, the stale entry is served instead.
+	 */
+	private QPIOneBoxResults cacheResults(QPIOneBoxResults results, QPCacheEntry staleEntry) {
+		
+		if (this.resultCache == null) {
+			return results;
+		}
+		if (results != null && results.isSuccess() && ! results.isPartial()) {
+			this.resultCache.put(this.cacheKey, results);
+			return results;
+		}
+		if (results != null && results.isSuccess()) {
+			return results;
+		}
+		if (staleEntry != null) {
+			this.log.info("Provider failed, serving stale results for '" + this.cacheKey + "'.");
+			return this.serveStale(staleEntry);
+		}
+		return results;
+	}
+	
+	private QPIOneBoxResults serveStale(QPCacheEntry entry) {
+		
+		this.resultCache.recordStaleOnError();
+		return entry.getResults();
 	}
 	
 	/**
@@ -90,7 +402,7 @@ public class QPProviderInvoker {
 	 */
 	public QPCallParameter getCallParameter() {
 		
-		return this.provider.getCallParameter();
+		return this.context.getCallParameter();
 	}
 	
 	/**
@@ -100,6 +412,16 @@ public class QPProviderInvoker {
 	 */
 	public QPISecurityProvider getSecurityProvider() {
 		
-		return this.provider.getSecurityProvider();
+		return this.context.getSecurityProvider();
+	}
+	
+	/**
+	 * Gets the context of the request passed to the provider.
+	 * 
+	 * @return QPRequestContext
+	 */
+	public QPRequestContext getRequestContext() {
+		
+		return this.context;
 	}
 }
@@ -0,0 +1,380 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.provider;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+
+import com.qperior.gsa.oneboxprovider.QPCallParameter;
+import com.qperior.gsa.oneboxprovider.cache.QPCachePrefetcher;
+import com.qperior.gsa.oneboxprovider.cache.QPCacheRefresher;
+import com.qperior.gsa.oneboxprovider.cache.QPCacheWarmer;
+import com.qperior.gsa.oneboxprovider.cache.QPICacheTier;
+import com.qperior.gsa.oneboxprovider.cache.QPOffHeapStore;
+import com.qperior.gsa.oneboxprovider.cache.QPPersistentStore;
+import com.qperior.gsa.oneboxprovider.cache.QPQueryHistory;
+import com.qperior.gsa.oneboxprovider.cache.QPResultCache;
+import com.qperior.gsa.oneboxprovider.monitoring.QPMonitorRegistry;
+import com.qperior.gsa.oneboxprovider.security.QPAbstractSecurityProvider;
+import com.qperior.gsa.oneboxprovider.util.QPDeadline;
+import com.qperior.gsa.oneboxprovider.util.QPLogger;
+import com.qperior.gsa.oneboxprovider.util.QPProperties;
+import com.qperior.gsa.oneboxprovider.util.QPTokenBucket;
+import com.qperior.gsa.oneboxprovider.util.exception.QPProviderException;
+import com.qperior.gsa.oneboxprovider.util.exception.QPProviderInvokeException;
+
+/**
+ * Registry of the provider instances.
+ * <p>
+ * The provider and security provider classes are resolved through reflection once 
+ * (at servlet init) and the provider is started; afterwards all requests share the instance.
+ * The security provider is registered as prototype, which is copied for every request
+ * (see {@link QPAbstractSecurityProvider#createSecurityProvider(QPCallParameter)}).
+ * <p>
+ * If {@link QPProperties#isResultCacheEnabled()} is set, the registry also holds the {@link QPResultCache}
+ * shared by all requests (with the {@link QPOffHeapStore} and the {@link QPPersistentStore} as further tiers, if configured) 
+ * and, for stale-while-revalidate, the {@link QPCacheRefresher}. With {@link QPProperties#isCacheWarmingEnabled()} 
+ * the calls are recorded in the {@link QPQueryHistory} and the {@link QPCacheWarmer} replays them at start; 
+ * the {@link QPCachePrefetcher} refreshes popular results before they expire.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPProviderRegistry {
+	
+	/**
+	 * Name of the servlet context attribute holding the registry
+	 */
+	public static final String CONTEXT_ATTRIBUTE = QPProviderRegistry.class.getName();
+	
+	private final Map<String, QPIProvider> providers = new ConcurrentHashMap<String, QPIProvider>();
+	private final Map<String, QPAbstractSecurityProvider> securityProviders = new ConcurrentHashMap<String, QPAbstractSecurityProvider>();
+	private final List<String> startedProviders = new ArrayList<String>();
+	private final Map<String, QPBulkhead> bulkheads = new ConcurrentHashMap<String, QPBulkhead>();
+	
+	private String defaultProviderName;
+	
+	private QPResultCache resultCache;
+	
+	private QPCacheRefresher cacheRefresher;
+	
+	private QPQueryHistory queryHistory;
+	
+	private QPCacheWarmer cacheWarmer;
+	
+	private QPCachePrefetcher cachePrefetcher;
+	
+	private QPTokenBucket providerBudget;
+	
+	private Log log = QPLogger.getLogger(this.getClass());
+	
+	private QPProviderRegistry() {
+		
+	}
+	
+	/**
+	 * Creates the registry with the given provider as default provider.
+	 * 
+	 * @param providerName full qualified class name to load it through reflection
+	 * @param securityProviderName full qualified class name to load it through reflection
+	 * @return QPProviderRegistry
+	 * @throws QPProviderInvokeException
+	 */
+	public static QPProviderRegistry createRegistry(String providerName, String securityProviderName) throws QPProviderInvokeException {
+		
+		QPProviderRegistry registry = new QPProviderRegistry();
+		registry.register(providerName, securityProviderName);
+		registry.defaultProviderName = providerName;
+		if (QPProperties.getProviderRateBudget() > 0) {
+			registry.providerBudget = new QPTokenBucket(QPProperties.getProviderRateBudget(), QPProperties.getProviderRateBudget());
+		}
+		if (QPProperties.isResultCacheEnabled()) {
+			List<QPICacheTier> tiers = new ArrayList<QPICacheTier>();
+			if (QPProperties.getResultCacheOffHeapCapacity() > 0) {
+				tiers.add(new QPOffHeapStore(QPProperties.getResultCacheOffHeapCapacity(), 
+						QPProperties.getResultCacheOffHeapChunkSize(), QPProperties.getResultCacheOffHeapSlabSize()));
+			}
+			if (QPProperties.isResultCachePersistent() && QPProperties.getResultCachePersistentDir() == null) {
+				registry.log.warn("ResultCachePersistentDir is not set, the disk tier of the result cache is switched off.");
+			}
+			else if (QPProperties.isResultCachePersistent()) {
+				tiers.add(new QPPersistentStore(new File(QPProperties.getResultCachePersistentDir()), 
+						QPProperties.getResultCachePersistentSegmentSize(), QPProperties.getResultCachePersistentMaxSize(),
+						QPProperties.getResultCacheMaxStale(), QPProperties.getResultCachePersistentCompactionInterval()));
+			}
+			registry.resultCache = new QPResultCache(QPProperties.getResultCacheMaxSize(), QPProperties.getResultCacheTTL(),
+					QPProperties.getResultCacheStaleWhileRevalidate(), QPProperties.getResultCacheMaxStale(), tiers);
+			if (QPProperties.isCacheWarmingEnabled()) {
+				registry.queryHistory = new QPQueryHistory(new File(QPProperties.getCacheWarmingHistoryFile()), 
+						QPProperties.getCacheWarmingHistorySize(), QPProperties.getCacheWarmingHistorySaveInterval());
+			}
+		}
+		return registry;
+	}
+	
+	/**
+	 * Resolves the provider and the security provider and registers them under the provider name.
+	 * 
+	 * @param providerName full qualified class name to load it through reflection
+	 * @param securityProviderName full qualified class name to load it through reflection
+	 * @throws QPProviderInvokeException 
+	 */
+	public synchronized void register(String providerName, String securityProviderName) throws QPProviderInvokeException {
+		
+		try {
+			this.log.info("Registering provider '" + providerName + "' with security provider '" + securityProviderName + "'.");
+			QPIProvider provider = (QPIProvider) Class.forName(providerName).newInstance();
+			QPAbstractSecurityProvider securityProvider = (QPAbstractSecurityProvider) Class.forName(securityProviderName).newInstance();
+			
+			this.providers.put(providerName, provider);
+			this.securityProviders.put(providerName, securityProvider);
+			
+		} catch ( Exception exc ) {
+			throw new QPProviderInvokeException("Exception in creating the provider", exc);
+		}
+	}
+	
+	/**
+	 * Starts all registered provider, each with its own {@link QPBulkhead} if {@link QPProperties#isBulkheads()} is set.
+	 * 
+	 * @throws QPProviderException if a provider could not be started
+	 */
+	public synchronized void start() throws QPProviderException {
+		
+		for (Map.Entry<String, QPIProvider> entry : this.providers.entrySet()) {
+			if (! this.startedProviders.contains(entry.getKey())) {
+				entry.getValue().start();
+				this.startedProviders.add(entry.getKey());
+				if (QPProperties.isBulkheads()) {
+					String providerName = entry.getKey();
+					QPBulkhead bulkhead = new QPBulkhead(providerName, QPProperties.getBulkheadMaxCalls(providerName), 
+							QPProperties.getBulkheadThreads(providerName), QPProperties.getBulkheadQueueSize(providerName));
+					this.bulkheads.put(providerName, bulkhead);
+					QPMonitorRegistry.register(bulkhead);
+				}
+			}
+		}
+		if (this.resultCache != null) {
+			QPMonitorRegistry.register(this.resultCache);
+			for (QPICacheTier tier : this.resultCache.getTiers()) {
+				try {
+					tier.open();
+					QPMonitorRegistry.register(tier);
+				} catch (IOException exc) {
+					throw new QPProviderException("Error in opening the result cache tier '" + tier.getTierName() + "'.", exc);
+				}
+			}
+			if (this.cacheRefresher == null && this.resultCache.getStaleWhileRevalidate() > 0) {
+				this.cacheRefresher = new QPCacheRefresher(this.resultCache, 
+						QPProperties.getResultCacheRefreshThreads(), QPProperties.getResultCacheRefreshQueueSize());
+				QPMonitorRegistry.register(this.cacheRefresher);
+			}
+		}
+		if (this.queryHistory != null && this.cacheWarmer == null) {
+			this.queryHistory.open();
+			QPMonitorRegistry.register(this.queryHistory);
+			this.cacheWarmer = new QPCacheWarmer(this, this.queryHistory.getTopQueries(QPProperties.getCacheWarmingQueries()), 
+					QPProperties.getCacheWarmingThreads(), QPProperties.getCacheWarmingRate(), QPProperties.getCacheWarmingReadyFraction());
+			QPMonitorRegistry.register(this.cacheWarmer);
+			this.cacheWarmer.start();
+		}
+		if (this.resultCache != null && QPProperties.isCachePrefetchEnabled() && this.cachePrefetcher == null) {
+			this.cachePrefetcher = new QPCachePrefetcher(this, QPProperties.getCachePrefetchInterval(), 
+					QPProperties.getCachePrefetchLeadTime(), QPProperties.getCachePrefetchMinFrequency(), 
+					QPProperties.getCachePrefetchMaxPerRound());
+			QPMonitorRegistry.register(this.cachePrefetcher);
+			this.cachePrefetcher.start();
+		}
+	}
+	
+	/**
+	 * Stops all started provider.
+	 */
+	public synchronized void stop() {
+		
+		for (Iterator<String> it = this.startedProviders.iterator(); it.hasNext(); ) {
+			String providerName = it.next();
+			try {
+				this.providers.get(providerName).stop();
+			} catch (Exception exc) {
+				this.log.error("Exception in stopping provider '" + providerName + "'.", exc);
+			}
+			QPBulkhead bulkhead = this.bulkheads.remove(providerName);
+			if (bulkhead != null) {
+				QPMonitorRegistry.unregister(bulkhead);
+				bulkhead.shutdown();
+			}
+			it.remove();
+		}
+		if (this.cachePrefetcher != null) {
+			QPMonitorRegistry.unregister(this.cachePrefetcher);
+			this.cachePrefetcher.shutdown();
+			this.cachePrefetcher = null;
+		}
+		if (this.cacheWarmer != null) {
+			QPMonitorRegistry.unregister(this.cacheWarmer);
+			this.cacheWarmer.shutdown();
+			this.cacheWarmer = null;
+		}
+		if (this.queryHistory != null) {
+			QPMonitorRegistry.unregister(this.queryHistory);
+			this.queryHistory.close();
+		}
+		if (this.cacheRefresher != null) {
+			QPMonitorRegistry.unregister(this.cacheRefresher);
+			this.cacheRefresher.shutdown();
+			this.cacheRefresher = null;
+		}
+		if (this.resultCache != null) {
+			QPMonitorRegistry.unregister(this.resultCache);
+			for (QPICacheTier tier : this.resultCache.getTiers()) {
+				QPMonitorRegistry.unregister(tier);
+				tier.close();
+			}
+		}
+	}
+	
+	/**
+	 * Gets the name of the default provider.
+	 * 
+	 * @return String
+	 */
+	public String getDefaultProviderName() {
+		return this.defaultProviderName;
+	}
+	
+	/**
+	 * Gets the result cache.
+	 * 
+	 * @return QPResultCache or <code>null</code> if caching is disabled
+	 */
+	public QPResultCache getResultCache() {
+		return this.resultCache;
+	}
+	
+	/**
+	 * Gets the refresher of stale cached results.
+	 * 
+	 * @return QPCacheRefresher or <code>null</code> if stale-while-revalidate is disabled
+	 */
+	public QPCacheRefresher getCacheRefresher() {
+		return this.cacheRefresher;
+	}
+	
+	/**
+	 * Gets the recorded query history.
+	 * 
+	 * @return QPQueryHistory or <code>null</code> if the cache warming is disabled
+	 */
+	public QPQueryHistory getQueryHistory() {
+		return this.queryHistory;
+	}
+	
+	/**
+	 * Gets the warmer of the result cache.
+	 * 
+	 * @return QPCacheWarmer or <code>null</code> if the cache warming is disabled or the registry is not started
+	 */
+	public QPCacheWarmer getCacheWarmer() {
+		return this.cacheWarmer;
+	}
+	
+	/**
+	 * Gets the prefetcher of popular cached results.
+	 * 
+	 * @return QPCachePrefetcher or <code>null</code> if the prefetch is disabled or the registry is not started
+	 */
+	public QPCachePrefetcher getCachePrefetcher() {
+		return this.cachePrefetcher;
+	}
+	
+	/**
+	 * Gets the budget of provider calls per second shared by live and background calls: 
+	 * live calls always take a token, background calls (e.g. the prefetch) only if one is left.
+	 * 
+	 * @return QPTokenBucket or <code>null</code> if unlimited
+	 */
+	public QPTokenBucket getProviderBudget() {
+		return this.providerBudget;
+	}
+	
+	/**
+	 * Gets the bulkhead of the provider.
+	 * 
+	 * @param providerName full qualified class name
+	 * @return QPBulkhead or <code>null</code> if bulkheads are disabled
+	 */
+	public QPBulkhead getBulkhead(String providerName) {
+		return this.bulkheads.get(providerName);
+	}
+	
+	/**
+	 * Gets the registered provider.
+	 * 
+	 * @param providerName full qualified class name
+	 * @return QPIProvider
+	 * @throws QPProviderInvokeException if the provider is not registered
+	 */
+	public QPIProvider getProvider(String providerName) throws QPProviderInvokeException {
+		
+		QPIProvider provider = this.providers.get(providerName);
+		if (provider == null) {
+			throw new QPProviderInvokeException("Provider '" + providerName + "' not registered.", null);
+		}
+		return provider;
+	}
+	
+	/**
+	 * Creates the context of one request for the provider:
+	 * copies the security provider and initializes it with the call parameter.
+	 * 
+	 * @param providerName full qualified class name
+	 * @param callParameter
+	 * @return QPRequestContext
+	 * @throws QPProviderInvokeException if the provider is not registered
+	 */
+	public QPRequestContext createRequestContext(String providerName, QPCallParameter callParameter) throws QPProviderInvokeException {
+		
+		return this.createRequestContext(providerName, callParameter, QPDeadline.NONE);
+	}
+	
+	/**
+	 * Creates the context of one request with a deadline.
+	 * 
+	 * @param providerName full qualified class name
+	 * @param callParameter
+	 * @param deadline deadline of the request
+	 * @return QPRequestContext
+	 * @throws QPProviderInvokeException if the provider is not registered
+	 */
+	public QPRequestContext createRequestContext(String providerName, QPCallParameter callParameter, QPDeadline deadline) throws QPProviderInvokeException {
+		
+		QPAbstractSecurityProvider prototype = this.securityProviders.get(providerName);
+		if (prototype == null) {
+			throw new QPProviderInvokeException("Provider '" + providerName + "' not registered.", null);
+		}
+		return new QPRequestContext(callParameter, prototype.createSecurityProvider(callParameter), deadline, 
+				this.bulkheads.get(providerName));
+	}
+}
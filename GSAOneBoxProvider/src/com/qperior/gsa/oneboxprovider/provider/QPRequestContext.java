@@ -0,0 +1,145 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.provider;
+
+import com.qperior.gsa.oneboxprovider.QPCallParameter;
+import com.qperior.gsa.oneboxprovider.security.QPISecurityProvider;
+import com.qperior.gsa.oneboxprovider.util.QPDeadline;
+
+/**
+ * The per-request state passed to the shared {@link QPIProvider}:
+ * the call parameter of the GSA, the security provider initialized with them, 
+ * the deadline until the GSA waits for the answer and the bulkhead of the provider.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPRequestContext {
+	
+	private final QPCallParameter callParameter;
+	private final QPISecurityProvider securityProvider;
+	private final QPDeadline deadline;
+	private final QPBulkhead bulkhead;
+	private final boolean background;
+	
+	/**
+	 * Context without a deadline.
+	 * 
+	 * @param callParameter GSA call parameter
+	 * @param securityProvider security provider initialized with the call parameter
+	 */
+	public QPRequestContext(QPCallParameter callParameter, QPISecurityProvider securityProvider) {
+		
+		this(callParameter, securityProvider, QPDeadline.NONE);
+	}
+	
+	/**
+	 * 
+	 * @param callParameter GSA call parameter
+	 * @param securityProvider security provider initialized with the call parameter
+	 * @param deadline deadline of the request
+	 */
+	public QPRequestContext(QPCallParameter callParameter, QPISecurityProvider securityProvider, QPDeadline deadline) {
+		
+		this(callParameter, securityProvider, deadline, null);
+	}
+	
+	/**
+	 * 
+	 * @param callParameter GSA call parameter
+	 * @param securityProvider security provider initialized with the call parameter
+	 * @param deadline deadline of the request
+	 * @param bulkhead bulkhead of the provider, might be null
+	 */
+	public QPRequestContext(QPCallParameter callParameter, QPISecurityProvider securityProvider, QPDeadline deadline, 
+			QPBulkhead bulkhead) {
+		
+		this(callParameter, securityProvider, deadline, bulkhead, false);
+	}
+	
+	private QPRequestContext(QPCallParameter callParameter, QPISecurityProvider securityProvider, QPDeadline deadline, 
+			QPBulkhead bulkhead, boolean background) {
+		
+		this.callParameter = callParameter;
+		this.securityProvider = securityProvider;
+		this.deadline = deadline;
+		this.bulkhead = bulkhead;
+		this.background = background;
+	}
+	
+	/**
+	 * Copy of the context for a background call (e.g. refreshing cached results), without a deadline.
+	 * 
+	 * @return QPRequestContext
+	 */
+	public QPRequestContext createBackgroundContext() {
+		
+		return new QPRequestContext(this.callParameter, this.securityProvider, QPDeadline.NONE, this.bulkhead, true);
+	}
+	
+	/**
+	 * Is no user waiting for the call, so it can be shed first under load?
+	 * 
+	 * @return boolean
+	 */
+	public boolean isBackground() {
+		return background;
+	}
+	
+	/**
+	 * Gets the call parameter send to the provider.
+	 * 
+	 * @return QPCallParameter
+	 */
+	public QPCallParameter getCallParameter() {
+		return callParameter;
+	}
+	
+	/**
+	 * Gets the security provider fitting to the provider.
+	 * If a special feature is implemented in a concrete SecurityProvider 
+	 * the interface has to be casted to the concrete one.
+	 * 
+	 * @return QPISecurityProvider
+	 */
+	public QPISecurityProvider getSecurityProvider() {
+		return securityProvider;
+	}
+	
+	/**
+	 * Gets the deadline of the request, the provider should answer before.
+	 * 
+	 * @return QPDeadline
+	 */
+	public QPDeadline getDeadline() {
+		return deadline;
+	}
+	
+	/**
+	 * Gets the bulkhead of the provider.
+	 * 
+	 * @return QPBulkhead or <code>null</code> if the provider has none
+	 */
+	public QPBulkhead getBulkhead() {
+		return bulkhead;
+	}
+	
+	@Override
+	public String toString() {
+		return "RequestContext: " + this.callParameter;
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.provider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+
+import com.qperior.gsa.oneboxprovider.results.QPIOneBoxResults;
+import com.qperior.gsa.oneboxprovider.util.QPLogger;
+
+/**
+ * Result of an asynchronous provider call (see {@link QPIProvider#provideOneBoxResultsAsync()}).
+ * <p>
+ * It is completed exactly once, either with a result or with an exception. Listeners added 
+ * with {@link #addListener(QPIResultListener)} are called by the thread completing the future
+ * (or directly, if the future is already completed), so no thread has to block on {@link #get()}.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPResultFuture implements Future<QPIOneBoxResults> {
+
+	private final CountDownLatch done = new CountDownLatch(1);
+	
+	private final List<QPIResultListener> listeners = new ArrayList<QPIResultListener>(2);
+	
+	private QPIOneBoxResults results;
+	private Throwable failure;
+	private boolean completed;
+	private boolean cancelled;
+	
+	private Log log = QPLogger.getLogger(this.getClass());
+	
+	/**
+	 * Creates a future which is already completed with the given results.
+	 * 
+	 * @param results
+	 * @return QPResultFuture
+	 */
+	public static QPResultFuture completedFuture(QPIOneBoxResults results) {
+		
+		QPResultFuture future = new QPResultFuture();
+		future.complete(results);
+		return future;
+	}
+	
+	/**
+	 * Completes the future with the results of the provider.
+	 * 
+	 * @param results must not be null
+	 * @return false if the future was already completed
+	 */
+	public boolean complete(QPIOneBoxResults results) {
+		
+		if (results == null) {
+			return this.fail(new NullPointerException("Provider delivered no result."));
+		}
+		List<QPIResultListener> toNotify;
+		synchronized (this) {
+			if (this.completed) {
+				return false;
+			}
+			this.results = results;
+			this.completed = true;
+			toNotify = new ArrayList<QPIResultListener>(this.listeners);
+			this.listeners.clear();
+		}
+		this.done.countDown();
+		for (QPIResultListener listener : toNotify) {
+			this.notifyListener(listener);
+		}
+		return true;
+	}
+	
+	/**
+	 * Completes the future with an exception.
+	 * 
+	 * @param cause
+	 * @return false if the future was already completed
+	 */
+	public boolean fail(Throwable cause) {
+		
+		List<QPIResultListener> toNotify;
+		synchronized (this) {
+			if (this.completed) {
+				return false;
+			}
+			this.failure = cause;
+			this.completed = true;
+			toNotify = new ArrayList<QPIResultListener>(this.listeners);
+			this.listeners.clear();
+		}
+		this.done.countDown();
+		for (QPIResultListener listener : toNotify) {
+			this.notifyListener(listener);
+		}
+		return true;
+	}
+	
+	/**
+	 * Adds a listener called on completion. If the future is already completed
+	 * the listener is called directly by the calling thread.
+	 * 
+	 * @param listener
+	 */
+	public void addListener(QPIResultListener listener) {
+		
+		synchronized (this) {
+			if (! this.completed) {
+				this.listeners.add(listener);
+				return;
+			}
+		}
+		this.notifyListener(listener);
+	}
+	
+	private void notifyListener(QPIResultListener listener) {
+		
+		try {
+			if (this.failure != null) {
+				listener.resultFailed(this.failure);
+			}
+			else {
+				listener.resultAvailable(this.results);
+			}
+		} catch (Exception exc) {
+			this.log.error("Exception in result listener.", exc);
+		}
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		
+		synchronized (this) {
+			if (this.completed) {
+				return false;
+			}
+			this.cancelled = true;
+		}
+		return this.fail(new InterruptedException("Provider call cancelled."));
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return this.cancelled;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return this.completed;
+	}
+
+	@Override
+	public QPIOneBoxResults get() throws InterruptedException, ExecutionException {
+		
+		this.done.await();
+		return this.getNow();
+	}
+
+	@Override
+	public QPIOneBoxResults get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		
+		if (! this.done.await(timeout, unit)) {
+			throw new TimeoutException("Provider call not finished in time.");
+		}
+		return this.getNow();
+	}
+	
+	private synchronized QPIOneBoxResults getNow() throws ExecutionException {
+		
+		if (this.failure != null) {
+			throw new ExecutionException(this.failure);
+		}
+		return this.results;
+	}
+}
@@ -16,6 +16,9 @@
  */
 package com.qperior.gsa.oneboxprovider.results;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
 import com.qperior.gsa.oneboxprovider.QPOneBoxProviderServlet;
 import com.qperior.gsa.oneboxprovider.util.exception.QPOneBoxResultException;
 
@@ -44,6 +47,16 @@ public interface QPIOneBoxResults {
 	 */
 	public String toXMLString() throws QPOneBoxResultException;
 	
+	/**
+	 * Writes the current state of this OneBoxResults object as UTF-8 encoded XML
+	 * (same content as {@link #toXMLString()}) directly to the stream.
+	 * The stream is flushed, but not closed.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream out) throws IOException;
+	
 	/**
 	 * 
 	 * @return Number
@@ -133,6 +146,21 @@ public interface QPIOneBoxResults {
 	 */
 	public boolean canAddResult();
 	
+	/**
+	 * Marks the results as incomplete, e.g. the conversion stopped at the deadline of the request.
+	 * Partial results are answered, but not cached.
+	 * 
+	 * @param partial
+	 */
+	public void setPartial(boolean partial);
+	
+	/**
+	 * Are the results incomplete?
+	 * 
+	 * @return boolean
+	 */
+	public boolean isPartial();
+	
 	/**
 	 * In the event of provider failure, set the failure code and a diagnostic
 	 * message.  If this is called on a results set, the OneBox request will be
@@ -16,11 +16,12 @@
  */
 package com.qperior.gsa.oneboxprovider.results;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
-import com.qperior.gsa.oneboxprovider.util.QPXMLHelper;
+import com.qperior.gsa.oneboxprovider.util.QPXMLWriter;
 
 
 /**
@@ -40,6 +41,13 @@ public class QPModuleResult
 	private static String XML_U = "U";
 	private static String XML_TITLE = "Title";
 	
+	private static final byte[] BYTES_MODULE_RESULT_BEGIN = QPXMLWriter.encodeElementBegin(XML_MODULE_RESULT);
+	private static final byte[] BYTES_MODULE_RESULT_END = QPXMLWriter.encodeElementEnd(XML_MODULE_RESULT);
+	private static final byte[] BYTES_U_BEGIN = QPXMLWriter.encodeElementBegin(XML_U);
+	private static final byte[] BYTES_U_END = QPXMLWriter.encodeElementEnd(XML_U);
+	private static final byte[] BYTES_TITLE_BEGIN = QPXMLWriter.encodeElementBegin(XML_TITLE);
+	private static final byte[] BYTES_TITLE_END = QPXMLWriter.encodeElementEnd(XML_TITLE);
+	
 	private String title;
 	private String u;
 	private List<QPModuleResultField> fields = new ArrayList<QPModuleResultField>();
@@ -103,27 +111,39 @@ public class QPModuleResult
 	 */
 	public String toXMLString() {
 		
-		StringBuffer buf = new StringBuffer();
-		buf.append(QPXMLHelper.buildElementBegin(XML_MODULE_RESULT));
-		String url = this.getU();
-		if (url != null) {
-			buf.append(QPXMLHelper.buildElementBegin(XML_U))
-				.append(url)
-				.append(QPXMLHelper.buildElementEnd(XML_U));
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+			QPXMLWriter writer = new QPXMLWriter(out);
+			this.writeTo(writer);
+			writer.flush();
+			return out.toString("UTF-8");
+		} catch (IOException exc) {
+			throw new IllegalStateException(exc);
 		}
-		String title = this.getTitle();
-		if (title != null) {
-			buf.append(QPXMLHelper.buildElementBegin(XML_TITLE))
-				.append(title)
-				.append(QPXMLHelper.buildElementEnd(XML_TITLE));
+	}
+	
+	/**
+	 * Writes it as XML.
+	 * 
+	 * @param writer
+	 * @throws IOException
+	 */
+	public void writeTo(QPXMLWriter writer) throws IOException {
+		
+		writer.write(BYTES_MODULE_RESULT_BEGIN);
+		if (this.u != null) {
+			writer.write(BYTES_U_BEGIN);
+			writer.writeText(this.u);
+			writer.write(BYTES_U_END);
 		}
-		for (Iterator<QPModuleResultField> iter2 = this.getFields().iterator(); iter2.hasNext(); )
-		{
-			QPModuleResultField field = (QPModuleResultField)iter2.next();
-			buf.append(field.toXMLString());
+		if (this.title != null) {
+			writer.write(BYTES_TITLE_BEGIN);
+			writer.writeText(this.title);
+			writer.write(BYTES_TITLE_END);
 		}
-		buf.append(QPXMLHelper.buildElementEnd(XML_MODULE_RESULT));
-		
-		return buf.toString();
+		for (int i = 0; i < this.fields.size(); i++) {
+			this.fields.get(i).writeTo(writer);
+		}
+		writer.write(BYTES_MODULE_RESULT_END);
 	}
 }
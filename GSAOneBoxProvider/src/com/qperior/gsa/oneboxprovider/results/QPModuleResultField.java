@@ -16,11 +16,12 @@
  */
 package com.qperior.gsa.oneboxprovider.results;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
-import com.qperior.gsa.oneboxprovider.util.QPXMLHelper;
+import com.qperior.gsa.oneboxprovider.util.QPXMLWriter;
 
 /**
  * Class representing a unit of metadata for a OneBox provider result.
@@ -35,6 +36,11 @@ public class QPModuleResultField
 	private static String XML_ATTRIBUTE_NAME = "name";	
 	private static String XML_FIELD = "Field";
 	
+	private static final byte[] BYTES_FIELD_OPEN = QPXMLWriter.encode("<" + XML_FIELD);
+	private static final byte[] BYTES_SPACE = QPXMLWriter.encode(" ");
+	private static final byte[] BYTES_CLOSE = QPXMLWriter.encode(">");
+	private static final byte[] BYTES_FIELD_END = QPXMLWriter.encodeElementEnd(XML_FIELD);
+	
 	private List<String> attrs = new ArrayList<String>();
 	private String value;
 	
@@ -83,19 +89,34 @@ public class QPModuleResultField
 	 */
 	public String toXMLString() {
 		
-		StringBuffer buf = new StringBuffer();
-		buf.append("<" + XML_FIELD);
-		for (Iterator<String> iter3 = this.getAttrs().iterator(); iter3.hasNext(); )
-		{
-			String attr = (String)iter3.next();
-			buf.append(" ").append(attr);
-		}
-		buf.append(">");
-		if (this.getValue() != null) {
-			buf.append(this.getValue());
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+			QPXMLWriter writer = new QPXMLWriter(out, 256);
+			this.writeTo(writer);
+			writer.flush();
+			return out.toString("UTF-8");
+		} catch (IOException exc) {
+			throw new IllegalStateException(exc);
 		}
-		buf.append(QPXMLHelper.buildElementEnd(XML_FIELD));
+	}
+	
+	/**
+	 * Writes it as XML. The attributes are written as they are, the value is escaped.
+	 * 
+	 * @param writer
+	 * @throws IOException
+	 */
+	public void writeTo(QPXMLWriter writer) throws IOException {
 		
-		return buf.toString();
+		writer.write(BYTES_FIELD_OPEN);
+		for (int i = 0; i < this.attrs.size(); i++) {
+			writer.write(BYTES_SPACE);
+			writer.writeRaw(this.attrs.get(i));
+		}
+		writer.write(BYTES_CLOSE);
+		if (this.value != null) {
+			writer.writeText(this.value);
+		}
+		writer.write(BYTES_FIELD_END);
 	}
 }
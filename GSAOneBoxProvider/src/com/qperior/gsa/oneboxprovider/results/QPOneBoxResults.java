@@ -16,11 +16,13 @@
  */
 package com.qperior.gsa.oneboxprovider.results;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Iterator;
 
-import com.qperior.gsa.oneboxprovider.util.QPXMLHelper;
+import com.qperior.gsa.oneboxprovider.util.QPXMLWriter;
 import com.qperior.gsa.oneboxprovider.util.exception.QPOneBoxResultException;
 
 
@@ -31,7 +33,8 @@ import com.qperior.gsa.oneboxprovider.util.exception.QPOneBoxResultException;
  * class, along with {@link QPModuleResult} and {@link QPModuleResultField}, hides those details
  * by providing an API for conveniently building a result set.  The
  * {@link #toXMLString()} method converts the class' current state as a valid
- * OneBox for Enterprise XML response.
+ * OneBox for Enterprise XML response, {@link #writeTo(OutputStream)} streams it
+ * as UTF-8 without building the string.
  * 
  * @see QPModuleResult
  * @see QPModuleResultField
@@ -51,6 +54,29 @@ public class QPOneBoxResults implements QPIOneBoxResults
 	private static String XML_SEARCHTERM = "searchTerm";
 	private static String XML_TOTALRESULTS = "totalResults";
 	
+	// pre-encoded fixed parts of the envelope for the streaming serialization
+	private static final byte[] BYTES_START = QPXMLWriter.encodeElementBegin(XML_START);
+	private static final byte[] BYTES_XMLNS = QPXMLWriter.encodeElementBegin(XML_XMLNS);
+	private static final byte[] BYTES_ONEBOXRESULTS_END = QPXMLWriter.encodeElementEnd(XML_ONEBOXRESULTS);
+	private static final byte[] BYTES_RESULTCODE_BEGIN = QPXMLWriter.encodeElementBegin(XML_RESULTCODE);
+	private static final byte[] BYTES_RESULTCODE_END = QPXMLWriter.encodeElementEnd(XML_RESULTCODE);
+	private static final byte[] BYTES_DIAGNOSTICS_BEGIN = QPXMLWriter.encodeElementBegin(XML_DIAGNOSTICS);
+	private static final byte[] BYTES_DIAGNOSTICS_END = QPXMLWriter.encodeElementEnd(XML_DIAGNOSTICS);
+	private static final byte[] BYTES_PROVIDER_BEGIN = QPXMLWriter.encodeElementBegin(XML_PROVIDER);
+	private static final byte[] BYTES_PROVIDER_END = QPXMLWriter.encodeElementEnd(XML_PROVIDER);
+	private static final byte[] BYTES_SEARCHTERM_BEGIN = QPXMLWriter.encodeElementBegin(XML_SEARCHTERM);
+	private static final byte[] BYTES_SEARCHTERM_END = QPXMLWriter.encodeElementEnd(XML_SEARCHTERM);
+	private static final byte[] BYTES_TOTALRESULTS_BEGIN = QPXMLWriter.encodeElementBegin(XML_TOTALRESULTS);
+	private static final byte[] BYTES_TOTALRESULTS_END = QPXMLWriter.encodeElementEnd(XML_TOTALRESULTS);
+	private static final byte[] BYTES_TITLE_BEGIN = QPXMLWriter.encodeElementBegin(XML_TITLE);
+	private static final byte[] BYTES_TITLE_END = QPXMLWriter.encodeElementEnd(XML_TITLE);
+	private static final byte[] BYTES_URLTEXT_BEGIN = QPXMLWriter.encodeElementBegin(XML_URLTEXT);
+	private static final byte[] BYTES_URLTEXT_END = QPXMLWriter.encodeElementEnd(XML_URLTEXT);
+	private static final byte[] BYTES_URLLINK_BEGIN = QPXMLWriter.encodeElementBegin(XML_URLLINK);
+	private static final byte[] BYTES_URLLINK_END = QPXMLWriter.encodeElementEnd(XML_URLLINK);
+	private static final byte[] BYTES_IMAGESOURCE_BEGIN = QPXMLWriter.encodeElementBegin(XML_IMAGESOURCE);
+	private static final byte[] BYTES_IMAGESOURCE_END = QPXMLWriter.encodeElementEnd(XML_IMAGESOURCE);
+	
 	// A return code from the OneBox provider. The value can be one of the following:
 	// "success", "lookupFailure", "securityFailure", or "timeout"
 	// The value "success" is assumed if no value is returned, and results are
@@ -81,6 +107,8 @@ public class QPOneBoxResults implements QPIOneBoxResults
 	
 	private List<QPModuleResult> results = new ArrayList<QPModuleResult>();
 	
+	private boolean partial = false;
+	
 	/**
 	 * Basic constructor.
 	 */
@@ -172,6 +200,16 @@ public class QPOneBoxResults implements QPIOneBoxResults
 		return this.results.size() < 8;
 	}
 	
+	@Override
+	public void setPartial(boolean partial) {
+		this.partial = partial;
+	}
+	
+	@Override
+	public boolean isPartial() {
+		return this.partial;
+	}
+	
 	@Override
 	public int getNumberOfResults() {
 
@@ -197,55 +235,61 @@ public class QPOneBoxResults implements QPIOneBoxResults
 	public String toXMLString() throws QPOneBoxResultException
 	{
 		try {
-			StringBuffer buf = new StringBuffer();
-			buf.append(QPXMLHelper.buildElementBegin(XML_START));
-			buf.append(QPXMLHelper.buildElementBegin(XML_XMLNS));
-			buf.append(QPXMLHelper.buildElementBegin(XML_RESULTCODE))
-				.append(this.resultCode.getName())
-				.append(QPXMLHelper.buildElementEnd(XML_RESULTCODE));
-			if (this.diagnostics != null) {
-				buf.append(QPXMLHelper.buildElementBegin(XML_DIAGNOSTICS))
-					.append(this.diagnostics.substring(0,Math.min(this.diagnostics.length(),256)))
-					.append(QPXMLHelper.buildElementEnd(XML_DIAGNOSTICS));
-			}
-			if (this.provider != null) {
-				buf.append(QPXMLHelper.buildElementBegin(XML_PROVIDER))
-					.append(this.provider.substring(0,Math.min(this.provider.length(),128)))
-					.append(QPXMLHelper.buildElementEnd(XML_PROVIDER));
-			}
-			if (this.searchTerm != null) {
-				buf.append(QPXMLHelper.buildElementBegin(XML_SEARCHTERM))
-					.append(this.searchTerm.substring(0,Math.min(this.searchTerm.length(),128)))
-					.append(QPXMLHelper.buildElementEnd(XML_SEARCHTERM));
-			}
-			buf.append(QPXMLHelper.buildElementBegin(XML_TOTALRESULTS))
-				.append(this.getNumberOfResults())
-				.append(QPXMLHelper.buildElementEnd(XML_TOTALRESULTS));
-			if ((this.urlText != null) && (this.urlLink != null)) {
-				buf.append(QPXMLHelper.buildElementBegin(XML_TITLE));
-				buf.append(QPXMLHelper.buildElementBegin(XML_URLTEXT))
-					.append(this.urlText.substring(0,Math.min(this.urlText.length(),40)))
-					.append(QPXMLHelper.buildElementEnd(XML_URLTEXT));
-				buf.append(QPXMLHelper.buildElementBegin(XML_URLLINK))
-					.append(this.urlLink)
-					.append(QPXMLHelper.buildElementEnd(XML_URLLINK));
-				buf.append(QPXMLHelper.buildElementEnd(XML_TITLE));
-			}
-			if (this.imageUrl != null) {
-				buf.append(QPXMLHelper.buildElementBegin(XML_IMAGESOURCE))
-					.append(this.imageUrl)
-					.append(QPXMLHelper.buildElementEnd(XML_IMAGESOURCE));
-			}
-			for (Iterator<QPModuleResult> iter = this.results.iterator(); iter.hasNext(); )
-			{
-				QPModuleResult moduleResult = (QPModuleResult)iter.next();
-				buf.append(moduleResult.toXMLString());
-			}
-			buf.append(QPXMLHelper.buildElementEnd(XML_ONEBOXRESULTS));
-			return buf.toString();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+			this.writeTo(out);
+			return out.toString("UTF-8");
 			
 		} catch ( Exception exc ) {
 			throw new QPOneBoxResultException("Error in converting OneBox result to string.", exc);
 		}
 	}
+	
+	@Override
+	public void writeTo(OutputStream out) throws IOException
+	{
+		QPXMLWriter writer = new QPXMLWriter(out);
+		writer.write(BYTES_START);
+		writer.write(BYTES_XMLNS);
+		writer.write(BYTES_RESULTCODE_BEGIN);
+		writer.writeText(this.resultCode.getName());
+		writer.write(BYTES_RESULTCODE_END);
+		if (this.diagnostics != null) {
+			writer.write(BYTES_DIAGNOSTICS_BEGIN);
+			writer.writeText(this.diagnostics, 256);
+			writer.write(BYTES_DIAGNOSTICS_END);
+		}
+		if (this.provider != null) {
+			writer.write(BYTES_PROVIDER_BEGIN);
+			writer.writeText(this.provider, 128);
+			writer.write(BYTES_PROVIDER_END);
+		}
+		if (this.searchTerm != null) {
+			writer.write(BYTES_SEARCHTERM_BEGIN);
+			writer.writeText(this.searchTerm, 128);
+			writer.write(BYTES_SEARCHTERM_END);
+		}
+		writer.write(BYTES_TOTALRESULTS_BEGIN);
+		writer.writeInt(this.getNumberOfResults());
+		writer.write(BYTES_TOTALRESULTS_END);
+		if ((this.urlText != null) && (this.urlLink != null)) {
+			writer.write(BYTES_TITLE_BEGIN);
+			writer.write(BYTES_URLTEXT_BEGIN);
+			writer.writeText(this.urlText, 40);
+			writer.write(BYTES_URLTEXT_END);
+			writer.write(BYTES_URLLINK_BEGIN);
+			writer.writeText(this.urlLink);
+			writer.write(BYTES_URLLINK_END);
+			writer.write(BYTES_TITLE_END);
+		}
+		if (this.imageUrl != null) {
+			writer.write(BYTES_IMAGESOURCE_BEGIN);
+			writer.writeText(this.imageUrl);
+			writer.write(BYTES_IMAGESOURCE_END);
+		}
+		for (int i = 0; i < this.results.size(); i++) {
+			this.results.get(i).writeTo(writer);
+		}
+		writer.write(BYTES_ONEBOXRESULTS_END);
+		writer.flush();
+	}
 }
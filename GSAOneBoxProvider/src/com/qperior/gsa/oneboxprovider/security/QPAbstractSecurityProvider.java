@@ -35,7 +35,7 @@ import com.qperior.gsa.oneboxprovider.util.exception.QPProviderInvokeException;
  * @author Ralf Ovelgoenne
  *
  */
-public abstract class QPAbstractSecurityProvider implements QPISecurityProvider {
+public abstract class QPAbstractSecurityProvider implements QPISecurityProvider, Cloneable {
 
 	protected QPAuthType actualAuthType;
 	
@@ -45,23 +45,23 @@ public abstract class QPAbstractSecurityProvider implements QPISecurityProvider
 	private Cookie ssoCookie;
 	
 	/**
-	 * Create the security provider for the given type through reflection
-	 * and inits it with the callParameter.
+	 * Creates the security provider for one call: a copy of this (prototype) instance,
+	 * initialized with the callParameter. The prototype itself is created once by the
+	 * provider registry, so no reflection is needed per request.
 	 * 
-	 * @param securityProviderName full qualified class name to load it through reflection
 	 * @param callParameter
 	 * @return QPISecurityProvider
 	 * @throws QPProviderInvokeException 
 	 */
-	public static QPISecurityProvider createAndInitSecurityProvider(String securityProviderName, QPCallParameter callParameter) throws QPProviderInvokeException {
+	public QPISecurityProvider createSecurityProvider(QPCallParameter callParameter) throws QPProviderInvokeException {
 		
 		try {
-			QPAbstractSecurityProvider securityProvider = (QPAbstractSecurityProvider) Class.forName(securityProviderName).newInstance();
+			QPAbstractSecurityProvider securityProvider = (QPAbstractSecurityProvider) this.clone();
 			securityProvider.init(callParameter);
 			
 			return securityProvider;
 			
-		} catch ( Exception exc ) {
+		} catch ( CloneNotSupportedException exc ) {
 			throw new QPProviderInvokeException("Exception in creating the security provider", exc);
 		}
 	}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.servlet.ServletRequest;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Util class for the asynchronous processing of Servlet 3.0 containers.
+ * <p>
+ * The project is compiled against the Servlet 2.3 API, so the <code>AsyncContext</code> 
+ * is used through reflection. If the container does not support it (or the servlet is not
+ * declared with <code>async-supported</code>) {@link #isAsyncSupported(ServletRequest)} 
+ * returns false and the caller has to process the request synchronously.
+ * The <code>AsyncListener</code> is implemented by a {@link Proxy} forwarding to a {@link Listener}.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPAsyncSupport {
+	
+	private static Log log = QPLogger.getLogger(QPAsyncSupport.class);
+	
+	private static final String CLASS_ASYNC_CONTEXT = "javax.servlet.AsyncContext";
+	private static final String CLASS_ASYNC_LISTENER = "javax.servlet.AsyncListener";
+	private static final String CLASS_ASYNC_EVENT = "javax.servlet.AsyncEvent";
+	
+	private static Method isAsyncSupported;
+	private static Method startAsync;
+	private static Method setTimeout;
+	private static Method complete;
+	private static Method addListener;
+	private static Method getThrowable;
+	private static Class<?> asyncListenerClass;
+	
+	static {
+		try {
+			isAsyncSupported = ServletRequest.class.getMethod("isAsyncSupported");
+			startAsync = ServletRequest.class.getMethod("startAsync");
+			ClassLoader loader = ServletRequest.class.getClassLoader();
+			Class<?> asyncContextClass = Class.forName(CLASS_ASYNC_CONTEXT, false, loader);
+			asyncListenerClass = Class.forName(CLASS_ASYNC_LISTENER, false, loader);
+			setTimeout = asyncContextClass.getMethod("setTimeout", long.class);
+			complete = asyncContextClass.getMethod("complete");
+			addListener = asyncContextClass.getMethod("addListener", asyncListenerClass);
+			getThrowable = Class.forName(CLASS_ASYNC_EVENT, false, loader).getMethod("getThrowable");
+		} catch (Exception exc) {
+			isAsyncSupported = null;
+			log.info("Servlet container does not support asynchronous processing.");
+		}
+	}
+	
+	/**
+	 * Events of the asynchronous request ended by the container.
+	 */
+	public interface Listener {
+		
+		/**
+		 * The timeout of the request passed, the response has not been completed.
+		 */
+		void onTimeout();
+		
+		/**
+		 * The request failed, e.g. the client closed the connection.
+		 * 
+		 * @param cause might be null
+		 */
+		void onError(Throwable cause);
+	}
+	
+	private Object asyncContext;
+	
+	private QPAsyncSupport(Object asyncContext) {
+		
+		this.asyncContext = asyncContext;
+	}
+	
+	/**
+	 * Checks that the container and the servlet support asynchronous processing of the request.
+	 * 
+	 * @param request
+	 * @return boolean
+	 */
+	public static boolean isAsyncSupported(ServletRequest request) {
+		
+		if (isAsyncSupported == null) {
+			return false;
+		}
+		try {
+			return ((Boolean) isAsyncSupported.invoke(request)).booleanValue();
+		} catch (Exception exc) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Puts the request into asynchronous mode, the container thread can be released after it.
+	 * 
+	 * @param request
+	 * @param timeout in milliseconds after that the container ends the request
+	 * @return QPAsyncSupport to complete the request
+	 * @throws IllegalStateException if the request can not be put into asynchronous mode
+	 */
+	public static QPAsyncSupport startAsync(ServletRequest request, long timeout) {
+		
+		try {
+			Object asyncContext = startAsync.invoke(request);
+			setTimeout.invoke(asyncContext, Long.valueOf(timeout));
+			return new QPAsyncSupport(asyncContext);
+		} catch (Exception exc) {
+			throw new IllegalStateException("Error in starting asynchronous processing.", exc);
+		}
+	}
+	
+	/**
+	 * Registers the listener for the timeout and the errors of the request.
+	 * 
+	 * @param listener
+	 */
+	public void addListener(final Listener listener) {
+		
+		Object asyncListener = Proxy.newProxyInstance(asyncListenerClass.getClassLoader(), 
+				new Class<?>[] { asyncListenerClass }, new InvocationHandler() {
+			
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				
+				String name = method.getName();
+				if (method.getDeclaringClass() == Object.class) {
+					if (name.equals("equals")) {
+						return Boolean.valueOf(proxy == args[0]);
+					}
+					if (name.equals("hashCode")) {
+						return Integer.valueOf(System.identityHashCode(proxy));
+					}
+					return "QPAsyncSupport listener";
+				}
+				if (name.equals("onTimeout")) {
+					listener.onTimeout();
+				}
+				else if (name.equals("onError")) {
+					listener.onError((Throwable) getThrowable.invoke(args[0]));
+				}
+				// onComplete and onStartAsync are not needed
+				return null;
+			}
+		});
+		try {
+			addListener.invoke(this.asyncContext, asyncListener);
+		} catch (Exception exc) {
+			throw new IllegalStateException("Error in adding the listener of the asynchronous request.", exc);
+		}
+	}
+	
+	/**
+	 * Completes the asynchronous request, the response is sent to the client.
+	 */
+	public void complete() {
+		
+		try {
+			complete.invoke(this.asyncContext);
+		} catch (Exception exc) {
+			log.error("Error in completing asynchronous request.", exc);
+		}
+	}
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+
+import com.qperior.gsa.oneboxprovider.monitoring.QPIMonitorable;
+
+/**
+ * Circuit breaker around a backend: the outcomes of the last calls are kept in a sliding window, 
+ * if the rate of failed or of slow calls reaches its threshold the circuit opens and calls are 
+ * rejected without contacting the backend. After the open duration the circuit is half-open 
+ * and lets a few trial calls through: if they succeed it closes, otherwise it opens again.
+ * <p>
+ * Use {@link #tryAcquire()} before the call and report its outcome with {@link #onSuccess(long)}, 
+ * {@link #onFailure(long)} or {@link #onSlowCall()}.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPCircuitBreaker implements QPIMonitorable {
+	
+	/**
+	 * State of the circuit
+	 */
+	public enum State {
+		/** calls pass, outcomes are recorded */
+		CLOSED,
+		/** calls are rejected */
+		OPEN,
+		/** a limited number of trial calls pass */
+		HALF_OPEN
+	}
+	
+	private static final byte OUTCOME_FAILED = 1;
+	private static final byte OUTCOME_SLOW = 2;
+	
+	private Log log = QPLogger.getLogger(this.getClass());
+	
+	private final String name;
+	private final int minimumCalls;
+	private final int failureRateThreshold;
+	private final int slowCallRateThreshold;
+	private final long slowCallDuration;
+	private final long openDuration;
+	private final int halfOpenCalls;
+	
+	// ring buffer of the outcomes of the last calls
+	private final byte[] window;
+	private int windowPos = 0;
+	private int windowCount = 0;
+	private int failedCount = 0;
+	private int slowCount = 0;
+	
+	private State state = State.CLOSED;
+	private long openedAt = 0L;
+	private int halfOpenPermits = 0;
+	private int halfOpenSucceeded = 0;
+	
+	private long rejected = 0L;
+	private long opened = 0L;
+	private long halfOpened = 0L;
+	private long closed = 0L;
+	private long lastTransition = 0L;
+	
+	/**
+	 * 
+	 * @param name name shown in the monitoring
+	 * @param windowSize number of the last calls in the sliding window
+	 * @param minimumCalls minimum number of calls in the window before the rates are evaluated
+	 * @param failureRateThreshold failure rate in percent opening the circuit
+	 * @param slowCallRateThreshold slow call rate in percent opening the circuit
+	 * @param slowCallDuration duration in milliseconds from which a call is slow
+	 * @param openDuration time in milliseconds the circuit stays open
+	 * @param halfOpenCalls number of trial calls in half-open state
+	 */
+	public QPCircuitBreaker(String name, int windowSize, int minimumCalls, int failureRateThreshold, 
+			int slowCallRateThreshold, long slowCallDuration, long openDuration, int halfOpenCalls) {
+		
+		this.name = name;
+		this.window = new byte[Math.max(1, windowSize)];
+		this.minimumCalls = Math.max(1, Math.min(minimumCalls, this.window.length));
+		this.failureRateThreshold = failureRateThreshold;
+		this.slowCallRateThreshold = slowCallRateThreshold;
+		this.slowCallDuration = slowCallDuration;
+		this.openDuration = openDuration;
+		this.halfOpenCalls = Math.max(1, halfOpenCalls);
+	}
+	
+	/**
+	 * Asks for the permission to call the backend.
+	 * 
+	 * @return boolean false if the circuit is open (or no trial call is left), the backend must not be called
+	 */
+	public synchronized boolean tryAcquire() {
+		
+		if (this.state == State.OPEN) {
+			if (this.currentTime() - this.openedAt < this.openDuration) {
+				this.rejected++;
+				return false;
+			}
+			this.transitionTo(State.HALF_OPEN);
+		}
+		if (this.state == State.HALF_OPEN) {
+			if (this.halfOpenPermits >= this.halfOpenCalls) {
+				this.rejected++;
+				return false;
+			}
+			this.halfOpenPermits++;
+		}
+		return true;
+	}
+	
+	/**
+	 * Records a successful call.
+	 * 
+	 * @param duration duration of the call in milliseconds
+	 */
+	public void onSuccess(long duration) {
+		this.record(false, duration);
+	}
+	
+	/**
+	 * Records a failed call.
+	 * 
+	 * @param duration duration of the call in milliseconds
+	 */
+	public void onFailure(long duration) {
+		this.record(true, duration);
+	}
+	
+	/**
+	 * Records a call the caller aborted (e.g. at the deadline of the request): 
+	 * not a failure of the backend, but a slow call, whatever its duration.
+	 */
+	public void onSlowCall() {
+		this.record(false, this.slowCallDuration);
+	}
+	
+	private synchronized void record(boolean failed, long duration) {
+		
+		boolean slow = duration >= this.slowCallDuration;
+		if (this.state == State.HALF_OPEN) {
+			if (failed || slow) {
+				this.transitionTo(State.OPEN);
+			}
+			else if (++this.halfOpenSucceeded >= this.halfOpenCalls) {
+				this.transitionTo(State.CLOSED);
+			}
+			return;
+		}
+		if (this.state == State.OPEN) {
+			// a call started before the circuit opened
+			return;
+		}
+		
+		byte outcome = (byte) ((failed ? OUTCOME_FAILED : 0) | (slow ? OUTCOME_SLOW : 0));
+		if (this.windowCount == this.window.length) {
+			this.forget(this.window[this.windowPos]);
+		}
+		else {
+			this.windowCount++;
+		}
+		this.window[this.windowPos] = outcome;
+		this.windowPos = (this.windowPos + 1) % this.window.length;
+		if (failed) {
+			this.failedCount++;
+		}
+		if (slow) {
+			this.slowCount++;
+		}
+		
+		if (this.windowCount >= this.minimumCalls 
+				&& (this.getFailureRate() >= this.failureRateThreshold || this.getSlowCallRate() >= this.slowCallRateThreshold)) {
+			this.transitionTo(State.OPEN);
+		}
+	}
+	
+	private void forget(byte outcome) {
+		
+		if ((outcome & OUTCOME_FAILED) != 0) {
+			this.failedCount--;
+		}
+		if ((outcome & OUTCOME_SLOW) != 0) {
+			this.slowCount--;
+		}
+	}
+	
+	private void transitionTo(State newState) {
+		
+		this.log.info("Circuit breaker '" + this.name + "': " + this.state + " -> " + newState 
+				+ " (failure rate " + this.getFailureRate() + "%, slow call rate " + this.getSlowCallRate() + "%).");
+		this.state = newState;
+		this.lastTransition = this.currentTime();
+		this.halfOpenPermits = 0;
+		this.halfOpenSucceeded = 0;
+		switch (newState) {
+		case OPEN:
+			this.opened++;
+			this.openedAt = this.lastTransition;
+			break;
+		case HALF_OPEN:
+			this.halfOpened++;
+			break;
+		default:
+			this.closed++;
+			this.windowPos = 0;
+			this.windowCount = 0;
+			this.failedCount = 0;
+			this.slowCount = 0;
+		}
+	}
+	
+	private int getFailureRate() {
+		return this.windowCount == 0 ? 0 : this.failedCount * 100 / this.windowCount;
+	}
+	
+	private int getSlowCallRate() {
+		return this.windowCount == 0 ? 0 : this.slowCount * 100 / this.windowCount;
+	}
+	
+	/**
+	 * Actual state, an open circuit is reported as half-open once the open duration is over.
+	 * 
+	 * @return State
+	 */
+	public synchronized State getState() {
+		
+		if (this.state == State.OPEN && this.currentTime() - this.openedAt >= this.openDuration) {
+			return State.HALF_OPEN;
+		}
+		return this.state;
+	}
+	
+	/**
+	 * Time in milliseconds, overwritten in tests.
+	 * 
+	 * @return long
+	 */
+	protected long currentTime() {
+		return System.currentTimeMillis();
+	}
+	
+	@Override
+	public String getMonitorName() {
+		
+		return "Circuit breaker " + this.name;
+	}
+	
+	@Override
+	public synchronized Map<String, Object> getStatistics() {
+		
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("state", this.getState().name());
+		statistics.put("bufferedCalls", Integer.valueOf(this.windowCount));
+		statistics.put("failureRate", Integer.valueOf(this.getFailureRate()));
+		statistics.put("slowCallRate", Integer.valueOf(this.getSlowCallRate()));
+		statistics.put("rejectedCalls", Long.valueOf(this.rejected));
+		statistics.put("transitionsToOpen", Long.valueOf(this.opened));
+		statistics.put("transitionsToHalfOpen", Long.valueOf(this.halfOpened));
+		statistics.put("transitionsToClosed", Long.valueOf(this.closed));
+		statistics.put("lastTransition", Long.valueOf(this.lastTransition));
+		return statistics;
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.qperior.gsa.oneboxprovider.monitoring.QPIMonitorable;
+
+/**
+ * Rate limit per client key (e.g. user name or IP address) without locks: each key has a 
+ * token bucket kept as its theoretical arrival time in a single {@link AtomicLong} (GCRA), 
+ * a call advances it by the interval of the rate with compare-and-set and is rejected, 
+ * if it would run ahead of the current time by more than the burst.
+ * <p>
+ * The keys are spread over stripes, each holding at most its share of the maximum keys. 
+ * When a new key arrives, a stripe drops its idle keys (a bucket idle for the idle time is full again, 
+ * so nothing is lost), at most twice per idle time so a full stripe is not scanned on every call; keys which do not fit 
+ * share one overflow bucket per stripe, so the memory stays bounded even with many distinct clients.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPClientRateLimiter implements QPIMonitorable {
+	
+	private static final int STRIPES = 16;
+	
+	private final String name;
+	private final long interval;
+	private final long tolerance;
+	private final long idleTime;
+	private final int stripeCapacity;
+	
+	private final ConcurrentHashMap<String, AtomicLong>[] stripes;
+	private final AtomicLong[] overflow;
+	private final AtomicLongArray lastSweep;
+	
+	private final AtomicLong admitted = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong overflowed = new AtomicLong();
+	private final AtomicLong expired = new AtomicLong();
+	
+	/**
+	 * 
+	 * @param name name of the key in the monitoring, e.g. "user"
+	 * @param rate calls per second and key
+	 * @param burst calls of a key at once
+	 * @param maxKeys maximum number of keys held
+	 * @param idleTime time in milliseconds after which an unused key is dropped
+	 */
+	public QPClientRateLimiter(String name, double rate, double burst, int maxKeys, long idleTime) {
+		
+		this.name = name;
+		this.interval = (long) (1000000000.0 / rate);
+		this.tolerance = (long) (Math.max(burst, 1.0) * this.interval);
+		this.idleTime = TimeUnit.MILLISECONDS.toNanos(idleTime);
+		this.stripeCapacity = Math.max(maxKeys / STRIPES, 1);
+		
+		long now = this.currentNanos();
+		this.stripes = newStripes(STRIPES);
+		this.overflow = new AtomicLong[STRIPES];
+		this.lastSweep = new AtomicLongArray(STRIPES);
+		for (int i = 0; i < STRIPES; i++) {
+			this.stripes[i] = new ConcurrentHashMap<String, AtomicLong>(16, 0.75f, 4);
+			this.overflow[i] = new AtomicLong(now);
+			this.lastSweep.set(i, now);
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static ConcurrentHashMap<String, AtomicLong>[] newStripes(int size) {
+		return (ConcurrentHashMap<String, AtomicLong>[]) new ConcurrentHashMap<?, ?>[size];
+	}
+	
+	/**
+	 * Takes a call of the key, empty keys are not limited (the caller has to fall back to another key).
+	 * 
+	 * @param key
+	 * @return boolean true, if the call is within the rate of the key
+	 */
+	public boolean tryAcquire(String key) {
+		
+		if (key == null || key.length() == 0) {
+			return true;
+		}
+		int index = this.indexOf(key);
+		AtomicLong bucket = this.stripes[index].get(key);
+		if (bucket == null) {
+			bucket = this.addKey(index, key);
+		}
+		
+		long now = this.currentNanos();
+		while (true) {
+			long arrival = bucket.get();
+			long next = Math.max(arrival, now) + this.interval;
+			if (next - now > this.tolerance) {
+				this.rejected.incrementAndGet();
+				return false;
+			}
+			if (bucket.compareAndSet(arrival, next)) {
+				this.admitted.incrementAndGet();
+				return true;
+			}
+		}
+	}
+	
+	private AtomicLong addKey(int index, String key) {
+		
+		ConcurrentHashMap<String, AtomicLong> stripe = this.stripes[index];
+		long now = this.currentNanos();
+		long last = this.lastSweep.get(index);
+		// only one thread sweeps a stripe
+		if (now - last >= this.idleTime / 2 && this.lastSweep.compareAndSet(index, last, now)) {
+			this.sweep(stripe, now);
+		}
+		if (stripe.size() >= this.stripeCapacity) {
+			this.overflowed.incrementAndGet();
+			return this.overflow[index];
+		}
+		AtomicLong created = new AtomicLong(now);
+		AtomicLong existing = stripe.putIfAbsent(key, created);
+		return existing != null ? existing : created;
+	}
+	
+	private void sweep(ConcurrentHashMap<String, AtomicLong> stripe, long now) {
+		
+		Iterator<Map.Entry<String, AtomicLong>> iterator = stripe.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, AtomicLong> entry = iterator.next();
+			if (now - entry.getValue().get() >= this.idleTime) {
+				iterator.remove();
+				this.expired.incrementAndGet();
+			}
+		}
+	}
+	
+	private int indexOf(String key) {
+		
+		int hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		return hash & (STRIPES - 1);
+	}
+	
+	/**
+	 * Number of keys currently held.
+	 * 
+	 * @return int
+	 */
+	public int getKeys() {
+		
+		int keys = 0;
+		for (ConcurrentHashMap<String, AtomicLong> stripe : this.stripes) {
+			keys += stripe.size();
+		}
+		return keys;
+	}
+	
+	/**
+	 * Current time in nanoseconds, overwritten in tests.
+	 * 
+	 * @return long
+	 */
+	protected long currentNanos() {
+		return System.nanoTime();
+	}
+	
+	@Override
+	public String getMonitorName() {
+		
+		return "Client rate limit " + this.name;
+	}
+	
+	@Override
+	public Map<String, Object> getStatistics() {
+		
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("keys", Integer.valueOf(this.getKeys()));
+		statistics.put("admitted", Long.valueOf(this.admitted.get()));
+		statistics.put("rejected", Long.valueOf(this.rejected.get()));
+		statistics.put("overflowed", Long.valueOf(this.overflowed.get()));
+		statistics.put("expired", Long.valueOf(this.expired.get()));
+		return statistics;
+	}
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.qperior.gsa.oneboxprovider.monitoring.QPIMonitorable;
+
+/**
+ * Adaptive limit of the concurrently processed requests (AIMD): 
+ * the limit grows by about one per round of requests answered within the latency threshold 
+ * and is multiplied with the backoff ratio (at most once per threshold) if a request took longer.
+ * <p>
+ * A request over the limit waits for a free slot at most the queue timeout, and only as long as 
+ * the remaining time of its deadline still covers the average latency; otherwise it is rejected, 
+ * so the admitted requests are answered within the time budget.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPConcurrencyLimiter implements QPIMonitorable {
+	
+	/**
+	 * Weight of the latest request in the latency EWMA
+	 */
+	private static final double EWMA_WEIGHT = 0.1;
+	
+	private final int minLimit;
+	private final int maxLimit;
+	private final long latencyThreshold;
+	private final double backoffRatio;
+	private final long queueTimeout;
+	
+	private double limit;
+	private int inFlight = 0;
+	private int waiting = 0;
+	private double latencyEwma = 0.0;
+	private long lastDecrease = 0L;
+	
+	private long admitted = 0L;
+	private long queued = 0L;
+	private long rejected = 0L;
+	private long decreases = 0L;
+	
+	/**
+	 * Slot of an admitted request, release it when the response is written.
+	 */
+	public class Permit {
+		
+		private final long start = System.nanoTime();
+		private final AtomicBoolean released = new AtomicBoolean();
+		
+		/**
+		 * Releases the slot and adapts the limit to the latency of the request, only the first call counts.
+		 */
+		public void release() {
+			
+			if (this.released.compareAndSet(false, true)) {
+				QPConcurrencyLimiter.this.release(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.start));
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 * @param initialLimit
+	 * @param minLimit
+	 * @param maxLimit
+	 * @param latencyThreshold latency in milliseconds above which the limit is decreased
+	 * @param backoffRatio factor of the decrease (e.g. 0.9)
+	 * @param queueTimeout maximum time in milliseconds to wait for a free slot
+	 */
+	public QPConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long latencyThreshold, 
+			double backoffRatio, long queueTimeout) {
+		
+		this.minLimit = Math.max(1, minLimit);
+		this.maxLimit = Math.max(this.minLimit, maxLimit);
+		this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+		this.latencyThreshold = latencyThreshold;
+		this.backoffRatio = backoffRatio;
+		this.queueTimeout = queueTimeout;
+	}
+	
+	/**
+	 * Admits the request or waits for a free slot within the queue timeout and the deadline.
+	 * 
+	 * @param deadline deadline of the request
+	 * @return Permit or <code>null</code> if the request is rejected
+	 */
+	public synchronized Permit acquire(QPDeadline deadline) {
+		
+		if (this.inFlight < (int) this.limit) {
+			return this.admit();
+		}
+		long wait = Math.min(this.queueTimeout, deadline.remaining() - (long) this.latencyEwma);
+		if (wait <= 0) {
+			this.rejected++;
+			return null;
+		}
+		long end = System.currentTimeMillis() + wait;
+		this.waiting++;
+		try {
+			while (this.inFlight >= (int) this.limit) {
+				long remaining = end - System.currentTimeMillis();
+				if (remaining <= 0) {
+					this.rejected++;
+					return null;
+				}
+				this.wait(remaining);
+			}
+		}
+		catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			this.rejected++;
+			return null;
+		}
+		finally {
+			this.waiting--;
+		}
+		this.queued++;
+		return this.admit();
+	}
+	
+	private Permit admit() {
+		
+		this.inFlight++;
+		this.admitted++;
+		return new Permit();
+	}
+	
+	private synchronized void release(long latency) {
+		
+		this.inFlight--;
+		this.latencyEwma = EWMA_WEIGHT * latency + (1.0 - EWMA_WEIGHT) * this.latencyEwma;
+		long now = System.currentTimeMillis();
+		if (latency > this.latencyThreshold) {
+			// decrease once per threshold, the requests of a burst are slow together
+			if (now - this.lastDecrease >= this.latencyThreshold) {
+				this.limit = Math.max(this.minLimit, this.limit * this.backoffRatio);
+				this.lastDecrease = now;
+				this.decreases++;
+			}
+		}
+		else if (this.inFlight + 1 >= this.limit / 2) {
+			// only increase if the limit is used
+			this.limit = Math.min(this.maxLimit, this.limit + 1.0 / this.limit);
+		}
+		this.notifyAll();
+	}
+	
+	/**
+	 * Actual limit.
+	 * 
+	 * @return int
+	 */
+	public synchronized int getLimit() {
+		return (int) this.limit;
+	}
+	
+	/**
+	 * Requests in process.
+	 * 
+	 * @return int
+	 */
+	public synchronized int getInFlight() {
+		return this.inFlight;
+	}
+	
+	@Override
+	public String getMonitorName() {
+		
+		return "Concurrency limit";
+	}
+	
+	@Override
+	public synchronized Map<String, Object> getStatistics() {
+		
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("limit", Integer.valueOf((int) this.limit));
+		statistics.put("inFlight", Integer.valueOf(this.inFlight));
+		statistics.put("waiting", Integer.valueOf(this.waiting));
+		statistics.put("latencyEwma", Long.valueOf(Math.round(this.latencyEwma)));
+		statistics.put("admitted", Long.valueOf(this.admitted));
+		statistics.put("queued", Long.valueOf(this.queued));
+		statistics.put("rejected", Long.valueOf(this.rejected));
+		statistics.put("decreases", Long.valueOf(this.decreases));
+		return statistics;
+	}
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.util;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+
+/**
+ * Immutable snapshot of a properties file: the file is read once into a private configuration, 
+ * which is never changed afterwards, so it can be read by all threads without locking. 
+ * A changed file is loaded into a new snapshot, which the properties class swaps in atomically 
+ * (see {@link QPConfigWatcher}); a caller holding the old snapshot still sees consistent values.
+ * <p>
+ * The typed values are converted once on first use and kept, so reading a value is a map lookup 
+ * instead of the interpolation and conversion of commons-configuration on every call; 
+ * this is meant for the values read at start. Values read per request are precomputed 
+ * by a subclass into final fields in its constructor, together with derived values.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPConfigSnapshot {
+	
+	private static final String TYPE_STRING = "string:";
+	private static final String TYPE_STRING_ARRAY = "array:";
+	private static final String TYPE_LIST = "list:";
+	private static final String TYPE_BOOLEAN = "boolean:";
+	private static final String TYPE_INT = "int:";
+	private static final String TYPE_LONG = "long:";
+	private static final String TYPE_DOUBLE = "double:";
+	
+	private final PropertiesConfiguration config;
+	private final File file;
+	private final long lastModified;
+	
+	/**
+	 * Converted values by type and key, only for keys which are set
+	 */
+	private final ConcurrentHashMap<String, Object> values = new ConcurrentHashMap<String, Object>();
+	
+	/**
+	 * Reads the properties file (located like commons-configuration does, e.g. on the classpath).
+	 * 
+	 * @param fileName
+	 * @throws ConfigurationException if the file can not be read
+	 */
+	public QPConfigSnapshot(String fileName) throws ConfigurationException {
+		
+		this(new PropertiesConfiguration(fileName));
+	}
+	
+	/**
+	 * 
+	 * @param config configuration only used by this snapshot
+	 */
+	protected QPConfigSnapshot(PropertiesConfiguration config) {
+		
+		this.config = config;
+		this.file = config.getFile();
+		this.lastModified = this.file != null ? this.file.lastModified() : 0L;
+	}
+	
+	/**
+	 * Has the file been changed since the snapshot was read? 
+	 * Always false if it was not read from a file (e.g. from a JAR).
+	 * 
+	 * @return boolean
+	 */
+	public boolean isModified() {
+		
+		return this.file != null && this.file.lastModified() != this.lastModified;
+	}
+	
+	/**
+	 * The file the snapshot was read from.
+	 * 
+	 * @return File or <code>null</code>
+	 */
+	public File getFile() {
+		return this.file;
+	}
+	
+	/**
+	 * Is the key set?
+	 * 
+	 * @param key
+	 * @return boolean
+	 */
+	public boolean containsKey(String key) {
+		return this.config.containsKey(key);
+	}
+	
+	/**
+	 * The value of the key.
+	 * 
+	 * @param key
+	 * @return String or <code>null</code> if not set
+	 */
+	public String getString(String key) {
+		return this.getString(key, null);
+	}
+	
+	/**
+	 * The value of the key.
+	 * 
+	 * @param key
+	 * @param defaultValue returned if the key is not set
+	 * @return String
+	 */
+	public String getString(String key, String defaultValue) {
+		
+		Object value = this.values.get(TYPE_STRING + key);
+		if (value == null) {
+			if (! this.config.containsKey(key)) {
+				return defaultValue;
+			}
+			value = this.cache(TYPE_STRING + key, this.config.getString(key));
+		}
+		return (String) value;
+	}
+	
+	/**
+	 * The values of a key (comma separated or repeated), a copy.
+	 * 
+	 * @param key
+	 * @return String[]
+	 */
+	public String[] getStringArray(String key) {
+		
+		Object value = this.values.get(TYPE_STRING_ARRAY + key);
+		if (value == null) {
+			value = this.cache(TYPE_STRING_ARRAY + key, this.config.getStringArray(key));
+		}
+		return ((String[]) value).clone();
+	}
+	
+	/**
+	 * The values of a key (comma separated or repeated), unmodifiable.
+	 * 
+	 * @param key
+	 * @return List
+	 */
+	@SuppressWarnings("rawtypes")
+	public List getList(String key) {
+		
+		Object value = this.values.get(TYPE_LIST + key);
+		if (value == null) {
+			// commons-configuration returns a raw list
+			@SuppressWarnings("unchecked")
+			List<Object> list = (List<Object>) this.config.getList(key);
+			value = this.cache(TYPE_LIST + key, Collections.unmodifiableList(list));
+		}
+		return (List) value;
+	}
+	
+	/**
+	 * The value of the key.
+	 * 
+	 * @param key
+	 * @return boolean
+	 * @throws java.util.NoSuchElementException if the key is not set
+	 */
+	public boolean getBoolean(String key) {
+		
+		Object value = this.values.get(TYPE_BOOLEAN + key);
+		if (value == null) {
+			value = this.cache(TYPE_BOOLEAN + key, Boolean.valueOf(this.config.getBoolean(key)));
+		}
+		return ((Boolean) value).booleanValue();
+	}
+	
+	/**
+	 * The value of the key.
+	 * 
+	 * @param key
+	 * @param defaultValue returned if the key is not set
+	 * @return boolean
+	 */
+	public boolean getBoolean(String key, boolean defaultValue) {
+		
+		Object value = this.values.get(TYPE_BOOLEAN + key);
+		if (value == null) {
+			if (! this.config.containsKey(key)) {
+				return defaultValue;
+			}
+			value = this.cache(TYPE_BOOLEAN + key, Boolean.valueOf(this.config.getBoolean(key)));
+		}
+		return ((Boolean) value).booleanValue();
+	}
+	
+	/**
+	 * The value of the key.
+	 * 
+	 * @param key
+	 * @return int
+	 * @throws java.util.NoSuchElementException if the key is not set
+	 */
+	public int getInt(String key) {
+		
+		Object value = this.values.get(TYPE_INT + key);
+		if (value == null) {
+			value = this.cache(TYPE_INT + key, Integer.valueOf(this.config.getInt(key)));
+		}
+		return ((Integer) value).intValue();
+	}
+	
+	/**
+	 * The value of the key.
+	 * 
+	 * @param key
+	 * @param defaultValue returned if the key is not set
+	 * @return int
+	 */
+	public int getInt(String key, int defaultValue) {
+		
+		Object value = this.values.get(TYPE_INT + key);
+		if (value == null) {
+			if (! this.config.containsKey(key)) {
+				return defaultValue;
+			}
+			value = this.cache(TYPE_INT + key, Integer.valueOf(this.config.getInt(key)));
+		}
+		return ((Integer) value).intValue();
+	}
+	
+	/**
+	 * The value of the key.
+	 * 
+	 * @param key
+	 * @param defaultValue returned if the key is not set
+	 * @return long
+	 */
+	public long getLong(String key, long defaultValue) {
+		
+		Object value = this.values.get(TYPE_LONG + key);
+		if (value == null) {
+			if (! this.config.containsKey(key)) {
+				return defaultValue;
+			}
+			value = this.cache(TYPE_LONG + key, Long.valueOf(this.config.getLong(key)));
+		}
+		return ((Long) value).longValue();
+	}
+	
+	/**
+	 * The value of the key.
+	 * 
+	 * @param key
+	 * @param defaultValue returned if the key is not set
+	 * @return double
+	 */
+	public double getDouble(String key, double defaultValue) {
+		
+		Object value = this.values.get(TYPE_DOUBLE + key);
+		if (value == null) {
+			if (! this.config.containsKey(key)) {
+				return defaultValue;
+			}
+			value = this.cache(TYPE_DOUBLE + key, Double.valueOf(this.config.getDouble(key)));
+		}
+		return ((Double) value).doubleValue();
+	}
+	
+	private Object cache(String typedKey, Object value) {
+		
+		if (value != null) {
+			this.values.putIfAbsent(typedKey, value);
+		}
+		return value;
+	}
+}
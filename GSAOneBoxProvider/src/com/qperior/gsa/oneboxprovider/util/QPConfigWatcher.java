@@ -0,0 +1,109 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.util;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+
+import com.qperior.gsa.oneboxprovider.provider.QPProviderExecutor;
+
+/**
+ * Watches the properties files for changes: the properties classes register a check 
+ * (e.g. {@link QPProperties#reloadIfModified()}), which loads a changed file into a new 
+ * {@link QPConfigSnapshot} and swaps it in. The checks run periodically in the background 
+ * after {@link #start(long)}, comparing the modification time of the files.
+ * <p>
+ * Values read per call (e.g. the time budget of a request or the result limit of Jive) 
+ * take effect at once; components created at the start (pools, limiters) keep their settings 
+ * until the application is restarted.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPConfigWatcher {
+	
+	private static Log log = QPLogger.getLogger(QPConfigWatcher.class);
+	
+	private static final List<Runnable> checks = new CopyOnWriteArrayList<Runnable>();
+	
+	private static ScheduledExecutorService executor;
+	
+	private QPConfigWatcher() {
+		
+	}
+	
+	/**
+	 * Registers the check of a properties file.
+	 * 
+	 * @param check reloads the file if it was changed
+	 */
+	public static void register(Runnable check) {
+		
+		checks.add(check);
+	}
+	
+	/**
+	 * Starts checking the files periodically, if not already started.
+	 * 
+	 * @param interval in milliseconds
+	 */
+	public static synchronized void start(long interval) {
+		
+		if (executor != null || interval <= 0) {
+			return;
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(QPProviderExecutor.createThreadFactory("QPConfigWatcher-"));
+		executor.scheduleWithFixedDelay(new Runnable() {
+			
+			@Override
+			public void run() {
+				checkNow();
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+		log.info("Watching the properties files for changes every " + interval + " ms.");
+	}
+	
+	/**
+	 * Stops checking the files.
+	 */
+	public static synchronized void stop() {
+		
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+	
+	/**
+	 * Runs all checks once.
+	 */
+	public static void checkNow() {
+		
+		for (Runnable check : checks) {
+			try {
+				check.run();
+			} catch (RuntimeException exc) {
+				log.error("Error in checking a properties file.", exc);
+			}
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time until a request has to be answered: the search appliance drops OneBox responses 
+ * arriving after its timeout, so work after the deadline is wasted. 
+ * The deadline is set when the servlet receives the call (see {@link QPProperties#getRequestTimeBudget()}) 
+ * and observed by the invoker, the Jive call and the JSON conversion.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public final class QPDeadline {
+	
+	/**
+	 * No deadline, e.g. for background calls
+	 */
+	public static final QPDeadline NONE = new QPDeadline(Long.MAX_VALUE);
+	
+	private final long deadlineNanos;
+	
+	private QPDeadline(long deadlineNanos) {
+		
+		this.deadlineNanos = deadlineNanos;
+	}
+	
+	/**
+	 * Creates the deadline the budget from now.
+	 * 
+	 * @param budget time in milliseconds, 0 or less for no deadline
+	 * @return QPDeadline
+	 */
+	public static QPDeadline after(long budget) {
+		
+		if (budget <= 0) {
+			return NONE;
+		}
+		return new QPDeadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budget));
+	}
+	
+	/**
+	 * Has the deadline a time limit?
+	 * 
+	 * @return boolean
+	 */
+	public boolean isLimited() {
+		return this != NONE;
+	}
+	
+	/**
+	 * Remaining time in milliseconds, 0 if expired, Long.MAX_VALUE without a deadline.
+	 * 
+	 * @return long
+	 */
+	public long remaining() {
+		
+		if (! this.isLimited()) {
+			return Long.MAX_VALUE;
+		}
+		return Math.max(0L, TimeUnit.NANOSECONDS.toMillis(this.deadlineNanos - System.nanoTime()));
+	}
+	
+	/**
+	 * Is the deadline reached?
+	 * 
+	 * @return boolean
+	 */
+	public boolean isExpired() {
+		
+		return this.isLimited() && this.deadlineNanos - System.nanoTime() <= 0;
+	}
+	
+	/**
+	 * The timeout limited to the remaining time.
+	 * 
+	 * @param timeout time in milliseconds
+	 * @return long
+	 */
+	public long limit(long timeout) {
+		
+		return Math.min(timeout, this.remaining());
+	}
+	
+	@Override
+	public String toString() {
+		
+		return this.isLimited() ? "Deadline: " + this.remaining() + " ms remaining" : "Deadline: none";
+	}
+}
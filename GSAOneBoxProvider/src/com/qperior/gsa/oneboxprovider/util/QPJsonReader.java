@@ -0,0 +1,404 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.util;
+
+/**
+ * Minimal streaming (pull) reader for JSON text.
+ * <p>
+ * The reader walks over the string once; values which are not needed are skipped 
+ * in place with {@link #skipValue()} without creating objects for them. 
+ * Only the strings read with {@link #nextName()} and {@link #nextString()} are created.
+ * Not thread-safe, use one instance per JSON text.
+ * <p>
+ * Syntax errors are reported with an {@link IllegalStateException}.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPJsonReader {
+	
+	/**
+	 * Types of the tokens
+	 */
+	public enum Token { 
+		/** { */
+		BEGIN_OBJECT, 
+		/** } */
+		END_OBJECT, 
+		/** [ */
+		BEGIN_ARRAY, 
+		/** ] */
+		END_ARRAY, 
+		/** name of a property */
+		NAME, 
+		/** string value */
+		STRING, 
+		/** number value */
+		NUMBER, 
+		/** true or false */
+		BOOLEAN, 
+		/** null */
+		NULL, 
+		/** end of the text */
+		END_DOCUMENT 
+	}
+	
+	private final String json;
+	private int pos;
+	// true if the next string in the current object is a name
+	private boolean expectName;
+	// nesting of objects (true) and arrays (false), only the current level is needed for names
+	private boolean[] stack = new boolean[32];
+	private int depth;
+	
+	/**
+	 * 
+	 * @param json JSON text
+	 * @param offset position in the text to start reading (e.g. after a prefix)
+	 */
+	public QPJsonReader(String json, int offset) {
+		
+		this.json = json;
+		this.pos = offset;
+	}
+	
+	/**
+	 * Gets the current position in the text.
+	 * 
+	 * @return int
+	 */
+	public int getPosition() {
+		return this.pos;
+	}
+	
+	/**
+	 * Gets the type of the next token without consuming it.
+	 * 
+	 * @return Token
+	 */
+	public Token peek() {
+		
+		this.skipSeparators();
+		if (this.pos >= this.json.length()) {
+			return Token.END_DOCUMENT;
+		}
+		char c = this.json.charAt(this.pos);
+		switch (c) {
+		case '{':
+			return Token.BEGIN_OBJECT;
+		case '}':
+			return Token.END_OBJECT;
+		case '[':
+			return Token.BEGIN_ARRAY;
+		case ']':
+			return Token.END_ARRAY;
+		case '"':
+			return this.expectName ? Token.NAME : Token.STRING;
+		case 't':
+		case 'f':
+			return Token.BOOLEAN;
+		case 'n':
+			return Token.NULL;
+		default:
+			if (c == '-' || (c >= '0' && c <= '9')) {
+				return Token.NUMBER;
+			}
+			throw this.syntaxError("Unexpected character '" + c + "'");
+		}
+	}
+	
+	/**
+	 * Checks that the current object or array has another element.
+	 * 
+	 * @return boolean
+	 */
+	public boolean hasNext() {
+		
+		Token token = this.peek();
+		return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+	}
+	
+	/**
+	 * Consumes {
+	 */
+	public void beginObject() {
+		
+		this.expect(Token.BEGIN_OBJECT);
+		this.pos++;
+		this.push(true);
+	}
+	
+	/**
+	 * Consumes }
+	 */
+	public void endObject() {
+		
+		this.expect(Token.END_OBJECT);
+		this.pos++;
+		this.pop();
+	}
+	
+	/**
+	 * Consumes [
+	 */
+	public void beginArray() {
+		
+		this.expect(Token.BEGIN_ARRAY);
+		this.pos++;
+		this.push(false);
+	}
+	
+	/**
+	 * Consumes ]
+	 */
+	public void endArray() {
+		
+		this.expect(Token.END_ARRAY);
+		this.pos++;
+		this.pop();
+	}
+	
+	/**
+	 * Reads the name of the next property.
+	 * 
+	 * @return String
+	 */
+	public String nextName() {
+		
+		this.expect(Token.NAME);
+		String name = this.readString();
+		this.skipWhitespace();
+		if (this.pos >= this.json.length() || this.json.charAt(this.pos) != ':') {
+			throw this.syntaxError("Expected ':'");
+		}
+		this.pos++;
+		this.expectName = false;
+		return name;
+	}
+	
+	/**
+	 * Reads a string value.
+	 * 
+	 * @return String
+	 */
+	public String nextString() {
+		
+		this.expect(Token.STRING);
+		String value = this.readString();
+		this.valueRead();
+		return value;
+	}
+	
+	/**
+	 * Skips the next value (including nested objects and arrays) without creating objects.
+	 */
+	public void skipValue() {
+		
+		int level = 0;
+		do {
+			Token token = this.peek();
+			switch (token) {
+			case BEGIN_OBJECT:
+				this.beginObject();
+				level++;
+				break;
+			case BEGIN_ARRAY:
+				this.beginArray();
+				level++;
+				break;
+			case END_OBJECT:
+				this.endObject();
+				level--;
+				break;
+			case END_ARRAY:
+				this.endArray();
+				level--;
+				break;
+			case NAME:
+				this.expect(Token.NAME);
+				this.skipString();
+				this.skipWhitespace();
+				if (this.pos >= this.json.length() || this.json.charAt(this.pos) != ':') {
+					throw this.syntaxError("Expected ':'");
+				}
+				this.pos++;
+				this.expectName = false;
+				continue;
+			case STRING:
+				this.skipString();
+				this.valueRead();
+				break;
+			case NUMBER:
+			case BOOLEAN:
+			case NULL:
+				this.skipLiteral();
+				this.valueRead();
+				break;
+			default:
+				throw this.syntaxError("Unexpected end of JSON");
+			}
+		} while (level > 0);
+	}
+	
+	private void expect(Token expected) {
+		
+		Token token = this.peek();
+		if (token != expected) {
+			throw this.syntaxError("Expected " + expected + " but was " + token);
+		}
+	}
+	
+	private void push(boolean object) {
+		
+		if (this.depth == this.stack.length) {
+			boolean[] newStack = new boolean[this.depth * 2];
+			System.arraycopy(this.stack, 0, newStack, 0, this.depth);
+			this.stack = newStack;
+		}
+		this.stack[this.depth++] = object;
+		this.expectName = object;
+	}
+	
+	private void pop() {
+		
+		this.depth--;
+		this.valueRead();
+	}
+	
+	// after a value in an object the next string is a name again
+	private void valueRead() {
+		
+		this.expectName = this.depth > 0 && this.stack[this.depth - 1];
+	}
+	
+	private void skipWhitespace() {
+		
+		while (this.pos < this.json.length()) {
+			char c = this.json.charAt(this.pos);
+			if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+				return;
+			}
+			this.pos++;
+		}
+	}
+	
+	// commas are only separators, the structure is checked by the tokens
+	private void skipSeparators() {
+		
+		while (this.pos < this.json.length()) {
+			char c = this.json.charAt(this.pos);
+			if (c != ' ' && c != '\n' && c != '\r' && c != '\t' && c != ',') {
+				return;
+			}
+			this.pos++;
+		}
+	}
+	
+	private void skipLiteral() {
+		
+		while (this.pos < this.json.length()) {
+			char c = this.json.charAt(this.pos);
+			if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+				return;
+			}
+			this.pos++;
+		}
+	}
+	
+	private void skipString() {
+		
+		// opening quote
+		this.pos++;
+		while (this.pos < this.json.length()) {
+			char c = this.json.charAt(this.pos++);
+			if (c == '"') {
+				return;
+			}
+			if (c == '\\') {
+				this.pos++;
+			}
+		}
+		throw this.syntaxError("Unterminated string");
+	}
+	
+	private String readString() {
+		
+		// opening quote
+		int start = ++this.pos;
+		// fast path: no escapes, one substring
+		while (this.pos < this.json.length()) {
+			char c = this.json.charAt(this.pos);
+			if (c == '"') {
+				return this.json.substring(start, this.pos++);
+			}
+			if (c == '\\') {
+				break;
+			}
+			this.pos++;
+		}
+		StringBuilder builder = new StringBuilder(this.pos - start + 16);
+		builder.append(this.json, start, this.pos);
+		while (this.pos < this.json.length()) {
+			char c = this.json.charAt(this.pos++);
+			if (c == '"') {
+				return builder.toString();
+			}
+			if (c != '\\') {
+				builder.append(c);
+				continue;
+			}
+			if (this.pos >= this.json.length()) {
+				break;
+			}
+			char escaped = this.json.charAt(this.pos++);
+			switch (escaped) {
+			case 'b':
+				builder.append('\b');
+				break;
+			case 'f':
+				builder.append('\f');
+				break;
+			case 'n':
+				builder.append('\n');
+				break;
+			case 'r':
+				builder.append('\r');
+				break;
+			case 't':
+				builder.append('\t');
+				break;
+			case 'u':
+				if (this.pos + 4 > this.json.length()) {
+					throw this.syntaxError("Unterminated escape sequence");
+				}
+				builder.append((char) Integer.parseInt(this.json.substring(this.pos, this.pos + 4), 16));
+				this.pos += 4;
+				break;
+			default:
+				// " \ / and everything else is taken as it is
+				builder.append(escaped);
+				break;
+			}
+		}
+		throw this.syntaxError("Unterminated string");
+	}
+	
+	private IllegalStateException syntaxError(String message) {
+		
+		return new IllegalStateException(message + " at position " + this.pos + ".");
+	}
+}
@@ -16,19 +16,27 @@
  */
 package com.qperior.gsa.oneboxprovider.util;
 
-import org.apache.commons.configuration.Configuration;
+import java.io.File;
+
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.PropertiesConfiguration;
+import org.apache.commons.logging.Log;
 
 /**
  * Properties class for the application
+ * <p>
+ * The values are read from an immutable {@link QPConfigSnapshot} of the file with the values needed 
+ * per request precomputed (e.g. the time budget of the request); if the file is changed, 
+ * a new snapshot is swapped in by the {@link QPConfigWatcher} (see {@link #getConfigReloadInterval()}).
  * 
  * @author Ralf Ovelgoenne
  *
  */
 public class QPProperties {
 	
-	private static Configuration config;
+	private static Log log = QPLogger.getLogger(QPProperties.class);
+	
+	private static volatile RequestSnapshot config;
 	
 	private static final String NAME_PROPERTIES_FILE = "GSAOneBoxProvider.properties";
 	
@@ -38,15 +46,185 @@ public class QPProperties {
 	
 	private static final String KEY_VERSION = "Version";
 	
+	private static final String KEY_ASYNC_MODE = "AsyncMode";
+	
+	private static final String KEY_ASYNC_TIMEOUT = "AsyncTimeout";
+	
+	private static final String KEY_ASYNC_THREADS = "AsyncThreads";
+	
+	private static final String KEY_ASYNC_QUEUE_SIZE = "AsyncQueueSize";
+	
+	private static final String KEY_EXECUTION_MODE = "ExecutionMode";
+	
+	private static final String KEY_RESULT_CACHE_ENABLED = "ResultCacheEnabled";
+	
+	private static final String KEY_RESULT_CACHE_MAX_SIZE = "ResultCacheMaxSize";
+	
+	private static final String KEY_RESULT_CACHE_TTL = "ResultCacheTTL";
+	
+	private static final String KEY_RESULT_CACHE_STALE_WHILE_REVALIDATE = "ResultCacheStaleWhileRevalidate";
+	
+	private static final String KEY_RESULT_CACHE_MAX_STALE = "ResultCacheMaxStale";
+	
+	private static final String KEY_RESULT_CACHE_REFRESH_THREADS = "ResultCacheRefreshThreads";
+	
+	private static final String KEY_RESULT_CACHE_REFRESH_QUEUE_SIZE = "ResultCacheRefreshQueueSize";
+	
+	private static final String KEY_RESULT_CACHE_OFF_HEAP_CAPACITY = "ResultCacheOffHeapCapacity";
+	
+	private static final String KEY_RESULT_CACHE_OFF_HEAP_CHUNK_SIZE = "ResultCacheOffHeapChunkSize";
+	
+	private static final String KEY_RESULT_CACHE_OFF_HEAP_SLAB_SIZE = "ResultCacheOffHeapSlabSize";
+	
+	private static final String KEY_RESULT_CACHE_PERSISTENT = "ResultCachePersistent";
+	
+	private static final String KEY_RESULT_CACHE_PERSISTENT_DIR = "ResultCachePersistentDir";
+	
+	private static final String KEY_RESULT_CACHE_PERSISTENT_SEGMENT_SIZE = "ResultCachePersistentSegmentSize";
+	
+	private static final String KEY_RESULT_CACHE_PERSISTENT_MAX_SIZE = "ResultCachePersistentMaxSize";
+	
+	private static final String KEY_RESULT_CACHE_PERSISTENT_COMPACTION_INTERVAL = "ResultCachePersistentCompactionInterval";
+	
+	private static final String KEY_CACHE_WARMING_ENABLED = "CacheWarmingEnabled";
+	
+	private static final String KEY_CACHE_WARMING_HISTORY_FILE = "CacheWarmingHistoryFile";
+	
+	private static final String KEY_CACHE_WARMING_HISTORY_SIZE = "CacheWarmingHistorySize";
+	
+	private static final String KEY_CACHE_WARMING_HISTORY_SAVE_INTERVAL = "CacheWarmingHistorySaveInterval";
+	
+	private static final String KEY_CACHE_WARMING_QUERIES = "CacheWarmingQueries";
+	
+	private static final String KEY_CACHE_WARMING_THREADS = "CacheWarmingThreads";
+	
+	private static final String KEY_CACHE_WARMING_RATE = "CacheWarmingRate";
+	
+	private static final String KEY_CACHE_WARMING_READY_FRACTION = "CacheWarmingReadyFraction";
+	
+	private static final String KEY_CACHE_WARMING_INIT_TIMEOUT = "CacheWarmingInitTimeout";
+	
+	private static final String KEY_CACHE_PREFETCH_ENABLED = "CachePrefetchEnabled";
+	
+	private static final String KEY_CACHE_PREFETCH_INTERVAL = "CachePrefetchInterval";
+	
+	private static final String KEY_CACHE_PREFETCH_LEAD_TIME = "CachePrefetchLeadTime";
+	
+	private static final String KEY_CACHE_PREFETCH_MIN_FREQUENCY = "CachePrefetchMinFrequency";
+	
+	private static final String KEY_CACHE_PREFETCH_MAX_PER_ROUND = "CachePrefetchMaxPerRound";
+	
+	private static final String KEY_PROVIDER_RATE_BUDGET = "ProviderRateBudget";
+	
+	private static final String KEY_REQUEST_TIME_BUDGET = "RequestTimeBudget";
+	
+	private static final String KEY_CONCURRENCY_LIMIT = "ConcurrencyLimit";
+	
+	private static final String KEY_CONCURRENCY_LIMIT_INITIAL = "ConcurrencyLimitInitial";
+	
+	private static final String KEY_CONCURRENCY_LIMIT_MIN = "ConcurrencyLimitMin";
+	
+	private static final String KEY_CONCURRENCY_LIMIT_MAX = "ConcurrencyLimitMax";
+	
+	private static final String KEY_CONCURRENCY_LIMIT_LATENCY = "ConcurrencyLimitLatency";
+	
+	private static final String KEY_CONCURRENCY_LIMIT_BACKOFF = "ConcurrencyLimitBackoff";
+	
+	private static final String KEY_CONCURRENCY_LIMIT_QUEUE_TIMEOUT = "ConcurrencyLimitQueueTimeout";
+	
+	private static final String KEY_BULKHEADS = "Bulkheads";
+	
+	private static final String KEY_BULKHEAD_PREFIX = "Bulkhead.";
+	
+	private static final String KEY_BULKHEAD_MAX_CALLS = "MaxCalls";
+	
+	private static final String KEY_BULKHEAD_THREADS = "Threads";
+	
+	private static final String KEY_BULKHEAD_QUEUE_SIZE = "QueueSize";
+	
+	private static final String KEY_CLIENT_RATE_LIMIT = "ClientRateLimit";
+	
+	private static final String KEY_CLIENT_RATE_LIMIT_USER = "ClientRateLimitUser";
+	
+	private static final String KEY_CLIENT_RATE_LIMIT_USER_BURST = "ClientRateLimitUserBurst";
+	
+	private static final String KEY_CLIENT_RATE_LIMIT_IP = "ClientRateLimitIp";
+	
+	private static final String KEY_CLIENT_RATE_LIMIT_IP_BURST = "ClientRateLimitIpBurst";
+	
+	private static final String KEY_CLIENT_RATE_LIMIT_MAX_KEYS = "ClientRateLimitMaxKeys";
+	
+	private static final String KEY_CLIENT_RATE_LIMIT_IDLE_TIME = "ClientRateLimitIdleTime";
+	
+	private static final String KEY_STANDALONE_PORT = "StandalonePort";
+	
+	private static final String KEY_STANDALONE_CONTEXT_PATH = "StandaloneContextPath";
+	
+	private static final String KEY_STANDALONE_THREADS = "StandaloneThreads";
+	
+	private static final String KEY_WARMUP = "Warmup";
+	
+	private static final String KEY_WARMUP_ITERATIONS = "WarmupIterations";
+	
+	private static final String KEY_CONFIG_RELOAD_INTERVAL = "ConfigReloadInterval";
+	
 	private QPProperties() {
 		
 	}
+	
+	/**
+	 * Snapshot of the file with the values needed per request precomputed.
+	 */
+	private static class RequestSnapshot extends QPConfigSnapshot {
+		
+		private final boolean asyncMode;
+		private final long asyncTimeout;
+		private final long requestTimeBudget;
+		
+		RequestSnapshot(PropertiesConfiguration config) {
+			
+			super(config);
+			this.asyncMode = this.getBoolean(KEY_ASYNC_MODE, false);
+			this.asyncTimeout = this.getLong(KEY_ASYNC_TIMEOUT, 5000L);
+			this.requestTimeBudget = this.getLong(KEY_REQUEST_TIME_BUDGET, 0L);
+		}
+	}
 
 	static {
+		PropertiesConfiguration properties;
 		try {
-			config = new PropertiesConfiguration(NAME_PROPERTIES_FILE);
+			properties = new PropertiesConfiguration(NAME_PROPERTIES_FILE);
 		} catch (ConfigurationException exc) {
+			properties = new PropertiesConfiguration();
+		}
+		config = new RequestSnapshot(properties);
+		QPConfigWatcher.register(new Runnable() {
 			
+			@Override
+			public void run() {
+				reloadIfModified();
+			}
+		});
+	}
+	
+	/**
+	 * Loads the file into a new snapshot, if it was changed; 
+	 * if it can not be read, the current snapshot is kept.
+	 * 
+	 * @return boolean true, if a new snapshot was loaded
+	 */
+	public static boolean reloadIfModified() {
+		
+		if (! config.isModified()) {
+			return false;
+		}
+		try {
+			config = new RequestSnapshot(new PropertiesConfiguration(NAME_PROPERTIES_FILE));
+			log.info("Properties file '" + NAME_PROPERTIES_FILE + "' changed, reloaded.");
+			return true;
+		} catch (ConfigurationException exc) {
+			log.error("Error in reloading '" + NAME_PROPERTIES_FILE + "', keeping the current values.", exc);
+			return false;
 		}
 	}
 	
@@ -76,4 +254,562 @@ public class QPProperties {
 	public static String getVersion() {
 		return config.getString(KEY_VERSION);
 	}
+	
+	/**
+	 * Asynchronous request processing true/false.
+	 * 
+	 * @return boolean
+	 */
+	public static boolean isAsyncMode() {
+		return config.asyncMode;
+	}
+	
+	/**
+	 * Timeout in milliseconds for an asynchronous request.
+	 * 
+	 * @return long
+	 */
+	public static long getAsyncTimeout() {
+		return config.asyncTimeout;
+	}
+	
+	/**
+	 * Number of threads running the asynchronous provider calls.
+	 * 
+	 * @return int
+	 */
+	public static int getAsyncThreads() {
+		return config.getInt(KEY_ASYNC_THREADS, 16);
+	}
+	
+	/**
+	 * Maximum number of waiting asynchronous provider calls.
+	 * 
+	 * @return int
+	 */
+	public static int getAsyncQueueSize() {
+		return config.getInt(KEY_ASYNC_QUEUE_SIZE, 1000);
+	}
+	
+	/**
+	 * Threads running the provider calls: <code>platform</code> (pool of {@link #getAsyncThreads()}) 
+	 * or <code>virtual</code> (a virtual thread per call, needs Java 21, otherwise platform).
+	 * 
+	 * @return String
+	 */
+	public static String getExecutionMode() {
+		return config.getString(KEY_EXECUTION_MODE, "platform");
+	}
+	
+	/**
+	 * Caching of successful OneBox results true/false.
+	 * 
+	 * @return boolean
+	 */
+	public static boolean isResultCacheEnabled() {
+		return config.getBoolean(KEY_RESULT_CACHE_ENABLED, false);
+	}
+	
+	/**
+	 * Maximum number of cached OneBox results.
+	 * 
+	 * @return int
+	 */
+	public static int getResultCacheMaxSize() {
+		return config.getInt(KEY_RESULT_CACHE_MAX_SIZE, 10000);
+	}
+	
+	/**
+	 * Time to live in milliseconds of a cached OneBox result.
+	 * 
+	 * @return long
+	 */
+	public static long getResultCacheTTL() {
+		return config.getLong(KEY_RESULT_CACHE_TTL, 300000L);
+	}
+	
+	/**
+	 * Grace period in milliseconds after the time to live, in which a cached OneBox result 
+	 * is served and refreshed in the background (0 switches it off).
+	 * 
+	 * @return long
+	 */
+	public static long getResultCacheStaleWhileRevalidate() {
+		return config.getLong(KEY_RESULT_CACHE_STALE_WHILE_REVALIDATE, 0L);
+	}
+	
+	/**
+	 * Maximum time in milliseconds after the time to live, in which a cached OneBox result 
+	 * is served if the provider fails.
+	 * 
+	 * @return long
+	 */
+	public static long getResultCacheMaxStale() {
+		return config.getLong(KEY_RESULT_CACHE_MAX_STALE, 0L);
+	}
+	
+	/**
+	 * Number of threads refreshing stale cached OneBox results.
+	 * 
+	 * @return int
+	 */
+	public static int getResultCacheRefreshThreads() {
+		return config.getInt(KEY_RESULT_CACHE_REFRESH_THREADS, 2);
+	}
+	
+	/**
+	 * Maximum number of waiting refreshes of stale cached OneBox results.
+	 * 
+	 * @return int
+	 */
+	public static int getResultCacheRefreshQueueSize() {
+		return config.getInt(KEY_RESULT_CACHE_REFRESH_QUEUE_SIZE, 100);
+	}
+	
+	/**
+	 * Capacity in bytes of the off-heap tier of the result cache (0 switches it off).
+	 * 
+	 * @return long
+	 */
+	public static long getResultCacheOffHeapCapacity() {
+		return config.getLong(KEY_RESULT_CACHE_OFF_HEAP_CAPACITY, 0L);
+	}
+	
+	/**
+	 * Size in bytes of a chunk of the off-heap tier.
+	 * 
+	 * @return int
+	 */
+	public static int getResultCacheOffHeapChunkSize() {
+		return config.getInt(KEY_RESULT_CACHE_OFF_HEAP_CHUNK_SIZE, 1024);
+	}
+	
+	/**
+	 * Size in bytes of a slab (one direct buffer) of the off-heap tier.
+	 * 
+	 * @return int
+	 */
+	public static int getResultCacheOffHeapSlabSize() {
+		return config.getInt(KEY_RESULT_CACHE_OFF_HEAP_SLAB_SIZE, 4194304);
+	}
+	
+	/**
+	 * Is the disk tier of the result cache enabled (the cache survives restarts)?
+	 * 
+	 * @return boolean
+	 */
+	public static boolean isResultCachePersistent() {
+		return config.getBoolean(KEY_RESULT_CACHE_PERSISTENT, false);
+	}
+	
+	/**
+	 * Directory of the segment files of the disk tier, there is no default: without it the disk tier stays off.
+	 * 
+	 * @return String or <code>null</code>
+	 */
+	public static String getResultCachePersistentDir() {
+		return config.getString(KEY_RESULT_CACHE_PERSISTENT_DIR, null);
+	}
+	
+	/**
+	 * Size in bytes of a segment file of the disk tier.
+	 * 
+	 * @return int
+	 */
+	public static int getResultCachePersistentSegmentSize() {
+		return config.getInt(KEY_RESULT_CACHE_PERSISTENT_SEGMENT_SIZE, 67108864);
+	}
+	
+	/**
+	 * Maximum size in bytes of all segment files of the disk tier.
+	 * 
+	 * @return long
+	 */
+	public static long getResultCachePersistentMaxSize() {
+		return config.getLong(KEY_RESULT_CACHE_PERSISTENT_MAX_SIZE, 1073741824L);
+	}
+	
+	/**
+	 * Time in milliseconds between the compactions of the disk tier.
+	 * 
+	 * @return long
+	 */
+	public static long getResultCachePersistentCompactionInterval() {
+		return config.getLong(KEY_RESULT_CACHE_PERSISTENT_COMPACTION_INTERVAL, 60000L);
+	}
+	
+	/**
+	 * Is the recording of the query history and the cache warming at start enabled?
+	 * 
+	 * @return boolean
+	 */
+	public static boolean isCacheWarmingEnabled() {
+		return config.getBoolean(KEY_CACHE_WARMING_ENABLED, false);
+	}
+	
+	/**
+	 * File of the recorded query history.
+	 * 
+	 * @return String
+	 */
+	public static String getCacheWarmingHistoryFile() {
+		return config.getString(KEY_CACHE_WARMING_HISTORY_FILE, 
+				new File(System.getProperty("java.io.tmpdir"), "gsaoneboxprovider-history.txt").getPath());
+	}
+	
+	/**
+	 * Maximum number of queries counted in the history.
+	 * 
+	 * @return int
+	 */
+	public static int getCacheWarmingHistorySize() {
+		return config.getInt(KEY_CACHE_WARMING_HISTORY_SIZE, 10000);
+	}
+	
+	/**
+	 * Time in milliseconds between the saves of the history.
+	 * 
+	 * @return long
+	 */
+	public static long getCacheWarmingHistorySaveInterval() {
+		return config.getLong(KEY_CACHE_WARMING_HISTORY_SAVE_INTERVAL, 300000L);
+	}
+	
+	/**
+	 * Number of the most frequent queries replayed at start.
+	 * 
+	 * @return int
+	 */
+	public static int getCacheWarmingQueries() {
+		return config.getInt(KEY_CACHE_WARMING_QUERIES, 500);
+	}
+	
+	/**
+	 * Number of queries replayed in parallel.
+	 * 
+	 * @return int
+	 */
+	public static int getCacheWarmingThreads() {
+		return config.getInt(KEY_CACHE_WARMING_THREADS, 4);
+	}
+	
+	/**
+	 * Maximum provider calls per second while warming.
+	 * 
+	 * @return double
+	 */
+	public static double getCacheWarmingRate() {
+		return config.getDouble(KEY_CACHE_WARMING_RATE, 20.0);
+	}
+	
+	/**
+	 * Fraction (0 to 1) of the replayed queries which has to be done before the application is ready.
+	 * 
+	 * @return double
+	 */
+	public static double getCacheWarmingReadyFraction() {
+		return config.getDouble(KEY_CACHE_WARMING_READY_FRACTION, 0.8);
+	}
+	
+	/**
+	 * Maximum time in milliseconds the servlet init waits for the ready fraction (0 does not wait).
+	 * 
+	 * @return long
+	 */
+	public static long getCacheWarmingInitTimeout() {
+		return config.getLong(KEY_CACHE_WARMING_INIT_TIMEOUT, 0L);
+	}
+	
+	/**
+	 * Is the prefetch of popular cached results before their expiry enabled?
+	 * 
+	 * @return boolean
+	 */
+	public static boolean isCachePrefetchEnabled() {
+		return config.getBoolean(KEY_CACHE_PREFETCH_ENABLED, false);
+	}
+	
+	/**
+	 * Time in milliseconds between the prefetch rounds.
+	 * 
+	 * @return long
+	 */
+	public static long getCachePrefetchInterval() {
+		return config.getLong(KEY_CACHE_PREFETCH_INTERVAL, 5000L);
+	}
+	
+	/**
+	 * Time in milliseconds before the expiry in which a popular result is prefetched.
+	 * 
+	 * @return long
+	 */
+	public static long getCachePrefetchLeadTime() {
+		return config.getLong(KEY_CACHE_PREFETCH_LEAD_TIME, 30000L);
+	}
+	
+	/**
+	 * Minimum estimated number of recent requests of a result to prefetch it.
+	 * 
+	 * @return int
+	 */
+	public static int getCachePrefetchMinFrequency() {
+		return config.getInt(KEY_CACHE_PREFETCH_MIN_FREQUENCY, 3);
+	}
+	
+	/**
+	 * Maximum prefetches per round.
+	 * 
+	 * @return int
+	 */
+	public static int getCachePrefetchMaxPerRound() {
+		return config.getInt(KEY_CACHE_PREFETCH_MAX_PER_ROUND, 50);
+	}
+	
+	/**
+	 * Budget of provider calls per second shared by live and background calls (0 is unlimited).
+	 * 
+	 * @return double
+	 */
+	public static double getProviderRateBudget() {
+		return config.getDouble(KEY_PROVIDER_RATE_BUDGET, 0.0);
+	}
+	
+	/**
+	 * Time in milliseconds to answer a request, below the OneBox timeout of the search appliance 
+	 * (0 is unlimited).
+	 * 
+	 * @return long
+	 */
+	public static long getRequestTimeBudget() {
+		return config.requestTimeBudget;
+	}
+	
+	/**
+	 * Adaptive limit of the concurrently processed requests true/false.
+	 * 
+	 * @return boolean
+	 */
+	public static boolean isConcurrencyLimit() {
+		return config.getBoolean(KEY_CONCURRENCY_LIMIT, false);
+	}
+	
+	/**
+	 * Initial concurrency limit.
+	 * 
+	 * @return int
+	 */
+	public static int getConcurrencyLimitInitial() {
+		return config.getInt(KEY_CONCURRENCY_LIMIT_INITIAL, 20);
+	}
+	
+	/**
+	 * Minimum concurrency limit.
+	 * 
+	 * @return int
+	 */
+	public static int getConcurrencyLimitMin() {
+		return config.getInt(KEY_CONCURRENCY_LIMIT_MIN, 4);
+	}
+	
+	/**
+	 * Maximum concurrency limit.
+	 * 
+	 * @return int
+	 */
+	public static int getConcurrencyLimitMax() {
+		return config.getInt(KEY_CONCURRENCY_LIMIT_MAX, 200);
+	}
+	
+	/**
+	 * Latency in milliseconds above which the concurrency limit is decreased.
+	 * 
+	 * @return long
+	 */
+	public static long getConcurrencyLimitLatency() {
+		return config.getLong(KEY_CONCURRENCY_LIMIT_LATENCY, 500L);
+	}
+	
+	/**
+	 * Factor of the decrease of the concurrency limit.
+	 * 
+	 * @return double
+	 */
+	public static double getConcurrencyLimitBackoff() {
+		return config.getDouble(KEY_CONCURRENCY_LIMIT_BACKOFF, 0.9);
+	}
+	
+	/**
+	 * Maximum time in milliseconds a request waits for a free slot.
+	 * 
+	 * @return long
+	 */
+	public static long getConcurrencyLimitQueueTimeout() {
+		return config.getLong(KEY_CONCURRENCY_LIMIT_QUEUE_TIMEOUT, 100L);
+	}
+	
+	/**
+	 * Each provider with its own bulkhead true/false.
+	 * 
+	 * @return boolean
+	 */
+	public static boolean isBulkheads() {
+		return config.getBoolean(KEY_BULKHEADS, false);
+	}
+	
+	/**
+	 * Maximum calls in flight of the provider, 
+	 * key <code>Bulkhead.&lt;provider class name&gt;.MaxCalls</code>, by default <code>Bulkhead.MaxCalls</code>.
+	 * 
+	 * @param providerName full qualified class name
+	 * @return int
+	 */
+	public static int getBulkheadMaxCalls(String providerName) {
+		return getBulkheadInt(providerName, KEY_BULKHEAD_MAX_CALLS, 50);
+	}
+	
+	/**
+	 * Threads of the executor of the provider, 
+	 * key <code>Bulkhead.&lt;provider class name&gt;.Threads</code>, by default <code>Bulkhead.Threads</code>.
+	 * 
+	 * @param providerName full qualified class name
+	 * @return int
+	 */
+	public static int getBulkheadThreads(String providerName) {
+		return getBulkheadInt(providerName, KEY_BULKHEAD_THREADS, getAsyncThreads());
+	}
+	
+	/**
+	 * Queue size of the executor of the provider, 
+	 * key <code>Bulkhead.&lt;provider class name&gt;.QueueSize</code>, by default <code>Bulkhead.QueueSize</code>.
+	 * 
+	 * @param providerName full qualified class name
+	 * @return int
+	 */
+	public static int getBulkheadQueueSize(String providerName) {
+		return getBulkheadInt(providerName, KEY_BULKHEAD_QUEUE_SIZE, getAsyncQueueSize());
+	}
+	
+	private static int getBulkheadInt(String providerName, String key, int defaultValue) {
+		
+		QPConfigSnapshot snapshot = config;
+		int value = snapshot.getInt(KEY_BULKHEAD_PREFIX + key, defaultValue);
+		return snapshot.getInt(KEY_BULKHEAD_PREFIX + providerName + "." + key, value);
+	}
+	
+	/**
+	 * Rate limit per user and per IP address of the calling client true/false.
+	 * 
+	 * @return boolean
+	 */
+	public static boolean isClientRateLimit() {
+		return config.getBoolean(KEY_CLIENT_RATE_LIMIT, false);
+	}
+	
+	/**
+	 * Calls per second of a user, 0 is unlimited.
+	 * 
+	 * @return double
+	 */
+	public static double getClientRateLimitUser() {
+		return config.getDouble(KEY_CLIENT_RATE_LIMIT_USER, 5.0);
+	}
+	
+	/**
+	 * Calls of a user at once.
+	 * 
+	 * @return double
+	 */
+	public static double getClientRateLimitUserBurst() {
+		return config.getDouble(KEY_CLIENT_RATE_LIMIT_USER_BURST, 10.0);
+	}
+	
+	/**
+	 * Calls per second of an IP address, 0 is unlimited.
+	 * 
+	 * @return double
+	 */
+	public static double getClientRateLimitIp() {
+		return config.getDouble(KEY_CLIENT_RATE_LIMIT_IP, 20.0);
+	}
+	
+	/**
+	 * Calls of an IP address at once.
+	 * 
+	 * @return double
+	 */
+	public static double getClientRateLimitIpBurst() {
+		return config.getDouble(KEY_CLIENT_RATE_LIMIT_IP_BURST, 40.0);
+	}
+	
+	/**
+	 * Maximum number of users resp. IP addresses held by the rate limit.
+	 * 
+	 * @return int
+	 */
+	public static int getClientRateLimitMaxKeys() {
+		return config.getInt(KEY_CLIENT_RATE_LIMIT_MAX_KEYS, 10000);
+	}
+	
+	/**
+	 * Time in milliseconds after which an idle user resp. IP address is dropped.
+	 * 
+	 * @return long
+	 */
+	public static long getClientRateLimitIdleTime() {
+		return config.getLong(KEY_CLIENT_RATE_LIMIT_IDLE_TIME, 60000L);
+	}
+	
+	/**
+	 * Port of the standalone HTTP server.
+	 * 
+	 * @return int
+	 */
+	public static int getStandalonePort() {
+		return config.getInt(KEY_STANDALONE_PORT, 8080);
+	}
+	
+	/**
+	 * Context path of the servlet in the standalone HTTP server.
+	 * 
+	 * @return String
+	 */
+	public static String getStandaloneContextPath() {
+		return config.getString(KEY_STANDALONE_CONTEXT_PATH, "/GSAOneBoxProvider");
+	}
+	
+	/**
+	 * Threads of the standalone HTTP server processing the requests.
+	 * 
+	 * @return int
+	 */
+	public static int getStandaloneThreads() {
+		return config.getInt(KEY_STANDALONE_THREADS, 50);
+	}
+	
+	/**
+	 * Warmup of the request pipeline at the start true/false.
+	 * 
+	 * @return boolean
+	 */
+	public static boolean isWarmup() {
+		return config.getBoolean(KEY_WARMUP, false);
+	}
+	
+	/**
+	 * How often the request pipeline is run in the warmup.
+	 * 
+	 * @return int
+	 */
+	public static int getWarmupIterations() {
+		return config.getInt(KEY_WARMUP_ITERATIONS, 200);
+	}
+	
+	/**
+	 * Interval in milliseconds of checking the properties files for changes, 0 is never.
+	 * 
+	 * @return long
+	 */
+	public static long getConfigReloadInterval() {
+		return config.getLong(KEY_CONFIG_RELOAD_INTERVAL, 0L);
+	}
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.qperior.gsa.oneboxprovider.monitoring.QPIMonitorable;
+
+/**
+ * Coalesces concurrent identical calls: the first caller for a key (the leader) runs the call,
+ * all callers arriving while it is running wait for and share its value.
+ * The key is removed when the call finished, so later callers start a new call.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ * @param <K> key of the call
+ * @param <V> value of the call
+ */
+public class QPSingleFlight<K, V> implements QPIMonitorable {
+	
+	private final String name;
+	
+	private final ConcurrentMap<K, Call<V>> calls = new ConcurrentHashMap<K, Call<V>>();
+	
+	private final AtomicLong leaders = new AtomicLong();
+	private final AtomicLong followers = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	
+	private static class Call<V> {
+		
+		final CountDownLatch done = new CountDownLatch(1);
+		V value;
+		Throwable failure;
+	}
+	
+	/**
+	 * 
+	 * @param name name shown in the monitoring
+	 */
+	public QPSingleFlight(String name) {
+		
+		this.name = name;
+	}
+	
+	/**
+	 * Runs the call or waits for the running identical call.
+	 * 
+	 * @param key
+	 * @param callable
+	 * @param timeout maximum time in milliseconds to wait for a running call
+	 * @return V
+	 * @throws TimeoutException if the running call did not finish in time
+	 * @throws ExecutionException if the call threw an exception
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public V execute(K key, Callable<V> callable, long timeout) 
+		throws TimeoutException, ExecutionException, InterruptedException 
+	{
+		Call<V> call = new Call<V>();
+		Call<V> running = this.calls.putIfAbsent(key, call);
+		
+		if (running != null) {
+			this.followers.incrementAndGet();
+			if (! running.done.await(timeout, TimeUnit.MILLISECONDS)) {
+				this.timeouts.incrementAndGet();
+				throw new TimeoutException("Timeout in waiting for the running call '" + key + "'.");
+			}
+			if (running.failure != null) {
+				throw new ExecutionException(running.failure);
+			}
+			return running.value;
+		}
+		
+		this.leaders.incrementAndGet();
+		try {
+			call.value = callable.call();
+			return call.value;
+		} catch (Exception exc) {
+			call.failure = exc;
+			throw new ExecutionException(exc);
+		} catch (Error err) {
+			call.failure = err;
+			throw err;
+		} finally {
+			this.calls.remove(key, call);
+			call.done.countDown();
+		}
+	}
+	
+	/**
+	 * Number of calls currently running.
+	 * 
+	 * @return int
+	 */
+	public int getRunningCalls() {
+		return this.calls.size();
+	}
+
+	@Override
+	public String getMonitorName() {
+		return this.name;
+	}
+
+	@Override
+	public Map<String, Object> getStatistics() {
+		
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("running", Integer.valueOf(this.calls.size()));
+		statistics.put("calls", Long.valueOf(this.leaders.get()));
+		statistics.put("coalesced", Long.valueOf(this.followers.get()));
+		statistics.put("timeouts", Long.valueOf(this.timeouts.get()));
+		return statistics;
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting the rate of calls: the bucket is refilled with <code>rate</code> tokens 
+ * per second up to the burst size, each call takes one token.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPTokenBucket {
+	
+	private double rate;
+	private double burst;
+	private double tokens;
+	private long lastRefill;
+	
+	/**
+	 * The bucket starts full.
+	 * 
+	 * @param rate tokens per second
+	 * @param burst maximum number of tokens
+	 */
+	public QPTokenBucket(double rate, double burst) {
+		
+		this.rate = rate;
+		this.burst = Math.max(burst, 1.0);
+		this.tokens = this.burst;
+		this.lastRefill = this.currentNanos();
+	}
+	
+	/**
+	 * Takes a token if one is available.
+	 * 
+	 * @return boolean
+	 */
+	public synchronized boolean tryAcquire() {
+		
+		this.refill();
+		if (this.tokens >= 1.0) {
+			this.tokens -= 1.0;
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Takes a token, waiting for it at most the timeout.
+	 * 
+	 * @param timeout maximum time to wait in milliseconds
+	 * @return boolean true, if a token was taken
+	 * @throws InterruptedException
+	 */
+	public boolean acquire(long timeout) throws InterruptedException {
+		
+		// capped, so a very long timeout does not overflow
+		long end = this.currentNanos() + Math.min(TimeUnit.MILLISECONDS.toNanos(timeout), Long.MAX_VALUE / 4);
+		while (true) {
+			long wait;
+			synchronized (this) {
+				this.refill();
+				if (this.tokens >= 1.0) {
+					this.tokens -= 1.0;
+					return true;
+				}
+				wait = this.rate > 0 ? (long) ((1.0 - this.tokens) * 1000000000.0 / this.rate) : Long.MAX_VALUE;
+			}
+			long remaining = end - this.currentNanos();
+			if (remaining <= 0) {
+				return false;
+			}
+			TimeUnit.NANOSECONDS.sleep(Math.max(Math.min(wait, remaining), 100000L));
+		}
+	}
+	
+	/**
+	 * Takes a token even if none is available (for calls which must not wait, e.g. live traffic); 
+	 * the bucket may go into debt down to minus the burst size, so other calls have to wait longer.
+	 */
+	public synchronized void consume() {
+		
+		this.refill();
+		this.tokens = Math.max(this.tokens - 1.0, -this.burst);
+	}
+	
+	/**
+	 * Adds tokens up to the burst size, for a bucket refilled by events instead of the time (rate 0).
+	 * 
+	 * @param tokens
+	 */
+	public synchronized void deposit(double tokens) {
+		
+		this.refill();
+		this.tokens = Math.min(this.burst, this.tokens + tokens);
+	}
+	
+	private void refill() {
+		
+		long now = this.currentNanos();
+		this.tokens = Math.min(this.burst, this.tokens + (now - this.lastRefill) * this.rate / 1000000000.0);
+		this.lastRefill = now;
+	}
+	
+	/**
+	 * Changes the rate, the tokens are kept.
+	 * 
+	 * @param rate tokens per second
+	 */
+	public synchronized void setRate(double rate) {
+		
+		this.refill();
+		this.rate = rate;
+	}
+	
+	/**
+	 * Tokens per second.
+	 * 
+	 * @return double
+	 */
+	public synchronized double getRate() {
+		return this.rate;
+	}
+	
+	/**
+	 * Currently available tokens.
+	 * 
+	 * @return double
+	 */
+	public synchronized double getTokens() {
+		
+		this.refill();
+		return this.tokens;
+	}
+	
+	/**
+	 * Current time in nanoseconds, overwritten in tests.
+	 * 
+	 * @return long
+	 */
+	protected long currentNanos() {
+		return System.nanoTime();
+	}
+}
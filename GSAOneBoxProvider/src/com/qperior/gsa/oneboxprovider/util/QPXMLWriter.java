@@ -0,0 +1,241 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Streaming writer for the OneBox XML, writes UTF-8 directly to an OutputStream.
+ * <p>
+ * Fixed parts (XML declaration, element names) are encoded once into byte constants
+ * (see {@link #encode(String)}), text values are escaped, truncated and encoded 
+ * in a single pass without creating intermediate strings.
+ * Not thread-safe, use one instance per response.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPXMLWriter {
+	
+	private static final String ENCODING = "UTF-8";
+	
+	private static final byte[] ESC_AMP = encode("&amp;");
+	private static final byte[] ESC_LT = encode("&lt;");
+	private static final byte[] ESC_GT = encode("&gt;");
+	private static final byte[] ESC_QUOT = encode("&quot;");
+	
+	private final OutputStream out;
+	private final byte[] buffer;
+	private int position;
+	
+	/**
+	 * 
+	 * @param out stream to write to
+	 */
+	public QPXMLWriter(OutputStream out) {
+		
+		this(out, 2048);
+	}
+	
+	/**
+	 * 
+	 * @param out stream to write to
+	 * @param bufferSize size of the internal buffer in bytes
+	 */
+	public QPXMLWriter(OutputStream out, int bufferSize) {
+		
+		this.out = out;
+		this.buffer = new byte[Math.max(bufferSize, 16)];
+	}
+	
+	/**
+	 * Encodes a constant to UTF-8.
+	 * 
+	 * @param value
+	 * @return byte array
+	 */
+	public static byte[] encode(String value) {
+		
+		try {
+			return value.getBytes(ENCODING);
+		} catch (UnsupportedEncodingException exc) {
+			throw new IllegalStateException(ENCODING + " not supported.", exc);
+		}
+	}
+	
+	/**
+	 * Encodes a XML begin element (e.g <name>) to UTF-8.
+	 * 
+	 * @param name
+	 * @return byte array
+	 */
+	public static byte[] encodeElementBegin(String name) {
+		
+		return encode(QPXMLHelper.buildElementBegin(name));
+	}
+	
+	/**
+	 * Encodes a XML end element (e.g </name>) to UTF-8.
+	 * 
+	 * @param name
+	 * @return byte array
+	 */
+	public static byte[] encodeElementEnd(String name) {
+		
+		return encode(QPXMLHelper.buildElementEnd(name));
+	}
+	
+	/**
+	 * Writes pre-encoded bytes.
+	 * 
+	 * @param bytes
+	 * @throws IOException
+	 */
+	public void write(byte[] bytes) throws IOException {
+		
+		if (bytes.length > this.buffer.length - this.position) {
+			this.flushBuffer();
+			if (bytes.length > this.buffer.length) {
+				this.out.write(bytes);
+				return;
+			}
+		}
+		System.arraycopy(bytes, 0, this.buffer, this.position, bytes.length);
+		this.position += bytes.length;
+	}
+	
+	/**
+	 * Writes the value as element content, escaped.
+	 * 
+	 * @param value
+	 * @throws IOException
+	 */
+	public void writeText(String value) throws IOException {
+		
+		this.writeChars(value, Integer.MAX_VALUE, true);
+	}
+	
+	/**
+	 * Writes at most <code>maxLength</code> characters of the value as element content, escaped.
+	 * 
+	 * @param value
+	 * @param maxLength maximum number of characters of the value
+	 * @throws IOException
+	 */
+	public void writeText(String value, int maxLength) throws IOException {
+		
+		this.writeChars(value, maxLength, true);
+	}
+	
+	/**
+	 * Writes the value without escaping (it has to be valid XML already).
+	 * 
+	 * @param value
+	 * @throws IOException
+	 */
+	public void writeRaw(String value) throws IOException {
+		
+		this.writeChars(value, Integer.MAX_VALUE, false);
+	}
+	
+	/**
+	 * Writes a number.
+	 * 
+	 * @param value
+	 * @throws IOException
+	 */
+	public void writeInt(int value) throws IOException {
+		
+		this.writeChars(Integer.toString(value), Integer.MAX_VALUE, false);
+	}
+	
+	/**
+	 * Writes the buffered bytes to the stream and flushes it.
+	 * 
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		
+		this.flushBuffer();
+		this.out.flush();
+	}
+	
+	private void flushBuffer() throws IOException {
+		
+		if (this.position > 0) {
+			this.out.write(this.buffer, 0, this.position);
+			this.position = 0;
+		}
+	}
+	
+	private void writeChars(String value, int maxLength, boolean escape) throws IOException {
+		
+		int length = Math.min(value.length(), maxLength);
+		for (int i = 0; i < length; i++) {
+			// 4 bytes for the longest UTF-8 sequence, 6 for the longest escape
+			if (this.buffer.length - this.position < 6) {
+				this.flushBuffer();
+			}
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				if (escape) {
+					switch (c) {
+					case '&':
+						this.write(ESC_AMP);
+						continue;
+					case '<':
+						this.write(ESC_LT);
+						continue;
+					case '>':
+						this.write(ESC_GT);
+						continue;
+					case '"':
+						this.write(ESC_QUOT);
+						continue;
+					default:
+						break;
+					}
+				}
+				this.buffer[this.position++] = (byte) c;
+			}
+			else if (c < 0x800) {
+				this.buffer[this.position++] = (byte) (0xC0 | (c >> 6));
+				this.buffer[this.position++] = (byte) (0x80 | (c & 0x3F));
+			}
+			else if (Character.isHighSurrogate(c)) {
+				// a pair cut by the truncation or a broken pair is dropped
+				if (i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+					int cp = Character.toCodePoint(c, value.charAt(++i));
+					this.buffer[this.position++] = (byte) (0xF0 | (cp >> 18));
+					this.buffer[this.position++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+					this.buffer[this.position++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+					this.buffer[this.position++] = (byte) (0x80 | (cp & 0x3F));
+				}
+			}
+			else if (Character.isLowSurrogate(c)) {
+				// broken pair, dropped
+			}
+			else {
+				this.buffer[this.position++] = (byte) (0xE0 | (c >> 12));
+				this.buffer[this.position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				this.buffer[this.position++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.gsa.oneboxprovider.util.exception;
+
+import java.io.IOException;
+
+/**
+ * The call was rejected without contacting the backend, because its circuit breaker is open
+ * (see {@link com.qperior.gsa.oneboxprovider.util.QPCircuitBreaker}).
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPCircuitOpenException extends IOException {
+
+	private static final long serialVersionUID = 3318476125950914821L;
+	
+	/**
+	 * 
+	 * @param message
+	 */
+	public QPCircuitOpenException(String message) {
+        super(message);
+    }
+}
@@ -25,6 +25,22 @@ package com.qperior.gsa.oneboxprovider.util.exception;
 public class QPProviderException extends Exception {
 
 	private static final long serialVersionUID = -970013244394410164L;
+	
+	/**
+	 * 
+	 */
+	public QPProviderException() {
+		super();
+	}
+	
+	/**
+	 * 
+	 * @param message
+	 * @param cause
+	 */
+	public QPProviderException(String message, Throwable cause) {
+		super(message, cause);
+	}
 
 	@Override
 	public String toString() {
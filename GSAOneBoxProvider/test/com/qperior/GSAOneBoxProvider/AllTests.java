@@ -20,7 +20,23 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
+import com.qperior.GSAOneBoxProvider.cache.QPNegativeCacheTest;
+import com.qperior.GSAOneBoxProvider.cache.QPPersistentStoreTest;
+import com.qperior.GSAOneBoxProvider.cache.QPQueryHistoryTest;
+import com.qperior.GSAOneBoxProvider.cache.QPResultCacheTest;
+import com.qperior.GSAOneBoxProvider.implementations.jive.QPJiveHedgerTest;
+import com.qperior.GSAOneBoxProvider.implementations.jive.QPJiveHttpClientTest;
+import com.qperior.GSAOneBoxProvider.implementations.jive.QPJiveLoadBalancerTest;
+import com.qperior.GSAOneBoxProvider.implementations.jive.QPJiveRateLimiterTest;
 import com.qperior.GSAOneBoxProvider.implementations.jive.rest.QPJiveJsonObjectTest;
+import com.qperior.GSAOneBoxProvider.implementations.jive.rest.QPJiveJsonStreamConverterTest;
+import com.qperior.GSAOneBoxProvider.provider.QPBulkheadTest;
+import com.qperior.GSAOneBoxProvider.results.QPOneBoxResultsTest;
+import com.qperior.GSAOneBoxProvider.util.QPCircuitBreakerTest;
+import com.qperior.GSAOneBoxProvider.util.QPClientRateLimiterTest;
+import com.qperior.GSAOneBoxProvider.util.QPConcurrencyLimiterTest;
+import com.qperior.GSAOneBoxProvider.util.QPConfigSnapshotTest;
+import com.qperior.GSAOneBoxProvider.util.QPSingleFlightTest;
 
 /**
  * 
@@ -28,7 +44,12 @@ import com.qperior.GSAOneBoxProvider.implementations.jive.rest.QPJiveJsonObjectT
  *
  */
 @RunWith(Suite.class)
-@SuiteClasses({ QPOneBoxProviderServletTest.class, QPJiveJsonObjectTest.class })
+@SuiteClasses({ QPOneBoxProviderServletTest.class, QPJiveJsonObjectTest.class, QPJiveJsonStreamConverterTest.class, 
+	QPOneBoxResultsTest.class, QPResultCacheTest.class, 
+	QPSingleFlightTest.class, QPNegativeCacheTest.class, QPPersistentStoreTest.class, QPQueryHistoryTest.class, 
+	QPCircuitBreakerTest.class, QPConcurrencyLimiterTest.class, QPClientRateLimiterTest.class, QPConfigSnapshotTest.class, 
+	QPJiveRateLimiterTest.class, QPJiveLoadBalancerTest.class, QPBulkheadTest.class, 
+	QPJiveHttpClientTest.class, QPJiveHedgerTest.class })
 public class AllTests {
 
 }
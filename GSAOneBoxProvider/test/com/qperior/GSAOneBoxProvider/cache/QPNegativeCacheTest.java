@@ -0,0 +1,125 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.GSAOneBoxProvider.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.qperior.gsa.oneboxprovider.cache.QPNegativeCache;
+
+/**
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPNegativeCacheTest {
+	
+	private static class TestCache extends QPNegativeCache {
+		
+		long now = 1000L;
+		
+		TestCache(int maximumSize, long timeToLive) {
+			super(maximumSize, timeToLive);
+		}
+
+		@Override
+		protected long currentTime() {
+			return this.now;
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void testContains() {
+		
+		QPNegativeCache cache = new QPNegativeCache(1000, 60000L);
+		for (int i = 0; i < 500; i++) {
+			cache.put("search?q=empty" + i, QPNegativeCache.Outcome.EMPTY_ANSWER);
+		}
+		for (int i = 0; i < 500; i++) {
+			assertTrue(cache.contains("search?q=empty" + i));
+		}
+		for (int i = 0; i < 500; i++) {
+			assertFalse(cache.contains("search?q=found" + i));
+		}
+		long filtered = ((Long) cache.getStatistics().get("filtered")).longValue();
+		assertTrue("filtered: " + filtered, filtered > 450);
+	}
+	
+	/**
+	 * 
+	 */
+	@Test
+	public void testExpiryOverRotation() {
+		
+		TestCache cache = new TestCache(100, 1000L);
+		assertFalse(cache.contains("a"));
+		cache.now += 900L;
+		cache.put("a", QPNegativeCache.Outcome.EMPTY_ANSWER);
+		// the window rotates, the entry is still valid
+		cache.now += 500L;
+		assertTrue(cache.contains("a"));
+		cache.now += 499L;
+		assertTrue(cache.contains("a"));
+		cache.now += 1L;
+		assertFalse(cache.contains("a"));
+	}
+	
+	/**
+	 * 
+	 */
+	@Test
+	public void testMaximumSize() {
+		
+		QPNegativeCache cache = new QPNegativeCache(2, 60000L);
+		cache.put("a", QPNegativeCache.Outcome.EMPTY_ANSWER);
+		cache.put("b", QPNegativeCache.Outcome.NO_ENTRIES);
+		cache.put("c", QPNegativeCache.Outcome.EMPTY_ANSWER);
+		assertEquals(2, cache.size());
+		assertFalse(cache.contains("c"));
+	}
+	
+	/**
+	 * The kind of the empty outcome is remembered and counted separately.
+	 */
+	@Test
+	public void testOutcomes() {
+		
+		QPNegativeCache cache = new QPNegativeCache(100, 60000L);
+		cache.put("empty", QPNegativeCache.Outcome.EMPTY_ANSWER);
+		cache.put("none", QPNegativeCache.Outcome.NO_ENTRIES);
+		assertEquals(QPNegativeCache.Outcome.EMPTY_ANSWER, cache.get("empty"));
+		assertEquals(QPNegativeCache.Outcome.NO_ENTRIES, cache.get("none"));
+		assertEquals(QPNegativeCache.Outcome.NO_ENTRIES, cache.get("none"));
+		assertNull(cache.get("found"));
+		
+		// a later outcome of the same call replaces the remembered one
+		cache.put("empty", QPNegativeCache.Outcome.NO_ENTRIES);
+		assertEquals(QPNegativeCache.Outcome.NO_ENTRIES, cache.get("empty"));
+		
+		Map<String, Object> statistics = cache.getStatistics();
+		assertEquals(Long.valueOf(1L), statistics.get("emptyAnswerHits"));
+		assertEquals(Long.valueOf(3L), statistics.get("noEntriesHits"));
+		assertEquals(Long.valueOf(1L), statistics.get("emptyAnswerPuts"));
+		assertEquals(Long.valueOf(2L), statistics.get("noEntriesPuts"));
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.GSAOneBoxProvider.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.qperior.gsa.oneboxprovider.cache.QPCacheEntry;
+import com.qperior.gsa.oneboxprovider.cache.QPCacheKey;
+import com.qperior.gsa.oneboxprovider.cache.QPCachedOneBoxResults;
+import com.qperior.gsa.oneboxprovider.cache.QPPersistentStore;
+import com.qperior.gsa.oneboxprovider.results.QPModuleResult;
+import com.qperior.gsa.oneboxprovider.results.QPOneBoxResults;
+
+/**
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPPersistentStoreTest {
+	
+	private File directory;
+	
+	private static class TestStore extends QPPersistentStore {
+		
+		long now = 1000L;
+		
+		TestStore(File directory, int segmentSize) {
+			super(directory, segmentSize, 16L * segmentSize, 0L, 0L);
+		}
+
+		@Override
+		protected long currentTime() {
+			return this.now;
+		}
+	}
+	
+	private static QPCacheKey key(String query) {
+		return new QPCacheKey(query, "jive", "en", "none", "");
+	}
+	
+	private static QPCacheEntry entry(String query, long expires) throws IOException {
+		return entry(key(query), expires);
+	}
+	
+	private static QPCacheEntry entry(QPCacheKey key, long expires) throws IOException {
+		
+		QPOneBoxResults results = new QPOneBoxResults("Jive", null, null, null);
+		results.addResult(new QPModuleResult("Result " + key.getQuery(), "http://jive/docs/" + key.getQuery()));
+		return new QPCacheEntry(key, new QPCachedOneBoxResults(results), 0L, expires);
+	}
+	
+	private static String xml(QPCacheEntry entry) throws IOException {
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		entry.getResults().writeTo(out);
+		return out.toString("UTF-8");
+	}
+	
+	/**
+	 * 
+	 * @throws IOException
+	 */
+	@Before
+	public void setUp() throws IOException {
+		
+		this.directory = File.createTempFile("qpstore", "");
+		this.directory.delete();
+	}
+	
+	/**
+	 * 
+	 */
+	@After
+	public void tearDown() {
+		
+		File[] files = this.directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		this.directory.delete();
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void testReloadAfterRestart() {
+		
+		try {
+			TestStore store = new TestStore(this.directory, 65536);
+			store.open();
+			QPCacheEntry entry = entry("a", 5000L);
+			store.put(entry);
+			store.put(entry("b", 5000L));
+			store.put(entry("c", 2000L));
+			store.remove(key("b"));
+			store.close();
+			
+			// c is expired, b was removed
+			TestStore reopened = new TestStore(this.directory, 65536);
+			reopened.now = 3000L;
+			reopened.open();
+			assertEquals(1, reopened.size());
+			QPCacheEntry reloaded = reopened.get(key("a"));
+			assertNotNull(reloaded);
+			assertEquals(5000L, reloaded.getExpires());
+			assertEquals(xml(entry), xml(reloaded));
+			assertEquals(xml(entry), reloaded.getResults().toXMLString());
+			assertEquals(1, reloaded.getResults().getNumberOfResults());
+			assertEquals("Jive", reloaded.getResults().getProvider());
+			reopened.close();
+		}
+		catch (Exception exc) {
+			fail("Exception: " + exc.getLocalizedMessage());
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	@Test
+	public void testUserResultsAreNotStored() {
+		
+		try {
+			TestStore store = new TestStore(this.directory, 65536);
+			store.open();
+			QPCacheKey userKey = new QPCacheKey("a", "jive", "en", "basic", "user");
+			assertFalse(store.put(entry(userKey, 5000L)));
+			assertNull(store.get(userKey));
+			assertTrue(store.put(entry("a", 5000L)));
+			store.close();
+			
+			String data = FileUtils.readFileToString(new File(this.directory, "results-0.log"), "ISO-8859-1");
+			assertFalse(data.contains("basic"));
+		}
+		catch (Exception exc) {
+			fail("Exception: " + exc.getLocalizedMessage());
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	@Test
+	public void testCorruptedRecordIsSkipped() {
+		
+		try {
+			TestStore store = new TestStore(this.directory, 65536);
+			store.open();
+			store.put(entry("a", 5000L));
+			store.put(entry("b", 5000L));
+			store.close();
+			
+			// flips a byte in the XML of the last record
+			File segment = new File(this.directory, "results-0.log");
+			RandomAccessFile file = new RandomAccessFile(segment, "rw");
+			byte[] data = new byte[65536];
+			file.readFully(data);
+			int position = new String(data, "ISO-8859-1").lastIndexOf("Result b");
+			file.seek(position);
+			file.write('X');
+			file.close();
+			
+			TestStore reopened = new TestStore(this.directory, 65536);
+			reopened.open();
+			assertNotNull(reopened.get(key("a")));
+			assertNull(reopened.get(key("b")));
+			assertEquals(Long.valueOf(1L), reopened.getStatistics().get("corrupted"));
+			reopened.close();
+		}
+		catch (Exception exc) {
+			fail("Exception: " + exc.getLocalizedMessage());
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	@Test
+	public void testCompaction() {
+		
+		try {
+			TestStore store = new TestStore(this.directory, 4096);
+			store.open();
+			// overwriting the same keys fills several segments with dead records
+			for (int i = 0; i < 100; i++) {
+				store.put(entry("k" + (i % 5), 5000L));
+			}
+			int segments = ((Integer) store.getStatistics().get("segments")).intValue();
+			assertTrue(segments > 2);
+			
+			store.compact();
+			assertTrue(((Integer) store.getStatistics().get("segments")).intValue() < segments);
+			assertEquals(5, store.size());
+			for (int i = 0; i < 5; i++) {
+				assertEquals(xml(entry("k" + i, 5000L)), xml(store.get(key("k" + i))));
+			}
+			store.close();
+			
+			TestStore reopened = new TestStore(this.directory, 4096);
+			reopened.open();
+			assertEquals(5, reopened.size());
+			reopened.close();
+		}
+		catch (Exception exc) {
+			fail("Exception: " + exc.getLocalizedMessage());
+		}
+	}
+}
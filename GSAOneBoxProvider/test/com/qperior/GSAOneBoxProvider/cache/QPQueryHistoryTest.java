@@ -0,0 +1,114 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.GSAOneBoxProvider.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.qperior.gsa.oneboxprovider.QPCallParameter;
+import com.qperior.gsa.oneboxprovider.cache.QPQueryHistory;
+import com.qperior.gsa.oneboxprovider.security.QPAuthType;
+
+/**
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPQueryHistoryTest {
+	
+	private static QPCallParameter call(String query, QPAuthType authType) {
+		return new QPCallParameter(1, 0, authType, "en", "jive", query);
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void testTopQueries() {
+		
+		QPQueryHistory history = new QPQueryHistory(new File("unused"), 100, 0L);
+		for (int i = 0; i < 3; i++) {
+			history.record(call("Jive  Benefits", QPAuthType.AUTHTYPE_NONE));
+		}
+		history.record(call("holiday", QPAuthType.AUTHTYPE_NONE));
+		history.record(call("holiday", QPAuthType.AUTHTYPE_NONE));
+		history.record(call("salary", QPAuthType.AUTHTYPE_BASIC));
+		history.record(call("tax & more", QPAuthType.AUTHTYPE_NONE));
+		
+		// user-scoped calls are not recorded
+		assertEquals(3, history.size());
+		List<QPCallParameter> top = history.getTopQueries(2);
+		assertEquals(2, top.size());
+		assertEquals("jive benefits", top.get(0).getQuery());
+		assertEquals("holiday", top.get(1).getQuery());
+		assertTrue(top.get(0).getAuthType().isAuthTypeNone());
+		assertEquals("jive", top.get(0).getOneboxName());
+		assertEquals("en", top.get(0).getLang());
+	}
+	
+	/**
+	 * 
+	 */
+	@Test
+	public void testSaveAndLoad() {
+		
+		try {
+			File file = File.createTempFile("qphistory", ".txt");
+			try {
+				QPQueryHistory history = new QPQueryHistory(file, 100, 0L);
+				history.record(call("tax & more", QPAuthType.AUTHTYPE_NONE));
+				history.record(call("tax & more", QPAuthType.AUTHTYPE_NONE));
+				history.record(call("holiday", QPAuthType.AUTHTYPE_NONE));
+				history.close();
+				
+				QPQueryHistory loaded = new QPQueryHistory(file, 100, 0L);
+				loaded.open();
+				List<QPCallParameter> top = loaded.getTopQueries(10);
+				assertEquals(2, top.size());
+				assertEquals("tax & more", top.get(0).getQuery());
+				assertEquals(1, top.get(0).getApiMaj());
+				loaded.close();
+			} finally {
+				file.delete();
+			}
+		}
+		catch (Exception exc) {
+			fail("Exception: " + exc.getLocalizedMessage());
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	@Test
+	public void testTrim() {
+		
+		QPQueryHistory history = new QPQueryHistory(new File("unused"), 10, 0L);
+		for (int i = 0; i < 50; i++) {
+			history.record(call("frequent", QPAuthType.AUTHTYPE_NONE));
+		}
+		for (int i = 0; i < 100; i++) {
+			history.record(call("rare " + i, QPAuthType.AUTHTYPE_NONE));
+		}
+		assertTrue(history.size() <= 21);
+		assertEquals("frequent", history.getTopQueries(1).get(0).getQuery());
+	}
+}
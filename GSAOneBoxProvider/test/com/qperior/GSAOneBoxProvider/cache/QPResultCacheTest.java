@@ -0,0 +1,330 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.GSAOneBoxProvider.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.qperior.gsa.oneboxprovider.cache.QPCacheEntry;
+import com.qperior.gsa.oneboxprovider.cache.QPCacheKey;
+import com.qperior.gsa.oneboxprovider.cache.QPCachedOneBoxResults;
+import com.qperior.gsa.oneboxprovider.cache.QPICacheTier;
+import com.qperior.gsa.oneboxprovider.cache.QPOffHeapStore;
+import com.qperior.gsa.oneboxprovider.cache.QPResultCache;
+import com.qperior.gsa.oneboxprovider.results.QPModuleResult;
+import com.qperior.gsa.oneboxprovider.results.QPOneBoxResults;
+import com.qperior.gsa.oneboxprovider.results.QPResultCode;
+
+/**
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPResultCacheTest {
+	
+	private static class TestCache extends QPResultCache {
+		
+		long now = 1000L;
+		
+		TestCache(int maximumSize, long timeToLive) {
+			super(maximumSize, timeToLive);
+		}
+		
+		TestCache(int maximumSize, long timeToLive, long staleWhileRevalidate, long maxStale) {
+			super(maximumSize, timeToLive, staleWhileRevalidate, maxStale, null);
+		}
+
+		@Override
+		protected long currentTime() {
+			return this.now;
+		}
+	}
+	
+	private static class TestOffHeapStore extends QPOffHeapStore {
+		
+		long now = 1000L;
+		
+		TestOffHeapStore(long capacity, int chunkSize, int slabSize) {
+			super(capacity, chunkSize, slabSize);
+		}
+
+		@Override
+		protected long currentTime() {
+			return this.now;
+		}
+	}
+	
+	private static QPCacheKey key(String query) {
+		return new QPCacheKey(QPCacheKey.normalizeQuery(query), "jive", "en", "none", "");
+	}
+	
+	private static QPOneBoxResults results(String title) {
+		
+		QPOneBoxResults results = new QPOneBoxResults("Jive", null, null, null);
+		results.addResult(new QPModuleResult(title, "http://jive/docs/1"));
+		return results;
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void testPutAndGet() {
+		
+		try {
+			QPResultCache cache = new QPResultCache(100, 60000L);
+			QPOneBoxResults results = results("Benefits");
+			cache.put(key("Jive  Benefits "), results);
+			
+			QPCachedOneBoxResults cached = cache.get(key("jive benefits"));
+			assertNotNull(cached);
+			assertEquals(results.toXMLString(), cached.toXMLString());
+			assertEquals(1, cached.getNumberOfResults());
+			assertNull(cache.get(key("jive")));
+			
+			assertEquals(Long.valueOf(1), cache.getStatistics().get("hits"));
+			assertEquals(Long.valueOf(1), cache.getStatistics().get("misses"));
+		}
+		catch (Exception exc) {
+			fail("Exception: " + exc.getLocalizedMessage());
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	@Test
+	public void testFailureNotCached() {
+		
+		QPResultCache cache = new QPResultCache(100, 60000L);
+		QPOneBoxResults results = new QPOneBoxResults();
+		results.setFailure(QPResultCode.timeout, "Timeout.", "Jive");
+		
+		assertNull(cache.put(key("jive"), results));
+		assertEquals(0, cache.size());
+	}
+	
+	/**
+	 * 
+	 */
+	@Test
+	public void testExpiry() {
+		
+		TestCache cache = new TestCache(100, 1000L);
+		cache.put(key("jive"), results("Jive"));
+		cache.now += 999L;
+		assertNotNull(cache.get(key("jive")));
+		cache.now += 1L;
+		assertNull(cache.get(key("jive")));
+		assertEquals(0, cache.size());
+		assertEquals(Long.valueOf(1), cache.getStatistics().get("expirations"));
+	}
+	
+	/**
+	 * 
+	 */
+	@Test
+	public void testStaleWhileRevalidate() {
+		
+		TestCache cache = new TestCache(100, 1000L, 500L, 5000L);
+		cache.put(key("jive"), results("Jive"));
+		assertEquals(QPResultCache.Freshness.FRESH, cache.getFreshness(cache.getEntry(key("jive"))));
+		
+		cache.now += 1200L;
+		assertNull(cache.get(key("jive")));
+		assertEquals(QPResultCache.Freshness.STALE, cache.getFreshness(cache.getEntry(key("jive"))));
+		
+		cache.now += 1000L;
+		assertEquals(QPResultCache.Freshness.EXPIRED, cache.getFreshness(cache.getEntry(key("jive"))));
+		
+		cache.now += 3800L;
+		assertNull(cache.getEntry(key("jive")));
+		assertEquals(0, cache.size());
+	}
+	
+	/**
+	 * 
+	 */
+	@Test
+	public void testFrequentEntriesSurviveScan() {
+		
+		QPResultCache cache = new QPResultCache(100, 60000L);
+		for (int i = 0; i < 50; i++) {
+			cache.put(key("hot " + i), results("Hot " + i));
+			for (int j = 0; j < 5; j++) {
+				cache.get(key("hot " + i));
+			}
+		}
+		for (int i = 0; i < 1000; i++) {
+			cache.put(key("once " + i), results("Once " + i));
+		}
+		
+		assertEquals(100, cache.size());
+		for (int i = 0; i < 50; i++) {
+			assertNotNull("hot " + i, cache.get(key("hot " + i)));
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	@Test
+	public void testOffHeapTier() {
+		
+		try {
+			// heap tier with one entry, off-heap tier with 16 chunks of 256 bytes
+			QPOffHeapStore store = new QPOffHeapStore(4096L, 256, 1024);
+			QPResultCache cache = new QPResultCache(1, 60000L, 0L, 0L, Collections.<QPICacheTier>singletonList(store));
+			for (int i = 0; i < 3; i++) {
+				cache.put(key("q" + i), results("Result " + i));
+			}
+			assertEquals(1, cache.size());
+			assertEquals(3, store.size());
+			
+			QPCachedOneBoxResults cached = cache.getEntry(key("q0")).getResults();
+			assertEquals("offheap", cache.getSegmentName(key("q0")));
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			cached.writeTo(out);
+			assertEquals(results("Result 0").toXMLString(), out.toString("UTF-8"));
+			assertEquals(out.size(), cached.getSize());
+			
+			// filling the store evicts the unreferenced entries first
+			for (int i = 3; i < 20; i++) {
+				cache.put(key("q" + i), results("Result " + i));
+			}
+			assertTrue(store.size() < 20);
+			assertTrue(((Long) store.getStatistics().get("evictions")).longValue() > 0);
+			assertTrue(((Long) store.getStatistics().get("usedBytes")).longValue() <= 4096L);
+			assertNotNull(cache.getEntry(key("q19")));
+		}
+		catch (Exception exc) {
+			fail("Exception: " + exc.getLocalizedMessage());
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	@Test
+	public void testOffHeapHitSurvivesEviction() {
+		
+		try {
+			// off-heap tier with two chunks, one for each entry
+			QPOffHeapStore store = new QPOffHeapStore(2048L, 1024, 1024);
+			QPResultCache cache = new QPResultCache(1, 60000L, 0L, 0L, Collections.<QPICacheTier>singletonList(store));
+			cache.put(key("q0"), results("Result 0"));
+			cache.put(key("q1"), results("Result 1"));
+			assertEquals("offheap", cache.getSegmentName(key("q0")));
+			
+			QPCachedOneBoxResults cached = cache.getEntry(key("q0")).getResults();
+			// q0 is removed and q2 stored before the hit is written, the pinned chunk of q0 is not reused
+			store.remove(key("q0"));
+			store.put(new QPCacheEntry(key("q2"), new QPCachedOneBoxResults(results("Result 2")), 0L, Long.MAX_VALUE));
+			assertNull(cache.getSegmentName(key("q0")));
+			
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			cached.writeTo(out);
+			assertEquals(results("Result 0").toXMLString(), out.toString("UTF-8"));
+			assertEquals(results("Result 0").toXMLString(), cached.toXMLString());
+		}
+		catch (Exception exc) {
+			fail("Exception: " + exc.getLocalizedMessage());
+		}
+	}
+	
+	/**
+	 * An entry evicted after a hit keeps its chunk until the pin ends, the hit is written from the slab; 
+	 * after the pin the chunk is rewritten by another entry and the old hit is not served.
+	 */
+	@Test
+	public void testOffHeapPinnedChunks() throws Exception {
+		
+		// off-heap store with one chunk
+		TestOffHeapStore store = new TestOffHeapStore(1024L, 1024, 1024);
+		assertTrue(store.put(new QPCacheEntry(key("q0"), new QPCachedOneBoxResults(results("Result 0")), 0L, Long.MAX_VALUE)));
+		QPCachedOneBoxResults cached = store.get(key("q0")).getResults();
+		
+		// q0 is evicted, but its chunk is pinned, so q1 does not fit
+		assertFalse(store.put(new QPCacheEntry(key("q1"), new QPCachedOneBoxResults(results("Result 1")), 0L, Long.MAX_VALUE)));
+		assertFalse(store.contains(key("q0")));
+		assertEquals(Integer.valueOf(1), store.getStatistics().get("retiredEntries"));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		cached.writeTo(out);
+		assertEquals(results("Result 0").toXMLString(), out.toString("UTF-8"));
+		
+		// after the pin the chunk is rewritten by q1
+		store.now += QPOffHeapStore.PIN_TIME;
+		assertTrue(store.put(new QPCacheEntry(key("q1"), new QPCachedOneBoxResults(results("Result 1")), 0L, Long.MAX_VALUE)));
+		assertEquals(Integer.valueOf(0), store.getStatistics().get("retiredEntries"));
+		assertEquals(results("Result 1").toXMLString(), store.get(key("q1")).getResults().toXMLString());
+		out = new ByteArrayOutputStream();
+		try {
+			cached.writeTo(out);
+			fail("Rewritten chunk served.");
+		} catch (IOException exc) {
+			// expected
+		}
+		assertEquals(0, out.size());
+	}
+	
+	/**
+	 * 
+	 */
+	@Test
+	public void testExpiringEntries() {
+		
+		TestCache cache = new TestCache(100, 10000L);
+		cache.put(key("popular"), results("Popular"));
+		cache.put(key("rare"), results("Rare"));
+		for (int i = 0; i < 5; i++) {
+			cache.getEntry(key("popular"));
+		}
+		cache.getEntry(key("rare"));
+		cache.now += 5000L;
+		cache.put(key("later"), results("Later"));
+		for (int i = 0; i < 5; i++) {
+			cache.getEntry(key("later"));
+		}
+		
+		// only the entries expiring within 6 s and requested at least twice
+		List<QPCacheEntry> entries = cache.getExpiringEntries(6000L, 2, 10);
+		assertEquals(1, entries.size());
+		assertEquals(key("popular"), entries.get(0).getKey());
+		assertEquals(2, cache.getExpiringEntries(6000L, 1, 10).size());
+		assertEquals(1, cache.getExpiringEntries(6000L, 1, 1).size());
+	}
+	
+	/**
+	 * 
+	 */
+	@Test
+	public void testFlush() {
+		
+		QPResultCache cache = new QPResultCache(100, 60000L);
+		cache.put(key("a"), results("A"));
+		cache.put(key("b"), results("B"));
+		assertEquals(2, cache.flush());
+		assertNull(cache.get(key("a")));
+		assertTrue(cache.getEntries().isEmpty());
+	}
+}
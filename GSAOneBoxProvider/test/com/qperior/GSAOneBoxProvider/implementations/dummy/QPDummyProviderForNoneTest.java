@@ -21,6 +21,7 @@ import static org.junit.Assert.*;
 import org.junit.Test;
 
 import com.qperior.gsa.oneboxprovider.implementations.dummy.QPDummyProviderForNone;
+import com.qperior.gsa.oneboxprovider.provider.QPRequestContext;
 import com.qperior.gsa.oneboxprovider.results.QPIOneBoxResults;
 import com.qperior.gsa.oneboxprovider.util.exception.QPProviderException;
 
@@ -38,7 +39,7 @@ public class QPDummyProviderForNoneTest {
 	public void testProvideOneBoxResults() {
 		QPDummyProviderForNone none = new QPDummyProviderForNone();
 		try {
-			QPIOneBoxResults actual = none.provideOneBoxResults();
+			QPIOneBoxResults actual = none.provideOneBoxResults(new QPRequestContext(null, null));
 			int results = actual.getNumberOfResults();
 			assertEquals(0, results);
 			assertEquals( "Dummy Provider (none)", actual.getProvider());
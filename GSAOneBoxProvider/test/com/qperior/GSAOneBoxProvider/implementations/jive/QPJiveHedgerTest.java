@@ -0,0 +1,210 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.GSAOneBoxProvider.implementations.jive;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.methods.HttpGet;
+import org.junit.After;
+import org.junit.Test;
+
+import com.qperior.gsa.oneboxprovider.implementations.jive.QPJiveHedger;
+import com.qperior.gsa.oneboxprovider.implementations.jive.QPJiveHttpClient;
+import com.qperior.gsa.oneboxprovider.implementations.jive.QPJiveLoadBalancer;
+import com.qperior.gsa.oneboxprovider.implementations.jive.QPJiveRateLimiter;
+import com.qperior.gsa.oneboxprovider.util.QPDeadline;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * The two Jive nodes are local HTTP servers, the first one answers slowly.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPJiveHedgerTest {
+	
+	private static final long SLOW_DELAY = 1000L;
+	
+	private TestNode[] nodes;
+	
+	private QPJiveLoadBalancer balancer;
+	
+	private QPJiveHedger hedger;
+	
+	private QPJiveHttpClient slow;
+	
+	@After
+	public void tearDown() {
+		
+		this.hedger.shutdown();
+		this.balancer.release();
+		for ( TestNode node : this.nodes ) {
+			node.stop();
+		}
+	}
+	
+	/**
+	 * The slow call is hedged on the other node and answered by the hedge; 
+	 * the next slow call is not hedged, the budget is used up.
+	 */
+	@Test
+	public void testHedge() throws Exception {
+		
+		this.start(null, 1, 2);
+		this.nodes[0].slowRequests.set(2);
+		
+		long start = System.currentTimeMillis();
+		assertEquals(200, this.execute().getStatus());
+		assertTrue(System.currentTimeMillis() - start < SLOW_DELAY);
+		assertEquals(1, this.nodes[1].requests.get());
+		assertEquals(Long.valueOf(1L), this.hedger.getStatistics().get("hedges"));
+		assertEquals(Long.valueOf(1L), this.hedger.getStatistics().get("hedgeWins"));
+		// the aborted call is no failure of the slow node
+		assertEquals(Long.valueOf(0L), this.slow.getStatistics().get("failures"));
+		
+		start = System.currentTimeMillis();
+		assertEquals(200, this.execute().getStatus());
+		assertTrue(System.currentTimeMillis() - start >= SLOW_DELAY);
+		assertEquals(1, this.nodes[1].requests.get());
+		assertEquals(Long.valueOf(1L), this.hedger.getStatistics().get("hedges"));
+		assertEquals(Long.valueOf(1L), this.hedger.getStatistics().get("budgetExhausted"));
+	}
+	
+	/**
+	 * A hedge takes a token of the rate limit like a background call, so it is shed first.
+	 */
+	@Test
+	public void testHedgeShedByRateLimit() throws Exception {
+		
+		// two tokens, more than one is kept for live calls
+		QPJiveRateLimiter limiter = new QPJiveRateLimiter(0.001, 2, 0.75, 0L);
+		this.start(limiter, 2, 2);
+		this.nodes[0].slowRequests.set(2);
+		
+		assertEquals(200, this.execute().getStatus());
+		assertEquals(Long.valueOf(1L), this.hedger.getStatistics().get("hedges"));
+		
+		long start = System.currentTimeMillis();
+		assertEquals(200, this.execute().getStatus());
+		assertTrue(System.currentTimeMillis() - start >= SLOW_DELAY);
+		assertEquals(1, this.nodes[1].requests.get());
+		assertEquals(Long.valueOf(1L), this.hedger.getStatistics().get("rateLimitShed"));
+		assertEquals(Long.valueOf(1L), limiter.getStatistics().get("backgroundShed"));
+	}
+	
+	/**
+	 * If all hedge threads are busy, the hedge is rejected, the call is answered.
+	 */
+	@Test
+	public void testHedgeRejected() throws Exception {
+		
+		this.start(null, 2, 1);
+		this.nodes[0].slowRequests.set(2);
+		this.nodes[1].slowRequests.set(1);
+		
+		final AtomicInteger status = new AtomicInteger();
+		Thread other = new Thread() {
+			
+			@Override
+			public void run() {
+				try {
+					status.set(execute().getStatus());
+				} catch ( IOException exc ) {
+					// status stays 0
+				}
+			}
+		};
+		other.start();
+		assertEquals(200, this.execute().getStatus());
+		other.join();
+		assertEquals(200, status.get());
+		assertEquals(Long.valueOf(1L), this.hedger.getStatistics().get("hedges"));
+		assertEquals(Long.valueOf(1L), this.hedger.getStatistics().get("rejected"));
+	}
+	
+	private void start(QPJiveRateLimiter limiter, int burst, int threads) throws IOException {
+		
+		this.nodes = new TestNode[] { new TestNode(), new TestNode() };
+		this.balancer = QPJiveLoadBalancer.acquire(new String[] { this.nodes[0].getBaseURL(), this.nodes[1].getBaseURL() });
+		this.slow = this.balancer.getClients().get(0);
+		// hedge after 50 ms, 10 percent of the calls
+		this.hedger = new QPJiveHedger(this.balancer, limiter, 50L, 10, burst, threads);
+	}
+	
+	private QPJiveHttpClient.Response execute() throws IOException {
+		
+		return this.hedger.execute(this.slow, new HttpGet(this.slow.getBaseURL() + "search"), QPDeadline.NONE);
+	}
+	
+	/**
+	 * Jive node counting the requests, the slow requests are answered after a delay.
+	 */
+	private static class TestNode implements HttpHandler {
+		
+		private final HttpServer server;
+		
+		private final ExecutorService executor = Executors.newCachedThreadPool();
+		
+		private final AtomicInteger requests = new AtomicInteger();
+		
+		private final AtomicInteger slowRequests = new AtomicInteger();
+		
+		TestNode() throws IOException {
+			
+			this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+			this.server.createContext("/", this);
+			this.server.setExecutor(this.executor);
+			this.server.start();
+		}
+		
+		String getBaseURL() {
+			return "http://127.0.0.1:" + this.server.getAddress().getPort() + "/";
+		}
+		
+		void stop() {
+			this.server.stop(0);
+			this.executor.shutdownNow();
+		}
+		
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			
+			this.requests.incrementAndGet();
+			if ( this.slowRequests.getAndDecrement() > 0 ) {
+				try {
+					Thread.sleep(SLOW_DELAY);
+				} catch ( InterruptedException exc ) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			byte[] body = "{}".getBytes("UTF-8");
+			exchange.sendResponseHeaders(200, body.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		}
+	}
+}
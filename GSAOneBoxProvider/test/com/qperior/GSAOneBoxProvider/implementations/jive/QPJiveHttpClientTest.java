@@ -0,0 +1,195 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.GSAOneBoxProvider.implementations.jive;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.methods.HttpGet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.qperior.gsa.oneboxprovider.implementations.jive.QPJiveHttpClient;
+import com.qperior.gsa.oneboxprovider.implementations.jive.QPJiveProperties;
+import com.qperior.gsa.oneboxprovider.util.QPDeadline;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * The Jive node is a local HTTP server answering with a configured status and headers.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPJiveHttpClientTest {
+	
+	private static final long SLOW_DELAY = 1500L;
+	
+	private TestNode node;
+	
+	private QPJiveHttpClient client;
+	
+	@Before
+	public void setUp() throws IOException {
+		
+		this.node = new TestNode();
+	}
+	
+	@After
+	public void tearDown() {
+		
+		if ( this.client != null ) {
+			this.client.release();
+		}
+		this.node.stop();
+	}
+	
+	/**
+	 * The time until Jive accepts calls again is read from <code>Retry-After</code>, 
+	 * or from <code>X-RateLimit-Reset</code> in seconds or epoch seconds if no call is remaining.
+	 */
+	@Test
+	public void testRetryAfter() throws Exception {
+		
+		this.client = new TestHttpClient(this.node.getBaseURL());
+		this.node.status = 429;
+		this.node.headers.put("Retry-After", "3");
+		QPJiveHttpClient.Response response = this.execute();
+		assertTrue(response.isRateLimited());
+		assertEquals(3000L, response.getRetryAfter());
+		
+		// HTTP date is not supported
+		this.node.headers.put("Retry-After", "Wed, 21 Oct 2026 07:28:00 GMT");
+		assertEquals(0L, this.execute().getRetryAfter());
+		
+		this.node.headers.clear();
+		this.node.headers.put("X-RateLimit-Remaining", "0");
+		this.node.headers.put("X-RateLimit-Reset", "5");
+		assertEquals(5000L, this.execute().getRetryAfter());
+		
+		long reset = System.currentTimeMillis() / 1000L + 10L;
+		this.node.headers.put("X-RateLimit-Reset", String.valueOf(reset));
+		long retryAfter = this.execute().getRetryAfter();
+		assertTrue(retryAfter >= 9000L && retryAfter <= 10000L);
+		
+		this.node.headers.put("X-RateLimit-Remaining", "1");
+		assertEquals(0L, this.execute().getRetryAfter());
+		
+		this.node.status = 200;
+		this.node.headers.clear();
+		response = this.execute();
+		assertFalse(response.isRateLimited());
+		assertEquals(0L, response.getRetryAfter());
+	}
+	
+	/**
+	 * Calls aborted at the deadline of the request are slow calls, not failures, so the node is not ejected.
+	 */
+	@Test
+	public void testDeadlineAbort() throws Exception {
+		
+		this.client = new TestHttpClient(this.node.getBaseURL());
+		int calls = QPJiveProperties.getEjectionFailures();
+		this.node.slowRequests.set(calls);
+		for ( int i = 0; i < calls; i++ ) {
+			try {
+				this.client.execute(new HttpGet(this.node.getBaseURL()), QPDeadline.after(100L));
+				fail("Call not aborted at the deadline.");
+			} catch ( IOException exc ) {
+				// expected
+			}
+		}
+		assertTrue(this.client.isAvailable());
+		assertEquals(Long.valueOf(0L), this.client.getStatistics().get("failures"));
+		assertEquals(Long.valueOf(0L), this.client.getStatistics().get("ejections"));
+	}
+	
+	private QPJiveHttpClient.Response execute() throws IOException {
+		
+		return this.client.execute(new HttpGet(this.node.getBaseURL()));
+	}
+	
+	private static class TestHttpClient extends QPJiveHttpClient {
+		
+		TestHttpClient(String baseURL) {
+			super(baseURL);
+		}
+	}
+	
+	/**
+	 * Jive node answering with the status and the headers, the slow requests after a delay.
+	 */
+	private static class TestNode implements HttpHandler {
+		
+		private final HttpServer server;
+		
+		private final ExecutorService executor = Executors.newCachedThreadPool();
+		
+		private final Map<String, String> headers = new ConcurrentHashMap<String, String>();
+		
+		private final AtomicInteger slowRequests = new AtomicInteger();
+		
+		private volatile int status = 200;
+		
+		TestNode() throws IOException {
+			
+			this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+			this.server.createContext("/", this);
+			this.server.setExecutor(this.executor);
+			this.server.start();
+		}
+		
+		String getBaseURL() {
+			return "http://127.0.0.1:" + this.server.getAddress().getPort() + "/";
+		}
+		
+		void stop() {
+			this.server.stop(0);
+			this.executor.shutdownNow();
+		}
+		
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			
+			if ( this.slowRequests.getAndDecrement() > 0 ) {
+				try {
+					Thread.sleep(SLOW_DELAY);
+				} catch ( InterruptedException exc ) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			for ( Map.Entry<String, String> header : this.headers.entrySet() ) {
+				exchange.getResponseHeaders().add(header.getKey(), header.getValue());
+			}
+			byte[] body = "{}".getBytes("UTF-8");
+			exchange.sendResponseHeaders(this.status, body.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.GSAOneBoxProvider.implementations.jive;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.http.client.methods.HttpGet;
+import org.junit.After;
+import org.junit.Test;
+
+import com.qperior.gsa.oneboxprovider.implementations.jive.QPJiveHttpClient;
+import com.qperior.gsa.oneboxprovider.implementations.jive.QPJiveLoadBalancer;
+import com.qperior.gsa.oneboxprovider.implementations.jive.QPJiveProperties;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * The Jive nodes are local HTTP servers answering with a configured status after a configured delay.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPJiveLoadBalancerTest {
+	
+	private QPJiveLoadBalancer balancer;
+	
+	private TestNode[] nodes;
+	
+	@After
+	public void tearDown() {
+		
+		if ( this.balancer != null ) {
+			this.balancer.release();
+		}
+		for ( TestNode node : this.nodes ) {
+			node.stop();
+		}
+	}
+	
+	/**
+	 * Of two nodes the one with the lower latency is chosen, 
+	 * so the slowest of three nodes is never selected while the others are.
+	 */
+	@Test
+	public void testPowerOfTwoChoices() throws Exception {
+		
+		this.start(0, 30, 90);
+		for ( int i = 0; i < 5; i++ ) {
+			for ( QPJiveHttpClient client : this.balancer.getClients() ) {
+				assertEquals(200, client.execute(new HttpGet(client.getBaseURL())).getStatus());
+			}
+		}
+		QPJiveHttpClient fast = this.balancer.getClients().get(0);
+		QPJiveHttpClient medium = this.balancer.getClients().get(1);
+		QPJiveHttpClient slow = this.balancer.getClients().get(2);
+		assertTrue(fast.getLoad() < medium.getLoad());
+		assertTrue(medium.getLoad() < slow.getLoad());
+		
+		Map<QPJiveHttpClient, Integer> selected = this.select(300);
+		assertTrue(selected.containsKey(fast));
+		assertTrue(selected.containsKey(medium));
+		assertFalse(selected.containsKey(slow));
+		assertTrue(selected.get(fast).intValue() > selected.get(medium).intValue());
+	}
+	
+	/**
+	 * A node is ejected after the configured consecutive failures and not selected any more, 
+	 * even with the lower latency; if all nodes are ejected, all are chosen from again.
+	 */
+	@Test
+	public void testEjection() throws Exception {
+		
+		this.start(0, 100);
+		QPJiveHttpClient failing = this.balancer.getClients().get(0);
+		QPJiveHttpClient healthy = this.balancer.getClients().get(1);
+		for ( int i = 0; i < 5; i++ ) {
+			assertEquals(200, failing.execute(new HttpGet(failing.getBaseURL())).getStatus());
+			assertEquals(200, healthy.execute(new HttpGet(healthy.getBaseURL())).getStatus());
+		}
+		
+		this.nodes[0].status = 500;
+		int failures = QPJiveProperties.getEjectionFailures();
+		assertTrue(failures > 1);
+		for ( int i = 1; i < failures; i++ ) {
+			assertEquals(500, failing.execute(new HttpGet(failing.getBaseURL())).getStatus());
+		}
+		assertTrue(failing.isAvailable());
+		assertSame(failing, this.balancer.select());
+		
+		assertEquals(500, failing.execute(new HttpGet(failing.getBaseURL())).getStatus());
+		assertFalse(failing.isAvailable());
+		assertEquals(Long.valueOf(1L), failing.getStatistics().get("ejections"));
+		Map<QPJiveHttpClient, Integer> selected = this.select(100);
+		assertEquals(1, selected.size());
+		assertTrue(selected.containsKey(healthy));
+		
+		this.nodes[1].status = 500;
+		for ( int i = 0; i < failures; i++ ) {
+			assertEquals(500, healthy.execute(new HttpGet(healthy.getBaseURL())).getStatus());
+		}
+		assertFalse(healthy.isAvailable());
+		assertNotNull(this.balancer.select());
+	}
+	
+	private void start(int... delays) throws IOException {
+		
+		this.nodes = new TestNode[delays.length];
+		String[] baseURLs = new String[delays.length];
+		for ( int i = 0; i < delays.length; i++ ) {
+			this.nodes[i] = new TestNode(delays[i]);
+			baseURLs[i] = this.nodes[i].getBaseURL();
+		}
+		this.balancer = QPJiveLoadBalancer.acquire(baseURLs);
+	}
+	
+	private Map<QPJiveHttpClient, Integer> select(int count) {
+		
+		Map<QPJiveHttpClient, Integer> selected = new HashMap<QPJiveHttpClient, Integer>();
+		for ( int i = 0; i < count; i++ ) {
+			QPJiveHttpClient client = this.balancer.select();
+			Integer before = selected.get(client);
+			selected.put(client, Integer.valueOf(before == null ? 1 : before.intValue() + 1));
+		}
+		return selected;
+	}
+	
+	/**
+	 * Jive node answering with the status after the delay.
+	 */
+	private static class TestNode implements HttpHandler {
+		
+		private final HttpServer server;
+		
+		private final ExecutorService executor = Executors.newCachedThreadPool();
+		
+		private final int delay;
+		
+		private volatile int status = 200;
+		
+		TestNode(int delay) throws IOException {
+			
+			this.delay = delay;
+			this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+			this.server.createContext("/", this);
+			this.server.setExecutor(this.executor);
+			this.server.start();
+		}
+		
+		String getBaseURL() {
+			return "http://127.0.0.1:" + this.server.getAddress().getPort() + "/";
+		}
+		
+		void stop() {
+			this.server.stop(0);
+			this.executor.shutdownNow();
+		}
+		
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			
+			try {
+				Thread.sleep(this.delay);
+			} catch ( InterruptedException exc ) {
+				Thread.currentThread().interrupt();
+			}
+			byte[] body = "{}".getBytes("UTF-8");
+			exchange.sendResponseHeaders(this.status, body.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.GSAOneBoxProvider.implementations.jive;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.qperior.gsa.oneboxprovider.implementations.jive.QPJiveRateLimiter;
+import com.qperior.gsa.oneboxprovider.util.QPDeadline;
+
+/**
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPJiveRateLimiterTest {
+	
+	private static class TestRateLimiter extends QPJiveRateLimiter {
+		
+		long now = 1000L;
+		
+		TestRateLimiter(double rate, double burst, double backgroundReserve, long queueTimeout) {
+			super(rate, burst, backgroundReserve, queueTimeout);
+		}
+		
+		@Override
+		protected long currentTime() {
+			return this.now;
+		}
+	}
+	
+	private static double rate(QPJiveRateLimiter limiter) {
+		return ((Double) limiter.getStatistics().get("rate")).doubleValue();
+	}
+	
+	/**
+	 * Background calls are shed when only the reserve is left, live calls take it.
+	 */
+	@Test
+	public void testBackgroundShedFirst() {
+		
+		// practically no refill during the test, 10 tokens, 4.5 of them kept for live calls
+		TestRateLimiter limiter = new TestRateLimiter(0.001, 10, 0.45, 0L);
+		for (int i = 0; i < 6; i++) {
+			assertTrue(limiter.acquire(QPDeadline.NONE, true));
+		}
+		assertFalse(limiter.acquire(QPDeadline.NONE, true));
+		for (int i = 0; i < 4; i++) {
+			assertTrue(limiter.acquire(QPDeadline.NONE, false));
+		}
+		// no token left and no time to wait for one
+		assertFalse(limiter.acquire(QPDeadline.NONE, false));
+		
+		assertEquals(Long.valueOf(1), limiter.getStatistics().get("backgroundShed"));
+		assertEquals(Long.valueOf(1), limiter.getStatistics().get("liveQueued"));
+		assertEquals(Long.valueOf(1), limiter.getStatistics().get("liveRejected"));
+	}
+	
+	/**
+	 * During a pause longer than the queue timeout all calls are rejected.
+	 */
+	@Test
+	public void testPause() {
+		
+		TestRateLimiter limiter = new TestRateLimiter(100, 10, 0.0, 100L);
+		limiter.pause(5000L);
+		assertFalse(limiter.acquire(QPDeadline.NONE, false));
+		assertFalse(limiter.acquire(QPDeadline.NONE, true));
+		assertEquals(Long.valueOf(5000L), limiter.getStatistics().get("pause"));
+		
+		limiter.now += 5000L;
+		assertTrue(limiter.acquire(QPDeadline.NONE, false));
+		assertTrue(limiter.acquire(QPDeadline.NONE, true));
+		assertEquals(Long.valueOf(0L), limiter.getStatistics().get("pause"));
+	}
+	
+	/**
+	 * A rate limited answer halves the rate (down to a twentieth) and pauses the calls, 
+	 * accepted calls raise it by 5 % of the configured rate per second.
+	 */
+	@Test
+	public void testHalvingAndRecovery() {
+		
+		TestRateLimiter limiter = new TestRateLimiter(100, 10, 0.0, 100L);
+		limiter.onRateLimited(0L);
+		assertEquals(50.0, rate(limiter), 0.001);
+		limiter.onRateLimited(2000L);
+		assertEquals(25.0, rate(limiter), 0.001);
+		assertFalse(limiter.acquire(QPDeadline.NONE, false));
+		
+		// within the same second the rate stays
+		limiter.onAccepted();
+		assertEquals(25.0, rate(limiter), 0.001);
+		limiter.now += 2000L;
+		limiter.onAccepted();
+		assertEquals(30.0, rate(limiter), 0.001);
+		for (int i = 0; i < 20; i++) {
+			limiter.now += 1000L;
+			limiter.onAccepted();
+		}
+		assertEquals(100.0, rate(limiter), 0.001);
+		
+		for (int i = 0; i < 10; i++) {
+			limiter.onRateLimited(0L);
+		}
+		assertEquals(5.0, rate(limiter), 0.001);
+		assertEquals(Long.valueOf(12), limiter.getStatistics().get("rateLimitedResponses"));
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.GSAOneBoxProvider.implementations.jive.rest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+import org.apache.commons.configuration.ConfigurationUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.qperior.gsa.oneboxprovider.implementations.jive.rest.QPJiveJsonObject;
+import com.qperior.gsa.oneboxprovider.implementations.jive.rest.QPJiveJsonStreamConverter;
+import com.qperior.gsa.oneboxprovider.results.QPIOneBoxResults;
+import com.qperior.gsa.oneboxprovider.util.QPDeadline;
+
+/**
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPJiveJsonStreamConverterTest {
+	
+	private static String JSON_PREFIX = "throw 'allowIllegalResourceCall is false.';";
+	
+	private String getJSONString(String fileName) {
+		
+		String jsonString = "";
+		
+		try {
+		
+			URL url = ConfigurationUtils.locate(null, fileName);
+			File file = FileUtils.toFile(url);
+			jsonString =  FileUtils.readFileToString(file);
+			
+		} catch (IOException exc) {
+			
+			//nothing
+		}
+		
+		return jsonString;
+	}
+	
+	/**
+	 * The streaming converter has to deliver the same result as the json-lib converter.
+	 */
+	@Test
+	public void testSameResultAsJsonLib() {
+		
+		QPJiveJsonObject jsonLib = new QPJiveJsonObject();
+		QPJiveJsonStreamConverter streaming = new QPJiveJsonStreamConverter(JSON_PREFIX);
+		
+		String[] files = { "data/json_test.txt", "data/json_test2.txt", "data/json_test3.txt" };
+		try {
+			for (int i = 0; i < files.length; i++) {
+				String json = this.getJSONString(files[i]);
+				QPIOneBoxResults expected = jsonLib.convertJsonToResult(json);
+				QPIOneBoxResults actual = streaming.convertJsonToResult(json);
+				assertNotNull(files[i], expected);
+				assertNotNull(files[i], actual);
+				assertTrue(files[i], actual.getNumberOfResults() > 0);
+				assertEquals(files[i], expected.toXMLString(), actual.toXMLString());
+			}
+		}
+		catch (Exception exc) {
+			fail("Exception: " + exc.getLocalizedMessage());
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	@Test
+	public void testPrefixAndEscapes() {
+		
+		QPJiveJsonStreamConverter streaming = new QPJiveJsonStreamConverter(JSON_PREFIX);
+		String json = JSON_PREFIX + "\n{ \"links\" : { \"next\" : \"x\" }, \"data\" : [ null, {" +
+				"\"type\" : \"document\", \"subject\" : \"A \\\"quoted\\\" \\u00e4 subject\", \"likeCount\" : 3," +
+				"\"author\" : { \"name\" : \"Admin\", \"level\" : { \"points\" : [ 1, 2, { \"a\" : true } ] } }," +
+				"\"resources\" : { \"self\" : { \"ref\" : \"http://self\" }, \"html\" : { \"ref\" : \"http://html\", \"allowed\" : [ \"GET\" ] } } } ] }";
+		
+		try {
+			QPIOneBoxResults actual = streaming.convertJsonToResult(json);
+			assertNotNull(actual);
+			assertEquals(1, actual.getNumberOfResults());
+			String xml = actual.toXMLString();
+			assertTrue(xml, xml.contains("<MODULE_RESULT><U>http://html</U><Title>A &quot;quoted&quot; \u00e4 subject</Title>" +
+					"<Field name=\"type\">document</Field><Field name=\"author\">Admin</Field></MODULE_RESULT>"));
+		}
+		catch (Exception exc) {
+			fail("Exception: " + exc.getLocalizedMessage());
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	@Test
+	public void testInvalidJson() {
+		
+		QPJiveJsonStreamConverter streaming = new QPJiveJsonStreamConverter(JSON_PREFIX);
+		assertNull(streaming.convertJsonToResult(JSON_PREFIX));
+		assertNull(streaming.convertJsonToResult("{ \"data\" : [ { \"type\" : "));
+		assertNull(streaming.convertJsonToResult("{ \"links\" : { } }"));
+		
+		assertEquals(JSON_PREFIX.length() + 1, QPJiveJsonStreamConverter.skipPrefix(JSON_PREFIX + " {}", JSON_PREFIX));
+		assertEquals(0, QPJiveJsonStreamConverter.skipPrefix("{}", JSON_PREFIX));
+	}
+	
+	/**
+	 * After the deadline the conversion stops and the results are marked as partial.
+	 */
+	@Test
+	public void testDeadline() {
+		
+		QPJiveJsonStreamConverter streaming = new QPJiveJsonStreamConverter(JSON_PREFIX);
+		try {
+			String json = this.getJSONString("data/json_test3.txt");
+			QPIOneBoxResults complete = streaming.convertJsonToResult(json, QPDeadline.after(60000));
+			assertNotNull(complete);
+			assertFalse(complete.isPartial());
+			assertTrue(complete.getNumberOfResults() > 0);
+			
+			QPDeadline deadline = QPDeadline.after(1);
+			Thread.sleep(5);
+			assertTrue(deadline.isExpired());
+			assertEquals(0, deadline.remaining());
+			QPIOneBoxResults partial = streaming.convertJsonToResult(json, deadline);
+			assertNotNull(partial);
+			assertTrue(partial.isPartial());
+			assertEquals(0, partial.getNumberOfResults());
+			
+			assertFalse(QPDeadline.NONE.isExpired());
+			assertEquals(500, QPDeadline.NONE.limit(500));
+		}
+		catch (Exception exc) {
+			fail("Exception: " + exc.getLocalizedMessage());
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.GSAOneBoxProvider.provider;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.junit.Test;
+
+import com.qperior.gsa.oneboxprovider.provider.QPBulkhead;
+
+/**
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPBulkheadTest {
+	
+	/**
+	 * A saturated bulkhead rejects the call at once, a released slot is taken again.
+	 */
+	@Test
+	public void testCalls() {
+		
+		QPBulkhead bulkhead = new QPBulkhead("com.test.TestProvider", 2, 1, 1);
+		try {
+			assertTrue(bulkhead.tryAcquire());
+			assertTrue(bulkhead.tryAcquire());
+			long start = System.currentTimeMillis();
+			assertFalse(bulkhead.tryAcquire());
+			assertTrue(System.currentTimeMillis() - start < 100L);
+			assertEquals(Integer.valueOf(2), bulkhead.getStatistics().get("activeCalls"));
+			assertEquals(Long.valueOf(1), bulkhead.getStatistics().get("rejected"));
+			
+			bulkhead.release();
+			assertTrue(bulkhead.tryAcquire());
+			bulkhead.release();
+			bulkhead.release();
+			assertEquals(Integer.valueOf(0), bulkhead.getStatistics().get("activeCalls"));
+		} finally {
+			bulkhead.shutdown();
+		}
+	}
+	
+	/**
+	 * With the thread busy and the queue full, the executor rejects the call instead of waiting.
+	 */
+	@Test
+	public void testExecutor() throws Exception {
+		
+		QPBulkhead bulkhead = new QPBulkhead("com.test.TestProvider", 10, 1, 1);
+		final CountDownLatch blocked = new CountDownLatch(1);
+		Runnable task = new Runnable() {
+			
+			@Override
+			public void run() {
+				try {
+					blocked.await();
+				} catch (InterruptedException exc) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		try {
+			if (!(bulkhead.getExecutor() instanceof ThreadPoolExecutor)) {
+				// each call on its own virtual thread
+				return;
+			}
+			bulkhead.getExecutor().execute(task);
+			bulkhead.getExecutor().execute(task);
+			try {
+				bulkhead.getExecutor().execute(task);
+				fail("Saturated executor accepted the call.");
+			} catch (RejectedExecutionException exc) {
+				// expected
+			}
+			assertEquals(Integer.valueOf(1), bulkhead.getStatistics().get("queueDepth"));
+		} finally {
+			blocked.countDown();
+			bulkhead.shutdown();
+		}
+	}
+}
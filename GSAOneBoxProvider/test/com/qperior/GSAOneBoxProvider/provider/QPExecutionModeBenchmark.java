@@ -0,0 +1,312 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.GSAOneBoxProvider.provider;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.configuration.ConfigurationUtils;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.apache.commons.io.FileUtils;
+
+import com.qperior.gsa.oneboxprovider.QPCallParameter;
+import com.qperior.gsa.oneboxprovider.implementations.jive.QPJiveProperties;
+import com.qperior.gsa.oneboxprovider.provider.QPIResultListener;
+import com.qperior.gsa.oneboxprovider.provider.QPProviderExecutor;
+import com.qperior.gsa.oneboxprovider.provider.QPProviderInvoker;
+import com.qperior.gsa.oneboxprovider.provider.QPProviderRegistry;
+import com.qperior.gsa.oneboxprovider.results.QPIOneBoxResults;
+import com.qperior.gsa.oneboxprovider.util.QPProperties;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Compares the provider calls on the platform thread pool (AsyncThreads, AsyncQueueSize) 
+ * and on virtual threads while the latency of Jive rises.
+ * <p>
+ * A local Jive stub answers with the fixture <code>data/json_test.txt</code> after the latency. 
+ * For each execution mode and latency a JVM is started with the properties files of the classpath, 
+ * changed to the execution mode and to the stub. It drives the real {@link QPProviderInvoker} 
+ * with the Jive provider like the servlet in asynchronous mode: all calls are started at once, 
+ * each with its own query. The caches, the rate limits, the circuit breaker and the bulkheads are 
+ * switched off and the connection pool holds all calls, so only the execution mode limits them. 
+ * A first round warms up the JVM and the connections, the second is measured: 
+ * the successful calls per second, the 99th percentile of their latency and the failed calls 
+ * (e.g. rejected by the full queue). Not part of the unit tests, run it with:
+ * <pre>
+ * java com.qperior.GSAOneBoxProvider.provider.QPExecutionModeBenchmark [calls] [latency in ms ...]
+ * </pre>
+ * Virtual threads need Java 21, with an older JVM only the platform threads are measured.
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPExecutionModeBenchmark {
+	
+	private static final String CHILD = "-child";
+	
+	private static final String RESULT = "result";
+	
+	private static volatile long latency;
+	
+	public static void main(String[] args) throws Exception {
+		
+		if (args.length > 0 && CHILD.equals(args[0])) {
+			runCalls(Integer.parseInt(args[1]));
+			return;
+		}
+		int calls = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		long[] latencies = new long[] { 10L, 50L, 200L };
+		if (args.length > 1) {
+			latencies = new long[args.length - 1];
+			for (int i = 1; i < args.length; i++) {
+				latencies[i - 1] = Long.parseLong(args[i]);
+			}
+		}
+		List<String> modes = new ArrayList<String>(Arrays.asList("platform"));
+		if (QPProviderExecutor.createVirtualThreadExecutor() != null) {
+			modes.add(QPProviderExecutor.EXECUTION_MODE_VIRTUAL);
+		}
+		else {
+			System.out.println("Virtual threads are not supported by this JVM, measuring platform threads only.");
+		}
+		
+		HttpServer stub = startStub();
+		List<File> configs = new ArrayList<File>();
+		try {
+			for (String mode : modes) {
+				configs.add(createConfig(mode, stub.getAddress().getPort(), calls));
+			}
+			System.out.println("calls=" + calls + ", AsyncThreads=" + QPProperties.getAsyncThreads() 
+					+ ", AsyncQueueSize=" + QPProperties.getAsyncQueueSize() + ", java " + System.getProperty("java.version"));
+			StringBuilder header = new StringBuilder("latency ms");
+			for (String mode : modes) {
+				header.append('\t').append(mode).append(" calls/s\t").append(mode).append(" p99 ms\t").append(mode).append(" failed");
+			}
+			System.out.println(header);
+			
+			for (long value : latencies) {
+				latency = value;
+				StringBuilder line = new StringBuilder().append(value);
+				for (File config : configs) {
+					line.append('\t').append(runChild(config, calls));
+				}
+				System.out.println(line);
+			}
+		}
+		finally {
+			stub.stop(0);
+			for (File config : configs) {
+				FileUtils.deleteQuietly(config);
+			}
+		}
+	}
+	
+	/**
+	 * Jive stub answering each call with the fixture after the current latency.
+	 */
+	private static HttpServer startStub() throws IOException {
+		
+		File fixture = FileUtils.toFile(ConfigurationUtils.locate(null, QPJiveProperties.getWarmupFixture()));
+		final byte[] body = (QPJiveProperties.getJsonPrefix() + FileUtils.readFileToString(fixture, "UTF-8")).getBytes("UTF-8");
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					Thread.sleep(latency);
+				} catch (InterruptedException exc) {
+					Thread.currentThread().interrupt();
+				}
+				exchange.getResponseHeaders().add("Content-Type", "application/json");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+		return server;
+	}
+	
+	/**
+	 * Directory with the properties files of the classpath, changed to the execution mode and the stub.
+	 */
+	private static File createConfig(String mode, int port, int calls) throws Exception {
+		
+		File dir = File.createTempFile("QPBenchmark-" + mode + "-", "");
+		dir.delete();
+		dir.mkdirs();
+		
+		PropertiesConfiguration provider = new PropertiesConfiguration("GSAOneBoxProvider.properties");
+		provider.setProperty("ExecutionMode", mode);
+		provider.setProperty("ResultCacheEnabled", "false");
+		provider.setProperty("ProviderRateBudget", "0");
+		provider.setProperty("Bulkheads", "false");
+		provider.save(new File(dir, "GSAOneBoxProvider.properties"));
+		
+		PropertiesConfiguration jive = new PropertiesConfiguration("JiveProvider.properties");
+		jive.setProperty("JiveURL", "http://127.0.0.1:" + port + "/api/core/v2/");
+		jive.setProperty("Testmode", "false");
+		jive.setProperty("SingleFlight", "false");
+		jive.setProperty("NegativeCache", "false");
+		jive.setProperty("CircuitBreaker", "false");
+		jive.setProperty("Hedging", "false");
+		jive.setProperty("RateLimit", "0");
+		jive.setProperty("MaxConnectionsTotal", String.valueOf(calls));
+		jive.setProperty("MaxConnectionsPerRoute", String.valueOf(calls));
+		jive.save(new File(dir, "JiveProvider.properties"));
+		return dir;
+	}
+	
+	/**
+	 * Runs the calls in a new JVM finding the properties files in the directory first.
+	 */
+	private static String runChild(File config, int calls) throws Exception {
+		
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		String classpath = config.getAbsolutePath() + File.pathSeparator + System.getProperty("java.class.path");
+		ProcessBuilder builder = new ProcessBuilder(java, "-cp", classpath, 
+				QPExecutionModeBenchmark.class.getName(), CHILD, String.valueOf(calls));
+		builder.directory(config);
+		builder.redirectErrorStream(true);
+		Process process = builder.start();
+		String result = "-\t-\t-";
+		BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+		try {
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				if (line.startsWith(RESULT + '\t')) {
+					result = line.substring(RESULT.length() + 1);
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+		process.waitFor();
+		return result;
+	}
+	
+	/**
+	 * Started in the JVM of a mode: a round to warm up, then the measured round.
+	 */
+	private static void runCalls(int calls) throws Exception {
+		
+		QPProviderRegistry registry = QPProviderRegistry.createRegistry(QPProperties.getProvider(), QPProperties.getSecurityProvider());
+		registry.start();
+		try {
+			runRound(registry, calls, "warmup");
+			System.out.println(RESULT + '\t' + runRound(registry, calls, "benchmark"));
+		}
+		finally {
+			registry.stop();
+			QPProviderExecutor.shutdown();
+		}
+		System.exit(0);
+	}
+	
+	private static String runRound(QPProviderRegistry registry, int calls, String query) throws Exception {
+		
+		final CountDownLatch done = new CountDownLatch(calls);
+		final AtomicInteger succeeded = new AtomicInteger();
+		final long[] durations = new long[calls];
+		long start = System.nanoTime();
+		for (int i = 0; i < calls; i++) {
+			QPProviderInvoker invoker = QPProviderInvoker.createProviderInvoker(registry, 
+					new QPCallParameter(createRequest(query + i)));
+			final int call = i;
+			final long callStart = System.nanoTime();
+			invoker.invokeProviderAsync().addListener(new QPIResultListener() {
+				
+				@Override
+				public void resultAvailable(QPIOneBoxResults results) {
+					if (results.isSuccess()) {
+						durations[call] = System.nanoTime() - callStart;
+						succeeded.incrementAndGet();
+					}
+					done.countDown();
+				}
+				
+				@Override
+				public void resultFailed(Throwable cause) {
+					done.countDown();
+				}
+			});
+		}
+		done.await();
+		double seconds = (System.nanoTime() - start) / 1000000000.0;
+		
+		long[] successful = new long[succeeded.get()];
+		int n = 0;
+		for (long duration : durations) {
+			if (duration > 0 && n < successful.length) {
+				successful[n++] = duration;
+			}
+		}
+		Arrays.sort(successful);
+		long p99 = successful.length > 0 ? successful[(successful.length * 99 - 1) / 100] / 1000000L : 0L;
+		return Math.round(successful.length / seconds) + "\t" + p99 + "\t" + (calls - successful.length);
+	}
+	
+	/**
+	 * A request with the parameter of a search appliance call, like the warmup of the servlet.
+	 */
+	private static HttpServletRequest createRequest(String query) {
+		
+		final Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put("apiMaj", "1");
+		parameters.put("apiMin", "1");
+		parameters.put("authType", "none");
+		parameters.put("lang", "en");
+		parameters.put("oneboxName", "benchmark");
+		parameters.put("query", query);
+		parameters.put("ipAddr", "127.0.0.1");
+		
+		return (HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(), 
+				new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+			
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				
+				if ("getParameter".equals(method.getName())) {
+					return parameters.get(args[0]);
+				}
+				return null;
+			}
+		});
+	}
+}
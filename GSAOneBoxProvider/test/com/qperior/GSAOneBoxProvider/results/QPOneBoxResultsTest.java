@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.GSAOneBoxProvider.results;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+import com.qperior.gsa.oneboxprovider.results.QPModuleResult;
+import com.qperior.gsa.oneboxprovider.results.QPModuleResultField;
+import com.qperior.gsa.oneboxprovider.results.QPOneBoxResults;
+import com.qperior.gsa.oneboxprovider.results.QPResultCode;
+
+/**
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPOneBoxResultsTest {
+	
+	private static String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><OneBoxResults xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:noNamespaceSchemaLocation=\"oneboxresults.xsd\">";
+
+	/**
+	 * 
+	 */
+	@Test
+	public void testWriteToFailure() {
+		
+		try {
+			QPOneBoxResults results = new QPOneBoxResults();
+			results.setFailure(QPResultCode.lookupFailure, "Empty result.", "Dummy Provider (none)");
+			
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			results.writeTo(out);
+			
+			String expected = XML_HEADER + "<resultCode>lookupFailure</resultCode><Diagnostics>Empty result.</Diagnostics><provider>Dummy Provider (none)</provider><totalResults>0</totalResults></OneBoxResults>";
+			assertEquals(expected, out.toString("UTF-8"));
+			assertEquals(expected, results.toXMLString());
+		}
+		catch (Exception exc) {
+			fail("Exception: " + exc.getLocalizedMessage());
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	@Test
+	public void testWriteToResults() {
+		
+		try {
+			QPOneBoxResults results = new QPOneBoxResults("Jive", "All results for the query", "http://jive/search?q=a&b", null);
+			QPModuleResult result = new QPModuleResult("R&D <news> \u00e4\u20ac\ud83d\ude00", "http://jive/docs/1?a=1&b=2");
+			result.addField(new QPModuleResultField("author", "M\u00fcller"));
+			results.addResult(result);
+			
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			results.writeTo(out);
+			
+			String expected = XML_HEADER + "<resultCode>success</resultCode><provider>Jive</provider><totalResults>1</totalResults>" +
+					"<title><urlText>All results for the query</urlText><urlLink>http://jive/search?q=a&amp;b</urlLink></title>" +
+					"<MODULE_RESULT><U>http://jive/docs/1?a=1&amp;b=2</U><Title>R&amp;D &lt;news&gt; \u00e4\u20ac\ud83d\ude00</Title>" +
+					"<Field name=\"author\">M\u00fcller</Field></MODULE_RESULT></OneBoxResults>";
+			assertEquals(expected, out.toString("UTF-8"));
+			assertEquals(expected, results.toXMLString());
+		}
+		catch (Exception exc) {
+			fail("Exception: " + exc.getLocalizedMessage());
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	@Test
+	public void testWriteToTruncation() {
+		
+		try {
+			StringBuffer longText = new StringBuffer();
+			for (int i = 0; i < 300; i++) {
+				longText.append(i % 10);
+			}
+			QPOneBoxResults results = new QPOneBoxResults();
+			results.setFailure(QPResultCode.timeout, longText.toString(), longText.toString());
+			results.setTitle(longText.toString(), "http://jive");
+			
+			String actual = results.toXMLString();
+			assertTrue(actual.contains("<Diagnostics>" + longText.substring(0, 256) + "</Diagnostics>"));
+			assertTrue(actual.contains("<provider>" + longText.substring(0, 128) + "</provider>"));
+			assertTrue(actual.contains("<urlText>" + longText.substring(0, 40) + "</urlText>"));
+		}
+		catch (Exception exc) {
+			fail("Exception: " + exc.getLocalizedMessage());
+		}
+	}
+}
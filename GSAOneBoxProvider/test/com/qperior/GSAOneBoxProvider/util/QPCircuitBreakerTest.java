@@ -0,0 +1,133 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.GSAOneBoxProvider.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.qperior.gsa.oneboxprovider.util.QPCircuitBreaker;
+
+/**
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPCircuitBreakerTest {
+	
+	private static class TestCircuitBreaker extends QPCircuitBreaker {
+		
+		long now = 0L;
+		
+		TestCircuitBreaker() {
+			// window 10, minimum 4 calls, 50% failures, 50% slow calls from 100 ms, open 1000 ms, 2 trial calls
+			super("test", 10, 4, 50, 50, 100L, 1000L, 2);
+		}
+		
+		@Override
+		protected long currentTime() {
+			return this.now;
+		}
+	}
+	
+	/**
+	 * Failures open the circuit, successful trial calls close it again.
+	 */
+	@Test
+	public void testOpenAndClose() {
+		
+		TestCircuitBreaker breaker = new TestCircuitBreaker();
+		assertEquals(QPCircuitBreaker.State.CLOSED, breaker.getState());
+		
+		// below the minimum number of calls
+		for (int i = 0; i < 3; i++) {
+			assertTrue(breaker.tryAcquire());
+			breaker.onFailure(10L);
+		}
+		assertEquals(QPCircuitBreaker.State.CLOSED, breaker.getState());
+		assertTrue(breaker.tryAcquire());
+		breaker.onFailure(10L);
+		assertEquals(QPCircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquire());
+		
+		// half-open after the open duration: only two trial calls pass
+		breaker.now = 1000L;
+		assertEquals(QPCircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertTrue(breaker.tryAcquire());
+		assertTrue(breaker.tryAcquire());
+		assertFalse(breaker.tryAcquire());
+		breaker.onSuccess(10L);
+		assertEquals(QPCircuitBreaker.State.HALF_OPEN, breaker.getState());
+		breaker.onSuccess(10L);
+		assertEquals(QPCircuitBreaker.State.CLOSED, breaker.getState());
+		assertTrue(breaker.tryAcquire());
+		
+		assertEquals(Long.valueOf(1), breaker.getStatistics().get("transitionsToOpen"));
+		assertEquals(Long.valueOf(1), breaker.getStatistics().get("transitionsToClosed"));
+		assertEquals(Long.valueOf(2), breaker.getStatistics().get("rejectedCalls"));
+	}
+	
+	/**
+	 * Slow calls open the circuit, a failed trial call opens it again.
+	 */
+	@Test
+	public void testSlowCalls() {
+		
+		TestCircuitBreaker breaker = new TestCircuitBreaker();
+		for (int i = 0; i < 10; i++) {
+			assertTrue(breaker.tryAcquire());
+			breaker.onSuccess(i % 2 == 0 ? 10L : 50L);
+		}
+		assertEquals(QPCircuitBreaker.State.CLOSED, breaker.getState());
+		
+		// the window slides: 5 of the last 10 calls slow
+		for (int i = 0; i < 5; i++) {
+			assertEquals(QPCircuitBreaker.State.CLOSED, breaker.getState());
+			assertTrue(breaker.tryAcquire());
+			breaker.onSuccess(200L);
+		}
+		assertEquals(QPCircuitBreaker.State.OPEN, breaker.getState());
+		
+		breaker.now = 1500L;
+		assertTrue(breaker.tryAcquire());
+		breaker.onFailure(10L);
+		assertEquals(QPCircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquire());
+		assertEquals(Long.valueOf(2), breaker.getStatistics().get("transitionsToOpen"));
+	}
+	
+	/**
+	 * Aborted calls count as slow calls, not as failures, also if they were short.
+	 */
+	@Test
+	public void testAbortedCalls() {
+		
+		TestCircuitBreaker breaker = new TestCircuitBreaker();
+		for (int i = 0; i < 4; i++) {
+			assertTrue(breaker.tryAcquire());
+			if (i % 2 == 0) {
+				breaker.onSuccess(10L);
+			}
+			else {
+				breaker.onSlowCall();
+			}
+		}
+		assertEquals(Integer.valueOf(0), breaker.getStatistics().get("failureRate"));
+		assertEquals(Integer.valueOf(50), breaker.getStatistics().get("slowCallRate"));
+		assertEquals(QPCircuitBreaker.State.OPEN, breaker.getState());
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.GSAOneBoxProvider.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.qperior.gsa.oneboxprovider.util.QPClientRateLimiter;
+
+/**
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPClientRateLimiterTest {
+	
+	private static class TestLimiter extends QPClientRateLimiter {
+		
+		long now;
+		
+		TestLimiter(double rate, double burst, int maxKeys, long idleTime) {
+			super("test", rate, burst, maxKeys, idleTime);
+		}
+		
+		@Override
+		protected long currentNanos() {
+			return this.now;
+		}
+	}
+	
+	/**
+	 * A key gets its burst at once and then the rate, other keys are not affected.
+	 */
+	@Test
+	public void testRate() {
+		
+		TestLimiter limiter = new TestLimiter(10.0, 3.0, 100, 60000L);
+		assertTrue(limiter.tryAcquire("a"));
+		assertTrue(limiter.tryAcquire("a"));
+		assertTrue(limiter.tryAcquire("a"));
+		assertFalse(limiter.tryAcquire("a"));
+		assertTrue(limiter.tryAcquire("b"));
+		assertTrue(limiter.tryAcquire(null));
+		
+		// 100 ms later one call of a is allowed again
+		limiter.now += 100000000L;
+		assertTrue(limiter.tryAcquire("a"));
+		assertFalse(limiter.tryAcquire("a"));
+		assertEquals(Long.valueOf(2), limiter.getStatistics().get("rejected"));
+	}
+	
+	/**
+	 * The number of keys is bounded, idle keys are dropped.
+	 */
+	@Test
+	public void testBoundedKeys() {
+		
+		TestLimiter limiter = new TestLimiter(10.0, 1.0, 16, 1000L);
+		for (int i = 0; i < 1000; i++) {
+			limiter.tryAcquire("client" + i);
+		}
+		assertTrue(limiter.getKeys() <= 16);
+		assertTrue(((Long) limiter.getStatistics().get("overflowed")).longValue() > 0);
+		
+		limiter.now += 2000000000L;
+		assertTrue(limiter.tryAcquire("new"));
+		assertTrue(((Long) limiter.getStatistics().get("expired")).longValue() > 0);
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.GSAOneBoxProvider.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.qperior.gsa.oneboxprovider.util.QPConcurrencyLimiter;
+import com.qperior.gsa.oneboxprovider.util.QPDeadline;
+
+/**
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPConcurrencyLimiterTest {
+	
+	/**
+	 * Requests over the limit are rejected, fast requests raise the limit.
+	 */
+	@Test
+	public void testLimit() {
+		
+		QPConcurrencyLimiter limiter = new QPConcurrencyLimiter(2, 1, 3, 10000L, 0.5, 0L);
+		QPConcurrencyLimiter.Permit first = limiter.acquire(QPDeadline.NONE);
+		QPConcurrencyLimiter.Permit second = limiter.acquire(QPDeadline.NONE);
+		assertNotNull(first);
+		assertNotNull(second);
+		assertNull(limiter.acquire(QPDeadline.NONE));
+		assertEquals(2, limiter.getInFlight());
+		
+		first.release();
+		first.release();
+		assertEquals(1, limiter.getInFlight());
+		second.release();
+		assertEquals(0, limiter.getInFlight());
+		assertEquals(Long.valueOf(1), limiter.getStatistics().get("rejected"));
+		
+		// the limit grows by about one per round of fast requests, up to the maximum
+		for (int i = 0; i < 20; i++) {
+			QPConcurrencyLimiter.Permit a = limiter.acquire(QPDeadline.NONE);
+			QPConcurrencyLimiter.Permit b = limiter.acquire(QPDeadline.NONE);
+			a.release();
+			b.release();
+		}
+		assertEquals(3, limiter.getLimit());
+	}
+	
+	/**
+	 * A waiting request gets the slot released within the queue timeout.
+	 */
+	@Test
+	public void testQueue() throws Exception {
+		
+		final QPConcurrencyLimiter limiter = new QPConcurrencyLimiter(1, 1, 1, 10000L, 0.5, 5000L);
+		final QPConcurrencyLimiter.Permit first = limiter.acquire(QPDeadline.NONE);
+		Thread releaser = new Thread() {
+			
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException exc) {
+					return;
+				}
+				first.release();
+			}
+		};
+		releaser.start();
+		QPConcurrencyLimiter.Permit second = limiter.acquire(QPDeadline.NONE);
+		assertNotNull(second);
+		assertEquals(Long.valueOf(1), limiter.getStatistics().get("queued"));
+		
+		// no time left in the deadline
+		QPDeadline deadline = QPDeadline.after(1);
+		Thread.sleep(5);
+		assertNull(limiter.acquire(deadline));
+		second.release();
+		releaser.join();
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.GSAOneBoxProvider.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.qperior.gsa.oneboxprovider.util.QPConfigSnapshot;
+
+/**
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPConfigSnapshotTest {
+	
+	/**
+	 * Values and defaults are read from the snapshot, a changed file is detected 
+	 * and read into a new snapshot while the old one keeps its values.
+	 */
+	@Test
+	public void testReload() throws Exception {
+		
+		File file = File.createTempFile("snapshot", ".properties");
+		try {
+			FileUtils.writeStringToFile(file, "Limit=10\nTypes=discussion,document\nEnabled=true\n");
+			QPConfigSnapshot snapshot = new QPConfigSnapshot(file.getAbsolutePath());
+			assertEquals(10, snapshot.getInt("Limit", 5));
+			assertEquals(10, snapshot.getInt("Limit", 5));
+			assertEquals(5, snapshot.getInt("Missing", 5));
+			assertTrue(snapshot.getBoolean("Enabled", false));
+			assertEquals(2, snapshot.getStringArray("Types").length);
+			snapshot.getStringArray("Types")[0] = "changed";
+			assertEquals("discussion", snapshot.getStringArray("Types")[0]);
+			assertFalse(snapshot.isModified());
+			
+			FileUtils.writeStringToFile(file, "Limit=20\n");
+			file.setLastModified(file.lastModified() + 2000L);
+			assertTrue(snapshot.isModified());
+			QPConfigSnapshot reloaded = new QPConfigSnapshot(file.getAbsolutePath());
+			assertEquals(20, reloaded.getInt("Limit", 5));
+			assertEquals(10, snapshot.getInt("Limit", 5));
+			assertFalse(reloaded.isModified());
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2012 Ralf Ovelgoenne, Q_PERIOR AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package com.qperior.GSAOneBoxProvider.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.qperior.gsa.oneboxprovider.util.QPSingleFlight;
+
+/**
+ * 
+ * @author Ralf Ovelgoenne
+ *
+ */
+public class QPSingleFlightTest {
+	
+	/**
+	 * 
+	 */
+	@Test
+	public void testCoalescing() {
+		
+		final QPSingleFlight<String, String> flight = new QPSingleFlight<String, String>("test");
+		final AtomicInteger calls = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(5);
+		
+		try {
+			final Callable<String> slowCall = new Callable<String>() {
+				
+				@Override
+				public String call() throws Exception {
+					calls.incrementAndGet();
+					release.await();
+					return "result";
+				}
+			};
+			List<Future<String>> futures = new ArrayList<Future<String>>();
+			for (int i = 0; i < 5; i++) {
+				futures.add(executor.submit(new Callable<String>() {
+					
+					@Override
+					public String call() throws Exception {
+						return flight.execute("jive", slowCall, 5000L);
+					}
+				}));
+			}
+			// wait until all followers joined the running call
+			long end = System.currentTimeMillis() + 5000L;
+			while (((Long) flight.getStatistics().get("coalesced")).longValue() < 4 && System.currentTimeMillis() < end) {
+				Thread.sleep(10L);
+			}
+			release.countDown();
+			
+			for (Future<String> future : futures) {
+				assertEquals("result", future.get(5, TimeUnit.SECONDS));
+			}
+			assertEquals(1, calls.get());
+			assertEquals(0, flight.getRunningCalls());
+		}
+		catch (Exception exc) {
+			fail("Exception: " + exc.getLocalizedMessage());
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	@Test
+	public void testFollowerTimeout() {
+		
+		final QPSingleFlight<String, String> flight = new QPSingleFlight<String, String>("test");
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		
+		try {
+			executor.submit(new Callable<String>() {
+				
+				@Override
+				public String call() throws Exception {
+					return flight.execute("jive", new Callable<String>() {
+						
+						@Override
+						public String call() throws Exception {
+							started.countDown();
+							release.await();
+							return "result";
+						}
+					}, 5000L);
+				}
+			});
+			started.await(5, TimeUnit.SECONDS);
+			
+			try {
+				flight.execute("jive", new Callable<String>() {
+					
+					@Override
+					public String call() {
+						return "second";
+					}
+				}, 50L);
+				fail("TimeoutException expected.");
+			}
+			catch (TimeoutException texc) {
+				// expected
+			}
+			release.countDown();
+		}
+		catch (Exception exc) {
+			fail("Exception: " + exc.getLocalizedMessage());
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+}